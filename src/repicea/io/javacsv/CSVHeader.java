@@ -48,6 +48,11 @@ public class CSVHeader extends FormatHeader<CSVField> {
 		this(null);
 	}
 
+	/**
+	 * Read the header and count the records. The stream is closed afterwards.
+	 * @param bufferedReader a BufferedReader instance at the beginning of the file
+	 * @throws IOException if the file has no header or if a field name is not acceptable
+	 */
 	protected void read(BufferedReader bufferedReader) throws IOException {
 		String firstLine = bufferedReader.readLine();
 
@@ -55,35 +60,7 @@ public class CSVHeader extends FormatHeader<CSVField> {
 			bufferedReader.close();
 			throw new IOException("The file has no header");
 		} else {
-			String[] splitter = firstLine.split(token);
-			String[] splitter2 = firstLine.split(",");
-
-			if (splitter2.length > splitter.length) {
-				splitter = splitter2;
-				token = ",";
-			}
-
-			List<CSVField> fields = new ArrayList<CSVField>();
-			List<String> fieldNames = new ArrayList<String>();
-			int index = 0;
-			for (String fieldName : splitter) {
-				fieldName = fieldName.replace("\"","");
-				if (fieldName.isEmpty()) {
-					fieldName = "Empty" + index;
-				}
-				if (!Character.isLetter(fieldName.charAt(0))) {
-					throw new IOException("Field name " + fieldName + " is not acceptable. A field name must start with a letter.");
-				}
-				if (fieldNames.contains(fieldName)) {
-					int numberOfTimes = fieldNames.indexOf(fieldName) - fieldNames.indexOf(fieldName) + 1;
-					fieldName = fieldName + numberOfTimes;
-				}
-				fieldNames.add(fieldName);
-				fields.add(new CSVField(fieldName));
-				index++;
-			}
-
-			setFieldList(fields);
+			readFieldNames(firstLine);
 
 			int numberOfLines = 0;
 			while (bufferedReader.readLine() != null) {
@@ -95,6 +72,44 @@ public class CSVHeader extends FormatHeader<CSVField> {
 		
 	}
 
+	/**
+	 * Set the fields from the first line of the file. The token is set to "," if
+	 * this character splits the line into more fields than the current token.
+	 * @param firstLine the first line of the file
+	 * @throws IOException if a field name is not acceptable
+	 */
+	protected void readFieldNames(String firstLine) throws IOException {
+		String[] splitter = firstLine.split(token);
+		String[] splitter2 = firstLine.split(",");
+
+		if (splitter2.length > splitter.length) {
+			splitter = splitter2;
+			token = ",";
+		}
+
+		List<CSVField> fields = new ArrayList<CSVField>();
+		List<String> fieldNames = new ArrayList<String>();
+		int index = 0;
+		for (String fieldName : splitter) {
+			fieldName = fieldName.replace("\"","");
+			if (fieldName.isEmpty()) {
+				fieldName = "Empty" + index;
+			}
+			if (!Character.isLetter(fieldName.charAt(0))) {
+				throw new IOException("Field name " + fieldName + " is not acceptable. A field name must start with a letter.");
+			}
+			if (fieldNames.contains(fieldName)) {
+				int numberOfTimes = fieldNames.indexOf(fieldName) - fieldNames.indexOf(fieldName) + 1;
+				fieldName = fieldName + numberOfTimes;
+			}
+			fieldNames.add(fieldName);
+			fields.add(new CSVField(fieldName));
+			index++;
+		}
+
+		setFieldList(fields);
+	}
+
 	
 	protected String getToken() {return token;}
 	
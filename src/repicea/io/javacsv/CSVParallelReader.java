@@ -0,0 +1,280 @@
+/*
+ * This file is part of the repicea-iotools library.
+ *
+ * Copyright (C) 2009-2021 Mathieu Fortin for Rouge-Epicea
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed with the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * Please see the license at http://www.gnu.org/copyleft/lesser.html.
+ */
+package repicea.io.javacsv;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.security.InvalidParameterException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+import repicea.io.FormatField;
+import repicea.stats.data.ColumnarDataSet;
+import repicea.util.ObjectUtility;
+
+/**
+ * The CSVParallelReader class reads a CSV file into a ColumnarDataSet instance. <br>
+ * <br>
+ * The file is divided into chunks of about the same size whose limits are aligned on the
+ * line breaks. The chunks are parsed in parallel into typed columns and then appended
+ * in their original order. The result is the same as reading the file with a CSVReader
+ * instance. <br>
+ * <br>
+ * The chunks are only possible if the file is not a resource and if a line break
+ * is a single byte in the encoding (e.g. UTF-8 or ISO-8859-1). Otherwise, the file is
+ * read sequentially.
+ */
+public class CSVParallelReader {
+
+	/**
+	 * The default size of the chunks (8 MB).
+	 */
+	public static final int DefaultChunkSize = 8 * 1024 * 1024;
+
+	private final String filename;
+	private final Charset charset;
+	private final int chunkSize;
+
+	/**
+	 * General constructor.
+	 * @param filename the file to read
+	 * @param charset the encoding (null for the default encoding)
+	 * @param chunkSize the approximate size of the chunks in bytes
+	 */
+	public CSVParallelReader(String filename, Charset charset, int chunkSize) {
+		if (chunkSize <= 0) {
+			throw new InvalidParameterException("The chunkSize argument must be positive!");
+		}
+		this.filename = filename;
+		this.charset = charset != null ? charset : Charset.defaultCharset();
+		this.chunkSize = chunkSize;
+	}
+
+	/**
+	 * Constructor with default encoding and chunk size.
+	 * @param filename the file to read
+	 */
+	public CSVParallelReader(String filename) {
+		this(filename, null, DefaultChunkSize);
+	}
+
+	/**
+	 * Read the file with the common pool.
+	 * @return a ColumnarDataSet instance
+	 * @throws IOException if the file cannot be read or if a line has more fields than the header
+	 */
+	public ColumnarDataSet read() throws IOException {
+		return read(ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Read the file with a particular pool.
+	 * @param pool a ForkJoinPool instance
+	 * @return a ColumnarDataSet instance
+	 * @throws IOException if the file cannot be read or if a line has more fields than the header
+	 */
+	@SuppressWarnings("serial")
+	public ColumnarDataSet read(ForkJoinPool pool) throws IOException {
+		File file = new File(filename);
+		if (!file.isFile() || !isLineBreakASingleByte(charset)) {
+			return readSequentially();
+		}
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			long fileSize = channel.size();
+			long headerEnd = findNextLineStart(channel, 0, fileSize);
+			if (headerEnd == 0) {
+				throw new IOException("The file has no header");
+			}
+			CSVHeader header = new CSVHeader();
+			header.readFieldNames(trimLineBreak(decode(channel, 0, headerEnd)));
+			final List<String> fieldNames = getFieldNames(header);
+			final char token = header.getToken().charAt(0);
+
+			final List<ChunkTask> tasks = new ArrayList<ChunkTask>();
+			long start = headerEnd;
+			while (start < fileSize) {
+				long end = Math.min(start + chunkSize, fileSize);
+				if (end < fileSize) {
+					end = findNextLineStart(channel, end - 1, fileSize);
+				}
+				tasks.add(new ChunkTask(channel, start, end, fieldNames, token));
+				start = end;
+			}
+
+			try {
+				return pool.invoke(new RecursiveTask<ColumnarDataSet>() {
+					@Override
+					protected ColumnarDataSet compute() {
+						ForkJoinTask.invokeAll(tasks);
+						ColumnarDataSet dataSet = new ColumnarDataSet(fieldNames);
+						for (ChunkTask task : tasks) {
+							dataSet.append(task.join());
+						}
+						dataSet.indexFieldType();
+						return dataSet;
+					}
+				});
+			} catch (UncheckedIOException e) {
+				throw e.getCause();
+			}
+		}
+	}
+
+	private ColumnarDataSet readSequentially() throws IOException {
+		CSVReader reader = new CSVReader(filename, charset);
+		try {
+			ColumnarDataSet dataSet = new ColumnarDataSet(getFieldNames(reader.getHeader()));
+			Object[] record;
+			while ((record = reader.nextRecord()) != null) {
+				dataSet.addObservation(record);
+			}
+			dataSet.indexFieldType();
+			return dataSet;
+		} finally {
+			reader.close();
+		}
+	}
+
+	private static List<String> getFieldNames(CSVHeader header) {
+		List<String> fieldNames = new ArrayList<String>();
+		for (int i = 0; i < header.getNumberOfFields(); i++) {
+			FormatField field = header.getField(i);
+			fieldNames.add(field.getName());
+		}
+		return fieldNames;
+	}
+
+	private static boolean isLineBreakASingleByte(Charset charset) {
+		return charset.equals(StandardCharsets.UTF_8) || (charset.canEncode() && charset.newEncoder().maxBytesPerChar() == 1f);
+	}
+
+	/**
+	 * Find the first line that starts after a particular position. A line starts after a \n,
+	 * or after a \r that is not followed by a \n.
+	 * @return the position of the first byte of the line or the size of the file
+	 */
+	private static long findNextLineStart(FileChannel channel, long position, long fileSize) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(8 * 1024);
+		boolean previousWasCarriageReturn = false;
+		long currentPosition = position;
+		while (currentPosition < fileSize) {
+			buffer.clear();
+			int nbBytesRead = channel.read(buffer, currentPosition);
+			if (nbBytesRead <= 0) {
+				break;
+			}
+			for (int k = 0; k < nbBytesRead; k++) {
+				byte b = buffer.get(k);
+				if (previousWasCarriageReturn) {
+					return b == '\n' ? currentPosition + k + 1 : currentPosition + k;
+				} else if (b == '\n') {
+					return currentPosition + k + 1;
+				} else if (b == '\r') {
+					previousWasCarriageReturn = true;
+				}
+			}
+			currentPosition += nbBytesRead;
+		}
+		return fileSize;
+	}
+
+	private CharBuffer decode(FileChannel channel, long start, long end) throws IOException {
+		return charset.decode(channel.map(FileChannel.MapMode.READ_ONLY, start, end - start));
+	}
+
+	private static String trimLineBreak(CharBuffer chars) {
+		String str = chars.toString();
+		int length = str.length();
+		while (length > 0 && (str.charAt(length - 1) == '\n' || str.charAt(length - 1) == '\r')) {
+			length--;
+		}
+		return str.substring(0, length);
+	}
+
+	/**
+	 * Parse the lines of a chunk into a ColumnarDataSet instance.
+	 */
+	@SuppressWarnings("serial")
+	private class ChunkTask extends RecursiveTask<ColumnarDataSet> {
+
+		private final FileChannel channel;
+		private final long start;
+		private final long end;
+		private final List<String> fieldNames;
+		private final char token;
+
+		private ChunkTask(FileChannel channel, long start, long end, List<String> fieldNames, char token) {
+			this.channel = channel;
+			this.start = start;
+			this.end = end;
+			this.fieldNames = fieldNames;
+			this.token = token;
+		}
+
+		@Override
+		protected ColumnarDataSet compute() {
+			try {
+				CharBuffer charBuffer = decode(channel, start, end);
+				char[] chars;
+				int offset;
+				if (charBuffer.hasArray()) {
+					chars = charBuffer.array();
+					offset = charBuffer.arrayOffset() + charBuffer.position();
+				} else {
+					chars = new char[charBuffer.remaining()];
+					charBuffer.get(chars);
+					offset = 0;
+				}
+				int limit = offset + charBuffer.remaining();
+				int nbFields = fieldNames.size();
+				ColumnarDataSet dataSet = new ColumnarDataSet(fieldNames);
+				int lineStart = offset;
+				int k = offset;
+				while (lineStart < limit) {
+					while (k < limit && chars[k] != '\n' && chars[k] != '\r') {
+						k++;
+					}
+					List<String> splitter = ObjectUtility.splitLine(chars, lineStart, k - lineStart, token);
+					if (splitter.size() > nbFields) {
+						throw new IOException("The number of fields in this line is larger than the number of fields in the header: line " + (dataSet.getNumberOfObservations() + 1) + " of the chunk starting at byte " + start + ".");
+					}
+					dataSet.addObservation(splitter.toArray());
+					if (k < limit && chars[k] == '\r' && k + 1 < limit && chars[k + 1] == '\n') {
+						k++;
+					}
+					k++;
+					lineStart = k;
+				}
+				return dataSet;
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+	}
+}
@@ -18,19 +18,46 @@
  */
 package repicea.io.javacsv;
 
-import java.io.BufferedReader;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.Reader;
 import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.security.InvalidParameterException;
 import java.util.List;
 
 import repicea.io.FormatReader;
 import repicea.util.ObjectUtility;
 
+/**
+ * The CSVReader class reads a CSV file record by record. <br>
+ * <br>
+ * The characters are read into a buffer and the fields are split directly from this 
+ * buffer. The number of records is only counted if the getRecordCount method is called. <br>
+ * <br>
+ * If the file is not a resource and its encoding is either UTF-8 or a single-byte encoding, the 
+ * reader keeps track of the byte offset of each record. This offset can be used to get back to this 
+ * record later on through the seek method.
+ */
 public class CSVReader extends FormatReader<CSVHeader> {
 
-	private BufferedReader bufferedReader;
+	private static final int BufferSize = 64 * 1024;
+	
+	private Reader reader;
 	private final Charset currentCharset;
+	private final char[] buffer;
+	private int bufferPosition;
+	private int bufferLimit;
+	private boolean skipLineFeed;
+	private char[] line;
+	private int lineLength;
+	private boolean isRecordCountKnown;
+	private final boolean isUTF8;
+	private final boolean areOffsetsTracked;
+	private boolean areOffsetsReliable;
+	private long bytePosition;
+	private long lineOffset;
 
 	/**
 	 * Constructor with default encoding
@@ -54,36 +81,177 @@ public class CSVReader extends FormatReader<CSVHeader> {
 		} else {
 			currentCharset = Charset.defaultCharset();
 		}
+		isUTF8 = currentCharset.equals(StandardCharsets.UTF_8);
+		areOffsetsTracked = !isSystemResource() && 
+				(isUTF8 || (currentCharset.canEncode() && currentCharset.newEncoder().maxBytesPerChar() == 1f));
+		buffer = new char[BufferSize];
+		line = new char[256];
 		reset();
 	}
 
 	@Override
 	public void reset() throws IOException {
-		if (bufferedReader != null) {
+		if (reader != null) {
 			close();
 		}
-		bufferedReader = openReader();
-		setFormatHeader(new CSVHeader());
-		getHeader().read(bufferedReader);
-		bufferedReader = openReader();		// reopen the stream because the header has read the whole file
-		bufferedReader.readLine();			// skip the first line which is the header
+		reader = new InputStreamReader(openStream(), currentCharset);
+		bufferPosition = 0;
+		bufferLimit = 0;
+		skipLineFeed = false;
+		bytePosition = 0;
+		areOffsetsReliable = areOffsetsTracked;
+		CSVHeader header = new CSVHeader();
+		if (!readLine()) {
+			reader.close();
+			throw new IOException("The file has no header");
+		}
+		header.readFieldNames(new String(line, 0, lineLength));
+		setFormatHeader(header);
+		isRecordCountKnown = false;
 		linePointer = 0;
 		isClosed = false;
 	}
 	
+	/**
+	 * Read the next line into the line array. The line terminators are the same as 
+	 * those of the BufferedReader.readLine method.
+	 * @return false if the end of the stream has been reached
+	 * @throws IOException
+	 */
+	private boolean readLine() throws IOException {
+		lineLength = 0;
+		boolean anyCharRead = false;
+		while (true) {
+			if (bufferPosition >= bufferLimit) {
+				bufferLimit = reader.read(buffer, 0, buffer.length);
+				bufferPosition = 0;
+				if (bufferLimit <= 0) {
+					bufferLimit = 0;
+					return anyCharRead;
+				}
+			}
+			if (skipLineFeed) {
+				skipLineFeed = false;
+				if (buffer[bufferPosition] == '\n') {
+					bufferPosition++;
+					bytePosition++;
+					continue;
+				}
+			}
+			if (!anyCharRead && lineLength == 0) {
+				lineOffset = bytePosition;
+			}
+			int start = bufferPosition;
+			int nbExtraBytes = 0;
+			while (bufferPosition < bufferLimit) {
+				char c = buffer[bufferPosition];
+				if (c == '\n' || c == '\r') {
+					appendToLine(start, bufferPosition - start);
+					bufferPosition++;
+					bytePosition += bufferPosition - start + nbExtraBytes;
+					skipLineFeed = c == '\r';
+					return true;
+				} else if (c >= 0x80 && isUTF8) {
+					nbExtraBytes += getNumberOfExtraBytesInUTF8(c);
+				}
+				bufferPosition++;
+			}
+			appendToLine(start, bufferPosition - start);
+			bytePosition += bufferPosition - start + nbExtraBytes;
+			anyCharRead |= bufferPosition > start;
+		}
+	}
 	
+	/*
+	 * A surrogate pair is encoded in four bytes, that is one extra byte for each of the two chars. 
+	 * The replacement char is produced by malformed input whose length is unknown, so that the offsets
+	 * that follow cannot be trusted anymore.
+	 */
+	private int getNumberOfExtraBytesInUTF8(char c) {
+		if (c < 0x800 || Character.isSurrogate(c)) {
+			return 1;
+		} else {
+			if (c == '\uFFFD') {
+				areOffsetsReliable = false;
+			}
+			return 2;
+		}
+	}
+	
+	private void appendToLine(int start, int length) {
+		if (lineLength + length > line.length) {
+			char[] newLine = new char[Math.max(lineLength + length, line.length * 2)];
+			System.arraycopy(line, 0, newLine, 0, lineLength);
+			line = newLine;
+		}
+		System.arraycopy(buffer, start, line, lineLength, length);
+		lineLength += length;
+	}
+	
+	/**
+	 * {@inheritDoc} <br>
+	 * <br>
+	 * The records are counted on the first call to this method, which implies reading the whole file.
+	 */
+	@Override
+	public int getRecordCount() {
+		if (!isRecordCountKnown) {
+			try {
+				getHeader().setNumberOfRecords(countRecords());
+				isRecordCountKnown = true;
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+		return super.getRecordCount();
+	}
+
+	private int countRecords() throws IOException {
+		Reader countingReader = new InputStreamReader(openStream(), currentCharset);
+		try {
+			char[] countingBuffer = new char[BufferSize];
+			int numberOfLines = 0;
+			boolean isLineOpened = false;
+			boolean previousWasCarriageReturn = false;
+			int nbCharsRead;
+			while ((nbCharsRead = countingReader.read(countingBuffer, 0, countingBuffer.length)) > 0) {
+				for (int k = 0; k < nbCharsRead; k++) {
+					char c = countingBuffer[k];
+					if (c == '\n') {
+						if (!previousWasCarriageReturn) {
+							numberOfLines++;
+						}
+						isLineOpened = false;
+						previousWasCarriageReturn = false;
+					} else if (c == '\r') {
+						numberOfLines++;
+						isLineOpened = false;
+						previousWasCarriageReturn = true;
+					} else {
+						isLineOpened = true;
+						previousWasCarriageReturn = false;
+					}
+				}
+			}
+			if (isLineOpened) {
+				numberOfLines++;
+			}
+			return Math.max(numberOfLines - 1, 0);		// the first line is the header
+		} finally {
+			countingReader.close();
+		}
+	}
 	
 	@Override
 	public Object[] nextRecord(int skipThisNumberOfLines) throws IOException {
 		int numberOfLinesSkipped = 0;
 		while (numberOfLinesSkipped < skipThisNumberOfLines) {
-			bufferedReader.readLine();
+			readLine();
 			numberOfLinesSkipped++;
 			linePointer++;
 		}
-		String line = bufferedReader.readLine();
-		if (line != null) {								
-			List<String> splitter = ObjectUtility.splitLine(line, getHeader().getToken());
+		if (readLine()) {								
+			List<String> splitter = ObjectUtility.splitLine(line, 0, lineLength, getHeader().getToken().charAt(0));
 			if (splitter.size() > getFieldCount()) {
 				throw new IOException("The number of fields in this line is larger than the number of fields in the header: line " + (linePointer + 1) + ".");
 			}
@@ -95,16 +263,60 @@ public class CSVReader extends FormatReader<CSVHeader> {
 	}
 	
 	
-	private BufferedReader openReader() throws IOException {
-		InputStreamReader inputStreamReader = new InputStreamReader(openStream(), currentCharset);
-		return new BufferedReader(inputStreamReader);
+	/**
+	 * Provide the charset used to decode the file.
+	 * @return a Charset instance
+	 */
+	public Charset getCharset() {
+		return currentCharset;
+	}
+
+	/**
+	 * Provide the byte offset of the last record returned by the nextRecord method. 
+	 * @return a long or -1 if the offsets are not available for this file
+	 */
+	public long getOffsetOfLastRecord() {
+		return areOffsetsReliable && linePointer > 0 ? lineOffset : -1;
+	}
+
+	/**
+	 * Move the reader to a particular record. The next call to the nextRecord method returns this record.
+	 * @param byteOffset the byte offset of the record as provided by the getOffsetOfLastRecord method
+	 * @param recordIndex the index of the record (0 for the first record after the header)
+	 * @throws IOException if the file cannot be reopened
+	 * @throws UnsupportedOperationException if the offsets are not available for this file
+	 */
+	public void seek(long byteOffset, int recordIndex) throws IOException {
+		if (!areOffsetsTracked) {
+			throw new UnsupportedOperationException("The offsets are not available for this file!");
+		}
+		if (byteOffset <= 0 || recordIndex < 0) {
+			throw new InvalidParameterException("The byteOffset and recordIndex arguments must be positive!");
+		}
+		if (reader != null) {
+			reader.close();
+		}
+		FileInputStream fis = new FileInputStream(getFilename());
+		try {
+			fis.getChannel().position(byteOffset);
+		} catch (IOException e) {
+			fis.close();
+			throw e;
+		}
+		reader = new InputStreamReader(fis, currentCharset);
+		bufferPosition = 0;
+		bufferLimit = 0;
+		skipLineFeed = false;
+		bytePosition = byteOffset;
+		areOffsetsReliable = true;
+		linePointer = recordIndex;
+		isClosed = false;
 	}
-	
 	
 	@Override
 	protected void closeInternalStream() {
 		try {
-			bufferedReader.close();
+			reader.close();
 		} catch (IOException e) {}
 	}
 	
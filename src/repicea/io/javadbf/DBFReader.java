@@ -13,9 +13,16 @@
 
 package repicea.io.javadbf;
 
+import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
-import java.io.EOFException;
+import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
 import java.util.GregorianCalendar;
 
 import repicea.io.FormatReader;
@@ -31,8 +38,13 @@ import repicea.io.FormatReader;
 	use DBFWriter.
 
 	<p>
-	Fetching rocord is possible only in the forward direction and 
-	cannot re-wound. In such situation, a suggested approach is to reconstruct the object.
+	The records have a fixed length. The file is mapped in memory and any record can be 
+	reached directly, either by skipping lines in the nextRecord method or through the 
+	getRecord method. The record indices do not include the deleted records. The numeric
+	fields can be decoded into primitives and a projection restricts the fields that
+	are decoded. The reader is not closed when the nextRecord method reaches the end of
+	the data, so that the records can still be reached through the getRecord method. The
+	close method must be called once the reader is no longer needed.
 
 	<p>
 	The nextRecord() method returns an array of Objects and the types of these
@@ -47,10 +59,10 @@ import repicea.io.FormatReader;
 		<td>C</td><td>String</td>
 	</tr>
 	<tr>
-		<td>N</td><td>Integer</td>
+		<td>N</td><td>Double</td>
 	</tr>
 	<tr>
-		<td>F</td><td>Double</td>
+		<td>F</td><td>Float</td>
 	</tr>
 	<tr>
 		<td>L</td><td>Boolean</td>
@@ -63,12 +75,27 @@ import repicea.io.FormatReader;
 */
 public class DBFReader extends FormatReader<DBFHeader> {
 
-	protected DataInputStream dataInputStream;
+	private static final byte END_OF_DATA = 0x1A;
+	
+	private static final byte DELETED = '*';
 
-	private final int END_OF_DATA = 0x1A;
+	private static final double[] POWERS_OF_TEN = new double[] {1E0, 1E1, 1E2, 1E3, 1E4, 1E5, 1E6, 1E7, 1E8, 1E9, 1E10, 1E11, 
+			1E12, 1E13, 1E14, 1E15, 1E16, 1E17, 1E18, 1E19, 1E20, 1E21, 1E22};
+	
+	private static final long MAXIMUM_EXACT_MANTISSA = 1L << 53;
 
 	private String characterSetName = "8859_1";
 
+	private FileChannel channel;
+	private ByteBuffer[] segments;
+	private int recordsPerSegment;
+	private int recordLength;
+	private int nbAvailableRecords;
+	private int[] fieldOffsets;
+	private boolean[] isFieldProjected;
+	private int[] physicalIndices;		// the physical index of each record that is not deleted, null if the records have not been indexed yet
+	private int physicalPointer;
+	private byte[] fieldBuffer;
 	
 	/**
 		Initializes a DBFReader object.
@@ -90,22 +117,146 @@ public class DBFReader extends FormatReader<DBFHeader> {
 	}
 	
 	public void reset() throws IOException {
-		if (dataInputStream != null) {
-			close();
-		}
-		dataInputStream = new DataInputStream(openStream());
-		setFormatHeader(new DBFHeader());
-		getHeader().read(this.dataInputStream);
-
-		/* it might be required to leap to the start of records at times */
-		int t_dataStartIndex = getHeader().headerLength - (32 + (32 * getFieldCount())) - 1;
-		if(t_dataStartIndex > 0) {
-			dataInputStream.skip( t_dataStartIndex);
+		if (segments == null) {
+			open();
 		}
 		linePointer = 0;
+		physicalPointer = 0;
 		isClosed = false;
 	}
 
+	private void open() throws IOException {
+		DataInputStream dataInputStream = new DataInputStream(openStream());
+		try {
+			setFormatHeader(new DBFHeader());
+			getHeader().read(dataInputStream);
+		} finally {
+			dataInputStream.close();
+		}
+		recordLength = getHeader().recordLength;
+		int dataStart = getHeader().headerLength;
+
+		fieldOffsets = new int[getFieldCount()];
+		int offset = 1;		// the first byte is the deletion flag
+		int maxFieldLength = 0;
+		for (int i = 0; i < getFieldCount(); i++) {
+			fieldOffsets[i] = offset;
+			offset += getField(i).getFieldLength();
+			maxFieldLength = Math.max(maxFieldLength, getField(i).getFieldLength());
+		}
+		fieldBuffer = new byte[maxFieldLength];
+		isFieldProjected = null;
+		physicalIndices = null;
+
+		long dataLength;
+		if (isSystemResource()) {
+			byte[] content = readResource(dataStart);
+			dataLength = content.length;
+			recordsPerSegment = Integer.MAX_VALUE;
+			segments = new ByteBuffer[] {ByteBuffer.wrap(content)};
+		} else {
+			channel = FileChannel.open(new File(getFilename()).toPath(), StandardOpenOption.READ);
+			dataLength = Math.max(channel.size() - dataStart, 0);
+			recordsPerSegment = Math.max(Integer.MAX_VALUE / Math.max(recordLength, 1), 1);
+			int nbSegments = (int) ((dataLength / Math.max(recordLength, 1)) / recordsPerSegment) + 1;
+			segments = new ByteBuffer[nbSegments];
+		}
+		nbAvailableRecords = recordLength > 0 ? (int) Math.min(getHeader().getNumberOfRecords(), dataLength / recordLength) : 0;
+	}
+	
+	private byte[] readResource(int dataStart) throws IOException {
+		InputStream in = openStream();
+		try {
+			long nbBytesSkipped = 0;
+			while (nbBytesSkipped < dataStart) {
+				long n = in.skip(dataStart - nbBytesSkipped);
+				if (n <= 0) {
+					break;
+				}
+				nbBytesSkipped += n;
+			}
+			ByteArrayOutputStream bos = new ByteArrayOutputStream();
+			byte[] buffer = new byte[64 * 1024];
+			int n;
+			while ((n = in.read(buffer)) > 0) {
+				bos.write(buffer, 0, n);
+			}
+			return bos.toByteArray();
+		} finally {
+			in.close();
+		}
+	}
+	
+	/**
+	 * Provide the buffer that contains a particular record. The segments of the file 
+	 * are mapped on demand.
+	 */
+	private ByteBuffer getSegment(int physicalIndex) throws IOException {
+		int segmentIndex = physicalIndex / recordsPerSegment;
+		if (segments[segmentIndex] == null) {
+			long start = getHeader().headerLength + (long) segmentIndex * recordsPerSegment * recordLength;
+			long length = Math.min((long) recordsPerSegment * recordLength, channel.size() - start);
+			segments[segmentIndex] = channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+		}
+		return segments[segmentIndex];
+	}
+
+	private int getPositionInSegment(int physicalIndex) {
+		return (physicalIndex % recordsPerSegment) * recordLength;
+	}
+	
+	private byte getDeletionFlag(int physicalIndex) throws IOException {
+		return getSegment(physicalIndex).get(getPositionInSegment(physicalIndex));
+	}
+	
+	/**
+	 * Map the records to their physical indices, the deleted records excluded. This is done once 
+	 * and only if a record is to be reached without reading the records that precede it.
+	 */
+	private void indexRecords() throws IOException {
+		int[] indices = new int[nbAvailableRecords];
+		int nbRecords = 0;
+		for (int i = 0; i < nbAvailableRecords; i++) {
+			byte flag = getDeletionFlag(i);
+			if (flag == END_OF_DATA) {
+				nbAvailableRecords = i;
+				break;
+			} else if (flag != DELETED) {
+				indices[nbRecords++] = i;
+			}
+		}
+		physicalIndices = nbRecords == indices.length ? indices : Arrays.copyOf(indices, nbRecords);
+	}
+	
+	/**
+	 * Convert a record index into the physical index of the record in the file.
+	 * @return the physical index or -1 if there is no such record
+	 */
+	private int getPhysicalIndex(int recordIndex) throws IOException {
+		if (physicalIndices == null) {
+			indexRecords();
+		}
+		return recordIndex >= 0 && recordIndex < physicalIndices.length ? physicalIndices[recordIndex] : -1;
+	}
+	
+	/**
+	 * Move the physical pointer to the next record that is not deleted.
+	 * @return false if the end of the data has been reached
+	 */
+	private boolean moveToNextValidRecord() throws IOException {
+		while (physicalPointer < nbAvailableRecords) {
+			byte flag = getDeletionFlag(physicalPointer);
+			if (flag == END_OF_DATA) {
+				nbAvailableRecords = physicalPointer;
+				return false;
+			} else if (flag != DELETED) {
+				return true;
+			}
+			physicalPointer++;
+		}
+		return false;
+	}
+	
 	/* 
 	 If the library is used in a non-latin environment use this method to set 
 	 corresponding character set. More information: 
@@ -116,7 +267,21 @@ public class DBFReader extends FormatReader<DBFHeader> {
 
 	public void setCharactersetName(String characterSetName) {this.characterSetName = characterSetName;}
 
-	
+	/**
+	 * Restrict the fields that are decoded by the nextRecord and getRecord methods. The
+	 * other fields are set to null in the arrays returned by these methods.
+	 * @param fieldIndices the indices of the fields to be decoded (none to decode all the fields)
+	 */
+	public void setProjection(int... fieldIndices) {
+		if (fieldIndices == null || fieldIndices.length == 0) {
+			isFieldProjected = null;
+		} else {
+			isFieldProjected = new boolean[getFieldCount()];
+			for (int fieldIndex : fieldIndices) {
+				isFieldProjected[fieldIndex] = true;
+			}
+		}
+	}
 	
 	public String toString() {
 
@@ -153,132 +318,276 @@ public class DBFReader extends FormatReader<DBFHeader> {
 		Reads the returns the next row in the DBF stream.
 		@return The next row as an Object array. Types of the elements 
 		these arrays follow the convention mentioned in the class description.
+		It returns null once the end of the data is reached. The reader is not closed then.
 	*/
 	public Object[] nextRecord(int skipThisNumberOfLines) throws DBFException {
 		try {
-			int rowToReachBeforeReading = linePointer + skipThisNumberOfLines;
-			Object recordObjects[] = new Object[getFieldCount()];
-			boolean isDeleted = false;
-			boolean wentThroughLoopOnce = false;
-//			int lineCddount = 0;
-			do {
-				if (isDeleted || wentThroughLoopOnce) {
-					if (isDeleted)
-						dataInputStream.skip(getHeader().recordLength - 1);
-					else if (linePointer < rowToReachBeforeReading) {
-						dataInputStream.skip(getHeader().recordLength - 1);
-						linePointer++;
-					}
-				}
-	
-				int t_byte = dataInputStream.readByte();
-				if( t_byte == END_OF_DATA) {
+			if (skipThisNumberOfLines > 0) {
+				int physicalIndex = getPhysicalIndex(linePointer + skipThisNumberOfLines);
+				if (physicalIndex == -1) {
 					return null;
 				}
-
-				wentThroughLoopOnce = true;						// make sure the process went through this loop before checking 
-				isDeleted = (t_byte == '*');
-			} while (isDeleted || linePointer < rowToReachBeforeReading);
+				physicalPointer = physicalIndex;
+				linePointer += skipThisNumberOfLines;
+			} else if (!moveToNextValidRecord()) {
+				return null;
+			}
+			Object[] recordObjects = decodeRecord(physicalPointer);
+			physicalPointer++;
+			linePointer++;
+			return recordObjects;
+		} catch (IOException e) {
+			close();
+			throw new DBFException(e.getMessage());
+		}
+	}
 	
-			for (int i = 0; i < getFieldCount(); i++) {
-				switch (getHeader().getField(i).getDataType()) {
-				case 'C':
-					byte b_array[] = new byte[getHeader().getField(i).getFieldLength()];
-					dataInputStream.read( b_array);
-					recordObjects[i] = new String( b_array, characterSetName);
-					break;
-				case 'D':
-					byte t_byte_year[] = new byte[ 4];
-					dataInputStream.read( t_byte_year);
-					byte t_byte_month[] = new byte[ 2];
-					dataInputStream.read( t_byte_month);
-					byte t_byte_day[] = new byte[ 2];
-					dataInputStream.read( t_byte_day);
-					try {
-						GregorianCalendar calendar = new GregorianCalendar( 
-								Integer.parseInt(new String(t_byte_year)),
-								Integer.parseInt(new String(t_byte_month)) - 1,
-								Integer.parseInt(new String(t_byte_day))
-								);
-						recordObjects[i] = calendar.getTime();
-					} catch (NumberFormatException e) {
-						/* this field may be empty or may have improper value set */
-						recordObjects[i] = null;
-					}
-
-					break;
+	/**
+	 * Read a particular record without moving the pointer of the nextRecord method.
+	 * @param recordIndex the index of the record, the deleted records excluded
+	 * @return an array of Object instances or null if there is no such record
+	 * @throws DBFException if the record cannot be read
+	 */
+	public Object[] getRecord(int recordIndex) throws DBFException {
+		try {
+			int physicalIndex = getPhysicalIndex(recordIndex);
+			return physicalIndex == -1 ? null : decodeRecord(physicalIndex);
+		} catch (IOException e) {
+			throw new DBFException(e.getMessage());
+		}
+	}
 	
-				case 'F':
-					try {
-
-						byte t_float[] = new byte[getHeader().getField(i).getFieldLength()];
-						dataInputStream.read( t_float);
-						t_float = Utils.trimLeftSpaces( t_float);
-						if (t_float.length > 0 && !Utils.contains( t_float, (byte)'?')) {
-							recordObjects[i] = new Float( new String( t_float));
-						} else {
-
-							recordObjects[i] = null;
-						}
-					} catch (NumberFormatException e) {
-						throw new DBFException( "Failed to parse Float: " + e.getMessage());
-					}
-					break;
+	/**
+	 * Decode a numeric field of a particular record into a primitive.
+	 * @param recordIndex the index of the record, the deleted records excluded
+	 * @param fieldIndex the index of a N or F field
+	 * @return a double or NaN if the field is empty
+	 * @throws DBFException if the record cannot be read or if the field is not numeric
+	 */
+	public double getNumericValue(int recordIndex, int fieldIndex) throws DBFException {
+		try {
+			int physicalIndex = getPhysicalIndex(recordIndex);
+			if (physicalIndex == -1) {
+				throw new DBFException("There is no record at index " + recordIndex);
+			}
+			return decodeNumericValue(physicalIndex, fieldIndex);
+		} catch (IOException e) {
+			throw new DBFException(e.getMessage());
+		}
+	}
 	
-				case 'N':
-					try {
-						byte t_numeric[] = new byte[getHeader().getField(i).getFieldLength()];
-						dataInputStream.read( t_numeric);
-						t_numeric = Utils.trimLeftSpaces( t_numeric);
-
-						if( t_numeric.length > 0 && !Utils.contains( t_numeric, (byte)'?')) {
-							recordObjects[i] = new Double( new String( t_numeric));
-						} else {
-							recordObjects[i] = null;
-						}
-					} catch (NumberFormatException e) {
-						throw new DBFException( "Failed to parse Number: " + e.getMessage());
-					}
+	/**
+	 * Decode a numeric field of all the records into an array of primitives. Only the bytes of this
+	 * field are read.
+	 * @param fieldIndex the index of a N or F field
+	 * @return an array of doubles with NaN for the empty values
+	 * @throws DBFException if the file cannot be read or if the field is not numeric
+	 */
+	public double[] getNumericField(int fieldIndex) throws DBFException {
+		try {
+			if (physicalIndices == null) {
+				indexRecords();
+			}
+			double[] values = new double[physicalIndices.length];
+			for (int i = 0; i < values.length; i++) {
+				values[i] = decodeNumericValue(physicalIndices[i], fieldIndex);
+			}
+			return values;
+		} catch (IOException e) {
+			throw new DBFException(e.getMessage());
+		}
+	}
 
-					break;
+	private double decodeNumericValue(int physicalIndex, int fieldIndex) throws IOException {
+		byte dataType = getField(fieldIndex).getDataType();
+		if (dataType != DBFField.FIELD_TYPE_N && dataType != DBFField.FIELD_TYPE_F) {
+			throw new DBFException("The field " + getField(fieldIndex).getName() + " is not numeric!");
+		}
+		int length = readField(physicalIndex, fieldIndex);
+		int start = skipLeftSpaces(length);
+		if (start == length || contains(start, length, (byte) '?')) {
+			return Double.NaN;
+		} else {
+			return parseDouble(start, length);
+		}
+	}
+	
+	/**
+	 * Copy the bytes of a field into the field buffer.
+	 * @return the length of the field
+	 */
+	private int readField(int physicalIndex, int fieldIndex) throws IOException {
+		ByteBuffer segment = getSegment(physicalIndex);
+		int position = getPositionInSegment(physicalIndex) + fieldOffsets[fieldIndex];
+		int length = getField(fieldIndex).getFieldLength();
+		for (int k = 0; k < length; k++) {
+			fieldBuffer[k] = segment.get(position + k);
+		}
+		return length;
+	}
 
-				case 'L':
-					byte t_logical = dataInputStream.readByte();
-					if (t_logical == 'Y' || t_logical == 't' || t_logical == 'T' || t_logical == 't') {
+	private int skipLeftSpaces(int length) {
+		int start = 0;
+		while (start < length && fieldBuffer[start] == ' ') {
+			start++;
+		}
+		return start;
+	}
+	
+	private boolean contains(int start, int end, byte value) {
+		for (int k = start; k < end; k++) {
+			if (fieldBuffer[k] == value) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * Parse a number directly from the bytes. The result is the same as Double.parseDouble when
+	 * the mantissa is below 2^53 and there is no exponent, since the mantissa and the power of ten
+	 * are then exact doubles and the division is correctly rounded. The other cases go through
+	 * Double.parseDouble.
+	 */
+	private double parseDouble(int start, int end) throws DBFException {
+		int k = start;
+		int trimmedEnd = end;
+		while (trimmedEnd > k && fieldBuffer[trimmedEnd - 1] == ' ') {
+			trimmedEnd--;
+		}
+		boolean isNegative = false;
+		if (k < trimmedEnd && (fieldBuffer[k] == '-' || fieldBuffer[k] == '+')) {
+			isNegative = fieldBuffer[k] == '-';
+			k++;
+		}
+		long mantissa = 0;
+		int scale = -1;
+		int nbDigits = 0;
+		boolean isExact = k < trimmedEnd;
+		for (; k < trimmedEnd && isExact; k++) {
+			byte b = fieldBuffer[k];
+			if (b >= '0' && b <= '9') {
+				mantissa = mantissa * 10 + (b - '0');
+				nbDigits++;
+				if (scale >= 0) {
+					scale++;
+				}
+			} else if (b == '.' && scale < 0) {
+				scale = 0;
+			} else {
+				isExact = false;
+			}
+		}
+		if (nbDigits == 0 || nbDigits > 18 || scale >= POWERS_OF_TEN.length || mantissa >= MAXIMUM_EXACT_MANTISSA) {
+			isExact = false;
+		}
+		if (isExact) {
+			double value = scale > 0 ? mantissa / POWERS_OF_TEN[scale] : mantissa;
+			return isNegative ? -value : value;
+		} else {
+			try {
+				return Double.parseDouble(new String(fieldBuffer, start, end - start, "ISO-8859-1"));
+			} catch (NumberFormatException | UnsupportedEncodingException e) {
+				throw new DBFException("Failed to parse Number: " + e.getMessage());
+			}
+		}
+	}
 
-						recordObjects[i] = Boolean.TRUE;
-					} else {
+	private Object[] decodeRecord(int physicalIndex) throws IOException {
+		Object recordObjects[] = new Object[getFieldCount()];
+		for (int i = 0; i < getFieldCount(); i++) {
+			if (isFieldProjected != null && !isFieldProjected[i]) {
+				continue;
+			}
+			int length = readField(physicalIndex, i);
+			switch (getField(i).getDataType()) {
+			case 'C':
+				recordObjects[i] = new String(fieldBuffer, 0, length, characterSetName);
+				break;
+			case 'D':
+				try {
+					GregorianCalendar calendar = new GregorianCalendar( 
+							Integer.parseInt(new String(fieldBuffer, 0, 4)),
+							Integer.parseInt(new String(fieldBuffer, 4, 2)) - 1,
+							Integer.parseInt(new String(fieldBuffer, 6, 2))
+							);
+					recordObjects[i] = calendar.getTime();
+				} catch (NumberFormatException e) {
+					/* this field may be empty or may have improper value set */
+					recordObjects[i] = null;
+				}
+				break;
 
-						recordObjects[i] = Boolean.FALSE;
+			case 'F':
+				int startF = skipLeftSpaces(length);
+				if (startF < length && !contains(startF, length, (byte) '?')) {
+					try {
+						recordObjects[i] = parseFloat(startF, length);
+					} catch (DBFException e) {
+						throw new DBFException("Failed to parse Float: " + e.getMessage());
 					}
-					break;
+				} else {
+					recordObjects[i] = null;
+				}
+				break;
+
+			case 'N':
+				int startN = skipLeftSpaces(length);
+				if (startN < length && !contains(startN, length, (byte) '?')) {
+					recordObjects[i] = parseDouble(startN, length);
+				} else {
+					recordObjects[i] = null;
+				}
+				break;
+
+			case 'L':
+				byte t_logical = fieldBuffer[0];
+				if (t_logical == 'Y' || t_logical == 't' || t_logical == 'T' || t_logical == 't') {
+					recordObjects[i] = Boolean.TRUE;
+				} else {
+					recordObjects[i] = Boolean.FALSE;
+				}
+				break;
 
-				case 'M':
-					// TODO Later
-					recordObjects[i] = new String( "null");
-					break;
+			case 'M':
+				// TODO Later
+				recordObjects[i] = new String( "null");
+				break;
 
-				default:
-					recordObjects[i] = new String( "null");
-				}
+			default:
+				recordObjects[i] = new String( "null");
 			}
-			return recordObjects;
-		} catch (EOFException e) {
-			close();
-			return null;
-		} catch( IOException e) {
-			close();
-			throw new DBFException( e.getMessage());
 		}
+		return recordObjects;
+	}
 
+	/**
+	 * Parse a float with the same result as Float.parseFloat. The double shortcut is only 
+	 * used when the value is an exact float.
+	 */
+	private float parseFloat(int start, int end) throws DBFException {
+		double value = parseDouble(start, end);
+		float floatValue = (float) value;
+		if (floatValue == value) {
+			return floatValue;
+		} else {
+			try {
+				return Float.parseFloat(new String(fieldBuffer, start, end - start, "ISO-8859-1"));
+			} catch (NumberFormatException | UnsupportedEncodingException e) {
+				throw new DBFException(e.getMessage());
+			}
+		}
 	}
 	
-	
 	@Override
 	public void closeInternalStream() {
-		try {
-			dataInputStream.close(); 
-		} catch (IOException e) {}
+		segments = null;
+		if (channel != null) {
+			try {
+				channel.close(); 
+			} catch (IOException e) {}
+			channel = null;
+		}
 	}
 
 }
@@ -54,7 +54,7 @@ public class SQLField extends FormatField {
 	 */
 	public SQLField(String name, String typeName, int precision) {
 		setName(name);
-		this.clazz = typeToClassMap.get(typeName);
+		this.clazz = typeToClassMap.get(typeName.toUpperCase());
 		this.precision = precision;
 	}
 
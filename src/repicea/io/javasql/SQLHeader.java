@@ -34,7 +34,7 @@ public class SQLHeader extends FormatHeader<SQLField> {
 	}
 
 	protected void read(Statement stmt, String table) throws SQLException {
-		ResultSet rs = stmt.executeQuery("select * from " + table);
+		ResultSet rs = stmt.executeQuery("select * from " + table + " where 1 = 0");		// only the metadata are needed
 		ResultSetMetaData rsmd = rs.getMetaData();
 	    int numColumns = rsmd.getColumnCount();
 	    for (int i = 1; i < numColumns+1; i++) {
@@ -19,6 +19,7 @@
 package repicea.io.javasql;
 
 import java.io.IOException;
+import java.security.InvalidParameterException;
 import java.sql.Connection;
 import java.sql.ResultSet;
 import java.sql.SQLException;
@@ -28,15 +29,27 @@ import repicea.io.FormatReader;
 
 /**
  * The SQLReader class makes it possible to read tables in 
- * Microsoft Access databases (*.mdb, *.accdb).
+ * Microsoft Access databases (*.mdb, *.accdb). <br>
+ * <br>
+ * The records are streamed through a forward-only result set. The number of rows fetched
+ * at once can be set through the setFetchSize method and the query can be restricted to 
+ * some fields through the setProjection method.
  * @author Mathieu Fortin - July 2012
  */
 public class SQLReader extends FormatReader<SQLHeader> {
 
+	/**
+	 * The default number of rows fetched at once.
+	 */
+	public static final int DefaultFetchSize = 1000;
+	
 	private Connection dbConnection;
 	private String table;
 	private Statement statement;
 	private ResultSet resultSet;
+	private int fetchSize;
+	private int[] projectedFieldIndices;
+	private boolean[] isNullAnEmptyString;
 	
 	/**
 	 * General constructor.
@@ -55,6 +68,14 @@ public class SQLReader extends FormatReader<SQLHeader> {
 			getHeader().read(statement, table);
 			linePointer = 0;
 			statement.close();
+			statement = null;
+			fetchSize = DefaultFetchSize;
+			int numberOfFields = getHeader().getNumberOfFields();
+			isNullAnEmptyString = new boolean[numberOfFields];
+			for (int i = 0; i < numberOfFields; i++) {
+				isNullAnEmptyString[i] = "VARCHAR".equals(getHeader().getField(i).getTypeName()); // patch because empty strings are returned as null
+			}
+			setProjection();
 		} catch (SQLException e) {
 			e.printStackTrace();
 			close();
@@ -64,13 +85,24 @@ public class SQLReader extends FormatReader<SQLHeader> {
 
 	@Override
 	public void reset() throws IOException {
-		resultSet = null;		// the resultSet is set to null so that the next call to nextRecord(int) will re-instantiate this member 
+		closeQuery();		// the resultSet is set to null so that the next call to nextRecord(int) will re-instantiate this member 
 		linePointer = 0;
 		isClosed = false;
 	}
 	
+	private void closeQuery() {
+		try {
+			if (statement != null) {
+				statement.close();		// closes the result set as well
+			}
+		} catch (SQLException e) {}
+		statement = null;
+		resultSet = null;
+	}
+	
 	@Override
 	public void closeInternalStream() {
+		closeQuery();
 		try {
 			DatabaseConnectionManager.removeUser(this);
 		} catch (SQLException e) {
@@ -78,12 +110,62 @@ public class SQLReader extends FormatReader<SQLHeader> {
 		}
 	}
 	
+	/**
+	 * Set the number of rows that are fetched from the database at once. The change applies
+	 * from the next query, that is after a call to the reset method.
+	 * @param fetchSize a strictly positive integer (1000 by default)
+	 */
+	public void setFetchSize(int fetchSize) {
+		if (fetchSize < 1) {
+			throw new InvalidParameterException("The fetch size must be strictly positive!");
+		}
+		this.fetchSize = fetchSize;
+	}
+	
+	/**
+	 * Restrict the query to some fields. The records still have as many elements as there are 
+	 * fields in the table, but the fields that are not projected are set to null. The projection 
+	 * applies from the next query, that is after a call to the reset method.
+	 * @param fieldIndices the indices of the fields to be read (all the fields if empty) 
+	 */
+	public void setProjection(int... fieldIndices) {
+		if (fieldIndices == null || fieldIndices.length == 0) {
+			projectedFieldIndices = new int[getHeader().getNumberOfFields()];
+			for (int i = 0; i < projectedFieldIndices.length; i++) {
+				projectedFieldIndices[i] = i;
+			}
+		} else {
+			for (int fieldIndex : fieldIndices) {
+				if (fieldIndex < 0 || fieldIndex >= getHeader().getNumberOfFields()) {
+					throw new InvalidParameterException("The field index " + fieldIndex + " is out of range!");
+				}
+			}
+			projectedFieldIndices = fieldIndices.clone();
+		}
+	}
+	
+	private String getQuery() {
+		if (projectedFieldIndices.length == getHeader().getNumberOfFields()) {
+			return "SELECT * FROM " + table;
+		} else {
+			StringBuilder query = new StringBuilder("SELECT ");
+			for (int i = 0; i < projectedFieldIndices.length; i++) {
+				if (i > 0) {
+					query.append(", ");
+				}
+				query.append(getHeader().getField(projectedFieldIndices[i]).getName());
+			}
+			return query.append(" FROM ").append(table).toString();
+		}
+	}
+	
 	@Override
 	public Object[] nextRecord(int skipThisNumberOfLines) throws IOException {
 		try {
 			if (resultSet == null) {
-				statement = dbConnection.createStatement();
-				resultSet = statement.executeQuery("SELECT * FROM " + table);
+				statement = dbConnection.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+				statement.setFetchSize(fetchSize);
+				resultSet = statement.executeQuery(getQuery());
 			}
 			
 			int numberOfLinesSkipped = 0;
@@ -96,14 +178,12 @@ public class SQLReader extends FormatReader<SQLHeader> {
 				}
 			}
 			
-			int numberOfFields = getHeader().getNumberOfFields();
-			Object[] objs = new Object[numberOfFields];
-			for (int i = 0; i < numberOfFields; i++) {
-				objs[i] = resultSet.getObject(i + 1);
-				if (objs[i] == null) {
-					if (getHeader().getField(i).getTypeName().toLowerCase().equals("varchar")) { // patch because empty strings are returned as null
-						objs[i] = "";
-					}
+			Object[] objs = new Object[getHeader().getNumberOfFields()];
+			for (int j = 0; j < projectedFieldIndices.length; j++) {
+				int i = projectedFieldIndices[j];
+				objs[i] = resultSet.getObject(j + 1);
+				if (objs[i] == null && isNullAnEmptyString[i]) {
+					objs[i] = "";
 				}
 			}
 			return objs;
@@ -20,11 +20,15 @@ package repicea.io.javasql;
 
 import java.io.File;
 import java.io.IOException;
+import java.security.InvalidParameterException;
 import java.sql.Connection;
 import java.sql.DatabaseMetaData;
+import java.sql.ParameterMetaData;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.sql.Types;
 import java.util.List;
 
 import repicea.io.FormatField;
@@ -35,14 +39,35 @@ import repicea.io.GFileFilter.FileType;
 
 /**
  * The SQLWriter class is an extension of the FormatWriter class, which is designed to write tables in MS Access
- * databases. 
+ * databases. <br>
+ * <br>
+ * The records are inserted through a prepared statement in batches. The transaction is committed 
+ * each time the number of records set through the setTransactionSize method is reached and when the writer is closed. 
  * @author Mathieu Fortin - October 2012
  */
 public class SQLWriter extends FormatWriter<SQLHeader> {
 
+	/**
+	 * The default number of records in a batch.
+	 */
+	public static final int DefaultBatchSize = 1000;
+	
+	/**
+	 * The default number of records in a transaction.
+	 */
+	public static final int DefaultTransactionSize = 10000;
+	
 	private Connection dbConnection;
 	private Statement statement;
 	private String table;
+	private PreparedStatement insertStatement;
+	private int[] parameterTypes;
+	private int batchSize;
+	private int transactionSize;
+	private int nbRecordsInBatch;
+	private int nbUncommittedRecords;
+	private boolean formerAutoCommit;
+	private boolean formerReadOnly;
 
 	/**
 	 * Constructor
@@ -54,6 +79,8 @@ public class SQLWriter extends FormatWriter<SQLHeader> {
 	public SQLWriter(File dataBaseFile, String table, boolean appendTable) throws IOException {
 		super(dataBaseFile, true);		// append the database by default
 		this.table = table;
+		batchSize = DefaultBatchSize;
+		transactionSize = DefaultTransactionSize;
 		
 		FileType f = GFileFilter.getFileType(getFilename());
 		if (f != FileType.ACCDB && f != FileType.MDB) {
@@ -69,7 +96,9 @@ public class SQLWriter extends FormatWriter<SQLHeader> {
 				DatabaseConnectionManager.registerConnectionUser(this, getFilename());
 //				dbConnection = DatabaseConnector.getConnectionFromThisMSACCESSDataBase(getFilename());
 				dbConnection = DatabaseConnectionManager.getUserConnection(this);
-				dbConnection.setAutoCommit(true);
+				formerAutoCommit = dbConnection.getAutoCommit();		// the connection is shared with the other users of the database
+				formerReadOnly = dbConnection.isReadOnly();
+				dbConnection.setAutoCommit(false);
 				dbConnection.setReadOnly(false);
 				statement = dbConnection.createStatement();
 				if (appendTable) {
@@ -81,62 +110,162 @@ public class SQLWriter extends FormatWriter<SQLHeader> {
 		}
 	}
 
+	/**
+	 * Set the number of records that are sent to the database at once.
+	 * @param batchSize a strictly positive integer (1000 by default)
+	 */
+	public void setBatchSize(int batchSize) {
+		if (batchSize < 1) {
+			throw new InvalidParameterException("The batch size must be strictly positive!");
+		}
+		this.batchSize = batchSize;
+	}
+	
+	/**
+	 * Set the number of records after which the transaction is committed. The records 
+	 * of an uncommitted transaction are lost if the application fails before the writer is closed.
+	 * @param transactionSize a strictly positive integer (10000 by default)
+	 */
+	public void setTransactionSize(int transactionSize) {
+		if (transactionSize < 1) {
+			throw new InvalidParameterException("The transaction size must be strictly positive!");
+		}
+		this.transactionSize = transactionSize;
+	}
+	
 	@Override
 	public void setFields(List<FormatField> fields) throws IOException {
 		try {
 			super.setFields(fields);
-			String sqlStatementStr = "CREATE TABLE " + table + " (";
+			StringBuilder sqlStatement = new StringBuilder("CREATE TABLE ").append(table).append(" (");
 			for (int i = 0; i < getHeader().getNumberOfFields(); i++) {				
-				sqlStatementStr += getHeader().getField(i).getStatement();
-				if (i == getHeader().getNumberOfFields() - 1) {
-					sqlStatementStr += ")";
-				} else {
-					sqlStatementStr += ", ";
+				if (i > 0) {
+					sqlStatement.append(", ");
 				}
+				sqlStatement.append(getHeader().getField(i).getStatement());
 			}
+			sqlStatement.append(")");
 			DatabaseMetaData metaData = dbConnection.getMetaData();
 			ResultSet tables = metaData.getTables(null, null, table, null);
 			if (tables.next()) {
 				statement.execute("DROP TABLE " + table);
 			}
+			tables.close();
 
-			statement.executeUpdate(sqlStatementStr);
-//			statement.close();
+			statement.executeUpdate(sqlStatement.toString());
+			dbConnection.commit();
 		} catch (SQLException e) {
 			throw new IOException(e.getMessage() + "SQLWriter.setFields(). An error occured while setting the fields");
 		}
 	}
 
 	
+	/**
+	 * Close the writer. If the pending records cannot be inserted, the uncommitted transaction
+	 * is rolled back. The auto-commit and read-only modes of the connection are then restored.
+	 */
 	@Override
 	public void close() throws IOException {
+		boolean isFlushed = false;
 		try {
-			DatabaseConnectionManager.removeUser(this);
+			flush();
+			isFlushed = true;
+		} finally {
+			try {
+				if (insertStatement != null) {
+					insertStatement.close();
+				}
+				statement.close();
+				if (!isFlushed) {
+					dbConnection.rollback();	// otherwise restoring the auto-commit mode would commit the partial transaction
+				}
+				dbConnection.setAutoCommit(formerAutoCommit);
+				dbConnection.setReadOnly(formerReadOnly);
+			} catch (SQLException e) {
+			} finally {
+				try {
+					DatabaseConnectionManager.removeUser(this);
+				} catch (SQLException e) {
+					throw new IOException("Error while closing the database!" + e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Send the pending records to the database and commit the transaction.
+	 * @throws IOException if the records cannot be inserted
+	 */
+	public void flush() throws IOException {
+		try {
+			executeBatch();
+			commit();
 		} catch (SQLException e) {
-			throw new IOException("Error while closing the database!" + e);
+			throw new IOException(e.getMessage());
+		}
+	}
+	
+	private void executeBatch() throws SQLException {
+		if (nbRecordsInBatch > 0) {
+			insertStatement.executeBatch();
+			nbUncommittedRecords += nbRecordsInBatch;
+			nbRecordsInBatch = 0;
 		}
 	}
 
+	private void commit() throws SQLException {
+		if (nbUncommittedRecords > 0) {
+			dbConnection.commit();
+			nbUncommittedRecords = 0;
+		}
+	}
+	
+	private PreparedStatement getInsertStatement() throws SQLException {
+		if (insertStatement == null) {
+			StringBuilder sqlStatement = new StringBuilder("INSERT INTO ").append(table).append(" ").append(getHeader().getFieldListString()).append(" VALUES (");
+			for (int i = 0; i < getHeader().getNumberOfFields(); i++) {
+				sqlStatement.append(i > 0 ? ", ?" : "?");
+			}
+			sqlStatement.append(")");
+			insertStatement = dbConnection.prepareStatement(sqlStatement.toString());
+			parameterTypes = new int[getHeader().getNumberOfFields()];
+			try {
+				ParameterMetaData metaData = insertStatement.getParameterMetaData();
+				for (int i = 0; i < parameterTypes.length; i++) {
+					parameterTypes[i] = metaData.getParameterType(i + 1);
+				}
+			} catch (SQLException e) {
+				for (int i = 0; i < parameterTypes.length; i++) {
+					parameterTypes[i] = Types.VARCHAR;
+				}
+			}
+		}
+		return insertStatement;
+	}
+	
 	@Override
 	public void addRecord(Object[] record) throws IOException {
 		try {
 			validateRecord(record);
-			String sqlStatementStr = "INSERT INTO " + table + " " + getHeader().getFieldListString() + " VALUES (";
+			PreparedStatement insertStatement = getInsertStatement();
 			for (int i = 0; i < record.length; i++) {
-				if (record[i] instanceof Number) {
-					sqlStatementStr += record[i].toString(); 
-				} else {
-					sqlStatementStr += "'"+ record[i].toString() +"'";
-				}
-				
-				if (i == record.length - 1) {
-					sqlStatementStr += ")";
+				if (record[i] == null) {
+					insertStatement.setNull(i + 1, parameterTypes[i]);
+				} else if (record[i] instanceof Number) {
+					insertStatement.setObject(i + 1, record[i]); 
 				} else {
-					sqlStatementStr += ", ";
+					insertStatement.setString(i + 1, record[i].toString());
 				}
 			}
-			statement.execute(sqlStatementStr);
+			insertStatement.addBatch();
+			nbRecordsInBatch++;
 			getHeader().setNumberOfRecords(getHeader().getNumberOfRecords() + 1);
+			if (nbRecordsInBatch >= batchSize) {
+				executeBatch();
+				if (nbUncommittedRecords >= transactionSize) {
+					commit();
+				}
+			}
 		} catch (SQLException e) {
 			throw new IOException(e.getMessage());
 		}
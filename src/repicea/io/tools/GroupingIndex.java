@@ -0,0 +1,415 @@
+/*
+ * This file is part of the repicea-iotools library.
+ *
+ * Copyright (C) 2009-2021 Mathieu Fortin for Rouge-Epicea
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed with the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * Please see the license at http://www.gnu.org/copyleft/lesser.html.
+ */
+package repicea.io.tools;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import repicea.lang.REpiceaSystem;
+
+/**
+ * The GroupingIndex class stores the records of each group of a file. <br>
+ * <br>
+ * The records of a group are stored as runs of consecutive records. Each run is
+ * encoded as variable-length integers: the gap since the end of the previous run, the number of records
+ * and the byte offset of its first record (0 if the offset is unknown). A group whose
+ * records are contiguous in the file takes a few bytes only. <br>
+ * <br>
+ * The index can be saved in a cache directory and reloaded on the next import of the same file
+ * with the same charset as long as the size, the last modification date and the checksum of the
+ * first and last blocks of this file have not changed. The index files that have not been used 
+ * for a while are deleted from the cache directory and so are the oldest ones when there are too 
+ * many of them.
+ */
+class GroupingIndex implements Serializable {
+
+	private static final long serialVersionUID = 20211210L;
+
+	private static final int MagicNumber = 0x52474958;
+	private static final int Version = 2;
+
+	private static final String CacheDirectoryName = "repiceaGroupingIndex";
+	private static final String IndexFileExtension = ".idx";
+	private static final int FingerprintBlockSize = 1 << 16;
+	static final long MaxAgeOfIndexFilesMillis = 30L * 24 * 3600 * 1000;	// 30 days
+	static final int MaxNumberOfIndexFiles = 100;
+
+	private static File CacheDirectory = new File(REpiceaSystem.getJavaIOTmpDir(), CacheDirectoryName);
+
+	/**
+	 * A run of consecutive records in the file.
+	 */
+	static class Run {
+		final int firstRecord;
+		final int nbRecords;
+		final long byteOffset;
+
+		Run(int firstRecord, int nbRecords, long byteOffset) {
+			this.firstRecord = firstRecord;
+			this.nbRecords = nbRecords;
+			this.byteOffset = byteOffset;
+		}
+	}
+
+	private static class Group implements Serializable {
+		private static final long serialVersionUID = 20211210L;
+
+		private final String name;
+		private byte[] encodedRuns;
+		private int encodedLength;
+		private int nbRecords;
+
+		private transient int lastRunEnd;
+		private transient int currentRunStart;
+		private transient int currentRunLength;
+		private transient long currentRunOffset;
+
+		private Group(String name) {
+			this.name = name;
+			encodedRuns = new byte[16];
+		}
+
+		private void add(int record, long byteOffset) {
+			if (currentRunLength > 0 && record == currentRunStart + currentRunLength) {
+				currentRunLength++;
+			} else {
+				flush();
+				currentRunStart = record;
+				currentRunLength = 1;
+				currentRunOffset = byteOffset;
+			}
+			nbRecords++;
+		}
+
+		private void flush() {
+			if (currentRunLength > 0) {
+				writeVarLong(currentRunStart - lastRunEnd);
+				writeVarLong(currentRunLength);
+				writeVarLong(currentRunOffset + 1);
+				lastRunEnd = currentRunStart + currentRunLength;
+				currentRunLength = 0;
+			}
+		}
+
+		private void writeVarLong(long value) {
+			if (encodedLength + 10 > encodedRuns.length) {
+				encodedRuns = Arrays.copyOf(encodedRuns, encodedRuns.length * 2);
+			}
+			while ((value & ~0x7FL) != 0) {
+				encodedRuns[encodedLength++] = (byte) ((value & 0x7F) | 0x80);
+				value >>>= 7;
+			}
+			encodedRuns[encodedLength++] = (byte) value;
+		}
+
+		private List<Run> getRuns() {
+			List<Run> runs = new ArrayList<Run>();
+			int[] position = new int[1];
+			int runEnd = 0;
+			while (position[0] < encodedLength) {
+				int firstRecord = runEnd + (int) readVarLong(position);
+				int nbRecords = (int) readVarLong(position);
+				long byteOffset = readVarLong(position) - 1;
+				runs.add(new Run(firstRecord, nbRecords, byteOffset));
+				runEnd = firstRecord + nbRecords;
+			}
+			return runs;
+		}
+
+		private long readVarLong(int[] position) {
+			long value = 0;
+			int shift = 0;
+			byte b;
+			do {
+				b = encodedRuns[position[0]++];
+				value |= (long) (b & 0x7F) << shift;
+				shift += 7;
+			} while ((b & 0x80) != 0);
+			return value;
+		}
+	}
+
+	private final List<Group> groups;
+	private transient Map<String, Group> groupMap;
+	private int nbRecords;
+
+	GroupingIndex() {
+		groups = new ArrayList<Group>();
+		groupMap = new HashMap<String, Group>();
+	}
+
+	/**
+	 * Add a record to the index. The records must be added in increasing order.
+	 * @param groupName the name of the group
+	 * @param record the index of the record
+	 * @param byteOffset the byte offset of the record or -1 if unknown
+	 */
+	void add(String groupName, int record, long byteOffset) {
+		Group group = groupMap.get(groupName);
+		if (group == null) {
+			group = new Group(groupName);
+			groupMap.put(groupName, group);
+			groups.add(group);
+		}
+		group.add(record, byteOffset);
+		nbRecords = record + 1;
+	}
+
+	/**
+	 * Close the runs that are still opened. This method must be called once all the records have been added.
+	 */
+	void complete() {
+		for (Group group : groups) {
+			group.flush();
+		}
+	}
+
+	/**
+	 * Provide the group names in the order of their first appearance in the file.
+	 * @return a List of String instances
+	 */
+	List<String> getGroupNames() {
+		List<String> groupNames = new ArrayList<String>();
+		for (Group group : groups) {
+			groupNames.add(group.name);
+		}
+		return groupNames;
+	}
+
+	int getNumberOfRecords() {return nbRecords;}
+
+	int getNumberOfRecords(int groupId) {return groups.get(groupId).nbRecords;}
+
+	List<Run> getRuns(int groupId) {return groups.get(groupId).getRuns();}
+
+	/**
+	 * Provide the indices of the records of a particular group.
+	 * @param groupId the index of the group
+	 * @return a List of Integer instances
+	 */
+	List<Integer> getRecordIndices(int groupId) {
+		List<Integer> recordIndices = new ArrayList<Integer>(getNumberOfRecords(groupId));
+		for (Run run : getRuns(groupId)) {
+			for (int i = run.firstRecord; i < run.firstRecord + run.nbRecords; i++) {
+				recordIndices.add(i);
+			}
+		}
+		return recordIndices;
+	}
+
+	/**
+	 * Set the directory where the indices are saved.
+	 * @param cacheDirectory a File instance or null to disable the cache
+	 */
+	static synchronized void setCacheDirectory(File cacheDirectory) {
+		CacheDirectory = cacheDirectory;
+	}
+	
+	static synchronized File getCacheDirectory() {
+		return CacheDirectory;
+	}
+	
+	/**
+	 * Save the index in the cache directory.
+	 * @param fileSpec the specifications of the indexed file
+	 * @param charsetName the name of the charset used to decode the file
+	 * @param stratumFieldName the name of the field that defines the groups
+	 * @throws IOException if the index cannot be written
+	 */
+	void save(String[] fileSpec, String charsetName, String stratumFieldName) throws IOException {
+		File indexedFile = new File(fileSpec[0]);
+		File indexFile = getIndexFile(fileSpec, charsetName);
+		if (indexFile == null || !indexedFile.isFile()) {
+			return;
+		}
+		deleteStaleIndexFiles(indexFile.getParentFile());
+		File tmpFile = new File(indexFile.getPath() + ".tmp");
+		DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)));
+		try {
+			dos.writeInt(MagicNumber);
+			dos.writeInt(Version);
+			dos.writeUTF(getKey(fileSpec, charsetName));
+			dos.writeLong(indexedFile.length());
+			dos.writeLong(indexedFile.lastModified());
+			dos.writeLong(getFingerprint(indexedFile));
+			dos.writeUTF(stratumFieldName);
+			dos.writeInt(nbRecords);
+			dos.writeInt(groups.size());
+			for (Group group : groups) {
+				dos.writeUTF(group.name);
+				dos.writeInt(group.nbRecords);
+				dos.writeInt(group.encodedLength);
+				dos.write(group.encodedRuns, 0, group.encodedLength);
+			}
+		} finally {
+			dos.close();
+		}
+		Files.move(tmpFile.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	/**
+	 * Load the index of a file from the cache directory.
+	 * @param fileSpec the specifications of the indexed file
+	 * @param charsetName the name of the charset used to decode the file
+	 * @param stratumFieldName the name of the field that defines the groups
+	 * @return a GroupingIndex instance or null if there is no index or if the file has changed since the index was saved
+	 */
+	static GroupingIndex load(String[] fileSpec, String charsetName, String stratumFieldName) {
+		File indexedFile = new File(fileSpec[0]);
+		File indexFile = getIndexFile(fileSpec, charsetName);
+		if (indexFile == null || !indexFile.isFile() || !indexedFile.isFile()) {
+			return null;
+		}
+		DataInputStream dis = null;
+		try {
+			dis = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)));
+			if (dis.readInt() != MagicNumber || dis.readInt() != Version ||
+					!dis.readUTF().equals(getKey(fileSpec, charsetName)) ||
+					dis.readLong() != indexedFile.length() ||
+					dis.readLong() != indexedFile.lastModified() ||
+					dis.readLong() != getFingerprint(indexedFile) ||
+					!dis.readUTF().equals(stratumFieldName)) {
+				return null;
+			}
+			GroupingIndex index = new GroupingIndex();
+			index.nbRecords = dis.readInt();
+			int nbGroups = dis.readInt();
+			for (int i = 0; i < nbGroups; i++) {
+				Group group = new Group(dis.readUTF());
+				group.nbRecords = dis.readInt();
+				group.encodedLength = dis.readInt();
+				group.encodedRuns = new byte[group.encodedLength];
+				dis.readFully(group.encodedRuns);
+				index.groups.add(group);
+				index.groupMap.put(group.name, group);
+			}
+			indexFile.setLastModified(System.currentTimeMillis());		// the index files that are used are not deleted
+			return index;
+		} catch (IOException e) {
+			return null;		// the index is then rebuilt
+		} finally {
+			if (dis != null) {
+				try {
+					dis.close();
+				} catch (IOException e) {}
+			}
+		}
+	}
+
+	private static String getKey(String[] fileSpec, String charsetName) {
+		StringBuilder sb = new StringBuilder(new File(fileSpec[0]).getAbsolutePath());
+		for (int i = 1; i < fileSpec.length; i++) {
+			sb.append("|").append(fileSpec[i]);
+		}
+		sb.append("|").append(charsetName);
+		return sb.toString();
+	}
+
+	/*
+	 * The checksum of the first and the last blocks of the file. A change that keeps the size and 
+	 * the modification date of the file is then likely to be detected without reading the whole file.
+	 */
+	static long getFingerprint(File file) throws IOException {
+		CRC32 crc = new CRC32();
+		byte[] buffer = new byte[FingerprintBlockSize];
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			long length = raf.length();
+			int nbBytes = (int) Math.min(length, FingerprintBlockSize);
+			raf.readFully(buffer, 0, nbBytes);
+			crc.update(buffer, 0, nbBytes);
+			if (length > FingerprintBlockSize) {
+				nbBytes = (int) Math.min(length - FingerprintBlockSize, FingerprintBlockSize);
+				raf.seek(length - nbBytes);
+				raf.readFully(buffer, 0, nbBytes);
+				crc.update(buffer, 0, nbBytes);
+			}
+		} finally {
+			raf.close();
+		}
+		return crc.getValue();
+	}
+
+	/*
+	 * Delete the index files that have not been used for a while and the oldest ones if there
+	 * are still too many of them.
+	 */
+	static void deleteStaleIndexFiles(File cacheDirectory) {
+		File[] indexFiles = cacheDirectory.listFiles();
+		if (indexFiles == null) {
+			return;
+		}
+		long now = System.currentTimeMillis();
+		List<File> remainingFiles = new ArrayList<File>();
+		for (File file : indexFiles) {
+			if (file.isFile() && (file.getName().endsWith(IndexFileExtension) || file.getName().endsWith(".tmp"))) {
+				if (now - file.lastModified() > MaxAgeOfIndexFilesMillis) {
+					file.delete();
+				} else if (file.getName().endsWith(IndexFileExtension)) {
+					remainingFiles.add(file);
+				}
+			}
+		}
+		if (remainingFiles.size() >= MaxNumberOfIndexFiles) {
+			final Map<File, Long> lastModified = new HashMap<File, Long>();
+			for (File file : remainingFiles) {
+				lastModified.put(file, file.lastModified());
+			}
+			Collections.sort(remainingFiles, new Comparator<File>() {
+				@Override
+				public int compare(File f1, File f2) {
+					return Long.compare(lastModified.get(f1), lastModified.get(f2));
+				}
+			});
+			for (int i = 0; i <= remainingFiles.size() - MaxNumberOfIndexFiles; i++) {	// makes room for the index to be saved
+				remainingFiles.get(i).delete();
+			}
+		}
+	}
+
+	/*
+	 * The name of the index file is based on the hash code of the key. The key itself is
+	 * stored in the file in case of collision.
+	 */
+	static File getIndexFile(String[] fileSpec, String charsetName) {
+		File cacheDirectory = getCacheDirectory();
+		if (cacheDirectory == null || (!cacheDirectory.isDirectory() && !cacheDirectory.mkdirs())) {
+			return null;
+		}
+		return new File(cacheDirectory, "group" + Integer.toHexString(getKey(fileSpec, charsetName).hashCode()) + IndexFileExtension);
+	}
+}
@@ -18,32 +18,44 @@
  */
 package repicea.io.tools;
 
+import java.io.File;
+import java.io.IOException;
 import java.io.Serializable;
-import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
 import java.util.Vector;
+import java.util.logging.Level;
 
 import repicea.app.AbstractGenericTask;
 import repicea.io.FormatReader;
+import repicea.io.javacsv.CSVReader;
+import repicea.io.javadbf.DBFReader;
+import repicea.io.tools.GroupingIndex.Run;
+import repicea.util.REpiceaLogManager;
 
 /**
- * This private class handles the index of a data set that contains one or many grouping. 
+ * This private class handles the index of a data set that contains one or many grouping. <br>
+ * <br>
+ * The index is built in a single pass over the file and saved in a cache directory. As long as 
+ * the file is not modified, the next imports of this file reload the index instead of scanning the file.
  * @author Mathieu Fortin - October 2011 
  */
 class GroupingRegistryReader extends AbstractGenericTask implements Serializable {
 
 	private static final long serialVersionUID = 20100804L;
 
+	private static final String LoggerName = GroupingRegistryReader.class.getName();
+
 	/*
 	 * Members of this class
 	 */
-	protected Map<String, List<Integer>> groupMap;
+	protected GroupingIndex groupingIndex;
 	protected ImportFieldManager importFieldManager;
 	
 	private Vector<String> groupList;
 	private boolean groupFieldEnabled;
+	private boolean indexLoadedFromCache;
 
 	/**	
 	 * Script constructor. General for any model.
@@ -52,7 +64,6 @@ class GroupingRegistryReader extends AbstractGenericTask implements Serializable
 		super();
 		setName("Stratum Reader Thread");
 		groupList  = new Vector<String>(); 
-		groupMap = new TreeMap<String, List<Integer>>();
 		groupFieldEnabled = false;
 
 		this.importFieldManager = importFieldManager;
@@ -60,64 +71,42 @@ class GroupingRegistryReader extends AbstractGenericTask implements Serializable
 
 
 	/**
-	 * This method scans the strata throughout the input file.
+	 * This method scans the strata throughout the input file unless the index of this file 
+	 * can be found in the cache directory.
 	 */
 	@SuppressWarnings("rawtypes")
 	protected void doThisJob() throws Exception {
 		groupList.clear();
-		groupMap.clear();
+		groupingIndex = null;
+		indexLoadedFromCache = false;
 		Enum stratumEnum = importFieldManager.getStratumFieldEnum();
 		if (stratumEnum != null && importFieldManager.getField(stratumEnum).getMatchingFieldIndex() != -1) {		// means a stratum field has been selected
-			List<Integer> index = null;
 			try {
 				FormatReader formatReader = importFieldManager.getFormatReader();
-				if (!formatReader.isAtBeginning()) {
-					formatReader.reset();
-				}
-				double progressFactor = (double) 100d / formatReader.getRecordCount();
-
-				// Now, lets start reading the rows
-
-				Object[] rowObjects;
 				int indexOfStratumField = importFieldManager.getIndexOfThisField(importFieldManager.getStratumFieldEnum());
-
 				int iFieldStratum = importFieldManager.getFields().get(indexOfStratumField).getMatchingFieldIndex();
-				String strStratum = null;
-				String strStratumLast = "";
-				boolean bStratumChanged = false; 
-
-				int line = 0;
-				while( (rowObjects = formatReader.nextRecord()) != null && !isCancelled()) {
-					strStratum = ((Object) rowObjects[iFieldStratum]).toString().trim();
-					bStratumChanged = (strStratum.compareTo(strStratumLast) != 0); 
-
-					if (strStratum!=null) {
-						if (bStratumChanged) {
-							index = groupMap.get(strStratum);
-							if (index==null) {
-								index = new ArrayList<Integer>();
-								groupMap.put(strStratum, index);
-							}
-						}
-
-						index.add(line);
-
-						if (bStratumChanged) {
-							if (!groupList.contains(strStratum)) {
-								groupList.add(strStratum);
-							}
+				String stratumFieldName = formatReader.getHeader().getField(iFieldStratum).getName();
+				String[] fileSpec = importFieldManager.getFileSpecifications();
+				String charsetName = getCharsetName(formatReader);
+				
+				groupingIndex = GroupingIndex.load(fileSpec, charsetName, stratumFieldName);
+				if (groupingIndex != null) {
+					indexLoadedFromCache = true;
+				} else {
+					groupingIndex = scanFile(formatReader, iFieldStratum);
+					if (!isCancelled()) {
+						try {
+							groupingIndex.save(fileSpec, charsetName, stratumFieldName);
+						} catch (IOException e) {
+							REpiceaLogManager.logMessage(LoggerName, Level.WARNING, null, "Unable to save the grouping index of file " + fileSpec[0] + ": " + e.getMessage());
 						}
-
-						strStratumLast = strStratum;
 					}
-					line++;
-					setProgress((int) (line * progressFactor));
 				}
-				// By now, we have iterated through all of the rows
-				formatReader.close();
 				if (isCancelled()) {
 					throw new InterruptedException();
 				} else {
+					groupList.addAll(groupingIndex.getGroupNames());
+					setProgress(100);
 					groupFieldEnabled = true;
 				}
 			} catch (InterruptedException e) {
@@ -132,8 +121,69 @@ class GroupingRegistryReader extends AbstractGenericTask implements Serializable
 		} 
 	}
 	
+	/*
+	 * The charset is part of the key of the index since the group names depend on it.
+	 */
+	@SuppressWarnings("rawtypes")
+	private static String getCharsetName(FormatReader formatReader) {
+		if (formatReader instanceof CSVReader) {
+			return ((CSVReader) formatReader).getCharset().name();
+		} else if (formatReader instanceof DBFReader) {
+			return ((DBFReader) formatReader).getCharactersetName();
+		} else {
+			return "";
+		}
+	}
+	
+	/*
+	 * The progress is based on the byte offsets whenever they are available. Otherwise, the 
+	 * records would have to be counted beforehand, which implies reading a CSV file twice.
+	 */
+	@SuppressWarnings("rawtypes")
+	private GroupingIndex scanFile(FormatReader formatReader, int iFieldStratum) throws IOException {
+		if (!formatReader.isAtBeginning()) {
+			formatReader.reset();
+		}
+		CSVReader csvReader = formatReader instanceof CSVReader ? (CSVReader) formatReader : null;
+		DBFReader dbfReader = formatReader instanceof DBFReader ? (DBFReader) formatReader : null;
+		double progressFactor;
+		if (csvReader != null) {
+			progressFactor = 100d / Math.max(1L, new File(formatReader.getFilename()).length());
+		} else {
+			progressFactor = 100d / formatReader.getRecordCount();
+		}
+		if (dbfReader != null) {
+			dbfReader.setProjection(iFieldStratum);		// only the stratum field is decoded
+		}
+		
+		GroupingIndex index = new GroupingIndex();
+		try {
+			Object[] rowObjects;
+			int line = 0;
+			while ((rowObjects = formatReader.nextRecord()) != null && !isCancelled()) {
+				String strStratum = ((Object) rowObjects[iFieldStratum]).toString().trim();
+				long byteOffset = csvReader != null ? csvReader.getOffsetOfLastRecord() : -1;
+				index.add(strStratum, line, byteOffset);
+				line++;
+				if (csvReader == null) {
+					setProgress((int) (line * progressFactor));
+				} else if (byteOffset >= 0) {
+					setProgress((int) (byteOffset * progressFactor));
+				}
+			}
+			index.complete();
+		} finally {
+			if (dbfReader != null) {
+				dbfReader.setProjection();
+			}
+			// By now, we have iterated through all of the rows
+			formatReader.close();
+		}
+		return index;
+	}
+	
 	private void cleanUpBeforeThrowingException() {
-		groupMap = null;
+		groupingIndex = null;
 		importFieldManager = null;
 		groupList = null;
 	}
@@ -143,6 +193,12 @@ class GroupingRegistryReader extends AbstractGenericTask implements Serializable
 	 */
 	protected boolean isGroupingEnabled() {return groupFieldEnabled;}
 	
+	/**
+	 * Indicate whether the index has been reloaded from the cache directory instead of scanning the file.
+	 * @return a boolean
+	 */
+	protected boolean isIndexLoadedFromCache() {return indexLoadedFromCache;}
+	
 	protected Vector<String> getGroupList() {
 		return groupList;
 	}
@@ -152,13 +208,26 @@ class GroupingRegistryReader extends AbstractGenericTask implements Serializable
 			if (groupPositionID == -1) {
 				return null;		// will then process all the strata (this will not happen in the GUI but in may happen in script mode
 			} else {
-				return groupMap.get(getGroupName(groupPositionID));
+				return groupingIndex.getRecordIndices(groupPositionID);
 			}
 		} else {
 			return null;	// will process all the strata since there is not stratum grouping
 		}
 	}
 
+	/**
+	 * Provide the runs of consecutive records of a particular group. 
+	 * @param groupPositionID the index of the group
+	 * @return a List of Run instances or null if all the records are to be read
+	 */
+	protected List<Run> getRunsForThisGroup(int groupPositionID) {
+		if (groupFieldEnabled && groupPositionID != -1) {
+			return groupingIndex.getRuns(groupPositionID);
+		} else {
+			return null;
+		}
+	}
+
 	protected String getGroupName(int groupPositionID) {
 		if (groupFieldEnabled) {
 			return groupList.get(groupPositionID);
@@ -169,6 +238,10 @@ class GroupingRegistryReader extends AbstractGenericTask implements Serializable
 
 	protected Map<String, List<Integer>> getGroupMap() {
 		if (groupFieldEnabled) {
+			Map<String, List<Integer>> groupMap = new TreeMap<String, List<Integer>>();
+			for (int i = 0; i < groupList.size(); i++) {
+				groupMap.put(groupList.get(i), groupingIndex.getRecordIndices(i));
+			}
 			return groupMap;
 		}
 		else {
@@ -19,6 +19,7 @@
 package repicea.io.tools;
 
 import java.awt.Window;
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.Serializable;
 import java.security.InvalidParameterException;
@@ -33,6 +34,8 @@ import repicea.gui.genericwindows.REpiceaProgressBarDialog;
 import repicea.gui.genericwindows.REpiceaSimpleListDialog;
 import repicea.gui.genericwindows.REpiceaProgressBarDialog.REpiceaProgressBarDialogParameters;
 import repicea.io.FormatReader;
+import repicea.io.javacsv.CSVReader;
+import repicea.io.tools.GroupingIndex.Run;
 import repicea.io.tools.ImportFieldElement.FieldType;
 import repicea.simulation.UseModeProvider.UseMode;
 import repicea.util.REpiceaTranslator;
@@ -64,7 +67,7 @@ public abstract class REpiceaRecordReader implements Serializable {
 			int lineCounter = 0;
 
 			List<ImportFieldElement> importFieldElements = importFieldManager.getFields();
-			List<Integer> rowIndex = groupingRegistryReader.getObservationIndicesForThisGroup(groupId);
+			List<Run> runs = groupingRegistryReader.getRunsForThisGroup(groupId);
 
 			Object[] oArray;
 
@@ -76,54 +79,67 @@ public abstract class REpiceaRecordReader implements Serializable {
 				}
 				oArray = new Object[importFieldElements.size()];
 
-				if (rowIndex==null) {							// if the index is null a false index that contains all the observations is created
-					rowIndex = new ArrayList<Integer>();
-					for (int i = 0; i < reader.getRecordCount(); i++) {
-						rowIndex.add(i);
+				int numberOfRecords;
+				if (runs == null) {							// if there is no run, a single run that contains all the observations is created
+					if (groupingRegistryReader.isGroupingEnabled()) {
+						numberOfRecords = groupingRegistryReader.groupingIndex.getNumberOfRecords();	// spares the counting of the records in a CSV file 
+					} else {
+						numberOfRecords = reader.getRecordCount();
 					}
+					runs = new ArrayList<Run>();
+					runs.add(new Run(0, numberOfRecords, -1));
+				} else {
+					numberOfRecords = groupingRegistryReader.groupingIndex.getNumberOfRecords(groupId);
 				}
+				CSVReader csvReader = reader instanceof CSVReader ? (CSVReader) reader : null;
 				
-				double factor = 100d / rowIndex.size();
+				double factor = 100d / numberOfRecords;
 				
 				// Now, lets start reading the rows
 				int numberOfLinesToSkip;
 				int numberLinesRead = 0;
 				Object[] rowObjects = null;
-				for (Integer lineNumber : rowIndex) {
-					if (isCancelled()) {
-						throw new CancellationException();
+				for (Run run : runs) {
+					if (csvReader != null && run.byteOffset > 0 && run.firstRecord > lineCounter) {	// jump directly to the first record of the run
+						csvReader.seek(run.byteOffset, run.firstRecord);
+						lineCounter = run.firstRecord;
 					}
-					numberOfLinesToSkip = lineNumber - lineCounter;
-					rowObjects = reader.nextRecord(numberOfLinesToSkip);
-					lineCounter = lineNumber + 1;  					// 1 is added to have the real reference line 1 is really line 1
+					for (int lineNumber = run.firstRecord; lineNumber < run.firstRecord + run.nbRecords; lineNumber++) {
+						if (isCancelled()) {
+							throw new CancellationException();
+						}
+						numberOfLinesToSkip = lineNumber - lineCounter;
+						rowObjects = reader.nextRecord(numberOfLinesToSkip);
+						lineCounter = lineNumber + 1;  					// 1 is added to have the real reference line 1 is really line 1
 
-					if (rowObjects!=null) {
-						for (int j = 0; j < importFieldElements.size(); j++) {
-							ImportFieldElement impFieldElem = importFieldElements.get(j);
-							int iFieldIndex = impFieldElem.getMatchingFieldIndex();
-							if (!impFieldElem.isOptional) {		// if the field is not optional
-								if (rowObjects[iFieldIndex] == null) {
-									throw new NullPointerException("A null value has been found at line " + lineNumber + " - field " + impFieldElem.getFieldName());
-								} else {
-									oArray[j] = rowObjects[iFieldIndex];
-								}
-							} else {				// the field is then optional
-								if (iFieldIndex < 0) { // the field has not been matched
-									oArray[j] = null;
-								} else {
-									Object obj = rowObjects[iFieldIndex]; // no need to check if it is null in the next line: it is going to be set as null anyway in the else clause
-									if (obj instanceof String && obj.toString().isEmpty()) {	// the field contains an empty string
-										oArray[j] = null;
+						if (rowObjects!=null) {
+							for (int j = 0; j < importFieldElements.size(); j++) {
+								ImportFieldElement impFieldElem = importFieldElements.get(j);
+								int iFieldIndex = impFieldElem.getMatchingFieldIndex();
+								if (!impFieldElem.isOptional) {		// if the field is not optional
+									if (rowObjects[iFieldIndex] == null) {
+										throw new NullPointerException("A null value has been found at line " + lineNumber + " - field " + impFieldElem.getFieldName());
 									} else {
 										oArray[j] = rowObjects[iFieldIndex];
 									}
+								} else {				// the field is then optional
+									if (iFieldIndex < 0) { // the field has not been matched
+										oArray[j] = null;
+									} else {
+										Object obj = rowObjects[iFieldIndex]; // no need to check if it is null in the next line: it is going to be set as null anyway in the else clause
+										if (obj instanceof String && obj.toString().isEmpty()) {	// the field contains an empty string
+											oArray[j] = null;
+										} else {
+											oArray[j] = rowObjects[iFieldIndex];
+										}
+									}
 								}
 							}
+							checkInputFieldsFormat(oArray);
+							readLineRecord(oArray, lineCounter);
+							numberLinesRead++;
+							firePropertyChange(REpiceaProgressBarDialog.PROGRESS, 0, (int) (numberLinesRead * factor));
 						}
-						checkInputFieldsFormat(oArray);
-						readLineRecord(oArray, lineCounter);
-						numberLinesRead++;
-						firePropertyChange(REpiceaProgressBarDialog.PROGRESS, 0, (int) (numberLinesRead * factor));
 					}
 				}
 
@@ -213,6 +229,15 @@ public abstract class REpiceaRecordReader implements Serializable {
 	private UseMode guiMode;
 	
 	private transient Window windowOwner;
+
+	/**
+	 * Set the directory where the indices of the groups are saved. By default, this is a 
+	 * subdirectory of the temporary directory.
+	 * @param cacheDirectory a File instance or null to disable the cache of indices
+	 */
+	public static void setGroupingIndexCacheDirectory(File cacheDirectory) {
+		GroupingIndex.setCacheDirectory(cacheDirectory);
+	}
 	
 	/**
 	 * Constructor for GUI mode.
@@ -0,0 +1,273 @@
+/*
+ * This file is part of the repicea library.
+ *
+ * Copyright (C) 2009-2022 Mathieu Fortin for Rouge Epicea.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed with the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * Please see the license at http://www.gnu.org/copyleft/lesser.html.
+ */
+package repicea.lang.codetranslator;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.security.InvalidParameterException;
+import java.util.Arrays;
+import java.util.Base64;
+
+import repicea.lang.reflect.ReflectUtility;
+import repicea.math.Matrix;
+import repicea.net.StreamableMessage;
+
+/**
+ * The PrimitiveVector class stores primitive results in a primitive array instead of
+ * wrapping each one of them. <br>
+ * <br>
+ * The vector is written in one of these formats:
+ * <ul>
+ * <li> List: the format of the JavaObjectList class, e.g. "JavaList/;numeric1.5/,numeric2.0/," or "numeric1.5" if there is a single value;
+ * <li> Text: the format of the requests, e.g. "numeric1.5/,2.0";
+ * <li> Binary: the type preceded by "binary" and followed by the values in Base64, that is little-endian IEEE 754 doubles
+ * for numeric values and little-endian 32-bit integers for integer values. Long and boolean values are written in the text format.
+ * </ul>
+ * A vector that comes from a Matrix instance is preceded by "matrix", the number of rows and columns and the main splitter, e.g.
+ * "matrix2/,2/;numeric1.0/,0.0/,0.0/,1.0". The values are then given row after row.
+ */
+class PrimitiveVector implements StreamableMessage {
+
+	enum Format {List, Text, Binary}
+
+	static final String BinaryPrefix = "binary";
+	static final String MatrixPrefix = "matrix";
+
+	private static final int InitialCapacity = 16;
+	private static final int BinaryBlockLength = 3 * 1024;	// multiple of 3 so that there is no padding between the blocks
+
+	private final Class<?> type;
+	private final Format format;
+	private double[] doubleValues;
+	private long[] longValues;
+	private int size;
+	private int nbRows = -1;
+	private int nbColumns;
+
+	/**
+	 * Constructor.
+	 * @param primitiveType the primitive type of the values (either double, float, int, long or boolean)
+	 * @param format a Format enum
+	 */
+	PrimitiveVector(Class<?> primitiveType, Format format) {
+		if (!isSupported(primitiveType)) {
+			throw new InvalidParameterException("The type " + primitiveType.getName() + " is not supported!");
+		}
+		this.type = ReflectUtility.PrimitiveToJavaWrapperMap.get(primitiveType);
+		this.format = format;
+		if (isNumeric()) {
+			doubleValues = new double[InitialCapacity];
+		} else {
+			longValues = new long[InitialCapacity];
+		}
+	}
+
+	/**
+	 * Check if the values of a primitive type can be stored in a PrimitiveVector instance.
+	 * @param clazz a Class instance
+	 * @return a boolean
+	 */
+	static boolean isSupported(Class<?> clazz) {
+		return clazz == double.class || clazz == float.class || clazz == int.class || clazz == long.class || clazz == boolean.class;
+	}
+
+	/**
+	 * Check if an object can be converted into a PrimitiveVector instance.
+	 * @param obj an Object instance
+	 * @return true if the object is a Matrix instance or an array of a supported primitive type
+	 */
+	static boolean isConvertible(Object obj) {
+		return obj instanceof Matrix || (obj != null && obj.getClass().isArray() && isSupported(obj.getClass().getComponentType()));
+	}
+
+	/**
+	 * Create a vector from a Matrix instance or an array of primitive type.
+	 * @param obj an Object instance
+	 * @param format a Format enum
+	 * @return a PrimitiveVector instance or null if the object cannot be converted
+	 */
+	static PrimitiveVector createFromArray(Object obj, Format format) {
+		if (!isConvertible(obj)) {
+			return null;
+		}
+		PrimitiveVector vector;
+		if (obj instanceof Matrix) {
+			Matrix matrix = (Matrix) obj;
+			vector = new PrimitiveVector(double.class, format);
+			vector.nbRows = matrix.m_iRows;
+			vector.nbColumns = matrix.m_iCols;
+			vector.ensureCapacity(matrix.m_iRows * matrix.m_iCols);
+			for (int i = 0; i < matrix.m_iRows; i++) {
+				for (int j = 0; j < matrix.m_iCols; j++) {
+					vector.doubleValues[vector.size++] = matrix.getValueAt(i, j);
+				}
+			}
+		} else {
+			Class<?> componentType = obj.getClass().getComponentType();
+			vector = new PrimitiveVector(componentType, format);
+			if (componentType == double.class) {
+				vector.doubleValues = ((double[]) obj).clone();
+				vector.size = vector.doubleValues.length;
+			} else if (componentType == float.class) {
+				float[] values = (float[]) obj;
+				vector.ensureCapacity(values.length);
+				for (float value : values) {
+					vector.doubleValues[vector.size++] = value;
+				}
+			} else if (componentType == int.class) {
+				int[] values = (int[]) obj;
+				vector.ensureCapacity(values.length);
+				for (int value : values) {
+					vector.longValues[vector.size++] = value;
+				}
+			} else if (componentType == long.class) {
+				vector.longValues = ((long[]) obj).clone();
+				vector.size = vector.longValues.length;
+			} else {
+				boolean[] values = (boolean[]) obj;
+				vector.ensureCapacity(values.length);
+				for (boolean value : values) {
+					vector.longValues[vector.size++] = value ? 1 : 0;
+				}
+			}
+		}
+		return vector;
+	}
+
+	private boolean isNumeric() {
+		return type == Double.class || type == Float.class;
+	}
+
+	private void ensureCapacity(int capacity) {
+		if (isNumeric()) {
+			if (capacity > doubleValues.length) {
+				doubleValues = Arrays.copyOf(doubleValues, Math.max(capacity, doubleValues.length * 2));
+			}
+		} else if (capacity > longValues.length) {
+			longValues = Arrays.copyOf(longValues, Math.max(capacity, longValues.length * 2));
+		}
+	}
+
+	/**
+	 * Add a value to the vector.
+	 * @param value the value as returned by a reflective call, that is a wrapper of the primitive type
+	 */
+	void add(Object value) {
+		ensureCapacity(size + 1);
+		if (isNumeric()) {
+			doubleValues[size++] = ((Number) value).doubleValue();
+		} else if (type == Boolean.class) {
+			longValues[size++] = ((Boolean) value) ? 1 : 0;
+		} else {
+			longValues[size++] = ((Number) value).longValue();
+		}
+	}
+
+	int size() {return size;}
+
+	boolean isEmpty() {return size == 0;}
+
+	private String getTypeName() {
+		if (isNumeric()) {
+			return "numeric";
+		} else if (type == Boolean.class) {
+			return "logical";
+		} else {
+			return "integer";
+		}
+	}
+
+	private String getValueString(int i) {
+		if (type == Double.class) {
+			return Double.toString(doubleValues[i]);
+		} else if (type == Float.class) {
+			return Float.toString((float) doubleValues[i]);
+		} else if (type == Boolean.class) {
+			return longValues[i] == 1 ? "true" : "false";
+		} else {
+			return Long.toString(longValues[i]);
+		}
+	}
+
+	@Override
+	public void writeTo(Writer writer) throws IOException {
+		if (format == Format.List) {
+			if (size == 1) {
+				writer.write(getTypeName());
+				writer.write(getValueString(0));
+			} else {
+				writer.write("JavaList" + REnvironment.MainSplitter);
+				String typeName = getTypeName();
+				for (int i = 0; i < size; i++) {
+					writer.write(typeName);
+					writer.write(getValueString(i));
+					writer.write(REnvironment.SubSplitter);
+				}
+			}
+		} else {
+			if (nbRows >= 0) {
+				writer.write(MatrixPrefix + nbRows + REnvironment.SubSplitter + nbColumns + REnvironment.MainSplitter);
+			}
+			if (format == Format.Binary && (isNumeric() || type == Integer.class)) {
+				writer.write(BinaryPrefix + getTypeName());
+				writeBinaryValues(writer);
+			} else {
+				writer.write(getTypeName());
+				for (int i = 0; i < size; i++) {
+					if (i > 0) {
+						writer.write(REnvironment.SubSplitter);
+					}
+					writer.write(getValueString(i));
+				}
+			}
+		}
+	}
+
+	private void writeBinaryValues(Writer writer) throws IOException {
+		Base64.Encoder encoder = Base64.getEncoder();
+		int valueLength = isNumeric() ? 8 : 4;
+		ByteBuffer block = ByteBuffer.allocate(BinaryBlockLength).order(ByteOrder.LITTLE_ENDIAN);
+		for (int i = 0; i < size; i++) {
+			if (isNumeric()) {
+				block.putDouble(doubleValues[i]);
+			} else {
+				block.putInt((int) longValues[i]);
+			}
+			if (block.remaining() < valueLength || i == size - 1) {
+				writer.write(encoder.encodeToString(Arrays.copyOf(block.array(), block.position())));
+				block.clear();
+			}
+		}
+	}
+
+	@Override
+	public String toString() {
+		StringWriter writer = new StringWriter();
+		try {
+			writeTo(writer);
+		} catch (IOException e) {		// cannot happen with a StringWriter
+			throw new RuntimeException(e);
+		}
+		return writer.toString();
+	}
+
+}
@@ -19,6 +19,9 @@
 package repicea.lang.codetranslator;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
 import java.lang.reflect.Array;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.Field;
@@ -26,6 +29,7 @@ import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.security.InvalidParameterException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
@@ -34,9 +38,11 @@ import java.util.concurrent.ConcurrentHashMap;
 
 import repicea.lang.REpiceaSystem;
 import repicea.lang.reflect.ReflectUtility;
+import repicea.lang.codetranslator.PrimitiveVector.Format;
 import repicea.math.Matrix;
 import repicea.multiprocess.JavaProcess;
 import repicea.multiprocess.JavaProcessWrapper;
+import repicea.net.StreamableMessage;
 import repicea.net.server.BasicClient;
 import repicea.net.server.JavaLocalGatewayServer;
 import repicea.net.server.ServerConfiguration;
@@ -54,6 +60,8 @@ public class REnvironment extends ConcurrentHashMap<Integer, Object> implements
 	
 	private static final String MEMORY = "-mem";
 
+	private static final String MAXCONNECTIONS = "-maxconn";
+
 	public static final String MainSplitter = "/;";
 	
 	public static final String SubSplitter = "/,";
@@ -105,19 +113,69 @@ public class REnvironment extends ConcurrentHashMap<Integer, Object> implements
 		
 	}
 	
-	static class JavaObjectList extends ArrayList<ParameterWrapper> {
+	/**
+	 * The key of the method and constructor caches, that is the class, the name of the 
+	 * method and the types of the arguments.
+	 */
+	static final class ExecutableKey {
+		
+		final Class<?> clazz;
+		final String name;
+		final Class<?>[] parameterTypes;
+		private final int hashCode;
+		
+		ExecutableKey(Class<?> clazz, String name, Class<?>[] parameterTypes) {
+			this.clazz = clazz;
+			this.name = name;
+			this.parameterTypes = parameterTypes;
+			hashCode = 31 * (31 * clazz.hashCode() + name.hashCode()) + Arrays.hashCode(parameterTypes);
+		}
+		
+		@Override
+		public int hashCode() {return hashCode;}
+		
+		@Override
+		public boolean equals(Object obj) {
+			if (obj instanceof ExecutableKey) {
+				ExecutableKey key = (ExecutableKey) obj;
+				return clazz.equals(key.clazz) && name.equals(key.name) && Arrays.equals(parameterTypes, key.parameterTypes);
+			} else {
+				return false;
+			}
+		}
+	}
+	
+	static class JavaObjectList extends ArrayList<ParameterWrapper> implements StreamableMessage {
 		
 		@Override
 		public String toString() {
-			String output = "JavaList" + MainSplitter;
+			StringWriter writer = new StringWriter();
+			try {
+				writeTo(writer);
+			} catch (IOException e) {		// cannot happen with a StringWriter
+				throw new RuntimeException(e);
+			}
+			return writer.toString();
+		}
+
+		/*
+		 * The items are written one by one so that the reply is never entirely held in memory.
+		 */
+		@Override
+		public void writeTo(Writer writer) throws IOException {
+			writer.write("JavaList" + MainSplitter);
 			for (ParameterWrapper obj : this) {
-				String toBeAdded = obj.toString();
-				if (toBeAdded.startsWith("JavaObject" + MainSplitter)) {
-					toBeAdded = toBeAdded.substring(("JavaObject" + MainSplitter).length());
-				}
-				output = output + toBeAdded + SubSplitter;	
+				writer.write(getItemString(obj));
+				writer.write(SubSplitter);
 			}
-			return output;
+		}
+
+		private static String getItemString(ParameterWrapper obj) {
+			String toBeAdded = obj.toString();
+			if (toBeAdded.startsWith("JavaObject" + MainSplitter)) {
+				toBeAdded = toBeAdded.substring(("JavaObject" + MainSplitter).length());
+			}
+			return toBeAdded;
 		}
 	}
 	
@@ -201,19 +259,67 @@ public class REnvironment extends ConcurrentHashMap<Integer, Object> implements
 	private static String ConstructArrayCode = "createarray";
 	private static String ConstructNullArrayCode = "createnullarray";
 	private static String MethodCode = "method";
+	private static String MethodVectorCode = "methodvector";
+	private static String MethodBinaryVectorCode = "methodbinaryvector";
 	private static String SynchronizeEnvironment = "sync";
 	private static String FieldCode = "field";
 
+	private static final String ConstructorName = "<init>";
+	
+	/*
+	 * The resolution of the classes, methods and constructors is cached so that repeated 
+	 * calls from R do not go through the reflective lookup each time. The caches belong to the 
+	 * instance so that the classes they refer to can be unloaded once the environment is discarded.
+	 */
+	private final Map<String, Class<?>> classCache = new ConcurrentHashMap<String, Class<?>>();
+	private final Map<ExecutableKey, Method> methodCache = new ConcurrentHashMap<ExecutableKey, Method>();
+	private final Map<ExecutableKey, Constructor<?>> constructorCache = new ConcurrentHashMap<ExecutableKey, Constructor<?>>();
+	private volatile boolean isResolutionCacheEnabled = true;
+	
+	/**
+	 * Enable or disable the cache of classes, methods and constructors. This is meant for benchmarking.
+	 * @param enabled a boolean
+	 */
+	void setResolutionCacheEnabled(boolean enabled) {
+		isResolutionCacheEnabled = enabled;
+		classCache.clear();
+		methodCache.clear();
+		constructorCache.clear();
+	}
+	
+	private Class<?> findClass(String className) throws ClassNotFoundException {
+		Class<?> clazz = classCache.get(className);
+		if (clazz == null) {
+			clazz = Class.forName(className);
+			if (isResolutionCacheEnabled) {
+				classCache.put(className, clazz);
+			}
+		}
+		return clazz;
+	}
 	
 
 	
+	/**
+	 * The synchronization of the environment deletes the objects that are unknown to the client. It 
+	 * must not run concurrently with the requests that create these objects.
+	 */
+	@Override
+	public boolean isSequentialRequest(String request) {
+		return request.equals(SynchronizeEnvironment) || request.startsWith(SynchronizeEnvironment + MainSplitter);
+	}
+
 	@Override
 	public Object processCode(String request) throws Exception {
 		String[] requestStrings = request.split(MainSplitter);
 		if (requestStrings[0].startsWith(ConstructCode)) {	// can be either create, createarray or createnull here
 			return createObjectFromRequestStrings(requestStrings); 
 		} else if (requestStrings[0].equals(MethodCode)) {
-			return processMethod(requestStrings);
+			return processMethod(requestStrings, Format.List);
+		} else if (requestStrings[0].equals(MethodVectorCode)) {
+			return processMethod(requestStrings, Format.Text);
+		} else if (requestStrings[0].equals(MethodBinaryVectorCode)) {
+			return processMethod(requestStrings, Format.Binary);
 		} else if (requestStrings[0].equals(FieldCode)) {
 			return processField(requestStrings);
 		} else if (requestStrings[0].equals(SynchronizeEnvironment)) {
@@ -296,7 +402,7 @@ public class REnvironment extends ConcurrentHashMap<Integer, Object> implements
 				try {
 					String className = caller.value.toString();
 //					clazz = ClassLoader.getSystemClassLoader().loadClass(className);
-					clazz = Class.forName(className);
+					clazz = findClass(className);
 					lookingForStaticMethod = true;
 					wrappers = new ArrayList<ParameterWrapper>();
 					wrappers.add(new ParameterWrapper(clazz, null));
@@ -332,10 +438,11 @@ public class REnvironment extends ConcurrentHashMap<Integer, Object> implements
 		}
 		
 		JavaObjectList outputList = new JavaObjectList();
+		PrimitiveVector primitiveOutput = PrimitiveVector.isSupported(field.getType()) ? new PrimitiveVector(field.getType(), Format.List) : null;
 		if (parameters.isEmpty()) {
 			for (int j = 0; j < wrappers.size(); j++) {
 				Object result = field.get(wrappers.get(j).value);
-				registerMethodOutput(result, outputList);
+				registerMethodOutput(result, outputList, primitiveOutput, Format.List);
 			}
 		} else {
 			if (wrappers.size() > 1 && parameters.getInnerSize() > 1 && wrappers.size() != parameters.getInnerSize()) {
@@ -356,17 +463,16 @@ public class REnvironment extends ConcurrentHashMap<Integer, Object> implements
 				}		
 			}
 		}
-		if (outputList.isEmpty()) {
-			return null;
-		} else if (outputList.size() == 1) {
-			return outputList.get(0);
-		} else {
-			return outputList;
-		}
+		return getMethodOutput(outputList, primitiveOutput, Format.List);
 	}
 
+	/*
+	 * The format determines how the primitive results are sent back. In the List format, 
+	 * arrays and Matrix instances are registered in the environment like any other object. 
+	 * In the Text and Binary formats, they are sent as vectors of values instead. 
+	 */
 	@SuppressWarnings({ "rawtypes", "unchecked" })
-	private Object processMethod(String[] requestStrings) throws Exception {
+	private Object processMethod(String[] requestStrings, Format format) throws Exception {
 		Class clazz = null;
 		List<ParameterWrapper> wrappers = null;
 		boolean lookingForStaticMethod = false;
@@ -381,7 +487,7 @@ public class REnvironment extends ConcurrentHashMap<Integer, Object> implements
 				try {
 					String className = caller.value.toString();
 //					clazz = ClassLoader.getSystemClassLoader().loadClass(className);
-					clazz = Class.forName(className);
+					clazz = findClass(className);
 					lookingForStaticMethod = true;
 					wrappers = new ArrayList<ParameterWrapper>();
 					wrappers.add(new ParameterWrapper(clazz, null));
@@ -396,20 +502,7 @@ public class REnvironment extends ConcurrentHashMap<Integer, Object> implements
 		List<Class<?>> parameterTypes = outputLists[0];
 		ParameterList parameters = (ParameterList) outputLists[1];
 		String methodName = requestStrings[2];
-		Method met;
-		try {
-			if (parameters.isEmpty()) {
-				met = clazz.getMethod(methodName, (Class[]) null);
-			} else {
-				met = clazz.getMethod(methodName, parameterTypes.toArray(new Class[]{}));
-			}
-		} catch (NoSuchMethodException e) {		
-			if (parameters.isEmpty()) {
-				throw e;
-			} else {	// the exception might arise from the fact that the types are from derived classes
-				met = findNearestMethod(clazz, methodName, parameterTypes);
-			}
-		} 			
+		Method met = getMethod(clazz, methodName, parameterTypes);
 
 		if (lookingForStaticMethod) {	
 			if (!Modifier.isStatic(met.getModifiers())) {		// checks if the method is truly static or throws an exception otherwise
@@ -418,10 +511,11 @@ public class REnvironment extends ConcurrentHashMap<Integer, Object> implements
 		}
 		
 		JavaObjectList outputList = new JavaObjectList();
+		PrimitiveVector primitiveOutput = PrimitiveVector.isSupported(met.getReturnType()) ? new PrimitiveVector(met.getReturnType(), format) : null;
 		if (parameters.isEmpty()) {
 			for (int j = 0; j < wrappers.size(); j++) {
 				Object result = met.invoke(wrappers.get(j).value, (Object[]) null);
-				registerMethodOutput(result, outputList);
+				registerMethodOutput(result, outputList, primitiveOutput, format);
 			}
 		} else {
 			if (wrappers.size() > 1 && parameters.getInnerSize() > 1 && wrappers.size() != parameters.getInnerSize()) {
@@ -438,13 +532,22 @@ public class REnvironment extends ConcurrentHashMap<Integer, Object> implements
 						k = 0;
 					}
 					Object result = met.invoke(wrappers.get(k).value, parameters.getParameterArray(j));
-					registerMethodOutput(result, outputList);
+					registerMethodOutput(result, outputList, primitiveOutput, format);
 				}		
 			}
 		}
-		if (outputList.isEmpty()) {
+		return getMethodOutput(outputList, primitiveOutput, format);
+	}
+
+	private Object getMethodOutput(JavaObjectList outputList, PrimitiveVector primitiveOutput, Format format) {
+		if (primitiveOutput != null) {
+			return primitiveOutput.isEmpty() ? null : primitiveOutput;
+		} else if (outputList.isEmpty()) {
 			return null;
 		} else if (outputList.size() == 1) {
+			if (format != Format.List && PrimitiveVector.isConvertible(outputList.get(0).value)) {
+				return PrimitiveVector.createFromArray(outputList.get(0).value, format);
+			}
 			return outputList.get(0);
 		} else {
 			return outputList;
@@ -470,6 +573,31 @@ public class REnvironment extends ConcurrentHashMap<Integer, Object> implements
 		}
 	}
 
+	/*
+	 * The method is first looked for with the exact types of the arguments. If it cannot be found, 
+	 * the nearest method is then retrieved. The result is cached in both cases.
+	 */
+	private Method getMethod(Class<?> clazz, String methodName, List<Class<?>> parameterTypes) throws NoSuchMethodException {
+		Class<?>[] parameterTypeArray = parameterTypes.toArray(new Class<?>[parameterTypes.size()]);
+		ExecutableKey key = new ExecutableKey(clazz, methodName, parameterTypeArray);
+		Method met = methodCache.get(key);
+		if (met == null) {
+			try {
+				met = clazz.getMethod(methodName, parameterTypeArray);
+			} catch (NoSuchMethodException e) {		
+				if (parameterTypes.isEmpty()) {
+					throw e;
+				} else {	// the exception might arise from the fact that the types are from derived classes
+					met = findNearestMethod(clazz, methodName, parameterTypes);
+				}
+			}
+			if (isResolutionCacheEnabled) {
+				methodCache.put(key, met);
+			}
+		}
+		return met;
+	}
+	
 	@SuppressWarnings("rawtypes")
 	private Method findNearestMethod(Class clazz, String methodName, List<Class<?>> parameterTypes) throws NoSuchMethodException {
 		Method[] methods = clazz.getMethods();
@@ -491,6 +619,23 @@ public class REnvironment extends ConcurrentHashMap<Integer, Object> implements
 		return possibleMatches.get(0).method;
 	}
 	
+	/*
+	 * The primitive results are stored in the primitive vector if any. Otherwise, they are wrapped.
+	 */
+	private void registerMethodOutput(Object result, JavaObjectList outputList, PrimitiveVector primitiveOutput, Format format) {
+		if (primitiveOutput != null) {
+			primitiveOutput.add(result);
+		} else if (format != Format.List && (PrimitiveVector.isConvertible(result) || 
+				(!outputList.isEmpty() && PrimitiveVector.isConvertible(outputList.get(0).value)))) {
+			if (!outputList.isEmpty()) {
+				throw new InvalidParameterException("An array or a Matrix can only be sent as a vector if there is a single call!");
+			}
+			outputList.add(new ParameterWrapper(result.getClass(), result));	// not registered in the environment since it is sent as a vector
+		} else {
+			registerMethodOutput(result, outputList);
+		}
+	}
+	
 	private void registerMethodOutput(Object result, JavaObjectList outputList) {
 		if (result != null) {
 			if (!ReflectUtility.JavaWrapperToPrimitiveMap.containsKey(result.getClass())) {
@@ -577,7 +722,7 @@ public class REnvironment extends ConcurrentHashMap<Integer, Object> implements
 			clazz = ReflectUtility.PrimitiveTypeMap.get(className);
 		} else {
 //			clazz = ClassLoader.getSystemClassLoader().loadClass(className);
-			clazz = Class.forName(className);
+			clazz = findClass(className);
 		}
 		
 		List[] outputLists = marshallParameters(requestStrings, 2);
@@ -628,10 +773,17 @@ public class REnvironment extends ConcurrentHashMap<Integer, Object> implements
 				return Array.newInstance(clazz, dimensions);
 			}
 			if (clazz.isEnum()) {
-				Method met = clazz.getMethod("valueOf", String.class);
+				Method met = getMethod(clazz, "valueOf", Arrays.asList(new Class<?>[] {String.class}));
 				return met.invoke(null, paramValues[0].toString());
 			} else {
-				Constructor<?> constructor = clazz.getConstructor(paramTypes);
+				ExecutableKey key = new ExecutableKey(clazz, ConstructorName, paramTypes);
+				Constructor<?> constructor = constructorCache.get(key);
+				if (constructor == null) {
+					constructor = clazz.getConstructor(paramTypes);
+					if (isResolutionCacheEnabled) {
+						constructorCache.put(key, constructor);
+					}
+				}
 				return constructor.newInstance(paramValues);
 			}
 		}
@@ -725,6 +877,12 @@ public class REnvironment extends ConcurrentHashMap<Integer, Object> implements
 					newCommands.add(port);
 				}
 				
+				String maxNumberOfConnections = REpiceaSystem.retrieveArgument(MAXCONNECTIONS, arguments);
+				if (maxNumberOfConnections != null) {
+					newCommands.add(MAXCONNECTIONS);
+					newCommands.add(maxNumberOfConnections);
+				}
+				
 				String memorySizeStr = REpiceaSystem.retrieveArgument(MEMORY, arguments);
 				Integer memorySize = null;
 				if (memorySizeStr != null) {
@@ -758,7 +916,14 @@ public class REnvironment extends ConcurrentHashMap<Integer, Object> implements
 			} else {
 				port = 18011;		// default port
 			}
-			server = new JavaLocalGatewayServer(new ServerConfiguration(port, Protocol.TCP), new REnvironment());
+			String maxNumberOfConnectionsStr = REpiceaSystem.retrieveArgument(MAXCONNECTIONS, arguments);
+			ServerConfiguration configuration;
+			if (maxNumberOfConnectionsStr != null) {		// many clients served through a selector
+				configuration = new ServerConfiguration(port, Integer.parseInt(maxNumberOfConnectionsStr));
+			} else {
+				configuration = new ServerConfiguration(port, Protocol.TCP);
+			}
+			server = new JavaLocalGatewayServer(configuration, new REnvironment());
 			server.startApplication();
 		} catch (Exception e) {
 			System.exit(1);
@@ -33,4 +33,15 @@ public interface REpiceaCodeTranslator {
 	 */
 	public Object processCode(String request) throws Exception;
 
+	/**
+	 * Check whether a request depends on all the requests received before it. Such a request is not 
+	 * processed concurrently with other requests, even if it is pipelined: it waits until the former 
+	 * requests have been processed and the requests that follow wait until it has been processed.
+	 * @param request a String
+	 * @return a boolean (false by default)
+	 */
+	public default boolean isSequentialRequest(String request) {
+		return false;
+	}
+
 }
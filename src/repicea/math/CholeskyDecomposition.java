@@ -0,0 +1,196 @@
+/*
+ * This file is part of the repicea library.
+ *
+ * Copyright (C) 2009-2019 Mathieu Fortin for Rouge-Epicea
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed with the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * Please see the license at http://www.gnu.org/copyleft/lesser.html.
+ */
+package repicea.math;
+
+/**
+ * The CholeskyDecomposition class computes the decomposition A = LL<sup>T</sup> of a symmetric positive definite
+ * matrix. The decomposition is computed once in the constructor and it can then be used to solve many
+ * linear systems, or to compute the determinant and the inverse of the matrix. It is about twice as fast
+ * as the LU decomposition.
+ */
+public final class CholeskyDecomposition {
+
+	private final int n;
+	private final double[] l;
+
+	/**
+	 * Constructor. Checks are implemented to make sure that the matrix is square and symmetric.
+	 * @param m a symmetric positive definite Matrix instance
+	 * @throws UnsupportedOperationException if the matrix is not square, not symmetric or not positive definite
+	 */
+	public CholeskyDecomposition(Matrix m) {
+		this(m, true);
+	}
+
+	/**
+	 * Package constructor that allows for skipping the symmetry check.
+	 * @param m a symmetric positive definite Matrix instance
+	 * @param checkSymmetry true to check that the matrix is symmetric
+	 */
+	CholeskyDecomposition(Matrix m, boolean checkSymmetry) {
+		this(m, checkSymmetry, false);
+	}
+	
+	/**
+	 * Package constructor that allows for null pivots. This is the behaviour of the Matrix.getLowerCholTriangle 
+	 * method, which accepts some semi-definite matrices as long as no NaN is generated. 
+	 * @param m a symmetric positive definite Matrix instance
+	 * @param checkSymmetry true to check that the matrix is symmetric
+	 * @param allowNullPivots true to accept a pivot equal to 0
+	 */
+	CholeskyDecomposition(Matrix m, boolean checkSymmetry, boolean allowNullPivots) {
+		if (!m.isSquare()) {
+			throw new UnsupportedOperationException("Matrix.lowerChol() : The input matrix is not square");
+		} else if (checkSymmetry && !m.isSymmetric()) {
+			throw new UnsupportedOperationException("Matrix.lowerChol() : The input square matrix is not symmetric");
+		}
+		n = m.m_iRows;
+		l = new double[n * n];
+		double[] a = m.m_afFlatData;
+		for (int i = 0; i < n; i++) {
+			int iOffset = i * n;
+			for (int j = 0; j <= i; j++) {
+				int jOffset = j * n;
+				double sum = a[iOffset + j];
+				for (int k = 0; k < j; k++) {
+					sum -= l[iOffset + k] * l[jOffset + k];
+				}
+				double value;
+				if (i == j) {
+					if (sum < 0d || (sum == 0d && !allowNullPivots)) {
+						throw new UnsupportedOperationException("Matrix.lowerChol(): the matrix is not positive definite!");
+					}
+					value = Math.sqrt(sum);
+				} else {
+					value = sum / l[jOffset + j];
+				}
+				if (Double.isNaN(value)) {
+					throw new UnsupportedOperationException("Matrix.lowerChol(): the lower triangle of the Cholesky decomposition cannot be calculated because NaN have been generated!");
+				}
+				l[iOffset + j] = value;
+			}
+		}
+	}
+
+	/**
+	 * Return the lower triangle L of the decomposition.
+	 * @return a Matrix instance
+	 */
+	public Matrix getLowerTriangle() {
+		Matrix lower = new Matrix(n, n);
+		System.arraycopy(l, 0, lower.m_afFlatData, 0, l.length);
+		return lower;
+	}
+
+	/**
+	 * Return the determinant of the original matrix.
+	 * @return a double
+	 */
+	public double getDeterminant() {
+		double product = 1d;
+		for (int i = 0; i < n; i++) {
+			product *= l[i * n + i];
+		}
+		return product * product;
+	}
+
+	/**
+	 * Return the logarithm of the determinant of the original matrix. This method
+	 * avoids the overflows and underflows that occur with large matrices.
+	 * @return a double
+	 */
+	public double getLogDeterminant() {
+		double sum = 0d;
+		for (int i = 0; i < n; i++) {
+			sum += Math.log(l[i * n + i]);
+		}
+		return 2d * sum;
+	}
+
+	/**
+	 * Solve the linear system AX = B through forward and backward substitutions without
+	 * computing the inverse of A.
+	 * @param b a Matrix instance whose number of rows is equal to that of the original matrix
+	 * @return the solution X in a new Matrix instance
+	 * @throws UnsupportedOperationException if the original matrix is singular
+	 */
+	public Matrix solve(Matrix b) {
+		if (b.m_iRows != n) {
+			throw new UnsupportedOperationException("CholeskyDecomposition.solve(): The number of rows of matrix b is incompatible!");
+		}
+		for (int i = 0; i < n; i++) {
+			if (l[i * n + i] == 0d) {
+				throw new UnsupportedOperationException("The matrix cannot be inverted as its determinant is equal to 0!");
+			}
+		}
+		int q = b.m_iCols;
+		Matrix x = b.getDeepClone();
+		double[] xData = x.m_afFlatData;
+		for (int k = 0; k < n; k++) {		// forward substitution L Y = B
+			int kOffset = k * q;
+			double l_kk = l[k * n + k];
+			for (int j = 0; j < q; j++) {
+				xData[kOffset + j] /= l_kk;
+			}
+			for (int i = k + 1; i < n; i++) {
+				double l_ik = l[i * n + k];
+				if (l_ik != 0d) {
+					int iOffset = i * q;
+					for (int j = 0; j < q; j++) {
+						xData[iOffset + j] -= l_ik * xData[kOffset + j];
+					}
+				}
+			}
+		}
+		for (int k = n - 1; k >= 0; k--) {	// backward substitution L^T X = Y
+			int kOffset = k * q;
+			for (int i = k + 1; i < n; i++) {
+				double l_ik = l[i * n + k];
+				if (l_ik != 0d) {
+					int iOffset = i * q;
+					for (int j = 0; j < q; j++) {
+						xData[kOffset + j] -= l_ik * xData[iOffset + j];
+					}
+				}
+			}
+			double l_kk = l[k * n + k];
+			for (int j = 0; j < q; j++) {
+				xData[kOffset + j] /= l_kk;
+			}
+		}
+		return x;
+	}
+
+	/**
+	 * Compute the inverse of the original matrix.
+	 * @return a symmetric Matrix instance
+	 */
+	public Matrix getInverse() {
+		Matrix inverse = solve(Matrix.getIdentityMatrix(n));
+		double[] data = inverse.m_afFlatData;
+		for (int i = 0; i < n; i++) {		// enforce the symmetry that is lost through rounding errors
+			for (int j = i + 1; j < n; j++) {
+				double mean = (data[i * n + j] + data[j * n + i]) * .5;
+				data[i * n + j] = mean;
+				data[j * n + i] = mean;
+			}
+		}
+		return inverse;
+	}
+}
@@ -0,0 +1,208 @@
+/*
+ * This file is part of the repicea library.
+ *
+ * Copyright (C) 2009-2019 Mathieu Fortin for Rouge-Epicea
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed with the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * Please see the license at http://www.gnu.org/copyleft/lesser.html.
+ */
+package repicea.math;
+
+/**
+ * The LUDecomposition class computes the LU decomposition with partial pivoting of a square matrix, so
+ * that PA = LU. The decomposition is computed once in the constructor and it can then be used
+ * to solve many linear systems, or to compute the determinant and the inverse of the matrix.<p>
+ * The diagonal of the lower triangle L is 1. Both triangles are stored in a single array.
+ */
+public final class LUDecomposition {
+
+	private final int n;
+	private final double[] lu;
+	private final int[] pivot;
+	private final boolean isSingular;
+	private int pivotSign;
+
+	/**
+	 * Constructor. The decomposition is computed on a copy of the matrix.
+	 * @param m a square Matrix instance
+	 * @throws UnsupportedOperationException if the matrix is not square
+	 */
+	public LUDecomposition(Matrix m) {
+		if (!m.isSquare()) {
+			throw new UnsupportedOperationException("LUDecomposition: The matrix is not square!");
+		}
+		n = m.m_iRows;
+		lu = m.m_afFlatData.clone();
+		pivot = new int[n];
+		for (int i = 0; i < n; i++) {
+			pivot[i] = i;
+		}
+		pivotSign = 1;
+		boolean singular = false;
+		for (int k = 0; k < n; k++) {
+			int p = k;
+			double max = Math.abs(lu[k * n + k]);
+			for (int i = k + 1; i < n; i++) {
+				double value = Math.abs(lu[i * n + k]);
+				if (value > max) {
+					max = value;
+					p = i;
+				}
+			}
+			if (p != k) {
+				swapRows(p, k);
+				int tmp = pivot[p];
+				pivot[p] = pivot[k];
+				pivot[k] = tmp;
+				pivotSign = -pivotSign;
+			}
+			double pivotValue = lu[k * n + k];
+			if (pivotValue == 0d) {
+				singular = true;
+				continue;
+			}
+			int kOffset = k * n;
+			for (int i = k + 1; i < n; i++) {
+				int iOffset = i * n;
+				double factor = lu[iOffset + k] / pivotValue;
+				lu[iOffset + k] = factor;
+				if (factor != 0d) {
+					for (int j = k + 1; j < n; j++) {
+						lu[iOffset + j] -= factor * lu[kOffset + j];
+					}
+				}
+			}
+		}
+		isSingular = singular;
+	}
+
+	private void swapRows(int i, int j) {
+		int iOffset = i * n;
+		int jOffset = j * n;
+		for (int k = 0; k < n; k++) {
+			double tmp = lu[iOffset + k];
+			lu[iOffset + k] = lu[jOffset + k];
+			lu[jOffset + k] = tmp;
+		}
+	}
+
+	/**
+	 * Indicate whether the original matrix is singular, i.e. if at least one of the pivots is 0.
+	 * @return a boolean
+	 */
+	public boolean isSingular() {return isSingular;}
+
+	/**
+	 * Return the determinant of the original matrix.
+	 * @return a double
+	 */
+	public double getDeterminant() {
+		double determinant = pivotSign;
+		for (int i = 0; i < n; i++) {
+			determinant *= lu[i * n + i];
+		}
+		return determinant;
+	}
+
+	/**
+	 * Return the lower triangle of the decomposition. Its diagonal elements are 1.
+	 * @return a Matrix instance
+	 */
+	public Matrix getLowerTriangle() {
+		Matrix l = new Matrix(n, n);
+		for (int i = 0; i < n; i++) {
+			System.arraycopy(lu, i * n, l.m_afFlatData, i * n, i);
+			l.m_afFlatData[i * n + i] = 1d;
+		}
+		return l;
+	}
+
+	/**
+	 * Return the upper triangle of the decomposition.
+	 * @return a Matrix instance
+	 */
+	public Matrix getUpperTriangle() {
+		Matrix u = new Matrix(n, n);
+		for (int i = 0; i < n; i++) {
+			System.arraycopy(lu, i * n + i, u.m_afFlatData, i * n + i, n - i);
+		}
+		return u;
+	}
+
+	/**
+	 * Return the row permutations. The i<sup>th</sup> row of PA is the pivot[i]<sup>th</sup> row of A.
+	 * @return an array of integers
+	 */
+	public int[] getPivot() {
+		return pivot.clone();
+	}
+
+	/**
+	 * Solve the linear system AX = B without computing the inverse of A.
+	 * @param b a Matrix instance whose number of rows is equal to that of the original matrix
+	 * @return the solution X in a new Matrix instance
+	 * @throws UnsupportedOperationException if the original matrix is singular
+	 */
+	public Matrix solve(Matrix b) {
+		if (b.m_iRows != n) {
+			throw new UnsupportedOperationException("LUDecomposition.solve(): The number of rows of matrix b is incompatible!");
+		}
+		if (isSingular) {
+			throw new UnsupportedOperationException("The matrix cannot be inverted as its determinant is equal to 0!");
+		}
+		int q = b.m_iCols;
+		Matrix x = new Matrix(n, q);
+		double[] xData = x.m_afFlatData;
+		for (int i = 0; i < n; i++) {
+			System.arraycopy(b.m_afFlatData, pivot[i] * q, xData, i * q, q);
+		}
+		for (int k = 0; k < n; k++) {		// forward substitution
+			int kOffset = k * q;
+			for (int i = k + 1; i < n; i++) {
+				double l_ik = lu[i * n + k];
+				if (l_ik != 0d) {
+					int iOffset = i * q;
+					for (int j = 0; j < q; j++) {
+						xData[iOffset + j] -= l_ik * xData[kOffset + j];
+					}
+				}
+			}
+		}
+		for (int k = n - 1; k >= 0; k--) {	// backward substitution
+			int kOffset = k * q;
+			double u_kk = lu[k * n + k];
+			for (int j = 0; j < q; j++) {
+				xData[kOffset + j] /= u_kk;
+			}
+			for (int i = 0; i < k; i++) {
+				double u_ik = lu[i * n + k];
+				if (u_ik != 0d) {
+					int iOffset = i * q;
+					for (int j = 0; j < q; j++) {
+						xData[iOffset + j] -= u_ik * xData[kOffset + j];
+					}
+				}
+			}
+		}
+		return x;
+	}
+
+	/**
+	 * Compute the inverse of the original matrix.
+	 * @return a Matrix instance
+	 * @throws UnsupportedOperationException if the original matrix is singular
+	 */
+	public Matrix getInverse() {
+		return solve(Matrix.getIdentityMatrix(n));
+	}
+}
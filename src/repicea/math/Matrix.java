@@ -18,14 +18,20 @@
  */
 package repicea.math;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.security.InvalidParameterException;
 import java.text.DecimalFormat;
 import java.text.NumberFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 
+import repicea.serial.xml.PostXmlUnmarshalling;
+import repicea.serial.xml.PreXmlMarshalling;
 import repicea.util.DeepCloneable;
 
 
@@ -33,7 +39,7 @@ import repicea.util.DeepCloneable;
  * This class implement most of the basic function in linear algebra
  * Authors: Jean-Francois Lavoie and Mathieu Fortin (June 2009)
  */
-public final class Matrix implements Serializable, DeepCloneable {
+public final class Matrix implements Serializable, DeepCloneable, PostXmlUnmarshalling, PreXmlMarshalling {
 
 	private static final long serialVersionUID = 20100804L;
 		
@@ -41,6 +47,12 @@ public final class Matrix implements Serializable, DeepCloneable {
 	
 	public static int NB_ROWS_BEYOND_WHICH_MATRIX_INVERSION_TAKES_TOO_MUCH_TIME = 600;
 	
+	/**
+	 * The size of the square blocks used in the matrix products. The blocks 
+	 * are small enough to remain in the L1/L2 caches.
+	 */
+	private static final int BLOCK_SIZE = 64;
+	
 	private static final NumberFormat ScientificFormatter = new DecimalFormat("0.##E0");
 	
 	private static final NumberFormat SimpleDecimalFormatter = NumberFormat.getNumberInstance();
@@ -53,7 +65,20 @@ public final class Matrix implements Serializable, DeepCloneable {
 	
 	private static final double EPSILON = 1E-12;
 	
-	private final double[][] m_afData;
+	/**
+	 * The elements of the matrix stored row after row in a single array. The element 
+	 * at row i and column j is found at index i * m_iCols + j. This member is not serialized.
+	 */
+	transient double[] m_afFlatData;
+	
+	/**
+	 * Former storage of the elements, which remains the serialized form of the matrix. This member is 
+	 * only filled during the serialization and the deserialization. 
+	 * @see Matrix#preMarshallingAction()
+	 * @see Matrix#postUnmarshallingAction()
+	 */
+	private double[][] m_afData;
+	
 	public final int m_iRows;
 	public final int m_iCols;
 	
@@ -62,9 +87,9 @@ public final class Matrix implements Serializable, DeepCloneable {
 	 */
 	public Matrix(double data[][]) {
 		this(data.length, data[0].length);
-		for (int i = 0; i < m_iRows; i++)
-			for (int j = 0; j < m_iCols; j++)
-				setValueAt(i, j, data[i][j]);
+		for (int i = 0; i < m_iRows; i++) {
+			System.arraycopy(data[i], 0, m_afFlatData, i * m_iCols, m_iCols);
+		}
 	}
 	
 	/**
@@ -73,8 +98,7 @@ public final class Matrix implements Serializable, DeepCloneable {
 	 */
 	public Matrix(double data[]) {
 		this(data.length, 1);
-		for (int i = 0; i < m_iRows; i++)
-			setValueAt(i, 0, data[i]);
+		System.arraycopy(data, 0, m_afFlatData, 0, m_iRows);
 	}
 	
 	/**
@@ -83,10 +107,8 @@ public final class Matrix implements Serializable, DeepCloneable {
 	 */
 	public Matrix(List<? extends Number> list) {
 		this(list.size(), 1);
-		Number number;
 		for (int i = 0; i < m_iRows; i++) {
-			number = list.get(i);
-			setValueAt(i, 0, number.doubleValue());
+			m_afFlatData[i] = list.get(i).doubleValue();
 		}
 	}
 	
@@ -100,11 +122,9 @@ public final class Matrix implements Serializable, DeepCloneable {
 	public Matrix(int iRows, int iCols, double from, double iIncrement) {
 		this(iRows,iCols);
 		double value = from;
-		for (int i = 0; i < m_iRows; i++) {
-			for (int j = 0; j < m_iCols; j++) {
-				setValueAt(i, j, value);
-				value += iIncrement;
-			}
+		for (int k = 0; k < m_afFlatData.length; k++) {
+			m_afFlatData[k] = value;
+			value += iIncrement;
 		}
 	}
 
@@ -114,27 +134,82 @@ public final class Matrix implements Serializable, DeepCloneable {
 	 * @param iCols number of columns
 	 */
 	public Matrix(int iRows, int iCols) {
-		this(iRows, iCols, true);
+		if (iRows <= 0 || iCols <= 0) {
+			throw new InvalidParameterException("The number of rows or columns must be equal to or greater than 1!");
+		}
+		m_afFlatData = new double[iRows * iCols];
+		m_iRows = iRows;
+		m_iCols = iCols;
 	}
 
 	/**
-	 * Protected constructor which allows for the former implementation. 
+	 * Protected constructor which allowed for the former implementation. The elements are now
+	 * stored in a single array whatever the dimensions and the newImplementation argument no longer
+	 * has any effect.
 	 * @param iRows number of rows
 	 * @param iCols number of columns
-	 * @param newImplementation if true, the column vector are stored in transposed manner so that they take less memory. 
-	 * By default, it is set to true.
+	 * @param newImplementation ignored
 	 */
 	protected Matrix(int iRows, int iCols, boolean newImplementation) {
-		if (iRows <= 0 || iCols <= 0) {
-			throw new InvalidParameterException("The number of rows or columns must be equal to or greater than 1!");
+		this(iRows, iCols);
+	}
+
+	/**
+	 * Convert the two-dimension array of the serialized form into the single array after 
+	 * the deserialization.
+	 */
+	@Override
+	public void postUnmarshallingAction() {
+		if (m_afData != null) {
+			double[] flatData = new double[m_iRows * m_iCols];
+			if (isColumnVector() && m_afData.length == 1) {		// the former implementation stored column vectors as row vectors
+				System.arraycopy(m_afData[0], 0, flatData, 0, m_iRows);
+			} else {
+				for (int i = 0; i < m_iRows; i++) {
+					System.arraycopy(m_afData[i], 0, flatData, i * m_iCols, m_iCols);
+				}
+			}
+			m_afFlatData = flatData;
+			m_afData = null;
 		}
-		if (iCols == 1 && newImplementation) {
-			m_afData = new double[iCols][iRows];		// the array is stored as a row vector for better memory management
+	}
+
+	/**
+	 * Copy the elements into the two-dimension array of the former implementation, which is the 
+	 * serialized form of the matrix. Column vectors are stored as row vectors.
+	 */
+	@Override
+	public void preMarshallingAction() {
+		if (isColumnVector() && !isRowVector()) {
+			m_afData = new double[][] {m_afFlatData.clone()};
 		} else {
-	  		m_afData = new double[iRows][iCols];
+			m_afData = new double[m_iRows][m_iCols];
+			for (int i = 0; i < m_iRows; i++) {
+				System.arraycopy(m_afFlatData, i * m_iCols, m_afData[i], 0, m_iCols);
+			}
 		}
-		m_iRows = iRows;
-		m_iCols = iCols;
+	}
+
+	/**
+	 * Release the two-dimension array once the matrix has been serialized.
+	 */
+	@Override
+	public void postMarshallingAction() {
+		m_afData = null;
+	}
+
+	private void writeObject(ObjectOutputStream out) throws IOException {
+		preMarshallingAction();
+		try {
+			out.defaultWriteObject();
+		} finally {
+			postMarshallingAction();
+		}
+	}
+
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		postUnmarshallingAction();
 	}
 	
 	/**
@@ -145,17 +220,11 @@ public final class Matrix implements Serializable, DeepCloneable {
 	public double[][] toArray() {
 		double[][] arr = new double[m_iRows][m_iCols];
 		for (int i = 0; i < m_iRows; i++) {
-			for (int j = 0; j < m_iCols; j++) {
-				arr[i][j] = getValueAt(i, j);
-			}
+			System.arraycopy(m_afFlatData, i * m_iCols, arr[i], 0, m_iCols);
 		}
 		return arr;
 	}
 	
-	private boolean isNewImplementationForColumnVector() {
-		return isColumnVector() && !isRowVector() && m_afData.length == 1;	// second condition is to avoid side effect when dealing with a 1x1 matrix
-	}
-	
 	/**
 	 * Set the value at row i and column j.
 	 * @param i
@@ -163,11 +232,7 @@ public final class Matrix implements Serializable, DeepCloneable {
 	 * @param value
 	 */
 	public void setValueAt(int i, int j, double value) {
-		if (isNewImplementationForColumnVector()) {	// the vector is actually transposed for a better memory management
-			m_afData[j][i] = value;
-		} else {
-			m_afData[i][j] = value;
-		}
+		m_afFlatData[i * m_iCols + j] = value;
 	}
 	
 	/**
@@ -177,12 +242,7 @@ public final class Matrix implements Serializable, DeepCloneable {
 	 * @return a double
 	 */
 	public double getValueAt(int i, int j) {
-		return isNewImplementationForColumnVector() ? m_afData[j][i] : m_afData[i][j];
-//		if (isNewImplementationForColumnVector()) {	// the vector is actually transposed for a better memory management
-//			return m_afData[j][i];
-//		} else {
-//			return m_afData[i][j];
-//		}
+		return m_afFlatData[i * m_iCols + j];
 	}
 	
 	/**
@@ -191,16 +251,23 @@ public final class Matrix implements Serializable, DeepCloneable {
 	 * @return the result in a new Matrix instance
 	 */
 	public Matrix add(Matrix m) {
+		checkSameDimension(m);
 		Matrix mat = new Matrix(m_iRows, m_iCols);
-		for (int i = 0; i < m_iRows; i++) {
-			for (int j = 0; j < m_iCols; j++) {
-				mat.setValueAt(i, j, getValueAt(i, j) + m.getValueAt(i, j));
-			}
+		double[] a = m_afFlatData;
+		double[] b = m.m_afFlatData;
+		double[] c = mat.m_afFlatData;
+		for (int k = 0; k < c.length; k++) {
+			c[k] = a[k] + b[k];
 		}
-		
 		return mat;
 	}
 
+	private void checkSameDimension(Matrix m) {
+		if (!isTheSameDimension(m)) {
+			throw new UnsupportedOperationException("The matrix m does not have the same dimensions than the current matrix!");
+		}
+	}
+	
 	/**
 	 * This method tests whether if any element of the Matrix object is 
 	 * different from parameter d. 
@@ -293,17 +360,15 @@ public final class Matrix implements Serializable, DeepCloneable {
 	 * @return the resulting matrix
 	 */
 	public Matrix elementWiseDivide(Matrix m) {
-		if (isTheSameDimension(m)) {
-			Matrix oMat = new Matrix(this.m_iRows,this.m_iCols);
-			for (int i = 0; i < this.m_iRows; i++) {
-				for (int j = 0; j < this.m_iCols; j++) {
-					oMat.setValueAt(i, j, getValueAt(i, j) / m.getValueAt(i, j));
-				}
-			}
-			return oMat;
-		} else {
-			throw new UnsupportedOperationException("The matrix m does not have the same dimensions than the current matrix!");
+		checkSameDimension(m);
+		Matrix oMat = new Matrix(this.m_iRows,this.m_iCols);
+		double[] a = m_afFlatData;
+		double[] b = m.m_afFlatData;
+		double[] c = oMat.m_afFlatData;
+		for (int k = 0; k < c.length; k++) {
+			c[k] = a[k] / b[k];
 		}
+		return oMat;
 	}
 	
 	/**
@@ -312,19 +377,17 @@ public final class Matrix implements Serializable, DeepCloneable {
 	 * @return a Matrix instance
 	 */
 	public Matrix elementWiseMultiply(Matrix m) {
-		if (isTheSameDimension(m)) {
-			Matrix oMat = new Matrix(this.m_iRows,this.m_iCols);
-			for (int i = 0; i < this.m_iRows; i++) {
-				for (int j = 0; j < this.m_iCols; j++) {
-					if (getValueAt(i, j) != 0d && m.getValueAt(i, j) != 0d) {
-						oMat.setValueAt(i, j, getValueAt(i, j) * m.getValueAt(i, j));
-					}
-				}
+		checkSameDimension(m);
+		Matrix oMat = new Matrix(this.m_iRows,this.m_iCols);
+		double[] a = m_afFlatData;
+		double[] b = m.m_afFlatData;
+		double[] c = oMat.m_afFlatData;
+		for (int k = 0; k < c.length; k++) {
+			if (a[k] != 0d && b[k] != 0d) {
+				c[k] = a[k] * b[k];
 			}
-			return oMat;
-		} else {
-			throw new UnsupportedOperationException("The matrix m does not have the same dimensions than the current matrix!");
 		}
+		return oMat;
 	}
 	
 	/**
@@ -333,10 +396,8 @@ public final class Matrix implements Serializable, DeepCloneable {
 	 */
 	public Matrix expMatrix() {
 		Matrix matrix = new Matrix(m_iRows, m_iCols);
-		for (int i = 0; i < matrix.m_iRows; i++) {
-			for (int j = 0; j < matrix.m_iCols; j++) {
-				matrix.setValueAt(i, j, Math.exp(getValueAt(i, j)));
-			}
+		for (int k = 0; k < m_afFlatData.length; k++) {
+			matrix.m_afFlatData[k] = Math.exp(m_afFlatData[k]);
 		}
 		return matrix;
 	}
@@ -348,36 +409,7 @@ public final class Matrix implements Serializable, DeepCloneable {
 	 * @throws UnsupportedOperationException if the Cholesky factorisation cannot be completed
 	 */
     public Matrix getLowerCholTriangle() {
-    	if (!isSquare()) {		    	// Tests to check if M1 is square and symmetric 
-    		throw new UnsupportedOperationException("Matrix.lowerChol() : The input matrix is not square");
-    	} else if (!isSymmetric()) {
-    		throw new UnsupportedOperationException("Matrix.lowerChol() : The input square matrix is not symmetric");
-    	}
-
-    	int m1Row = m_iRows;
-    	Matrix matrix = new Matrix(m1Row,m1Row);
-    	double dTmp;
-    	for (int i = 0; i < m1Row; i++) {
-    		for (int j = 0; j <= i; j++) {
-    			if (j == i) {
-    				dTmp = 0;
-    				for (int k = 0; k <= i - 1; k++) {
-    					dTmp += matrix.getValueAt(i, k) * matrix.getValueAt(i, k);
-    				}
-    				matrix.setValueAt(i, j, Math.sqrt(getValueAt(i, j) - dTmp));
-    			} else {
-    				dTmp = 0;
-    				for (int k = 0; k <= j - 1; k++) {
-    					dTmp += matrix.getValueAt(i, k) * matrix.getValueAt(j, k);
-    				}
-    				matrix.setValueAt(i, j, 1d / matrix.getValueAt(j, j) * (getValueAt(i, j) - dTmp));
-    			}
-    			if (Double.isNaN(matrix.getValueAt(i, j))) {
-    				throw new UnsupportedOperationException("Matrix.lowerChol(): the lower triangle of the Cholesky decomposition cannot be calculated because NaN have been generated!");
-    			}
-    		}
-    	}
-    	return matrix;
+    	return new CholeskyDecomposition(this, true, true).getLowerTriangle();
     }
 
 	/**
@@ -391,11 +423,12 @@ public final class Matrix implements Serializable, DeepCloneable {
 	public Matrix getSubMatrix(int startRow, int endRow, int startColumn, int endColumn) {
 		int iRows = endRow - startRow + 1;
 		int iCols = endColumn - startColumn + 1;
+		if (endRow >= m_iRows || endColumn >= m_iCols || startRow < 0 || startColumn < 0) {
+			throw new ArrayIndexOutOfBoundsException("The submatrix bounds exceed the dimensions of this matrix!");
+		}
 		Matrix mat = new Matrix(iRows, iCols);
 		for (int i = 0; i < iRows; i++) {
-			for (int j = 0; j < iCols; j++) {
-				mat.setValueAt(i, j, getValueAt(startRow + i, startColumn + j));
-			}
+			System.arraycopy(m_afFlatData, (startRow + i) * m_iCols + startColumn, mat.m_afFlatData, i * iCols, iCols);
 		}
 		return mat;		
 	}
@@ -630,13 +663,26 @@ public final class Matrix implements Serializable, DeepCloneable {
 			throw new UnsupportedOperationException("The matrix m cannot multiply the current matrix for the number of rows is incompatible!");
 		} else {
 			Matrix mat = new Matrix(m_iRows, m.m_iCols);
-			for (int i_this = 0; i_this < m_iRows; i_this++) {
-				for (int j_m = 0; j_m < m.m_iCols; j_m++ ) {
-					for (int j_this = 0; j_this < m_iCols; j_this++) {
-						int i_m = j_this;
-						if (getValueAt(i_this, j_this) != 0d && m.getValueAt(i_m, j_m) != 0d) {
-							double newValue = mat.getValueAt(i_this, j_m) + getValueAt(i_this, j_this) * m.getValueAt(i_m, j_m);
-							mat.setValueAt(i_this, j_m, newValue);
+			double[] a = m_afFlatData;
+			double[] b = m.m_afFlatData;
+			double[] c = mat.m_afFlatData;
+			int n = m_iCols;
+			int p = m.m_iCols;
+			for (int kk = 0; kk < n; kk += BLOCK_SIZE) {
+				int kMax = Math.min(kk + BLOCK_SIZE, n);
+				for (int jj = 0; jj < p; jj += BLOCK_SIZE) {
+					int jMax = Math.min(jj + BLOCK_SIZE, p);
+					for (int i = 0; i < m_iRows; i++) {
+						int aOffset = i * n;
+						int cOffset = i * p;
+						for (int k = kk; k < kMax; k++) {
+							double a_ik = a[aOffset + k];
+							if (a_ik != 0d) {
+								int bOffset = k * p;
+								for (int j = jj; j < jMax; j++) {
+									c[cOffset + j] += a_ik * b[bOffset + j];
+								}
+							}
 						}
 					}
 				}
@@ -646,14 +692,78 @@ public final class Matrix implements Serializable, DeepCloneable {
 	}
 
 	/**
-	 * Reset all the elements of this Matrix instance to 0.
+	 * Compute the matrix product of the transpose of this x m. This method is faster 
+	 * than calling transpose().multiply(m) since the transposed matrix is never created. 
+	 * When m is this matrix, only the upper triangle of the product is computed. 
+	 * @param m a Matrix instance
+	 * @return the product X<sup>T</sup>m in a new Matrix instance
 	 */
-	public void resetMatrix() {
-		for (int i = 0; i < m_iRows; i++) {
-			for (int j = 0; j < m_iCols; j++) {
-				setValueAt(i, j, 0d);
+	public Matrix transposeAndMultiply(Matrix m) {
+		return transposeAndMultiply(null, m);
+	}
+	
+	/**
+	 * Compute the matrix product of the transpose of this x w x m. This method is useful for weighted 
+	 * least squares. If w is a column vector, it is considered as the diagonal of the weight matrix 
+	 * so that the diagonal matrix is never created. 
+	 * @param w a square matrix, a column vector of weights or null 
+	 * @param m a Matrix instance
+	 * @return the product X<sup>T</sup>Wm in a new Matrix instance
+	 */
+	public Matrix transposeAndMultiply(Matrix w, Matrix m) {
+		if (w != null && !w.isColumnVector()) {
+			return transposeAndMultiply(w.multiply(m));
+		}
+		if (m_iRows != m.m_iRows) {
+			throw new UnsupportedOperationException("The matrix m cannot multiply the transpose of the current matrix for the number of rows is incompatible!");
+		} 
+		if (w != null && w.m_iRows != m_iRows) {
+			throw new UnsupportedOperationException("The weight vector w does not have the same number of rows as the current matrix!");
+		}
+		boolean symmetric = m == this;
+		int n = m_iRows;
+		int p = m_iCols;
+		int q = m.m_iCols;
+		Matrix mat = new Matrix(p, q);
+		double[] a = m_afFlatData;
+		double[] b = m.m_afFlatData;
+		double[] c = mat.m_afFlatData;
+		for (int ii = 0; ii < p; ii += BLOCK_SIZE) {
+			int iMax = Math.min(ii + BLOCK_SIZE, p);
+			for (int jj = symmetric ? ii : 0; jj < q; jj += BLOCK_SIZE) {
+				int jMax = Math.min(jj + BLOCK_SIZE, q);
+				for (int k = 0; k < n; k++) {
+					int aOffset = k * p;
+					int bOffset = k * q;
+					double w_k = w == null ? 1d : w.m_afFlatData[k];
+					for (int i = ii; i < iMax; i++) {
+						double a_ki = a[aOffset + i];
+						if (a_ki != 0d) {
+							a_ki *= w_k;
+							int cOffset = i * q;
+							for (int j = symmetric ? Math.max(i, jj) : jj; j < jMax; j++) {
+								c[cOffset + j] += a_ki * b[bOffset + j];
+							}
+						}
+					}
+				}
+			}
+		}
+		if (symmetric) {
+			for (int i = 0; i < p; i++) {
+				for (int j = i + 1; j < q; j++) {
+					c[j * q + i] = c[i * q + j];
+				}
 			}
 		}
+		return mat;
+	}
+
+	/**
+	 * Reset all the elements of this Matrix instance to 0.
+	 */
+	public void resetMatrix() {
+		Arrays.fill(m_afFlatData, 0d);
 	}
 	
 	/**
@@ -663,10 +773,8 @@ public final class Matrix implements Serializable, DeepCloneable {
 	 */
 	public Matrix scalarAdd(double d) {
 		Matrix mat = new Matrix(m_iRows, m_iCols);
-		for (int i = 0; i < m_iRows; i++) {
-			for (int j = 0; j < m_iCols; j++) {
-				mat.setValueAt(i, j, getValueAt(i, j) + d);
-			}
+		for (int k = 0; k < m_afFlatData.length; k++) {
+			mat.m_afFlatData[k] = m_afFlatData[k] + d;
 		}
 		return mat;
 	}
@@ -678,10 +786,8 @@ public final class Matrix implements Serializable, DeepCloneable {
 	 */
 	public Matrix scalarMultiply(double d) {
 		Matrix mat = new Matrix(m_iRows, m_iCols);
-		for (int i = 0; i < m_iRows; i++) {
-			for (int j = 0; j < m_iCols; j++) {
-				mat.setValueAt(i, j, getValueAt(i, j) * d);
-			}
+		for (int k = 0; k < m_afFlatData.length; k++) {
+			mat.m_afFlatData[k] = m_afFlatData[k] * d;
 		}
 		return mat;
 	}
@@ -707,10 +813,11 @@ public final class Matrix implements Serializable, DeepCloneable {
 	 * @param j the column index of the first element to be changed
 	 */
 	public void setSubMatrix(Matrix m, int i, int j) {
+		if (i + m.m_iRows > m_iRows || j + m.m_iCols > m_iCols) {
+			throw new ArrayIndexOutOfBoundsException("The matrix m exceeds the dimensions of this matrix!");
+		}
 		for (int ii = 0; ii < m.m_iRows; ii++) {
-			for (int jj = 0; jj < m.m_iCols; jj++) {
-				setValueAt(i + ii, j + jj, m.getValueAt(ii, jj));
-			}
+			System.arraycopy(m.m_afFlatData, ii * m.m_iCols, m_afFlatData, (i + ii) * m_iCols + j, m.m_iCols);
 		}
 	}
 
@@ -773,11 +880,13 @@ public final class Matrix implements Serializable, DeepCloneable {
 	 * @return the result in a new Matrix instance
 	 */
 	public Matrix subtract(Matrix m) {
+		checkSameDimension(m);
 		Matrix mat = new Matrix(m_iRows, m_iCols);
-		for (int i = 0; i < m_iRows; i++) {
-			for (int j = 0; j < m_iCols; j++) {
-				mat.setValueAt(i, j, getValueAt(i, j) - m.getValueAt(i, j));
-			}
+		double[] a = m_afFlatData;
+		double[] b = m.m_afFlatData;
+		double[] c = mat.m_afFlatData;
+		for (int k = 0; k < c.length; k++) {
+			c[k] = a[k] - b[k];
 		}
 		return mat;
 	}
@@ -803,9 +912,21 @@ public final class Matrix implements Serializable, DeepCloneable {
 	 */
 	public Matrix transpose() {
 		Matrix matrix = new Matrix(m_iCols, m_iRows);
-		for (int i = 0; i < m_iRows; i++) {
-			for (int j = 0; j < m_iCols; j++) {
-				matrix.setValueAt(j, i, getValueAt(i, j));
+		if (isColumnVector() || isRowVector()) {		// same sequence of elements
+			System.arraycopy(m_afFlatData, 0, matrix.m_afFlatData, 0, m_afFlatData.length);
+		} else {
+			double[] a = m_afFlatData;
+			double[] c = matrix.m_afFlatData;
+			for (int ii = 0; ii < m_iRows; ii += BLOCK_SIZE) {
+				int iMax = Math.min(ii + BLOCK_SIZE, m_iRows);
+				for (int jj = 0; jj < m_iCols; jj += BLOCK_SIZE) {
+					int jMax = Math.min(jj + BLOCK_SIZE, m_iCols);
+					for (int i = ii; i < iMax; i++) {
+						for (int j = jj; j < jMax; j++) {
+							c[j * m_iRows + i] = a[i * m_iCols + j];
+						}
+					}
+				}
 			}
 		}
 		return matrix;
@@ -959,10 +1080,8 @@ public final class Matrix implements Serializable, DeepCloneable {
 	 */
 	public double getSumOfElements() {
 		double sum = 0d;
-		for (int i = 0; i < m_iRows; i++) {
-			for (int j = 0; j < m_iCols; j++) {
-				sum += getValueAt(i, j);
-			}
+		for (int k = 0; k < m_afFlatData.length; k++) {
+			sum += m_afFlatData[k];
 		}
 		return sum;
 	}
@@ -1087,11 +1206,7 @@ public final class Matrix implements Serializable, DeepCloneable {
 	@Override
 	public Matrix getDeepClone() {
 		Matrix oMat = new Matrix(m_iRows, m_iCols);
-		for (int i = 0; i < m_iRows; i++) {
-			for (int j = 0; j < m_iCols; j++) {
-				oMat.setValueAt(i, j, getValueAt(i, j));
-			}
-		}
+		System.arraycopy(m_afFlatData, 0, oMat.m_afFlatData, 0, m_afFlatData.length);
 		return oMat;
 	}
 	
@@ -1222,44 +1337,36 @@ public final class Matrix implements Serializable, DeepCloneable {
 			throw new UnsupportedOperationException("The matrix is not square!");
 		}
 		
-		List<Integer> remainingIndex = new ArrayList<Integer>();
-		for (int i = 0; i < m_iCols; i++) {
-			remainingIndex.add(i);
-		}
-
 		List<List<Integer>> blocks = new ArrayList<List<Integer>>();
 		
 		if (!isSymmetric()) {
+			List<Integer> remainingIndex = new ArrayList<Integer>();
+			for (int i = 0; i < m_iCols; i++) {
+				remainingIndex.add(i);
+			}
 			blocks.add(remainingIndex);
 			return blocks;
-		} else {
-			List<Integer> potentialBlock;
-			while (!remainingIndex.isEmpty()) {
-				int i = 0;
-				potentialBlock = new ArrayList<Integer>();
-				potentialBlock.add(remainingIndex.get(i));
-				while (i < potentialBlock.size()) {
-					int indexI = potentialBlock.get(i);
-					for (int j = remainingIndex.indexOf(indexI) + 1; j < remainingIndex.size(); j++) {
-						int indexJ = remainingIndex.get(j);
-						if (getValueAt(indexI, indexJ) != 0) {
-							if (!potentialBlock.contains(indexJ)) {
-								potentialBlock.add(indexJ);
-							}
-							for (int k = i + 1; k < j; k++) {
-								int indexK = remainingIndex.get(k);
-								if (getValueAt(indexK, indexJ) != 0) {
-									if (!potentialBlock.contains(indexK)) {
-										potentialBlock.add(indexK);
-									}
-								}							
+		} else {	// the blocks are the connected components of the graph of non zero elements
+			boolean[] assigned = new boolean[m_iRows];
+			for (int start = 0; start < m_iRows; start++) {
+				if (!assigned[start]) {
+					List<Integer> block = new ArrayList<Integer>();
+					block.add(start);
+					assigned[start] = true;
+					int i = 0;
+					while (i < block.size()) {
+						int offset = block.get(i) * m_iCols;
+						for (int j = start + 1; j < m_iCols; j++) {
+							if (!assigned[j] && m_afFlatData[offset + j] != 0d) {
+								assigned[j] = true;
+								block.add(j);
 							}
 						}
+						i++;
 					}
-					i++;
+					Collections.sort(block);
+					blocks.add(block);
 				}
-				blocks.add(potentialBlock);
-				remainingIndex.removeAll(potentialBlock);
 			}
 			return blocks;
 		}
@@ -1317,7 +1424,7 @@ public final class Matrix implements Serializable, DeepCloneable {
 	
 	/**
 	 * Compute the determinant of this matrix using Laplace's method for small matrices and LU decomposition
-	 * for larger matrices.
+	 * with partial pivoting for larger matrices.
 	 * @return a double
 	 * @throws UnsupportedOperationException if the matrix is not square
 	 */ 
@@ -1336,11 +1443,7 @@ public final class Matrix implements Serializable, DeepCloneable {
 				}
 			}
 		} else {
-			Matrix triangle = getLUDecomposition()[1];
-			determinant = 1d;
-			for (int i = 0; i < triangle.m_iRows; i++) {
-				determinant *= triangle.getValueAt(i, i);
-			}
+			determinant = new LUDecomposition(this).getDeterminant();
 		}
 		return determinant;
 	}
@@ -1359,33 +1462,23 @@ public final class Matrix implements Serializable, DeepCloneable {
 		return adjugate;
 	}
 	
+	/**
+	 * Compute the inverse of this matrix through a Cholesky decomposition if the matrix
+	 * is symmetric positive definite or through a LU decomposition otherwise.
+	 * @return a Matrix instance
+	 */
 	protected Matrix getInternalInverseMatrix() {
 		if (m_iRows == 1) {
 			Matrix output = new Matrix(1,1);
 			output.setValueAt(0, 0, 1d / getValueAt(0, 0));
 			return output;
-		} else if (m_iRows > SizeBeforeSwitchingToLUDecompositionInDeterminantCalculation) {
-			int index = m_iCols / 2;
-			Matrix output = new Matrix(m_iRows, m_iCols);
-			Matrix a = getSubMatrix(0, index - 1, 0, index - 1);
-			Matrix b = getSubMatrix(0, index - 1, index, m_iCols - 1);
-			Matrix c = getSubMatrix(index, m_iRows - 1, 0, index - 1);
-			Matrix d = getSubMatrix(index, m_iRows - 1, index, m_iCols - 1);
-			Matrix invD = d.getInternalInverseMatrix();
-			Matrix tmp = b.multiply(invD).multiply(c);
-			Matrix invComplement = a.subtract(tmp).getInternalInverseMatrix();
-			output.setSubMatrix(invComplement, 0, 0);
-			output.setSubMatrix(invComplement.multiply(b).multiply(invD).scalarMultiply(-1d), 0, index);
-			output.setSubMatrix(invD.multiply(c).multiply(invComplement).scalarMultiply(-1d), index, 0);
-			output.setSubMatrix(invD.multiply(c).multiply(invComplement).multiply(b).multiply(invD).add(invD), index, index);
-			return output;
 		} else {
-			double determinant = getDeterminant();
-			if (determinant == 0) {
-				throw new UnsupportedOperationException("The matrix cannot be inverted as its determinant is equal to 0!");
-			} else {
-				return getAdjugateMatrix().scalarMultiply(1d / determinant);
+			if (isSymmetric()) {
+				try {
+					return new CholeskyDecomposition(this, false).getInverse();
+				} catch (UnsupportedOperationException e) {}	// the matrix is not positive definite, we switch to the LU decomposition
 			}
+			return new LUDecomposition(this).getInverse();
 		}
 	}
 	
@@ -1394,19 +1487,8 @@ public final class Matrix implements Serializable, DeepCloneable {
 	 * Note : changes the matrix in place 
 	 */
 	public void clampIfLowerThan(double value) {
-		if (isNewImplementationForColumnVector()) {
-			for (int i = 0; i < m_iRows; i++) {
-				for (int j = 0; j < m_iCols; j++) {
-					this.m_afData[j][i] = this.m_afData[j][i] < value ? value : this.m_afData[j][i];   
-				}
-			}
-		}
-		else {
-			for (int i = 0; i < m_iRows; i++) {
-				for (int j = 0; j < m_iCols; j++) {
-					this.m_afData[i][j] = this.m_afData[i][j] < value ? value : this.m_afData[i][j];   
-				}
-			}
+		for (int k = 0; k < m_afFlatData.length; k++) {
+			m_afFlatData[k] = m_afFlatData[k] < value ? value : m_afFlatData[k];   
 		}
 	}
 	
@@ -1415,19 +1497,8 @@ public final class Matrix implements Serializable, DeepCloneable {
 	 * Note : changes the matrix in place 
 	 */
 	public void clampIfHigherThan(double value) {
-		if (isNewImplementationForColumnVector()) {
-			for (int i = 0; i < m_iRows; i++) {
-				for (int j = 0; j < m_iCols; j++) {
-					this.m_afData[j][i] = this.m_afData[j][i] > value ? value : this.m_afData[j][i];   
-				}
-			}
-		}
-		else {
-			for (int i = 0; i < m_iRows; i++) {
-				for (int j = 0; j < m_iCols; j++) {
-					this.m_afData[i][j] = this.m_afData[i][j] > value ? value : this.m_afData[i][j];   
-				}
-			}
+		for (int k = 0; k < m_afFlatData.length; k++) {
+			m_afFlatData[k] = m_afFlatData[k] > value ? value : m_afFlatData[k];   
 		}
 	}
 	
@@ -1487,15 +1558,9 @@ public final class Matrix implements Serializable, DeepCloneable {
 			if (mat.m_iCols != m_iCols || mat.m_iRows != m_iRows) {
 				return false;
 			} else {
-				double jLength = -1;
-				for (int i = 0; i < m_afData.length; i++) {
-					if (jLength == -1) {
-						jLength = m_afData[i].length;
-					}
-					for (int j = 0; j < jLength; j++) {
-						if (getValueAt(i, j) != mat.getValueAt(i, j)) {
-							return false;
-						}
+				for (int k = 0; k < m_afFlatData.length; k++) {
+					if (m_afFlatData[k] != mat.m_afFlatData[k]) {
+						return false;
 					}
 				}
 				return true;
@@ -37,10 +37,10 @@ public class MatrixUtility {
 		if (a.m_iCols != b.m_iCols || a.m_iRows != b.m_iRows) {
 			throw new InvalidParameterException("Matrices a and b are not the same size!");
 		}
-		for (int i = 0 ; i < a.m_iRows; i++) {
-			for (int j = 0; j < a.m_iCols; j++) {
-				a.setValueAt(i, j, a.getValueAt(i, j) + b.getValueAt(i, j));
-			}
+		double[] aData = a.m_afFlatData;
+		double[] bData = b.m_afFlatData;
+		for (int k = 0; k < aData.length; k++) {
+			aData[k] += bData[k];
 		}
 	}
 	
@@ -54,10 +54,10 @@ public class MatrixUtility {
 		if (a.m_iCols != b.m_iCols || a.m_iRows != b.m_iRows) {
 			throw new InvalidParameterException("Matrices a and b are not the same size!");
 		}
-		for (int i = 0 ; i < a.m_iRows; i++) {
-			for (int j = 0; j < a.m_iCols; j++) {
-				a.setValueAt(i, j, a.getValueAt(i, j) - b.getValueAt(i, j));
-			}
+		double[] aData = a.m_afFlatData;
+		double[] bData = b.m_afFlatData;
+		for (int k = 0; k < aData.length; k++) {
+			aData[k] -= bData[k];
 		}
 		
 	}
@@ -72,10 +72,10 @@ public class MatrixUtility {
 		if (a.m_iCols != b.m_iCols || a.m_iRows != b.m_iRows) {
 			throw new InvalidParameterException("Matrices a and b are not the same size!");
 		}
-		for (int i = 0 ; i < a.m_iRows; i++) {
-			for (int j = 0; j < a.m_iCols; j++) {
-				a.setValueAt(i, j, a.getValueAt(i, j) * b.getValueAt(i, j));
-			}
+		double[] aData = a.m_afFlatData;
+		double[] bData = b.m_afFlatData;
+		for (int k = 0; k < aData.length; k++) {
+			aData[k] *= bData[k];
 		}
 		
 	}
@@ -87,10 +87,9 @@ public class MatrixUtility {
 	 * @param b a double instance
 	 */
 	public static void scalarMultiply(Matrix a, double b) {
-		for (int i = 0 ; i < a.m_iRows; i++) {
-			for (int j = 0; j < a.m_iCols; j++) {
-				a.setValueAt(i, j, a.getValueAt(i, j) * b);
-			}
+		double[] aData = a.m_afFlatData;
+		for (int k = 0; k < aData.length; k++) {
+			aData[k] *= b;
 		}
 	}
 	
@@ -0,0 +1,150 @@
+/*
+ * This file is part of the repicea library.
+ *
+ * Copyright (C) 2009-2019 Mathieu Fortin for Rouge-Epicea
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed with the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * Please see the license at http://www.gnu.org/copyleft/lesser.html.
+ */
+package repicea.math;
+
+/**
+ * The QRDecomposition class computes the decomposition A = QR of a matrix with at least as many
+ * rows as columns through Householder reflections. The decomposition is computed once in the constructor
+ * and it can then be used to solve many least squares problems. It is numerically more stable than solving
+ * the normal equations.
+ */
+public final class QRDecomposition {
+
+	private final int m;
+	private final int n;
+	private final double[] qr;
+	private final double[] rDiagonal;
+
+	/**
+	 * Constructor. The decomposition is computed on a copy of the matrix.
+	 * @param a a Matrix instance with at least as many rows as columns
+	 * @throws UnsupportedOperationException if the matrix has fewer rows than columns
+	 */
+	public QRDecomposition(Matrix a) {
+		if (a.m_iRows < a.m_iCols) {
+			throw new UnsupportedOperationException("QRDecomposition: The matrix has fewer rows than columns!");
+		}
+		m = a.m_iRows;
+		n = a.m_iCols;
+		qr = a.m_afFlatData.clone();
+		rDiagonal = new double[n];
+		for (int k = 0; k < n; k++) {
+			double norm = 0d;
+			for (int i = k; i < m; i++) {
+				norm = Math.hypot(norm, qr[i * n + k]);
+			}
+			if (norm != 0d) {
+				if (qr[k * n + k] < 0) {
+					norm = -norm;
+				}
+				for (int i = k; i < m; i++) {
+					qr[i * n + k] /= norm;
+				}
+				qr[k * n + k] += 1d;
+				for (int j = k + 1; j < n; j++) {		// apply the reflection to the remaining columns
+					double s = 0d;
+					for (int i = k; i < m; i++) {
+						s += qr[i * n + k] * qr[i * n + j];
+					}
+					s = -s / qr[k * n + k];
+					for (int i = k; i < m; i++) {
+						qr[i * n + j] += s * qr[i * n + k];
+					}
+				}
+			}
+			rDiagonal[k] = -norm;
+		}
+	}
+
+	/**
+	 * Indicate whether the original matrix has full column rank.
+	 * @return a boolean
+	 */
+	public boolean isFullRank() {
+		for (int j = 0; j < n; j++) {
+			if (rDiagonal[j] == 0d) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Return the upper triangle R of the decomposition.
+	 * @return a n x n Matrix instance
+	 */
+	public Matrix getR() {
+		Matrix r = new Matrix(n, n);
+		for (int i = 0; i < n; i++) {
+			r.m_afFlatData[i * n + i] = rDiagonal[i];
+			for (int j = i + 1; j < n; j++) {
+				r.m_afFlatData[i * n + j] = qr[i * n + j];
+			}
+		}
+		return r;
+	}
+
+	/**
+	 * Solve the least squares problem min ||AX - B|| without forming the normal equations.
+	 * @param b a Matrix instance whose number of rows is equal to that of the original matrix
+	 * @return the solution X in a new Matrix instance
+	 * @throws UnsupportedOperationException if the original matrix is rank deficient
+	 */
+	public Matrix solve(Matrix b) {
+		if (b.m_iRows != m) {
+			throw new UnsupportedOperationException("QRDecomposition.solve(): The number of rows of matrix b is incompatible!");
+		}
+		if (!isFullRank()) {
+			throw new UnsupportedOperationException("QRDecomposition.solve(): The matrix is rank deficient!");
+		}
+		int q = b.m_iCols;
+		double[] y = b.m_afFlatData.clone();
+		for (int k = 0; k < n; k++) {			// compute Q^T B
+			for (int j = 0; j < q; j++) {
+				double s = 0d;
+				for (int i = k; i < m; i++) {
+					s += qr[i * n + k] * y[i * q + j];
+				}
+				s = -s / qr[k * n + k];
+				for (int i = k; i < m; i++) {
+					y[i * q + j] += s * qr[i * n + k];
+				}
+			}
+		}
+		Matrix x = new Matrix(n, q);
+		double[] xData = x.m_afFlatData;
+		System.arraycopy(y, 0, xData, 0, n * q);
+		for (int k = n - 1; k >= 0; k--) {		// solve R X = Q^T B
+			int kOffset = k * q;
+			for (int j = 0; j < q; j++) {
+				xData[kOffset + j] /= rDiagonal[k];
+			}
+			for (int i = 0; i < k; i++) {
+				double r_ik = qr[i * n + k];
+				if (r_ik != 0d) {
+					int iOffset = i * q;
+					for (int j = 0; j < q; j++) {
+						xData[iOffset + j] -= r_ik * xData[kOffset + j];
+					}
+				}
+			}
+		}
+		return x;
+	}
+}
@@ -0,0 +1,316 @@
+/*
+ * This file is part of the repicea library.
+ *
+ * Copyright (C) 2009-2019 Mathieu Fortin for Rouge-Epicea
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed with the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * Please see the license at http://www.gnu.org/copyleft/lesser.html.
+ */
+package repicea.math;
+
+import java.security.InvalidParameterException;
+
+/**
+ * The SymmetricPositiveDefiniteMatrix class handles symmetric positive definite matrices such as
+ * variance-covariance matrices. Only the lower triangle of the matrix is stored in a packed array of
+ * n(n+1)/2 elements. The lower triangle of the Cholesky decomposition is computed on demand and cached
+ * in the same packed format. <br>
+ * <br>
+ * The factor is kept up to date when the matrix is multiplied by a scalar or modified through rank-1
+ * updates and downdates, so that these operations never require a new decomposition.
+ */
+public final class SymmetricPositiveDefiniteMatrix {
+
+	private final int n;
+	private final double[] a;
+	private double[] l;
+
+	/**
+	 * Constructor. The matrix is checked for symmetry.
+	 * @param m a symmetric positive definite Matrix instance
+	 * @throws UnsupportedOperationException if the matrix is not square or not symmetric
+	 */
+	public SymmetricPositiveDefiniteMatrix(Matrix m) {
+		this(m, true);
+	}
+
+	/**
+	 * Constructor. Only the lower triangle of the matrix is read.
+	 * @param m a symmetric positive definite Matrix instance
+	 * @param checkSymmetry true to check that the matrix is symmetric. This check can be skipped if it has
+	 * already been done by the caller.
+	 * @throws UnsupportedOperationException if the matrix is not square or, when checkSymmetry is true, not symmetric
+	 */
+	public SymmetricPositiveDefiniteMatrix(Matrix m, boolean checkSymmetry) {
+		if (!m.isSquare()) {
+			throw new UnsupportedOperationException("SymmetricPositiveDefiniteMatrix : The input matrix is not square");
+		} else if (checkSymmetry && !m.isSymmetric()) {
+			throw new UnsupportedOperationException("SymmetricPositiveDefiniteMatrix : The input square matrix is not symmetric");
+		}
+		n = m.m_iRows;
+		a = new double[n * (n + 1) / 2];
+		double[] data = m.m_afFlatData;
+		for (int i = 0; i < n; i++) {
+			System.arraycopy(data, i * n, a, getIndex(i, 0), i + 1);
+		}
+	}
+
+	private static int getIndex(int i, int j) {
+		return i * (i + 1) / 2 + j;
+	}
+
+	/**
+	 * Return the number of rows, which is also the number of columns.
+	 * @return an integer
+	 */
+	public int getDimension() {return n;}
+
+	/**
+	 * Return the value at row i and column j.
+	 * @param i the row index
+	 * @param j the column index
+	 * @return a double
+	 */
+	public double getValueAt(int i, int j) {
+		return i >= j ? a[getIndex(i, j)] : a[getIndex(j, i)];
+	}
+
+	/**
+	 * Return the full matrix.
+	 * @return a new Matrix instance
+	 */
+	public Matrix getMatrix() {
+		Matrix m = new Matrix(n, n);
+		double[] data = m.m_afFlatData;
+		for (int i = 0; i < n; i++) {
+			int offset = getIndex(i, 0);
+			for (int j = 0; j <= i; j++) {
+				data[i * n + j] = a[offset + j];
+				data[j * n + i] = a[offset + j];
+			}
+		}
+		return m;
+	}
+
+	/**
+	 * Return true if the lower triangle of the Cholesky decomposition has already been computed.
+	 * @return a boolean
+	 */
+	public boolean isFactorized() {
+		return l != null;
+	}
+
+	private double[] getFactor() {
+		if (l == null) {
+			double[] factor = new double[a.length];
+			for (int i = 0; i < n; i++) {
+				int iOffset = getIndex(i, 0);
+				for (int j = 0; j <= i; j++) {
+					int jOffset = getIndex(j, 0);
+					double sum = a[iOffset + j];
+					for (int k = 0; k < j; k++) {
+						sum -= factor[iOffset + k] * factor[jOffset + k];
+					}
+					double value;
+					if (i == j) {
+						if (!(sum > 0d)) {
+							throw new UnsupportedOperationException("SymmetricPositiveDefiniteMatrix : The matrix is not positive definite!");
+						}
+						value = Math.sqrt(sum);
+					} else {
+						value = sum / factor[jOffset + j];
+					}
+					factor[iOffset + j] = value;
+				}
+			}
+			l = factor;
+		}
+		return l;
+	}
+
+	/**
+	 * Return the lower triangle of the Cholesky decomposition. The decomposition is computed
+	 * only once and then kept up to date through the scale and rank-1 operations.
+	 * @return a new Matrix instance
+	 * @throws UnsupportedOperationException if the matrix is not positive definite
+	 */
+	public Matrix getLowerCholTriangle() {
+		double[] factor = getFactor();
+		Matrix lower = new Matrix(n, n);
+		double[] data = lower.m_afFlatData;
+		for (int i = 0; i < n; i++) {
+			System.arraycopy(factor, getIndex(i, 0), data, i * n, i + 1);
+		}
+		return lower;
+	}
+
+	/**
+	 * Multiply the matrix by a positive scalar. If the Cholesky decomposition has already been
+	 * computed, its lower triangle is simply multiplied by the square root of the scalar.
+	 * @param c a strictly positive double
+	 * @throws InvalidParameterException if c is not strictly positive
+	 */
+	public void scale(double c) {
+		if (!(c > 0d)) {
+			throw new InvalidParameterException("The scalar must be strictly positive!");
+		}
+		for (int i = 0; i < a.length; i++) {
+			a[i] *= c;
+		}
+		if (l != null) {
+			double sqrtC = Math.sqrt(c);
+			for (int i = 0; i < l.length; i++) {
+				l[i] *= sqrtC;
+			}
+		}
+	}
+
+	private double[] getVector(Matrix x) {
+		if (!x.isColumnVector() || x.m_iRows != n) {
+			throw new InvalidParameterException("The x argument must be a column vector with " + n + " elements!");
+		}
+		return x.m_afFlatData.clone();
+	}
+
+	private void addOuterProduct(double[] x, double sign) {
+		for (int i = 0; i < n; i++) {
+			int offset = getIndex(i, 0);
+			double x_i = sign * x[i];
+			for (int j = 0; j <= i; j++) {
+				a[offset + j] += x_i * x[j];
+			}
+		}
+	}
+
+	/**
+	 * Replace the matrix A by A + xx<sup>T</sup>. If the Cholesky decomposition has already been
+	 * computed, it is updated in O(n<sup>2</sup>) operations.
+	 * @param x a column vector
+	 * @throws InvalidParameterException if x is not a column vector of appropriate size
+	 */
+	public void rank1Update(Matrix x) {
+		double[] w = getVector(x);
+		addOuterProduct(w, 1d);
+		if (l != null) {
+			for (int k = 0; k < n; k++) {
+				int kk = getIndex(k, k);
+				double l_kk = l[kk];
+				double r = Math.sqrt(l_kk * l_kk + w[k] * w[k]);
+				double c = r / l_kk;
+				double s = w[k] / l_kk;
+				l[kk] = r;
+				for (int i = k + 1; i < n; i++) {
+					int ik = getIndex(i, k);
+					l[ik] = (l[ik] + s * w[i]) / c;
+					w[i] = c * w[i] - s * l[ik];
+				}
+			}
+		}
+	}
+
+	/**
+	 * Replace the matrix A by A - xx<sup>T</sup>. If the Cholesky decomposition has already been
+	 * computed, it is downdated in O(n<sup>2</sup>) operations. The matrix is left unchanged if the
+	 * downdate fails.
+	 * @param x a column vector
+	 * @throws InvalidParameterException if x is not a column vector of appropriate size
+	 * @throws UnsupportedOperationException if the resulting matrix is not positive definite
+	 */
+	public void rank1Downdate(Matrix x) {
+		double[] w = getVector(x);
+		if (l != null) {
+			double[] newL = l.clone();
+			double[] v = w.clone();
+			for (int k = 0; k < n; k++) {
+				int kk = getIndex(k, k);
+				double l_kk = newL[kk];
+				double r2 = l_kk * l_kk - v[k] * v[k];
+				if (!(r2 > 0d)) {
+					throw new UnsupportedOperationException("SymmetricPositiveDefiniteMatrix : The downdated matrix is not positive definite!");
+				}
+				double r = Math.sqrt(r2);
+				double c = r / l_kk;
+				double s = v[k] / l_kk;
+				newL[kk] = r;
+				for (int i = k + 1; i < n; i++) {
+					int ik = getIndex(i, k);
+					newL[ik] = (newL[ik] - s * v[i]) / c;
+					v[i] = c * v[i] - s * newL[ik];
+				}
+			}
+			l = newL;
+		}
+		addOuterProduct(w, -1d);
+	}
+
+	/**
+	 * Return the logarithm of the determinant of the matrix.
+	 * @return a double
+	 * @throws UnsupportedOperationException if the matrix is not positive definite
+	 */
+	public double getLogDeterminant() {
+		double[] factor = getFactor();
+		double sum = 0d;
+		for (int i = 0; i < n; i++) {
+			sum += Math.log(factor[getIndex(i, i)]);
+		}
+		return 2d * sum;
+	}
+
+	/**
+	 * Solve the linear system AX = B through forward and backward substitutions.
+	 * @param b a Matrix instance whose number of rows is equal to that of this matrix
+	 * @return the solution X in a new Matrix instance
+	 * @throws UnsupportedOperationException if the matrix is not positive definite
+	 */
+	public Matrix solve(Matrix b) {
+		if (b.m_iRows != n) {
+			throw new UnsupportedOperationException("SymmetricPositiveDefiniteMatrix.solve(): The number of rows of matrix b is incompatible!");
+		}
+		double[] factor = getFactor();
+		int q = b.m_iCols;
+		Matrix x = b.getDeepClone();
+		double[] xData = x.m_afFlatData;
+		for (int i = 0; i < n; i++) {		// forward substitution L Y = B
+			int iOffset = getIndex(i, 0);
+			for (int k = 0; k < i; k++) {
+				double l_ik = factor[iOffset + k];
+				if (l_ik != 0d) {
+					for (int j = 0; j < q; j++) {
+						xData[i * q + j] -= l_ik * xData[k * q + j];
+					}
+				}
+			}
+			double l_ii = factor[iOffset + i];
+			for (int j = 0; j < q; j++) {
+				xData[i * q + j] /= l_ii;
+			}
+		}
+		for (int k = n - 1; k >= 0; k--) {	// backward substitution L^T X = Y
+			for (int i = k + 1; i < n; i++) {
+				double l_ik = factor[getIndex(i, k)];
+				if (l_ik != 0d) {
+					for (int j = 0; j < q; j++) {
+						xData[k * q + j] -= l_ik * xData[i * q + j];
+					}
+				}
+			}
+			double l_kk = factor[getIndex(k, k)];
+			for (int j = 0; j < q; j++) {
+				xData[k * q + j] /= l_kk;
+			}
+		}
+		return x;
+	}
+
+}
@@ -21,6 +21,7 @@ package repicea.math.optimizer;
 import java.util.List;
 
 import repicea.math.AbstractMathematicalFunction;
+import repicea.math.LUDecomposition;
 import repicea.math.Matrix;
 
 /**
@@ -114,7 +115,7 @@ public class NewtonRaphsonOptimizer extends AbstractOptimizer {
 		try {
 			while (!convergenceAchieved && iterationID <= maxNumberOfIterations) {
 				iterationID++;
-				Matrix optimisationStep = hessian.getInverseMatrix().multiply(gradient).scalarMultiply(-1d);
+				Matrix optimisationStep = new LUDecomposition(hessian).solve(gradient).scalarMultiply(-1d);
 				
 				Matrix originalBeta = extractParameters(function,indicesOfParametersToOptimize);
 
@@ -190,7 +191,7 @@ public class NewtonRaphsonOptimizer extends AbstractOptimizer {
 	 * @return the indicator (a Double instance)
 	 */
 	protected double calculateConvergence(Matrix gradient, Matrix hessian, double llk) {
-		return gradient.transpose().multiply(hessian.getInverseMatrix()).multiply(gradient).scalarMultiply(1d / llk).getValueAt(0, 0);
+		return gradient.transposeAndMultiply(new LUDecomposition(hessian).solve(gradient)).getValueAt(0, 0) / llk;
 	}
 
 
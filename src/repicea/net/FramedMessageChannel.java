@@ -0,0 +1,379 @@
+/*
+ * This file is part of the repicea library.
+ *
+ * Copyright (C) 2009-2022 Mathieu Fortin for Rouge Epicea.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed with the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * Please see the license at http://www.gnu.org/copyleft/lesser.html.
+ */
+package repicea.net;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The FramedMessageChannel class reads and writes length-prefixed UTF-8 messages. <br>
+ * <br>
+ * A message is sent as one or more chunks. Each chunk starts with a four-byte big-endian header. The
+ * highest bit of this header is always set so that a framed message cannot be mistaken for a message
+ * of the former protocol, which starts with an ASCII character. The second highest bit is set if another
+ * chunk follows and the 30 remaining bits are the length of the chunk in bytes. A long message can
+ * therefore be written incrementally through a buffer of fixed size. <br>
+ * <br>
+ * The length of an incoming message cannot exceed a maximum, which is 256 MB by default. A longer 
+ * message is rejected with an IOException as soon as the header of the chunk that exceeds the maximum 
+ * is read, so that the message is never buffered.
+ */
+class FramedMessageChannel {
+
+	static final int FrameMarker = 0x80000000;
+	static final int MoreChunksFlag = 0x40000000;
+	static final int MaxChunkLength = 0x3FFFFFFF;
+
+	static final int HeaderLength = 4;
+	static final int DefaultChunkSize = 64 * 1024;
+	static final int DefaultMaxMessageLength = 256 * 1024 * 1024;
+
+	private static final int InitialMessageCapacity = 8 * 1024;
+	private static final int MaxRetainedMessageCapacity = 4 * 1024 * 1024;
+
+	/**
+	 * The writer of a single message. The characters are encoded in the chunk buffer, which
+	 * is sent each time it is full.
+	 */
+	private class MessageWriter extends Writer {
+
+		private final CharBuffer chars = CharBuffer.allocate(8 * 1024);
+
+		@Override
+		public void write(char[] cbuf, int off, int len) throws IOException {
+			while (len > 0) {
+				int n = Math.min(chars.remaining(), len);
+				chars.put(cbuf, off, n);
+				off += n;
+				len -= n;
+				if (!chars.hasRemaining()) {
+					encode(false);
+				}
+			}
+		}
+
+		@Override
+		public void write(String str, int off, int len) throws IOException {
+			while (len > 0) {
+				int n = Math.min(chars.remaining(), len);
+				chars.put(str, off, off + n);
+				off += n;
+				len -= n;
+				if (!chars.hasRemaining()) {
+					encode(false);
+				}
+			}
+		}
+
+		private void encode(boolean endOfInput) throws IOException {
+			chars.flip();
+			while (true) {
+				CoderResult result = encoder.encode(chars, chunk, endOfInput);
+				if (result.isOverflow()) {
+					sendChunk(true);
+				} else if (result.isUnderflow()) {
+					break;
+				} else {
+					result.throwException();
+				}
+			}
+			chars.compact();		// a high surrogate can remain until the next characters are written
+		}
+
+		/**
+		 * Send the characters written so far. The message remains open.
+		 */
+		@Override
+		public void flush() throws IOException {
+			encode(false);
+			if (chunk.position() > HeaderLength) {
+				sendChunk(true);
+			}
+		}
+
+		/**
+		 * Send the last chunk of the message.
+		 */
+		@Override
+		public void close() throws IOException {
+			encode(true);
+			while (encoder.flush(chunk).isOverflow()) {
+				sendChunk(true);
+			}
+			sendChunk(false);
+			encoder.reset();
+		}
+	}
+
+	private final ReadableByteChannel in;
+	private final WritableByteChannel out;
+
+	private final ByteBuffer header;
+	private final ByteBuffer chunk;
+	private final CharsetEncoder encoder;
+	private ByteBuffer message;
+	private ByteBuffer pending;
+	private int maxMessageLength;
+
+	/**
+	 * Constructor.
+	 * @param in a ReadableByteChannel instance
+	 * @param out a WritableByteChannel instance
+	 */
+	FramedMessageChannel(ReadableByteChannel in, WritableByteChannel out) {
+		this(in, out, DefaultChunkSize);
+	}
+
+	FramedMessageChannel(ReadableByteChannel in, WritableByteChannel out, int chunkSize) {
+		if (chunkSize <= HeaderLength + 4 || chunkSize - HeaderLength > MaxChunkLength) {
+			throw new IllegalArgumentException("The chunk size is invalid: " + chunkSize);
+		}
+		this.in = in;
+		this.out = out;
+		header = ByteBuffer.allocateDirect(HeaderLength);
+		chunk = ByteBuffer.allocateDirect(chunkSize);
+		chunk.position(HeaderLength);
+		encoder = StandardCharsets.UTF_8.newEncoder().onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+		message = ByteBuffer.allocateDirect(InitialMessageCapacity);
+		maxMessageLength = DefaultMaxMessageLength;
+	}
+
+	/**
+	 * Set the maximum length of an incoming message.
+	 * @param maxMessageLength the maximum number of bytes of a message
+	 */
+	void setMaximumMessageLength(int maxMessageLength) {
+		if (maxMessageLength < 1) {
+			throw new IllegalArgumentException("The maximum message length must be at least 1!");
+		}
+		this.maxMessageLength = maxMessageLength;
+	}
+
+	/**
+	 * Provide the maximum length of an incoming message.
+	 * @return the maximum number of bytes of a message
+	 */
+	int getMaximumMessageLength() {return maxMessageLength;}
+
+	/**
+	 * Check if a message starting with this byte is framed.
+	 * @param firstByte the first byte of the message
+	 * @return a boolean
+	 */
+	static boolean isFramed(byte firstByte) {
+		return (firstByte & 0x80) != 0;
+	}
+
+	/**
+	 * Read the next message.
+	 * @return a String instance
+	 * @throws IOException if the connection is closed or if the message is not framed
+	 */
+	String readMessage() throws IOException {
+		return readMessage(null, 0, 0);
+	}
+
+	/**
+	 * Read the next message when its first bytes have already been read from the channel. The bytes
+	 * that follow the end of the message are kept for the next call.
+	 * @param bytes an array containing the bytes already read (can be null)
+	 * @param offset the position of the first byte in the array
+	 * @param length the number of bytes already read
+	 * @return a String instance
+	 * @throws IOException if the connection is closed, if the message is not framed or if it is too long
+	 */
+	String readMessage(byte[] bytes, int offset, int length) throws IOException {
+		if (length > 0) {
+			ByteBuffer alreadyRead = ByteBuffer.allocate(length + (pending != null ? pending.remaining() : 0));
+			if (pending != null) {
+				alreadyRead.put(pending);
+			}
+			alreadyRead.put(bytes, offset, length);
+			alreadyRead.flip();
+			pending = alreadyRead;
+		}
+		message.clear();
+		boolean moreChunks = true;
+		while (moreChunks) {
+			header.clear();
+			fill(header);
+			header.flip();
+			int chunkHeader = header.getInt();
+			if ((chunkHeader & FrameMarker) == 0) {
+				throw new IOException("The incoming message is not framed!");
+			}
+			moreChunks = (chunkHeader & MoreChunksFlag) != 0;
+			int chunkLength = chunkHeader & MaxChunkLength;
+			checkLength(chunkLength);
+			ensureCapacity(chunkLength);
+			message.limit(message.position() + chunkLength);
+			fill(message);
+			message.limit(message.capacity());
+		}
+		return completeMessage();
+	}
+
+	/**
+	 * Decode the next message from bytes that have been read without blocking. The complete chunks 
+	 * are consumed and kept until the last chunk of the message comes in.
+	 * @param input a ByteBuffer instance ready to be read
+	 * @return a String instance or null if the message is not complete yet
+	 * @throws IOException if the message is not framed or if it is too long
+	 */
+	String decodeMessage(ByteBuffer input) throws IOException {
+		while (input.remaining() >= HeaderLength) {
+			int chunkHeader = input.getInt(input.position());
+			if ((chunkHeader & FrameMarker) == 0) {
+				throw new IOException("The incoming message is not framed!");
+			}
+			int chunkLength = chunkHeader & MaxChunkLength;
+			checkLength(chunkLength);
+			if (input.remaining() - HeaderLength < chunkLength) {
+				return null;
+			}
+			input.position(input.position() + HeaderLength);
+			ensureCapacity(chunkLength);
+			int limit = input.limit();
+			input.limit(input.position() + chunkLength);
+			message.put(input);
+			input.limit(limit);
+			if ((chunkHeader & MoreChunksFlag) == 0) {
+				return completeMessage();
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Provide the number of bytes required to decode the next chunk. 
+	 * @param input a ByteBuffer instance ready to be read
+	 * @return the length of the header and the chunk if the header is complete or the length of the header otherwise
+	 * @throws IOException if the chunk would make the message too long
+	 */
+	long getRequiredLength(ByteBuffer input) throws IOException {
+		if (input.remaining() < HeaderLength) {
+			return HeaderLength;
+		} else {
+			int chunkLength = input.getInt(input.position()) & MaxChunkLength;
+			checkLength(chunkLength);
+			return HeaderLength + chunkLength;
+		}
+	}
+
+	/*
+	 * Check that the next chunk does not make the message exceed the maximum length.
+	 */
+	private void checkLength(int chunkLength) throws IOException {
+		if ((long) message.position() + chunkLength > maxMessageLength) {
+			throw new IOException("The incoming message exceeds the maximum length of " + maxMessageLength + " bytes!");
+		}
+	}
+
+	private String completeMessage() {
+		message.flip();
+		String str = StandardCharsets.UTF_8.decode(message).toString();
+		if (message.capacity() > MaxRetainedMessageCapacity) {
+			message = ByteBuffer.allocateDirect(InitialMessageCapacity);
+		} else {
+			message.clear();
+		}
+		return str;
+	}
+
+	private void ensureCapacity(int chunkLength) throws IOException {
+		long required = (long) message.position() + chunkLength;
+		if (required > message.capacity()) {
+			if (required > Integer.MAX_VALUE - 8) {
+				throw new IOException("The incoming message is too long!");
+			}
+			long newCapacity = Math.max(required, Math.min(message.capacity() * 2L, Integer.MAX_VALUE - 8));
+			ByteBuffer newMessage = ByteBuffer.allocateDirect((int) newCapacity);
+			message.flip();
+			newMessage.put(message);
+			message = newMessage;
+		}
+	}
+
+	/*
+	 * Fill the remaining of the buffer with the pending bytes first and then with the bytes of the channel.
+	 */
+	private void fill(ByteBuffer buffer) throws IOException {
+		if (pending != null) {
+			if (pending.remaining() <= buffer.remaining()) {
+				buffer.put(pending);
+				pending = null;
+			} else {
+				int limit = pending.limit();
+				pending.limit(pending.position() + buffer.remaining());
+				buffer.put(pending);
+				pending.limit(limit);
+			}
+		}
+		while (buffer.hasRemaining()) {
+			if (in.read(buffer) == -1) {
+				throw new EOFException("Seems that the connection has been shutdown by the client...");
+			}
+		}
+	}
+
+	/**
+	 * Provide a Writer instance for a new message. The message is sent when the writer is closed.
+	 * @return a Writer instance
+	 */
+	Writer getMessageWriter() {
+		return new MessageWriter();
+	}
+
+	/**
+	 * Send a message.
+	 * @param obj the message. If it implements the StreamableMessage interface, the message is
+	 * written incrementally. Otherwise, the toString method is called.
+	 * @throws IOException if the message cannot be sent
+	 */
+	void writeMessage(Object obj) throws IOException {
+		Writer writer = getMessageWriter();
+		if (obj instanceof StreamableMessage) {
+			((StreamableMessage) obj).writeTo(writer);
+		} else {
+			writer.write(obj.toString());
+		}
+		writer.close();
+	}
+
+	private void sendChunk(boolean moreChunks) throws IOException {
+		int chunkLength = chunk.position() - HeaderLength;
+		chunk.putInt(0, FrameMarker | (moreChunks ? MoreChunksFlag : 0) | chunkLength);
+		chunk.flip();
+		while (chunk.hasRemaining()) {
+			out.write(chunk);
+		}
+		chunk.clear();
+		chunk.position(HeaderLength);
+	}
+
+}
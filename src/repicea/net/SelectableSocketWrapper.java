@@ -0,0 +1,245 @@
+/*
+ * This file is part of the repicea library.
+ *
+ * Copyright (C) 2009-2022 Mathieu Fortin for Rouge Epicea.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed with the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * Please see the license at http://www.gnu.org/copyleft/lesser.html.
+ */
+package repicea.net;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.List;
+
+/**
+ * The SelectableSocketWrapper class handles a non-blocking SocketChannel monitored by a Selector. <br>
+ * <br>
+ * The incoming messages are not pulled through the readObject method. The thread that owns the
+ * selector calls the readAvailableMessages method whenever the channel is readable. The outgoing messages
+ * are written by any thread. The protocol is the same as the one of the TCPSocketWrapper class with strings:
+ * raw messages or framed messages as soon as the client sends a framed message. <br>
+ * <br>
+ * A message longer than the maximum message length is rejected with an IOException, which is 
+ * thrown by the readAvailableMessages method. 
+ */
+@SuppressWarnings("deprecation")
+public class SelectableSocketWrapper implements SocketWrapper {
+
+	/**
+	 * The default maximum length of an incoming message in bytes (256 MB).
+	 */
+	public static final int DefaultMaximumMessageLength = FramedMessageChannel.DefaultMaxMessageLength;
+
+	private static final int InitialInputCapacity = 8 * 1024;
+	private static final int WriteTimeoutMillisec = 60000;
+
+	/**
+	 * The channel used to write the messages. The write operations block until all the bytes have been written
+	 * even if the socket channel does not block.
+	 */
+	private class BlockingWriteChannel implements WritableByteChannel {
+
+		@Override
+		public boolean isOpen() {return channel.isOpen();}
+
+		@Override
+		public void close() throws IOException {
+			channel.close();
+		}
+
+		@Override
+		public int write(ByteBuffer src) throws IOException {
+			int nbBytes = 0;
+			while (src.hasRemaining()) {
+				int n = channel.write(src);
+				if (n == 0) {
+					waitUntilWritable();
+				}
+				nbBytes += n;
+			}
+			return nbBytes;
+		}
+
+		private void waitUntilWritable() throws IOException {
+			if (writeSelector == null) {
+				writeSelector = Selector.open();
+				channel.register(writeSelector, SelectionKey.OP_WRITE);
+			}
+			if (writeSelector.select(WriteTimeoutMillisec) == 0) {
+				throw new SocketTimeoutException("The client does not read its replies!");
+			}
+			writeSelector.selectedKeys().clear();
+		}
+	}
+
+	private final SocketChannel channel;
+	private final WritableByteChannel writeChannel;
+	private final InetAddress inetAddress;
+	private ByteBuffer input;
+	private volatile FramedMessageChannel framedChannel;
+	private Selector writeSelector;
+	private volatile boolean isFramedMessageReceived;
+	private volatile int maxMessageLength = DefaultMaximumMessageLength;
+
+	/**
+	 * Constructor.
+	 * @param channel a SocketChannel instance
+	 * @throws IOException if the channel cannot be configured
+	 */
+	public SelectableSocketWrapper(SocketChannel channel) throws IOException {
+		this.channel = channel;
+		channel.configureBlocking(false);
+		channel.socket().setTcpNoDelay(true);
+		inetAddress = channel.socket().getInetAddress();
+		writeChannel = new BlockingWriteChannel();
+		input = ByteBuffer.allocate(InitialInputCapacity);
+	}
+
+	/**
+	 * Provide the channel of this wrapper.
+	 * @return a SocketChannel instance
+	 */
+	public SocketChannel getChannel() {return channel;}
+
+	/**
+	 * Set the maximum length of an incoming message. This method should be called before the
+	 * first message is read.
+	 * @param maxMessageLength the maximum number of bytes of a message
+	 */
+	public void setMaximumMessageLength(int maxMessageLength) {
+		if (maxMessageLength < 1) {
+			throw new IllegalArgumentException("The maximum message length must be at least 1!");
+		}
+		this.maxMessageLength = maxMessageLength;
+	}
+
+	/**
+	 * Provide the maximum length of an incoming message.
+	 * @return the maximum number of bytes of a message
+	 */
+	public int getMaximumMessageLength() {return maxMessageLength;}
+
+	/**
+	 * Read the bytes available on the channel without blocking and decode the complete messages. A raw message
+	 * is made of all the bytes available at once whereas a framed message may require several calls. This
+	 * method should be called by a single thread.
+	 * @param messages a List instance to which the complete messages are added
+	 * @return false if the client has closed the connection
+	 * @throws IOException if the connection is broken, if a message cannot be decoded or if it is too long
+	 */
+	public boolean readAvailableMessages(List<Object> messages) throws IOException {
+		int nbBytes;
+		while ((nbBytes = channel.read(input)) > 0 && !input.hasRemaining() && !isFramedMessageReceived) {
+			if (input.capacity() >= maxMessageLength) {
+				throw new IOException("The incoming message exceeds the maximum length of " + maxMessageLength + " bytes!");
+			}
+			input = enlarge(input, Math.min(input.capacity() * 2L, maxMessageLength));		// a raw message must be read entirely
+		}
+		input.flip();
+		try {
+			if (!isFramedMessageReceived && input.hasRemaining()) {
+				if (FramedMessageChannel.isFramed(input.get(input.position()))) {
+					framedChannel = new FramedMessageChannel(null, writeChannel);
+					framedChannel.setMaximumMessageLength(maxMessageLength);
+					isFramedMessageReceived = true;
+				} else {
+					messages.add(new String(input.array(), input.position(), input.remaining()));
+					input.position(input.limit());
+					return nbBytes != -1;
+				}
+			}
+			if (isFramedMessageReceived) {
+				String message;
+				while ((message = framedChannel.decodeMessage(input)) != null) {
+					messages.add(message);
+				}
+				long requiredLength = framedChannel.getRequiredLength(input);
+				if (requiredLength > input.capacity()) {
+					input = enlarge(input, requiredLength);
+				}
+			}
+		} finally {
+			input.compact();
+		}
+		return nbBytes != -1;
+	}
+
+	/*
+	 * The buffer must be in write mode.
+	 */
+	private static ByteBuffer enlarge(ByteBuffer buffer, long capacity) throws IOException {
+		if (capacity > Integer.MAX_VALUE - 8) {
+			throw new IOException("The incoming message is too long!");
+		}
+		ByteBuffer newBuffer = ByteBuffer.allocate((int) capacity);
+		buffer.flip();
+		newBuffer.put(buffer);
+		return newBuffer;
+	}
+
+	/**
+	 * The messages cannot be pulled from this wrapper. They are provided by the readAvailableMessages method.
+	 */
+	@Override
+	public Object readObject() throws Exception {
+		throw new UnsupportedOperationException("The messages are provided by the readAvailableMessages method!");
+	}
+
+	/**
+	 * The messages cannot be pulled from this wrapper. They are provided by the readAvailableMessages method.
+	 */
+	@Override
+	public Object readObject(int timeout) throws Exception {
+		return readObject();
+	}
+
+	/**
+	 * Send a message. The message is framed if the client has sent a framed message. This method
+	 * can be called by several threads and blocks until the message has been written. The thread that 
+	 * reads the messages never waits for this lock.
+	 */
+	@Override
+	public synchronized void writeObject(Object obj) throws IOException {
+		if (isFramedMessageReceived) {
+			framedChannel.writeMessage(obj);
+		} else {
+			ByteBuffer bb = ByteBuffer.wrap(obj.toString().getBytes());
+			writeChannel.write(bb);
+		}
+	}
+
+	@Override
+	public boolean isClosed() {return !channel.isOpen();}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			channel.close();
+		} finally {
+			if (writeSelector != null) {
+				writeSelector.close();
+			}
+		}
+	}
+
+	@Override
+	public InetAddress getInetAddress() {return inetAddress;}
+
+}
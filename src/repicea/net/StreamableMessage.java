@@ -0,0 +1,38 @@
+/*
+ * This file is part of the repicea library.
+ *
+ * Copyright (C) 2009-2022 Mathieu Fortin for Rouge Epicea.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed with the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * Please see the license at http://www.gnu.org/copyleft/lesser.html.
+ */
+package repicea.net;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * The StreamableMessage interface ensures that a message can be written piece by piece on
+ * a socket instead of being converted into a single String beforehand.
+ */
+public interface StreamableMessage {
+
+	/**
+	 * Write the message. The resulting characters must be the same as those of the
+	 * toString() method.
+	 * @param writer a Writer instance
+	 * @throws IOException if the message cannot be written
+	 */
+	public void writeTo(Writer writer) throws IOException;
+
+}
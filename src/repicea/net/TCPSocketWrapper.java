@@ -18,6 +18,7 @@
  */
 package repicea.net;
 
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.ObjectInputStream;
@@ -25,9 +26,16 @@ import java.io.ObjectOutputStream;
 import java.io.OutputStream;
 import java.net.InetAddress;
 import java.net.Socket;
+import java.net.SocketException;
+import java.nio.channels.Channels;
 
 /**
- * The TCPSocketWrapper class handles the output and input of a TCP/IP socket. 
+ * The TCPSocketWrapper class handles the output and input of a TCP/IP socket. <br>
+ * <br>
+ * When no Java object is expected, the incoming messages are either raw strings or framed messages
+ * (see the FramedMessageChannel class). The wrapper recognizes framed messages by their first byte. Once
+ * a framed message has been received, the replies are framed as well. The former protocol is preserved
+ * for the clients that do not use framing.
  * @author Mathieu Fortin - December 2011 (refactoring January 2019)
  */
 @Deprecated
@@ -36,6 +44,9 @@ public class TCPSocketWrapper implements SocketWrapper {
 	private final byte[] buffer = new byte[100000];
 	private final boolean isJavaObjectExpected;
 	private final Socket socket;
+	private boolean isFramingEnabled;
+	private boolean isFramedMessageReceived;
+	private FramedMessageChannel framedChannel;
 	
 	private InputStream basicIn;
 	private OutputStream basicOut;
@@ -51,10 +62,28 @@ public class TCPSocketWrapper implements SocketWrapper {
 	 * @param isJavaObjectExpected a boolean.
 	 */
 	public TCPSocketWrapper(Socket socket, boolean isJavaObjectExpected) {
+		this(socket, isJavaObjectExpected, false);
+	}
+
+	/**
+	 * Constructor for the clients that send framed messages.
+	 * @param socket a Socket instance
+	 * @param isJavaObjectExpected a boolean.
+	 * @param isFramingEnabled true to frame the outgoing messages from the start (this parameter is ignored
+	 * if a Java object is expected)
+	 */
+	public TCPSocketWrapper(Socket socket, boolean isJavaObjectExpected, boolean isFramingEnabled) {
 		this.socket = socket;
 		this.isJavaObjectExpected = isJavaObjectExpected;
+		this.isFramingEnabled = !isJavaObjectExpected && isFramingEnabled;
 	}
 
+	/**
+	 * Check whether the outgoing messages are framed.
+	 * @return a boolean
+	 */
+	public boolean isFramingEnabled() {return isFramingEnabled;}
+
 	private Socket getSocket() {return socket;}
 
 	@Override
@@ -79,6 +108,8 @@ public class TCPSocketWrapper implements SocketWrapper {
 	public void writeObject(Object obj) throws IOException {
 		if (isJavaObjectExpected) {
 			getObjectOutputStream().writeObject(obj);
+		} else if (isFramingEnabled) {
+			getFramedMessageChannel().writeMessage(obj);
 		} else {
 			writeString(obj.toString());
 		}
@@ -89,18 +120,30 @@ public class TCPSocketWrapper implements SocketWrapper {
 	}
 
 	/**
-	 * This method returns a String from the incoming bytes. The buffer is 100000 byte long.
+	 * This method returns a String from the incoming bytes. A raw message is read at once
+	 * in a 100000-byte buffer whereas a framed message is read entirely whatever its length.
 	 * @return a String instance
 	 * @throws IOException
 	 */
 	private String readString() throws IOException {
-		int nbBytes = readBytes(buffer);
-		if (nbBytes == -1) {
+		try {
+			if (isFramedMessageReceived) {		// the peer frames its messages, which may come in a row
+				return getFramedMessageChannel().readMessage();
+			}
+			int nbBytes = readBytes(buffer);
+			if (nbBytes == -1) {
+				throw new EOFException("Seems that the connection has been shutdown by the client...");
+			}
+			if (nbBytes > 0 && FramedMessageChannel.isFramed(buffer[0])) {
+				isFramingEnabled = true;
+				isFramedMessageReceived = true;
+				return getFramedMessageChannel().readMessage(buffer, 0, nbBytes);
+			}
+			return new String(buffer, 0, nbBytes);
+		} catch (EOFException e) {
 			close();
-			throw new IOException("Seems that the connection has been shutdown by the client...");
+			throw e;
 		}
-		String incomingMessage = new String(buffer).substring(0, nbBytes);
-		return incomingMessage;
 	}
 
 	/**
@@ -146,6 +189,20 @@ public class TCPSocketWrapper implements SocketWrapper {
 		return basicOut;
 	}
 	
+	private synchronized FramedMessageChannel getFramedMessageChannel() throws IOException {
+		if (framedChannel == null) {
+			try {
+				socket.setTcpNoDelay(true);		// the messages are sent in large chunks
+			} catch (SocketException e) {}
+			if (socket.getChannel() != null) {
+				framedChannel = new FramedMessageChannel(socket.getChannel(), socket.getChannel());
+			} else {
+				framedChannel = new FramedMessageChannel(Channels.newChannel(getBasicInputStream()), Channels.newChannel(getBasicOutputStream()));
+			}
+		}
+		return framedChannel;
+	}
+
 	private ObjectOutputStream getObjectOutputStream() throws IOException {
 		if (objectOut == null) {
 			objectOut = new ObjectOutputStream(getBasicOutputStream());
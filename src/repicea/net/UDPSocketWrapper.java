@@ -34,7 +34,12 @@ public class UDPSocketWrapper implements SocketWrapper {
 
 	private final boolean isJavaObjectExpected;
 	private final DatagramSocket socket;
-	private final byte[] buffer = new byte[10000];
+	/**
+	 * The maximum payload of a UDP datagram.
+	 */
+	static final int MaxDatagramLength = 65507;
+
+	private final byte[] buffer = new byte[MaxDatagramLength];
 	private InetSocketAddress sendToAddress;
 	private InetSocketAddress receiveFromAddress;
 
@@ -86,7 +91,7 @@ public class UDPSocketWrapper implements SocketWrapper {
 	@Override
 	public Object readObject(int numberOfSeconds) throws Exception {
 		socket.setSoTimeout(numberOfSeconds * 1000);
-		DatagramPacket dp = new DatagramPacket(buffer, 1256);
+		DatagramPacket dp = new DatagramPacket(buffer, buffer.length);
 		socket.receive(dp);
 		int length = dp.getLength();
 		Object result = null;
@@ -103,6 +108,9 @@ public class UDPSocketWrapper implements SocketWrapper {
 	@Override
 	public void writeObject(Object obj) throws IOException {
 		byte[] buf = obj.toString().getBytes();
+		if (buf.length > MaxDatagramLength) {
+			throw new IOException("The message is too long for a single datagram! Use the TCP protocol instead.");
+		}
 		DatagramPacket dp = new DatagramPacket(buf, buf.length, sendToAddress.getAddress(), sendToAddress.getPort());
 		socket.send(dp);
 	}
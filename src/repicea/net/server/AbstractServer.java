@@ -24,6 +24,7 @@ import java.io.IOException;
 import java.net.InetAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.security.InvalidParameterException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.EventListener;
@@ -57,6 +58,7 @@ public abstract class AbstractServer extends AbstractGenericEngine implements Pr
 		protected final ServerSocket serverSocket;
 		private final LinkedBlockingQueue<SocketWrapper> clientQueue;
 		private final int maxNumberOfWaitingClients;
+		private volatile long nbRejectedCalls;
 
 		/**
 		 * General constructor. 
@@ -94,6 +96,7 @@ public abstract class AbstractServer extends AbstractGenericEngine implements Pr
 						clientQueue.add(clientSocket);
 					} else {
 						clientSocket.writeObject(ServerReply.IAmBusyCallBackLater);
+						nbRejectedCalls++;
 					}
 				}
 				System.out.println("Call receiver thread shut down");
@@ -172,6 +175,7 @@ public abstract class AbstractServer extends AbstractGenericEngine implements Pr
 	private ArrayList<ClientThread> clientThreads;
 	protected final LinkedBlockingQueue<SocketWrapper> clientQueue;
 	protected final CallReceiverThread callReceiver;
+	private final SelectorCallReceiver selectorCallReceiver;
 	
 	protected final boolean isCallerAJavaApplication;
 	
@@ -182,21 +186,39 @@ public abstract class AbstractServer extends AbstractGenericEngine implements Pr
 	private List<PropertyChangeListener> listeners;
 
 	/**
-	 * Constructor.
+	 * Constructor. If the configuration enables the selector, the connections are monitored by a single
+	 * thread and the requests are passed to the processRequest method. Otherwise, each connection is 
+	 * handled by a client thread. <br>
+	 * <br>
+	 * The selector can only be enabled if the derived class overrides the processRequest method and if
+	 * the caller is not a Java application, since the selector only exchanges strings with the clients.
 	 * @param configuration a ServerConfiguration instance that defines the number of threads, the reference path and the filename of the exception rules
 	 * @param isCallerAJavaApplication true if the client is a Java app 
 	 * @throws Exception
 	 */
 	protected AbstractServer(ServerConfiguration configuration, boolean isCallerAJavaApplication) throws Exception {
-		super(true);  // full start
+		super(false);  // the internal worker is started once the configuration has been checked
 		this.configuration = configuration;
 		this.isCallerAJavaApplication = isCallerAJavaApplication;
+		if (configuration.isSelectorEnabled) {
+			if (isCallerAJavaApplication) {
+				throw new InvalidParameterException("The selector cannot be enabled if the caller is a Java application!");
+			} else if (!isProcessRequestOverridden()) {
+				throw new InvalidParameterException("The server " + getClass().getSimpleName() + " does not override the processRequest method and cannot enable the selector!");
+			}
+		}
+		startInternalWorker();
 		clientThreads = new ArrayList<ClientThread>();
 		clientQueue = new LinkedBlockingQueue<SocketWrapper>();
 		try {
-			if (configuration.protocol == Protocol.TCP) {
+			if (configuration.isSelectorEnabled) {
+				callReceiver = null;
+				selectorCallReceiver = new SelectorCallReceiver(this, configuration.outerPort, configuration.maxNumberOfConnections, configuration.numberOfPipelineWorkers, configuration.maxMessageLength);
+			} else if (configuration.protocol == Protocol.TCP) {
+				selectorCallReceiver = null;
 				callReceiver = new CallReceiverThread(new ServerSocket(configuration.outerPort), clientQueue, configuration.maxSizeOfWaitingList);
 			} else {
+				selectorCallReceiver = null;
 				callReceiver = new CallReceiverThread(null, clientQueue, configuration.maxSizeOfWaitingList);
 			}
 			for (int i = 0; i < configuration.numberOfClientThreads; i++) {
@@ -215,19 +237,87 @@ public abstract class AbstractServer extends AbstractGenericEngine implements Pr
 
 	
 	protected abstract ClientThread createClientThread(AbstractServer server, int id);
-		
+
+	/**
+	 * Check if a request can be processed while the former requests of the same connection are 
+	 * still being processed. This method is only called when the connections are monitored by a selector. 
+	 * By default, the requests of a connection are processed one at a time.
+	 * @param request the request
+	 * @return a boolean
+	 */
+	protected boolean isConcurrentRequest(Object request) {
+		return false;
+	}
+	
+	/**
+	 * Process a request and send the reply. This method is only called when the connections are monitored 
+	 * by a selector. It is called by a worker and should close the socket wrapper when the client asks for it. 
+	 * If an exception is thrown, the connection is closed.
+	 * @param socketWrapper the SocketWrapper instance of the connection
+	 * @param request the request
+	 * @throws Exception
+	 */
+	@SuppressWarnings("deprecation")
+	protected void processRequest(SocketWrapper socketWrapper, Object request) throws Exception {
+		throw new UnsupportedOperationException("The server " + getClass().getSimpleName() + " does not support the selector!");
+	}
+
+	@SuppressWarnings("deprecation")
+	private boolean isProcessRequestOverridden() {
+		for (Class<?> clazz = getClass(); clazz != AbstractServer.class; clazz = clazz.getSuperclass()) {
+			try {
+				clazz.getDeclaredMethod("processRequest", SocketWrapper.class, Object.class);
+				return true;
+			} catch (NoSuchMethodException e) {}
+		}
+		return false;
+	}
+
+	/**
+	 * Called when a connection has been closed. This method is only called when the connections are 
+	 * monitored by a selector. It is called by the thread that monitors the connections and must not block.
+	 * @param nbRemainingConnections the number of connections still open
+	 */
+	protected void onConnectionClosed(int nbRemainingConnections) {}
+
+	/**
+	 * Provide a snapshot of the load of the server.
+	 * @return a ServerMetrics instance
+	 */
+	public ServerMetrics getMetrics() {
+		if (selectorCallReceiver != null) {
+			return selectorCallReceiver.getMetrics();
+		} else {
+			int nbBusyThreads = clientThreads.size() - getNumberOfThreadsWaiting();
+			return new ServerMetrics(nbBusyThreads, 0, clientQueue.size(), nbBusyThreads, 0, callReceiver.nbRejectedCalls);
+		}
+	}
+
+	private int getNumberOfThreadsWaiting() {
+		int nbThreadsWaiting = 0;
+		for (ClientThread t : clientThreads) {
+			if (isWaiting(t)) {
+				nbThreadsWaiting++;
+			}
+		}
+		return nbThreadsWaiting;
+	}
+	
+	private boolean isWaiting(ClientThread t) {
+		Map<String, PropertyChangeEvent> statusMap = t.getCurrentStatusMap();
+		if (statusMap.isEmpty()) {
+			return true;
+		} else if (statusMap.containsKey("status")) {
+			String currentStatus = statusMap.get("status").getNewValue().toString();
+			return currentStatus.equals("Waiting");
+		}
+		return false;
+	}
+	
 	private boolean isThereAtLeastOneThreadWaiting() {
 		for (ClientThread t : clientThreads) {
-			Map<String, PropertyChangeEvent> statusMap = t.getCurrentStatusMap();
-			if (statusMap.isEmpty()) {
+			if (isWaiting(t)) {
 				return true;
-			} else {
-				if (statusMap.containsKey("status")) {
-					String currentStatus = t.getCurrentStatusMap().get("status").getNewValue().toString();
-					if (currentStatus.equals("Waiting")) {
-						return true;
-					}
-				}
 			}
 		}
 		return false;
@@ -270,8 +360,12 @@ public abstract class AbstractServer extends AbstractGenericEngine implements Pr
 	 */
 	protected void startReceiverThread() throws ExecutionException, InterruptedException {
 		System.out.println("Server starting");
-		callReceiver.start();
-		listenToClients();
+		if (selectorCallReceiver != null) {
+			selectorCallReceiver.start();
+		} else {
+			callReceiver.start();
+			listenToClients();
+		}
 //		callReceiver.join();
 //		System.out.println("Server shutting down");
 	}
@@ -340,6 +434,11 @@ public abstract class AbstractServer extends AbstractGenericEngine implements Pr
 
 	@Override
 	public void requestShutdown() {
+		if (selectorCallReceiver != null) {
+			selectorCallReceiver.shutdown();
+			super.requestShutdown();
+			return;
+		}
 		callReceiver.shutdownCall = true;
 		callReceiver.clientQueue.clear();
 		try {
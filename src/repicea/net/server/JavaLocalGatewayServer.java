@@ -19,23 +19,88 @@
 package repicea.net.server;
 
 import java.io.IOException;
+import java.io.Writer;
 import java.lang.reflect.InvocationTargetException;
 import java.net.InetAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.security.InvalidParameterException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import repicea.lang.codetranslator.REpiceaCodeTranslator;
 import repicea.net.SocketWrapper;
+import repicea.net.StreamableMessage;
 import repicea.net.TCPSocketWrapper;
 import repicea.net.server.BasicClient.ClientRequest;
 
 /**
  * The JavaLocalGatewayServer class is a one-to-one local server that makes it possible 
- * to create objects and to execute methods in Java from a non-Java application.
+ * to create objects and to execute methods in Java from a non-Java application. <br>
+ * <br>
+ * The requests are normally processed one at a time. A client can also pipeline its requests, 
+ * that is send many requests without waiting for the replies. A pipelined request is preceded by 
+ * a tag, e.g. "tag12/;method/;...", and processed by a pool of workers. Its reply is preceded by the
+ * same tag, e.g. "tag12/;numeric2.5", and the replies may come in any order. A request without tag 
+ * is processed once all the pipelined requests have been replied. Pipelining requires the framed 
+ * messages of the TCPSocketWrapper class since many requests can come in a single read. <br>
+ * <br>
+ * If the ServerConfiguration instance enables the selector, the server accepts many clients at once and an
+ * idle client holds no thread. The requests of each client are processed as described above and closing a 
+ * connection does not affect the other clients. 
  * @author Mathieu Fortin - December 2018
  */
 public class JavaLocalGatewayServer extends AbstractServer {
 	
+	/**
+	 * The prefix of the tag of pipelined requests.
+	 */
+	public static final String TaggedRequestPrefix = "tag";
+	
+	static final String TagSplitter = "/;";
+	
+	/**
+	 * The maximum number of pipelined requests waiting for a worker. Beyond this number, the 
+	 * request is processed by the client thread, which stops reading new requests in the meantime.
+	 */
+	static final int MaxNumberOfQueuedRequests = 1000;
+	
+	private static final Object RequestSubmitted = new Object();
+	
+	/**
+	 * The reply to a pipelined request. 
+	 */
+	static final class TaggedReply implements StreamableMessage {
+		
+		final String tag;
+		final Object reply;
+		
+		TaggedReply(String tag, Object reply) {
+			this.tag = tag;
+			this.reply = reply;
+		}
+
+		@Override
+		public void writeTo(Writer writer) throws IOException {
+			writer.write(tag + TagSplitter);
+			if (reply instanceof StreamableMessage) {
+				((StreamableMessage) reply).writeTo(writer);
+			} else {
+				writer.write(reply.toString());
+			}
+		}
+		
+		@Override
+		public String toString() {
+			return tag + TagSplitter + reply.toString();
+		}
+	}
+	
 	/**
 	 * A wrapper for Exception.
 	 * @author Mathieu Fortin
@@ -105,6 +170,7 @@ public class JavaLocalGatewayServer extends AbstractServer {
 				socketWrapper.readObject();
 				socketWrapper.writeObject("softExit");
 				socketWrapper.close();
+				join(5000);		// the port is released once the thread is done
 			} catch (Exception e) {}
 		}
 	}
@@ -113,10 +179,85 @@ public class JavaLocalGatewayServer extends AbstractServer {
 	
 	private class JavaGatewayClientThread extends ClientThread {
 
+		/**
+		 * A pipelined request processed by the pool of workers.
+		 */
+		@SuppressWarnings("deprecation")
+		private class PipelinedRequest implements Runnable {
+			
+			private final SocketWrapper socketWrapper;
+			private final String tag;
+			private final String request;
+			
+			private PipelinedRequest(SocketWrapper socketWrapper, String tag, String request) {
+				this.socketWrapper = socketWrapper;
+				this.tag = tag;
+				this.request = request;
+			}
+			
+			@Override
+			public void run() {
+				try {
+					writeReply(socketWrapper, new TaggedReply(tag, getReply(request)));
+				} catch (IOException e) {		// seems that the connection was lost
+					try {
+						socketWrapper.close();
+					} catch (IOException e1) {}
+				} finally {
+					requestDone();
+				}
+			}
+
+			/*
+			 * Called when the request is rejected because the pool of workers has been shut down. 
+			 * The client is told the request has not been processed.
+			 */
+			private void reject() {
+				try {
+					writeReply(socketWrapper, new TaggedReply(tag, new JavaGatewayException(new RejectedExecutionException("The server is shutting down!"))));
+				} catch (IOException e) {
+					try {
+						socketWrapper.close();
+					} catch (IOException e1) {}
+				} finally {
+					requestDone();
+				}
+			}
+			
+			private void requestDone() {
+				synchronized (pendingLock) {
+					nbPendingRequests--;
+					pendingLock.notifyAll();
+				}
+			}
+		}
+		
+		private final Object writeLock = new Object();
+		private final Object pendingLock = new Object();
+		private int nbPendingRequests;
+		
 		protected JavaGatewayClientThread(AbstractServer caller, int workerID) {
 			super(caller, workerID);
 		}
 
+		/*
+		 * The replies of the workers and those of the client thread cannot be interleaved.
+		 */
+		@SuppressWarnings("deprecation")
+		private void writeReply(SocketWrapper socketWrapper, Object reply) throws IOException {
+			synchronized (writeLock) {
+				socketWrapper.writeObject(reply);
+			}
+		}
+
+		private void waitForPendingRequests() throws InterruptedException {
+			synchronized (pendingLock) {
+				while (nbPendingRequests > 0) {
+					pendingLock.wait();
+				}
+			}
+		}
+
 		@Override
 		public void run() {
 			while(true) {
@@ -129,18 +270,20 @@ public class JavaLocalGatewayServer extends AbstractServer {
 					while (!socketWrapper.isClosed()) {
 						try {
 							Object somethingInParticular = processRequest();
-							if (somethingInParticular != null) {
+							if (somethingInParticular == RequestSubmitted) {
+								continue;
+							} else if (somethingInParticular != null) {
 								if (somethingInParticular.equals(BasicClient.ClientRequest.closeConnection) 
 										|| somethingInParticular.equals(BasicClient.ClientRequest.closeConnection.name())) {
-									socketWrapper.writeObject(ServerReply.ClosingConnection);
+									writeReply(socketWrapper, ServerReply.ClosingConnection);
 									closeSocket();
 									caller.requestShutdown();
 									break;
 								} else {
-									socketWrapper.writeObject(somethingInParticular);
+									writeReply(socketWrapper, somethingInParticular);
 								}
 							} else {
-								socketWrapper.writeObject(ServerReply.RequestReceivedAndProcessed);
+								writeReply(socketWrapper, ServerReply.RequestReceivedAndProcessed);
 							}
 						} catch (Exception e) {		// something wrong happened during the processing of the request
 							try {
@@ -148,14 +291,15 @@ public class JavaLocalGatewayServer extends AbstractServer {
 									closeSocket();
 								} else if (!socketWrapper.isClosed()) {
 									if (e instanceof InvocationTargetException) {
-										socketWrapper.writeObject(new JavaGatewayException(((InvocationTargetException) e).getTargetException()));
+										writeReply(socketWrapper, new JavaGatewayException(((InvocationTargetException) e).getTargetException()));
 									} else {
-										socketWrapper.writeObject(new JavaGatewayException(e));
+										writeReply(socketWrapper, new JavaGatewayException(e));
 									}
 								}
 							} catch (IOException e1) {}
 						}
 					}
+					waitForPendingRequests();
 					if (JavaLocalGatewayServer.this.shutdownOnClosedConnection) {
 						caller.requestShutdown();
 						break;
@@ -173,6 +317,27 @@ public class JavaLocalGatewayServer extends AbstractServer {
 				return crudeRequest;
 			} else if (crudeRequest instanceof String) {
 				String request = (String) crudeRequest;
+				if (request.startsWith(TaggedRequestPrefix)) {
+					int index = request.indexOf(TagSplitter);
+					if (index == -1) {
+						throw new InvalidParameterException("The tag of the pipelined request is not followed by " + TagSplitter);
+					}
+					String tag = request.substring(0, index);
+					request = request.substring(index + TagSplitter.length());
+					if (!request.equals(ClientRequest.closeConnection.name())) {
+						if (translator.isSequentialRequest(request)) {
+							waitForPendingRequests();		// the former requests must be processed first
+							writeReply(getSocket(), new TaggedReply(tag, getReply(request)));	// the client thread reads nothing else in the meantime
+						} else {
+							synchronized (pendingLock) {
+								nbPendingRequests++;
+							}
+							pipelineExecutor.execute(new PipelinedRequest(getSocket(), tag, request));
+						}
+						return RequestSubmitted;
+					}
+				}
+				waitForPendingRequests();		// the former requests must be processed first
 				if (request.startsWith("time")) {
 					long startMillisec = Long.parseLong(request.substring(4));
 					long finalTime = System.currentTimeMillis();
@@ -190,6 +355,7 @@ public class JavaLocalGatewayServer extends AbstractServer {
 	protected final boolean shutdownOnClosedConnection;
 	protected final REpiceaBackDoorCancellationThread backdoorThread;
 	protected boolean bypassShutdownForTesting;
+	protected final ThreadPoolExecutor pipelineExecutor;
 	
 	/**
 	 * Constructor.
@@ -225,6 +391,38 @@ public class JavaLocalGatewayServer extends AbstractServer {
 		this.translator = translator;
 		this.shutdownOnClosedConnection = shutdownOnClosedConnection;
 		backdoorThread = new REpiceaBackDoorCancellationThread(50000);
+		pipelineExecutor = createPipelineExecutor(servConf.numberOfPipelineWorkers);
+	}
+
+	/*
+	 * When the queue is full, the request is processed by the client thread itself, which 
+	 * then stops reading the socket. This slows the client down instead of rejecting its requests.
+	 * Once the executor has been shut down, the request is rejected and the client is told so.
+	 */
+	private static ThreadPoolExecutor createPipelineExecutor(int numberOfWorkers) {
+		final AtomicInteger workerID = new AtomicInteger();
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(numberOfWorkers, numberOfWorkers, 60, TimeUnit.SECONDS, 
+				new ArrayBlockingQueue<Runnable>(MaxNumberOfQueuedRequests), 
+				new ThreadFactory() {
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread t = new Thread(r, "Pipeline worker no " + workerID.incrementAndGet());
+						t.setDaemon(true);
+						return t;
+					}
+				},
+				new RejectedExecutionHandler() {
+					@Override
+					public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+						if (executor.isShutdown()) {
+							((JavaGatewayClientThread.PipelinedRequest) r).reject();
+						} else {
+							r.run();
+						}
+					}
+				});
+		executor.allowCoreThreadTimeOut(true);		// idle sessions do not hold any worker
+		return executor;
 	}
 
 	@Override
@@ -232,10 +430,88 @@ public class JavaLocalGatewayServer extends AbstractServer {
 		return new JavaGatewayClientThread(server, id);
 	}
 
+	/*
+	 * Process the request and return its reply or the exception wrapped in a JavaGatewayException instance.
+	 */
+	private Object getReply(String request) {
+		try {
+			Object reply = translator.processCode(request);
+			if (reply == null) {
+				reply = ServerReply.RequestReceivedAndProcessed;
+			}
+			return reply;
+		} catch (InvocationTargetException e) {
+			return new JavaGatewayException(e.getTargetException());
+		} catch (Exception e) {
+			return new JavaGatewayException(e);
+		}
+	}
+
+	/*
+	 * The closing of the connection and the requests that depend on all the former requests
+	 * (e.g. the synchronization of the environment) are never processed concurrently.
+	 */
+	private boolean isSequentialRequest(String request) {
+		return request.equals(ClientRequest.closeConnection.name()) || translator.isSequentialRequest(request);
+	}
+	
+	/**
+	 * The tagged requests are processed concurrently, except the closing of the connection and 
+	 * the requests that the translator processes sequentially.
+	 */
+	@Override
+	protected boolean isConcurrentRequest(Object request) {
+		String str = request.toString();
+		if (str.startsWith(TaggedRequestPrefix)) {
+			int index = str.indexOf(TagSplitter);
+			return index != -1 && !isSequentialRequest(str.substring(index + TagSplitter.length()));
+		}
+		return false;
+	}
+
+	@SuppressWarnings("deprecation")
+	@Override
+	protected void processRequest(SocketWrapper socketWrapper, Object crudeRequest) throws IOException {
+		String request = crudeRequest.toString();
+		String tag = null;
+		if (request.startsWith(TaggedRequestPrefix)) {
+			int index = request.indexOf(TagSplitter);
+			if (index == -1) {
+				socketWrapper.writeObject(new JavaGatewayException(new InvalidParameterException("The tag of the pipelined request is not followed by " + TagSplitter)));
+				return;
+			}
+			tag = request.substring(0, index);
+			request = request.substring(index + TagSplitter.length());
+		}
+		if (request.equals(ClientRequest.closeConnection.name())) {
+			socketWrapper.writeObject(ServerReply.ClosingConnection);
+			socketWrapper.close();
+		} else {
+			Object reply = getReply(request);
+			socketWrapper.writeObject(tag != null ? new TaggedReply(tag, reply) : reply);
+		}
+	}
+
+	/**
+	 * The server shuts down once the last client is gone if the shutdownOnClosedConnection member is true.
+	 */
+	@Override
+	protected void onConnectionClosed(int nbRemainingConnections) {
+		if (shutdownOnClosedConnection && nbRemainingConnections == 0) {
+			new Thread(new Runnable() {
+				@Override
+				public void run() {
+					requestShutdown();
+				}
+			}, "Server shutdown thread").start();
+		}
+	}
+
 	
 	
 	@Override
 	protected void shutdown(int shutdownCode) {
+		pipelineExecutor.shutdown();
 		if (backdoorThread.isAlive()) {
 			backdoorThread.softExit();
 		}
@@ -0,0 +1,435 @@
+/*
+ * This file is part of the repicea library.
+ *
+ * Copyright (C) 2009-2022 Mathieu Fortin for Rouge Epicea.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed with the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * Please see the license at http://www.gnu.org/copyleft/lesser.html.
+ */
+package repicea.net.server;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import repicea.net.SelectableSocketWrapper;
+import repicea.net.server.AbstractServer.ServerReply;
+
+/**
+ * The SelectorCallReceiver class accepts the calls and reads the requests of all the connections
+ * of an AbstractServer instance in a single thread. <br>
+ * <br>
+ * The requests are processed by an executor: one virtual thread per request if the JVM provides virtual
+ * threads or a pool of workers otherwise. An idle connection therefore holds no thread. The requests of a
+ * connection are processed one at a time and in order, except those the server declares concurrent. When
+ * too many requests of a connection are pending, the connection is no longer read until half of them
+ * have been processed, which slows its client down through the TCP flow control.
+ */
+class SelectorCallReceiver extends Thread {
+
+	/**
+	 * The maximum number of requests of a connection that are waiting or being processed.
+	 */
+	static final int MaxNumberOfPendingRequestsPerConnection = 1000;
+
+	/**
+	 * A connection and its requests. The fields are protected by the lock of the instance.
+	 */
+	private class Connection {
+
+		private final SelectableSocketWrapper socketWrapper;
+		private final SelectionKey key;
+		private final Queue<Object> inbox;
+		private int nbConcurrentRequestsRunning;
+		private boolean isSequentialRequestRunning;
+		private boolean isReadingPaused;
+		private boolean isEndOfStream;
+
+		private Connection(SelectableSocketWrapper socketWrapper, SelectionKey key) {
+			this.socketWrapper = socketWrapper;
+			this.key = key;
+			inbox = new ArrayDeque<Object>();
+		}
+
+		private int getNumberOfPendingRequests() {
+			return inbox.size() + nbConcurrentRequestsRunning + (isSequentialRequestRunning ? 1 : 0);
+		}
+
+		/*
+		 * Called by the selector thread.
+		 */
+		private synchronized void enqueue(List<Object> requests) {
+			inbox.addAll(requests);
+			dispatch();
+			if (!isReadingPaused && getNumberOfPendingRequests() >= MaxNumberOfPendingRequestsPerConnection) {
+				isReadingPaused = true;
+				nbPausedConnections.incrementAndGet();
+				key.interestOps(0);
+			}
+		}
+
+		/*
+		 * Called by the selector thread.
+		 */
+		private synchronized boolean setEndOfStream() {
+			isEndOfStream = true;
+			key.interestOps(0);
+			return getNumberOfPendingRequests() == 0;
+		}
+
+		/*
+		 * A sequential request waits until the former requests have been processed and the
+		 * requests that follow wait until it has been processed.
+		 */
+		private void dispatch() {
+			while (!inbox.isEmpty() && !isSequentialRequestRunning) {
+				Object request = inbox.peek();
+				boolean isConcurrent = server.isConcurrentRequest(request);
+				if (!isConcurrent && nbConcurrentRequestsRunning > 0) {
+					break;
+				}
+				inbox.poll();
+				if (isConcurrent) {
+					nbConcurrentRequestsRunning++;
+				} else {
+					isSequentialRequestRunning = true;
+				}
+				submit(new RequestTask(this, request, isConcurrent));
+			}
+		}
+
+		/*
+		 * Called by the workers.
+		 */
+		private synchronized void requestDone(boolean isConcurrent) {
+			if (isConcurrent) {
+				nbConcurrentRequestsRunning--;
+			} else {
+				isSequentialRequestRunning = false;
+			}
+			dispatch();
+			int nbPendingRequests = getNumberOfPendingRequests();
+			if (socketWrapper.isClosed() || (isEndOfStream && nbPendingRequests == 0)) {
+				runInSelectorThread(new Runnable() {
+					@Override
+					public void run() {
+						closeConnection(Connection.this);
+					}
+				});
+			} else if (isReadingPaused && !isEndOfStream && nbPendingRequests <= MaxNumberOfPendingRequestsPerConnection / 2) {
+				isReadingPaused = false;
+				nbPausedConnections.decrementAndGet();
+				runInSelectorThread(new Runnable() {
+					@Override
+					public void run() {
+						if (key.isValid()) {
+							key.interestOps(SelectionKey.OP_READ);
+						}
+					}
+				});
+			}
+		}
+	}
+
+	/**
+	 * The processing of a single request.
+	 */
+	private class RequestTask implements Runnable {
+
+		private final Connection connection;
+		private final Object request;
+		private final boolean isConcurrent;
+
+		private RequestTask(Connection connection, Object request, boolean isConcurrent) {
+			this.connection = connection;
+			this.request = request;
+			this.isConcurrent = isConcurrent;
+		}
+
+		@Override
+		public void run() {
+			nbQueuedTasks.decrementAndGet();
+			nbActiveTasks.incrementAndGet();
+			try {
+				if (!connection.socketWrapper.isClosed()) {
+					server.processRequest(connection.socketWrapper, request);
+				}
+			} catch (Exception e) {
+				if (!(e instanceof IOException)) {		// otherwise, seems that the connection was lost
+					e.printStackTrace();
+				}
+				try {
+					connection.socketWrapper.close();
+				} catch (IOException e1) {}
+			} finally {
+				nbActiveTasks.decrementAndGet();
+				nbProcessedRequests.incrementAndGet();
+				connection.requestDone(isConcurrent);
+			}
+		}
+	}
+
+	private final AbstractServer server;
+	private final ServerSocketChannel serverChannel;
+	private final Selector selector;
+	private final ExecutorService executor;
+	private final int maxNumberOfConnections;
+	private final int maxMessageLength;
+	private final Set<Connection> connections;
+	private final Queue<Runnable> pendingActions;
+	private final List<Object> incomingRequests;
+	private volatile boolean shutdownCall;
+
+	private final AtomicInteger nbPausedConnections = new AtomicInteger();
+	private final AtomicInteger nbQueuedTasks = new AtomicInteger();
+	private final AtomicInteger nbActiveTasks = new AtomicInteger();
+	private final AtomicLong nbProcessedRequests = new AtomicLong();
+	private final AtomicLong nbRejectedCalls = new AtomicLong();
+
+	/**
+	 * Constructor.
+	 * @param server the AbstractServer instance that processes the requests
+	 * @param port the port on which the calls are received
+	 * @param maxNumberOfConnections the maximum number of simultaneous connections
+	 * @param numberOfWorkers the number of workers if virtual threads are not available
+	 * @param maxMessageLength the maximum length of an incoming message in bytes
+	 * @throws IOException if the port cannot be bound
+	 */
+	SelectorCallReceiver(AbstractServer server, int port, int maxNumberOfConnections, int numberOfWorkers, int maxMessageLength) throws IOException {
+		this.server = server;
+		this.maxNumberOfConnections = maxNumberOfConnections;
+		this.maxMessageLength = maxMessageLength;
+		selector = Selector.open();
+		serverChannel = ServerSocketChannel.open();
+		try {
+			serverChannel.socket().bind(new InetSocketAddress(port));
+			serverChannel.configureBlocking(false);
+			serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+		} catch (IOException e) {
+			serverChannel.close();
+			selector.close();
+			throw e;
+		}
+		connections = ConcurrentHashMap.newKeySet();
+		pendingActions = new ConcurrentLinkedQueue<Runnable>();
+		incomingRequests = new ArrayList<Object>();
+		executor = createExecutor(numberOfWorkers);
+		setName("Answering calls thread");
+	}
+
+	/*
+	 * Executors.newVirtualThreadPerTaskExecutor is called through reflection since the library is
+	 * compiled against Java 8.
+	 */
+	private static ExecutorService createExecutor(int numberOfWorkers) {
+		try {
+			Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) method.invoke(null);
+		} catch (Exception e) {}		// no virtual threads before Java 21
+		final AtomicInteger workerID = new AtomicInteger();
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(numberOfWorkers, numberOfWorkers, 60, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(),
+				new ThreadFactory() {
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread t = new Thread(r, "Server worker no " + workerID.incrementAndGet());
+						t.setDaemon(true);
+						return t;
+					}
+				});
+		executor.allowCoreThreadTimeOut(true);
+		return executor;
+	}
+
+	/**
+	 * Provide the port on which the calls are received.
+	 * @return an integer
+	 */
+	int getLocalPort() {return serverChannel.socket().getLocalPort();}
+
+	ServerMetrics getMetrics() {
+		return new ServerMetrics(connections.size(),
+				nbPausedConnections.get(),
+				nbQueuedTasks.get(),
+				nbActiveTasks.get(),
+				nbProcessedRequests.get(),
+				nbRejectedCalls.get());
+	}
+
+	private void submit(RequestTask task) {
+		nbQueuedTasks.incrementAndGet();
+		try {
+			executor.execute(task);
+		} catch (RejectedExecutionException e) {		// the server is shutting down
+			nbQueuedTasks.decrementAndGet();
+		}
+	}
+
+	/*
+	 * The selection keys are only modified by the selector thread.
+	 */
+	private void runInSelectorThread(Runnable action) {
+		pendingActions.add(action);
+		selector.wakeup();
+	}
+
+	@Override
+	public void run() {
+		try {
+			while (!shutdownCall) {
+				selector.select();
+				Runnable action;
+				while ((action = pendingActions.poll()) != null) {
+					action.run();
+				}
+				Iterator<SelectionKey> iter = selector.selectedKeys().iterator();
+				while (iter.hasNext()) {
+					SelectionKey key = iter.next();
+					iter.remove();
+					if (!key.isValid()) {
+						continue;
+					}
+					if (key.isAcceptable()) {
+						accept();
+					} else if (key.isReadable()) {
+						read((Connection) key.attachment());
+					}
+				}
+			}
+			System.out.println("Call receiver thread shut down");
+		} catch (Exception e) {
+			if (!shutdownCall) {
+				e.printStackTrace();
+			}
+		} finally {
+			for (Connection connection : connections) {
+				try {
+					connection.socketWrapper.close();
+				} catch (IOException e) {}
+			}
+			connections.clear();
+			executor.shutdown();
+			try {
+				serverChannel.close();
+				selector.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	private void accept() throws IOException {
+		SocketChannel channel = serverChannel.accept();
+		if (channel == null) {
+			return;
+		}
+		SelectableSocketWrapper socketWrapper = null;
+		try {
+			socketWrapper = new SelectableSocketWrapper(channel);
+			socketWrapper.setMaximumMessageLength(maxMessageLength);
+			if (connections.size() >= maxNumberOfConnections) {
+				socketWrapper.writeObject(ServerReply.IAmBusyCallBackLater);
+				socketWrapper.close();
+				nbRejectedCalls.incrementAndGet();
+			} else {
+				socketWrapper.writeObject(ServerReply.CallAccepted);
+				SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+				Connection connection = new Connection(socketWrapper, key);
+				key.attach(connection);
+				connections.add(connection);
+			}
+		} catch (IOException e) {		// the client is already gone
+			if (socketWrapper != null) {
+				socketWrapper.close();
+			} else {
+				channel.close();
+			}
+		}
+	}
+
+	private void read(Connection connection) {
+		boolean isOpen;
+		try {
+			isOpen = connection.socketWrapper.readAvailableMessages(incomingRequests);
+		} catch (IOException e) {		// broken connection or invalid message
+			incomingRequests.clear();	// the messages decoded before the exception are dropped with the connection
+			closeConnection(connection);
+			return;
+		}
+		try {
+			if (!incomingRequests.isEmpty()) {
+				connection.enqueue(incomingRequests);
+			}
+		} finally {
+			incomingRequests.clear();
+		}
+		if (!isOpen && connection.setEndOfStream()) {	// otherwise the connection is closed once the pending requests are processed
+			closeConnection(connection);
+		}
+	}
+
+	/*
+	 * Called by the selector thread only.
+	 */
+	private void closeConnection(Connection connection) {
+		if (connections.remove(connection)) {
+			connection.key.cancel();
+			try {
+				connection.socketWrapper.close();
+			} catch (IOException e) {}
+			synchronized (connection) {
+				if (connection.isReadingPaused) {
+					connection.isReadingPaused = false;
+					nbPausedConnections.decrementAndGet();
+				}
+			}
+			server.onConnectionClosed(connections.size());
+		}
+	}
+
+	/**
+	 * Stop accepting calls and close all the connections. The requests being processed are completed.
+	 */
+	void shutdown() {
+		shutdownCall = true;
+		selector.wakeup();
+		if (Thread.currentThread() != this) {
+			try {
+				join(5000);
+			} catch (InterruptedException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+}
@@ -21,6 +21,8 @@ package repicea.net.server;
 import java.io.Serializable;
 import java.security.InvalidParameterException;
 
+import repicea.net.SelectableSocketWrapper;
+
 public class ServerConfiguration implements Serializable {
 
 	private static final long serialVersionUID = 20111222L;
@@ -34,6 +36,26 @@ public class ServerConfiguration implements Serializable {
 	
 	protected final Protocol protocol;
 
+	/**
+	 * The number of threads that process the pipelined requests of the JavaLocalGatewayServer class. 
+	 */
+	protected final int numberOfPipelineWorkers;
+
+	/**
+	 * True if the connections are monitored by a selector instead of being handled by client threads.
+	 */
+	protected final boolean isSelectorEnabled;
+	
+	/**
+	 * The maximum number of simultaneous connections when the connections are monitored by a selector.
+	 */
+	protected final int maxNumberOfConnections;
+
+	/**
+	 * The maximum length of an incoming message in bytes when the connections are monitored by a selector.
+	 */
+	protected final int maxMessageLength;
+	
 	
 	/**
 	 * Constructor. 
@@ -64,6 +86,10 @@ public class ServerConfiguration implements Serializable {
 		} else {
 			this.maxSizeOfWaitingList = maxSizeOfWaitingList;
 		}
+		numberOfPipelineWorkers = getDefaultNumberOfPipelineWorkers();
+		isSelectorEnabled = false;
+		maxNumberOfConnections = this.numberOfClientThreads + this.maxSizeOfWaitingList;
+		maxMessageLength = SelectableSocketWrapper.DefaultMaximumMessageLength;
 	}
 
 	/**
@@ -72,6 +98,21 @@ public class ServerConfiguration implements Serializable {
 	 * @param protocol either TCP or UDP
 	 */
 	public ServerConfiguration(int outerPort, Protocol protocol) {
+		this(outerPort, protocol, getDefaultNumberOfPipelineWorkers());
+	}
+
+	/**
+	 * Configuration for local server
+	 * @param outerPort
+	 * @param protocol either TCP or UDP
+	 * @param numberOfPipelineWorkers the number of threads that process the pipelined requests
+	 */
+	public ServerConfiguration(int outerPort, Protocol protocol, int numberOfPipelineWorkers) {
+		if (numberOfPipelineWorkers < 1 || numberOfPipelineWorkers > 64) {
+			throw new InvalidParameterException("The number of pipeline workers must be between 1 and 64");
+		} else {
+			this.numberOfPipelineWorkers = numberOfPipelineWorkers;
+		}
 		this.protocol = protocol;
 		if (outerPort < 1024 || outerPort > 49151) {
 			throw new InvalidParameterException("The outer port must be between 1024 and 49151");
@@ -81,5 +122,70 @@ public class ServerConfiguration implements Serializable {
 		innerPort = null;
 		numberOfClientThreads = 1;
 		maxSizeOfWaitingList = 0;
+		isSelectorEnabled = false;
+		maxNumberOfConnections = 1;
+		maxMessageLength = SelectableSocketWrapper.DefaultMaximumMessageLength;
+	}
+
+	/**
+	 * Configuration for a local server whose connections are monitored by a selector. An idle connection 
+	 * does not hold any thread. The requests are processed by virtual threads if the JVM provides them or by 
+	 * a pool of workers otherwise. The server interface is not available with this configuration.
+	 * @param outerPort port on which the server exchange the information with the clients
+	 * @param maxNumberOfConnections the maximum number of simultaneous connections
+	 * @param numberOfWorkers the number of workers if virtual threads are not available
+	 */
+	public ServerConfiguration(int outerPort, int maxNumberOfConnections, int numberOfWorkers) {
+		this(outerPort, maxNumberOfConnections, numberOfWorkers, SelectableSocketWrapper.DefaultMaximumMessageLength);
+	}
+
+	/**
+	 * Configuration for a local server whose connections are monitored by a selector. A message that
+	 * is longer than the maximum message length is rejected and its connection is closed.
+	 * @param outerPort port on which the server exchange the information with the clients
+	 * @param maxNumberOfConnections the maximum number of simultaneous connections
+	 * @param numberOfWorkers the number of workers if virtual threads are not available
+	 * @param maxMessageLength the maximum length of an incoming message in bytes
+	 */
+	public ServerConfiguration(int outerPort, int maxNumberOfConnections, int numberOfWorkers, int maxMessageLength) {
+		if (outerPort < 1024 || outerPort > 49151) {
+			throw new InvalidParameterException("The outer port must be between 1024 and 49151");
+		} else {
+			this.outerPort = outerPort;
+		}
+		if (maxNumberOfConnections < 1) {
+			throw new InvalidParameterException("The maximum number of connections must be at least 1");
+		} else {
+			this.maxNumberOfConnections = maxNumberOfConnections;
+		}
+		if (numberOfWorkers < 1 || numberOfWorkers > 64) {
+			throw new InvalidParameterException("The number of workers must be between 1 and 64");
+		} else {
+			this.numberOfPipelineWorkers = numberOfWorkers;
+		}
+		if (maxMessageLength < 1) {
+			throw new InvalidParameterException("The maximum message length must be at least 1");
+		} else {
+			this.maxMessageLength = maxMessageLength;
+		}
+		protocol = Protocol.TCP;
+		innerPort = null;
+		numberOfClientThreads = 0;
+		maxSizeOfWaitingList = 0;
+		isSelectorEnabled = true;
+	}
+
+	/**
+	 * Configuration for a local server whose connections are monitored by a selector. The number
+	 * of workers depends on the number of processors.
+	 * @param outerPort port on which the server exchange the information with the clients
+	 * @param maxNumberOfConnections the maximum number of simultaneous connections
+	 */
+	public ServerConfiguration(int outerPort, int maxNumberOfConnections) {
+		this(outerPort, maxNumberOfConnections, getDefaultNumberOfPipelineWorkers());
+	}
+
+	private static int getDefaultNumberOfPipelineWorkers() {
+		return Math.min(64, Math.max(2, Runtime.getRuntime().availableProcessors()));
 	}
 }	
\ No newline at end of file
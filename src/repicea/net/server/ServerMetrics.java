@@ -0,0 +1,96 @@
+/*
+ * This file is part of the repicea library.
+ *
+ * Copyright (C) 2009-2022 Mathieu Fortin for Rouge Epicea.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed with the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * Please see the license at http://www.gnu.org/copyleft/lesser.html.
+ */
+package repicea.net.server;
+
+/**
+ * The ServerMetrics class is a snapshot of the load of an AbstractServer instance.
+ */
+public final class ServerMetrics {
+
+	private final int numberOfConnections;
+	private final int numberOfPausedConnections;
+	private final int taskQueueLength;
+	private final int numberOfActiveTasks;
+	private final long numberOfProcessedRequests;
+	private final long numberOfRejectedCalls;
+
+	ServerMetrics(int numberOfConnections,
+			int numberOfPausedConnections,
+			int taskQueueLength,
+			int numberOfActiveTasks,
+			long numberOfProcessedRequests,
+			long numberOfRejectedCalls) {
+		this.numberOfConnections = numberOfConnections;
+		this.numberOfPausedConnections = numberOfPausedConnections;
+		this.taskQueueLength = taskQueueLength;
+		this.numberOfActiveTasks = numberOfActiveTasks;
+		this.numberOfProcessedRequests = numberOfProcessedRequests;
+		this.numberOfRejectedCalls = numberOfRejectedCalls;
+	}
+
+	/**
+	 * Provide the number of open connections.
+	 * @return an integer
+	 */
+	public int getNumberOfConnections() {return numberOfConnections;}
+
+	/**
+	 * Provide the number of connections that are not read because too many of their requests
+	 * are pending. The clients of these connections are then slowed down by the TCP flow control.
+	 * @return an integer
+	 */
+	public int getNumberOfPausedConnections() {return numberOfPausedConnections;}
+
+	/**
+	 * Provide the number of requests waiting for a worker. With client threads, this is the
+	 * number of clients in the waiting list.
+	 * @return an integer
+	 */
+	public int getTaskQueueLength() {return taskQueueLength;}
+
+	/**
+	 * Provide the number of requests being processed. With client threads, this is the
+	 * number of threads connected to a client.
+	 * @return an integer
+	 */
+	public int getNumberOfActiveTasks() {return numberOfActiveTasks;}
+
+	/**
+	 * Provide the number of requests processed since the server started. This number is
+	 * only monitored when the connections are handled by a selector.
+	 * @return a long
+	 */
+	public long getNumberOfProcessedRequests() {return numberOfProcessedRequests;}
+
+	/**
+	 * Provide the number of calls rejected because the server was busy.
+	 * @return a long
+	 */
+	public long getNumberOfRejectedCalls() {return numberOfRejectedCalls;}
+
+	@Override
+	public String toString() {
+		return "Connections: " + numberOfConnections +
+				"; paused connections: " + numberOfPausedConnections +
+				"; queued tasks: " + taskQueueLength +
+				"; active tasks: " + numberOfActiveTasks +
+				"; processed requests: " + numberOfProcessedRequests +
+				"; rejected calls: " + numberOfRejectedCalls;
+	}
+}
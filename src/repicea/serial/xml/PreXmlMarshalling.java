@@ -0,0 +1,36 @@
+/*
+ * This file is part of the repicea-util library.
+ *
+ * Copyright (C) 2009-2022 Mathieu Fortin for Rouge Epicea.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed with the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * Please see the license at http://www.gnu.org/copyleft/lesser.html.
+ */
+package repicea.serial.xml;
+
+/**
+ * The PreXmlMarshalling class offers the possibility to do some actions immediately before and after the marshalling.
+ */
+public interface PreXmlMarshalling {
+
+	/**
+	 * This method is called before the fields are marshalled. It may serve to keep the serialized form of a former implementation.
+	 */
+	public void preMarshallingAction();
+
+	/**
+	 * This method is called after the fields have been marshalled. It may serve to release what the preMarshallingAction method has created.
+	 */
+	public void postMarshallingAction();
+	
+}
@@ -84,6 +84,14 @@ public final class XmlMarshaller {
 				xmlObj.add(new XmlEntry(this, "entries", ((Collection) obj).toArray()));
 				List<Field> selectedObjectFields = XmlMarshallingUtilities.retrieveAllNonStaticAndNonTransientFieldFromClass(obj.getClass());
 				xmlObj.addAll(formatToXmlEntries(selectedObjectFields, obj));
+			} else if (obj instanceof PreXmlMarshalling) {
+				((PreXmlMarshalling) obj).preMarshallingAction();
+				try {
+					List<Field> selectedObjectFields = XmlMarshallingUtilities.retrieveAllNonStaticAndNonTransientFieldFromClass(obj.getClass());
+					xmlObj.addAll(formatToXmlEntries(selectedObjectFields, obj));
+				} finally {
+					((PreXmlMarshalling) obj).postMarshallingAction();
+				}
 			} else {
 				List<Field> selectedObjectFields = XmlMarshallingUtilities.retrieveAllNonStaticAndNonTransientFieldFromClass(obj.getClass());
 				xmlObj.addAll(formatToXmlEntries(selectedObjectFields, obj));
@@ -18,12 +18,16 @@
  */
 package repicea.simulation;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.security.InvalidParameterException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 
 import repicea.math.Matrix;
@@ -37,7 +41,11 @@ import repicea.stats.estimates.GaussianErrorTermEstimate;
 
 /**
  * This class is the basic class for all models that are designed for predictions.
- * It implements the methods for stochastic simulations.
+ * It implements the methods for stochastic simulations. <br>
+ * <br>
+ * The simulated deviates are stored in concurrent maps whose keys are made of the hierarchical level,
+ * the subject id and the Monte Carlo realization id. The deviates are read without locking the
+ * predictor so that many threads can share the same instance.
  * @author Mathieu Fortin - October 2011
  */
 @SuppressWarnings("serial")
@@ -110,13 +118,15 @@ public abstract class REpiceaPredictor extends SensitivityAnalysisParameter<Mode
 	
 	public static enum ErrorTermGroup {Default}
 	
+	private static final int NbDeviateLocks = 64;
+	
 	
 	protected final CopyOnWriteArrayList<REpiceaPredictorListener> listeners;
 	
 //	private boolean areBlupsEstimated;
 	
-	private final Map<String, CruiseLine> cruiseLineMap;
-	private final Map<String, IntervalNestedInPlotDefinition> intervalLists;
+	final ConcurrentHashMap<SubjectRealizationKey, CruiseLine> cruiseLineMap;
+	final ConcurrentHashMap<SubjectRealizationKey, IntervalNestedInPlotDefinition> intervalLists;
 
 
 	// set by the constructor
@@ -127,12 +137,13 @@ public abstract class REpiceaPredictor extends SensitivityAnalysisParameter<Mode
 
 	final Map<String, Estimate<? extends StandardGaussianDistribution>> defaultRandomEffects;
 	final Map<String, Map<String, Estimate<? extends StandardGaussianDistribution>>> blupsRandomEffects; // key1: hierarchical level, key2: subject id
-	final Map<String, List<String>> subjectTestedForBlups; // key: hierarchical level
+	final Map<String, Set<String>> subjectTestedForBlups; // key: hierarchical level
 	
-	private final Map<String, Map<String, Matrix>> simulatedRandomEffects;	// refers to the subject + realization ids
+	final ConcurrentHashMap<SubjectRealizationKey, Matrix> simulatedRandomEffects;
+	private transient Object[] deviateLocks;	// striped locks of this instance only
 
 	private final Map<Enum<?>, GaussianErrorTermEstimate> defaultResidualError;
-	final Map<String, GaussianErrorTermList> simulatedResidualError;		// refers to the subject + realization ids
+	final ConcurrentHashMap<SubjectRealizationKey, GaussianErrorTermList> simulatedResidualError;
 	
 //	protected REpiceaRandom random = new REpiceaRandom();
 	
@@ -151,18 +162,41 @@ public abstract class REpiceaPredictor extends SensitivityAnalysisParameter<Mode
 		this.isResidualVariabilityEnabled = isResidualVariabilityEnabled;
 		
 		defaultRandomEffects = new HashMap<String, Estimate<? extends StandardGaussianDistribution>>();
-		blupsRandomEffects = new HashMap<String, Map<String, Estimate<? extends StandardGaussianDistribution>>>();
-		subjectTestedForBlups = new HashMap<String, List<String>>();		
+		blupsRandomEffects = new ConcurrentHashMap<String, Map<String, Estimate<? extends StandardGaussianDistribution>>>();
+		subjectTestedForBlups = new ConcurrentHashMap<String, Set<String>>();		
 		
-		simulatedRandomEffects = new HashMap<String, Map<String, Matrix>>();
-		simulatedResidualError = new HashMap<String, GaussianErrorTermList>();
+		simulatedRandomEffects = new ConcurrentHashMap<SubjectRealizationKey, Matrix>();
+		simulatedResidualError = new ConcurrentHashMap<SubjectRealizationKey, GaussianErrorTermList>();
 		
-		intervalLists = new HashMap<String, IntervalNestedInPlotDefinition>();
-		cruiseLineMap = new HashMap<String, CruiseLine>();
+		intervalLists = new ConcurrentHashMap<SubjectRealizationKey, IntervalNestedInPlotDefinition>();
+		cruiseLineMap = new ConcurrentHashMap<SubjectRealizationKey, CruiseLine>();
 
 		defaultResidualError = new HashMap<Enum<?>, GaussianErrorTermEstimate>();
 		
 		listeners = new CopyOnWriteArrayList<REpiceaPredictorListener>();
+		initDeviateLocks();
+	}
+
+	@Override
+	List<ConcurrentHashMap<SubjectRealizationKey, ?>> getDeviateMaps() {
+		List<ConcurrentHashMap<SubjectRealizationKey, ?>> maps = super.getDeviateMaps();
+		maps.add(simulatedRandomEffects);
+		maps.add(simulatedResidualError);
+		maps.add(cruiseLineMap);
+		maps.add(intervalLists);
+		return maps;
+	}
+
+	private void initDeviateLocks() {
+		deviateLocks = new Object[NbDeviateLocks];
+		for (int i = 0; i < NbDeviateLocks; i++) {
+			deviateLocks[i] = new Object();
+		}
+	}
+	
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		initDeviateLocks();
 	}
 	
 	/**
@@ -220,15 +254,11 @@ public abstract class REpiceaPredictor extends SensitivityAnalysisParameter<Mode
 	 * @param date an Integer
 	 * @return an IntervalDefinition instance
 	 */
-	protected synchronized IntervalNestedInPlotDefinition getIntervalNestedInPlotDefinition(MonteCarloSimulationCompliantObject stand, int date) {
-		String subjectID = IntervalNestedInPlotDefinition.getSubjectID(stand, date);
-		String intervalID = getSubjectPlusMonteCarloSpecificId(subjectID, stand.getMonteCarloRealizationId());
-		IntervalNestedInPlotDefinition intDef = intervalLists.get(intervalID);
-		if (intDef == null) {
-			intDef = new IntervalNestedInPlotDefinition(stand, date);
-			intervalLists.put(getSubjectPlusMonteCarloSpecificId(intDef), intDef);
-		}
-		return intDef;
+	protected IntervalNestedInPlotDefinition getIntervalNestedInPlotDefinition(MonteCarloSimulationCompliantObject stand, int date) {
+		SubjectRealizationKey key = new SubjectRealizationKey(HierarchicalLevel.INTERVAL_NESTED_IN_PLOT.getName(),
+				IntervalNestedInPlotDefinition.getSubjectID(stand, date), 
+				stand.getMonteCarloRealizationId());
+		return getOrCreateDeviates(intervalLists, key, k -> new IntervalNestedInPlotDefinition(stand, date));
 	}
 
 	/**
@@ -237,12 +267,9 @@ public abstract class REpiceaPredictor extends SensitivityAnalysisParameter<Mode
 	 * @param stand a MonteCarloSimulationCompliantObject instance
 	 * @return a CruiseLine instance
 	 */
-	protected synchronized CruiseLine getCruiseLineForThisSubject(String cruiseLineID, MonteCarloSimulationCompliantObject stand) {
-		String cruiseLineIDPlusMCRealization = cruiseLineID.concat("_") + stand.getMonteCarloRealizationId();
-		if (!cruiseLineMap.containsKey(cruiseLineIDPlusMCRealization)) {
-			cruiseLineMap.put(cruiseLineIDPlusMCRealization, new CruiseLine(cruiseLineID, stand));
-		}
-		return cruiseLineMap.get(cruiseLineIDPlusMCRealization);
+	protected CruiseLine getCruiseLineForThisSubject(String cruiseLineID, MonteCarloSimulationCompliantObject stand) {
+		SubjectRealizationKey key = new SubjectRealizationKey(HierarchicalLevel.CRUISE_LINE.getName(), cruiseLineID, stand.getMonteCarloRealizationId());
+		return getOrCreateDeviates(cruiseLineMap, key, k -> new CruiseLine(cruiseLineID, stand));
 	}
 	
 	/**
@@ -254,13 +281,10 @@ public abstract class REpiceaPredictor extends SensitivityAnalysisParameter<Mode
 	 * @return a vector of parameters
 	 */
 	@Override
-	protected final synchronized Matrix getParametersForThisRealization(MonteCarloSimulationCompliantObject subject) {
+	protected final Matrix getParametersForThisRealization(MonteCarloSimulationCompliantObject subject) {
 		if (isParametersVariabilityEnabled) {
-			if (!simulatedParameters.containsKey(subject.getMonteCarloRealizationId())) {		// the simulated parameters remain constant within the same Monte Carlo iteration
-				simulatedParameters.put(subject.getMonteCarloRealizationId(), getParameterEstimates().getRandomDeviate());
-				//			setSpecificParametersDeviateForThisRealization(subject);
-			}
-			return simulatedParameters.get(subject.getMonteCarloRealizationId());
+			SubjectRealizationKey key = new SubjectRealizationKey(null, null, subject.getMonteCarloRealizationId());
+			return getOrCreateDeviates(simulatedParameters, key, k -> getParameterEstimates().getRandomDeviate());	// the simulated parameters remain constant within the same Monte Carlo iteration
 		} else {
 			return getParameterEstimates().getMean();
 		}
@@ -268,20 +292,18 @@ public abstract class REpiceaPredictor extends SensitivityAnalysisParameter<Mode
 
 	
 	/**
-	 * This method generates a subject-specific random effects vector using matrix G.
+	 * This method generates a subject-specific random effects vector using matrix G. The
+	 * event is not fired by this method since it is called while holding a deviate lock.
 	 * @param subject a MonteCarloSimulationCompliantObject instance
+	 * @return the deviates if they were generated from the default random effects or null if they were generated from the blups 
 	 */
-	private void setSpecificRandomEffectsForThisSubject(MonteCarloSimulationCompliantObject subject) {
+	private Matrix setSpecificRandomEffectsForThisSubject(MonteCarloSimulationCompliantObject subject) {
 		HierarchicalLevel subjectLevel = subject.getHierarchicalLevel();
-		
-		Matrix randomDeviates;
-		Estimate<? extends StandardGaussianDistribution> originalRandomEffects;
 		if (doBlupsExistForThisSubject(subject)) {
 			simulateDeviatesForRandomEffectsOfThisSubject(subject, getBlupsForThisSubject(subject));
+			return null;
 		} else {
-			randomDeviates = simulateDeviatesForRandomEffectsOfThisSubject(subject, defaultRandomEffects.get(subjectLevel.getName()));
-			originalRandomEffects = getDefaultRandomEffects(subjectLevel);
-			fireRandomEffectDeviateGeneratedEvent(subject, originalRandomEffects, randomDeviates);
+			return simulateDeviatesForRandomEffectsOfThisSubject(subject, defaultRandomEffects.get(subjectLevel.getName()));
 		}
 	}
 	
@@ -309,13 +331,19 @@ public abstract class REpiceaPredictor extends SensitivityAnalysisParameter<Mode
 		return randomDeviates.getDeepClone();
 	}
 
-	protected final synchronized void setDeviatesForRandomEffectsOfThisSubject(MonteCarloSimulationCompliantObject subject, Matrix randomDeviates) {
-		HierarchicalLevel subjectLevel = subject.getHierarchicalLevel();
-		if (!simulatedRandomEffects.containsKey(subjectLevel.getName())) {
-			simulatedRandomEffects.put(subjectLevel.getName(), new HashMap<String, Matrix>());
-		}
-		Map<String, Matrix> randomEffectsMap = simulatedRandomEffects.get(subjectLevel.getName());
-		randomEffectsMap.put(getSubjectPlusMonteCarloSpecificId(subject), randomDeviates);
+	protected final void setDeviatesForRandomEffectsOfThisSubject(MonteCarloSimulationCompliantObject subject, Matrix randomDeviates) {
+		putDeviates(simulatedRandomEffects, new SubjectRealizationKey(subject), randomDeviates);
+	}
+	
+	/**
+	 * Return the lock that protects the generation of the deviates associated with this key. The locks
+	 * are striped so that the threads working on different subjects rarely wait for each other. They
+	 * belong to this instance so that two predictors never share a lock.
+	 */
+	Object getDeviateLock(SubjectRealizationKey key) {
+		int h = key.hashCode();
+		h ^= h >>> 16;
+		return deviateLocks[h & (NbDeviateLocks - 1)];
 	}
 	
 	
@@ -333,13 +361,25 @@ public abstract class REpiceaPredictor extends SensitivityAnalysisParameter<Mode
 	 * @param subject a MonteCarloSimulationCompliantObject object
 	 * @return a Matrix object
 	 */
-	protected final synchronized Matrix getRandomEffectsForThisSubject(MonteCarloSimulationCompliantObject subject) {
+	protected final Matrix getRandomEffectsForThisSubject(MonteCarloSimulationCompliantObject subject) {
 		HierarchicalLevel subjectLevel = subject.getHierarchicalLevel();
 		if (isRandomEffectsVariabilityEnabled) {
-			if (!doRandomDeviatesExistForThisSubject(subject)) {
-				setSpecificRandomEffectsForThisSubject(subject);
+			SubjectRealizationKey key = new SubjectRealizationKey(subject);
+			Matrix randomEffects = getDeviates(simulatedRandomEffects, key);
+			if (randomEffects == null) {
+				Matrix generatedDeviates = null;
+				synchronized (getDeviateLock(key)) {	// the deviates are generated only once, even if many threads ask for them at the same time
+					randomEffects = simulatedRandomEffects.get(key);
+					if (randomEffects == null) {
+						generatedDeviates = setSpecificRandomEffectsForThisSubject(subject);
+						randomEffects = simulatedRandomEffects.get(key);
+					}
+				}
+				if (generatedDeviates != null) {	// the listeners are notified once the lock has been released
+					fireRandomEffectDeviateGeneratedEvent(subject, getDefaultRandomEffects(subjectLevel), generatedDeviates);
+				}
 			}
-			return simulatedRandomEffects.get(subjectLevel.getName()).get(getSubjectPlusMonteCarloSpecificId(subject));
+			return randomEffects;
 		} else {
 			Estimate<? extends StandardGaussianDistribution> blups = getBlupsForThisSubject(subject);
 			if (blups != null) {
@@ -351,24 +391,10 @@ public abstract class REpiceaPredictor extends SensitivityAnalysisParameter<Mode
 	}
 	
 	protected final boolean doRandomDeviatesExistForThisSubject(MonteCarloSimulationCompliantObject subject) {
-		HierarchicalLevel subjectLevel = subject.getHierarchicalLevel();
-		return simulatedRandomEffects.get(subjectLevel.getName()) != null && simulatedRandomEffects.get(subjectLevel.getName()).containsKey(getSubjectPlusMonteCarloSpecificId(subject)); 
+		return simulatedRandomEffects.containsKey(new SubjectRealizationKey(subject)); 
 	}
 	
 
-//	/**
-//	 * This method clears all simulated deviates for the parameter estimates, the random effects and the residual errors. 
-//	 * IMPORTANT: it does not reset the blups of the random effects. 
-//	 */
-// 	FIXED - THIS METHOD IS NOT SAFE MF20171121
-//	public void clearDeviates() {
-//		simulatedParameters.clear();
-//		simulatedRandomEffects.clear();
-//		simulatedResidualError.clear();
-//		intervalLists.clear();
-//		cruiseLineMap.clear();
-//	}
-	
 	/**
 	 * This method returns the residual error or the vector of residual errors associated with the subjectId.
 	 * If the subject parameter is entered as null, the method assumes there is no need to store the simulated
@@ -378,7 +404,7 @@ public abstract class REpiceaPredictor extends SensitivityAnalysisParameter<Mode
 	 * @param group an Enum that defines the group in case of different error term specifications
 	 * @return a Matrix instance
 	 */
-	protected synchronized final Matrix getResidualErrorForThisSubject(MonteCarloSimulationCompliantObject subject, Enum<?> group) {
+	protected final Matrix getResidualErrorForThisSubject(MonteCarloSimulationCompliantObject subject, Enum<?> group) {
 		if (isResidualVariabilityEnabled) {				// running in Monte Carlo mode
 //			if (!rememberRandomDeviates) {
 //				simulatedResidualError.clear();
@@ -386,10 +412,13 @@ public abstract class REpiceaPredictor extends SensitivityAnalysisParameter<Mode
 			if (subject!= null && subject instanceof IndexableErrorTerm && defaultResidualError.get(group).getDistribution().isStructured()) {
 				IndexableErrorTerm indexable = (IndexableErrorTerm) subject;
 				GaussianErrorTermList list = getGaussianErrorTerms(subject);
-				if (!list.getDistanceIndex().contains(indexable.getErrorTermIndex())) {
-					list.add(new GaussianErrorTerm(indexable));
+				Matrix randomDeviate;
+				synchronized (list) {
+					if (!list.getDistanceIndex().contains(indexable.getErrorTermIndex())) {
+						list.add(new GaussianErrorTerm(indexable));
+					}
+					randomDeviate = defaultResidualError.get(group).getRandomDeviate(list);
 				}
-				Matrix randomDeviate = defaultResidualError.get(group).getRandomDeviate(list);
 				fireModelBasedSimulatorEvent(new REpiceaPredictorEvent(ModelBasedSimulatorEventProperty.RESIDUAL_ERROR_DEVIATE_JUST_GENERATED, null, new Object[]{subject, group, randomDeviate.getDeepClone()}, this));
 				return randomDeviate; 
 			} else {
@@ -402,16 +431,12 @@ public abstract class REpiceaPredictor extends SensitivityAnalysisParameter<Mode
 		}
 	}
 	
-	protected synchronized final GaussianErrorTermList getGaussianErrorTerms(MonteCarloSimulationCompliantObject subject) {
-		if (!doesThisSubjectHaveResidualErrorTerm(subject)) {		// the simulated parameters remain constant within the same Monte Carlo iteration
-			simulatedResidualError.put(getSubjectPlusMonteCarloSpecificId(subject), new GaussianErrorTermList());
-		}
-		GaussianErrorTermList list =  simulatedResidualError.get(getSubjectPlusMonteCarloSpecificId(subject));
-		return list;
+	protected final GaussianErrorTermList getGaussianErrorTerms(MonteCarloSimulationCompliantObject subject) {
+		return getOrCreateDeviates(simulatedResidualError, new SubjectRealizationKey(subject), k -> new GaussianErrorTermList());
 	}
 	
 	protected final boolean doesThisSubjectHaveResidualErrorTerm(MonteCarloSimulationCompliantObject subject) {
-		return simulatedResidualError.containsKey(getSubjectPlusMonteCarloSpecificId(subject));
+		return simulatedResidualError.containsKey(new SubjectRealizationKey(subject));
 	}
 	
 	
@@ -472,19 +497,13 @@ public abstract class REpiceaPredictor extends SensitivityAnalysisParameter<Mode
 	 * @return an Estimate instance or null
 	 */
 	protected Estimate<? extends StandardGaussianDistribution> getBlupsForThisSubject(MonteCarloSimulationCompliantObject subject) {
-		if (blupsRandomEffects.containsKey(subject.getHierarchicalLevel().getName())) {
-			if (blupsRandomEffects.get(subject.getHierarchicalLevel().getName()).containsKey(subject.getSubjectId())) {
-				return blupsRandomEffects.get(subject.getHierarchicalLevel().getName()).get(subject.getSubjectId());
-			}
-		}
-		return null;
+		Map<String, Estimate<? extends StandardGaussianDistribution>> blupsMap = blupsRandomEffects.get(subject.getHierarchicalLevel().getName());
+		return blupsMap != null ? blupsMap.get(subject.getSubjectId()) : null;
 	}
 
 	protected final void setBlupsForThisSubject(MonteCarloSimulationCompliantObject subject, Estimate<? extends StandardGaussianDistribution> blups) {
-		if (!blupsRandomEffects.containsKey(subject.getHierarchicalLevel().getName())) {
-			blupsRandomEffects.put(subject.getHierarchicalLevel().getName(), new HashMap<String, Estimate<? extends StandardGaussianDistribution>>());
-		}
-		blupsRandomEffects.get(subject.getHierarchicalLevel().getName()).put(subject.getSubjectId(), blups);
+		blupsRandomEffects.computeIfAbsent(subject.getHierarchicalLevel().getName(), 
+				k -> new ConcurrentHashMap<String, Estimate<? extends StandardGaussianDistribution>>()).put(subject.getSubjectId(), blups);
 		
 		REpiceaPredictorEvent event = new REpiceaPredictorEvent(ModelBasedSimulatorEventProperty.BLUPS_JUST_SET, 
 				null, 
@@ -494,22 +513,15 @@ public abstract class REpiceaPredictor extends SensitivityAnalysisParameter<Mode
 	}
 	
 	protected final void recordSubjectTestedForBlups(MonteCarloSimulationCompliantObject subject) {
-		if (!subjectTestedForBlups.containsKey(subject.getHierarchicalLevel().getName())) {
-			subjectTestedForBlups.put(subject.getHierarchicalLevel().getName(), new ArrayList<String>());
-		}
-		if (subjectTestedForBlups.get(subject.getHierarchicalLevel().getName()).contains(subject.getSubjectId())) {
+		Set<String> subjectIds = subjectTestedForBlups.computeIfAbsent(subject.getHierarchicalLevel().getName(), k -> ConcurrentHashMap.newKeySet());
+		if (!subjectIds.add(subject.getSubjectId())) {
 			throw new InvalidParameterException("The subject has already been tested for blups!");
-		} else {
-			subjectTestedForBlups.get(subject.getHierarchicalLevel().getName()).add(subject.getSubjectId());
 		}
 	}
 
 	protected final boolean hasSubjectBeenTestedForBlups(MonteCarloSimulationCompliantObject subject) {
-		if (subjectTestedForBlups.containsKey(subject.getHierarchicalLevel().getName())) {
-			return subjectTestedForBlups.get(subject.getHierarchicalLevel().getName()).contains(subject.getSubjectId());
-		} else {
-			return false;
-		}
+		Set<String> subjectIds = subjectTestedForBlups.get(subject.getHierarchicalLevel().getName());
+		return subjectIds != null && subjectIds.contains(subject.getSubjectId());
 	}
 
 	@Override
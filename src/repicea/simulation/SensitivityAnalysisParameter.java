@@ -19,8 +19,12 @@
 package repicea.simulation;
 
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
 
 import repicea.math.Matrix;
 import repicea.simulation.covariateproviders.StochasticImplementation;
@@ -36,13 +40,275 @@ import repicea.stats.estimates.Estimate;
 @SuppressWarnings({ "serial", "rawtypes" })
 public abstract class SensitivityAnalysisParameter<E extends Estimate> implements Serializable, StochasticImplementation {
 
-	final Map<Integer, Matrix> simulatedParameters;		// refers to the realization id only
+	/**
+	 * A deviate stored in one of the maps of the instance.
+	 */
+	private static final class DeviateEntry implements Serializable {
+		final ConcurrentHashMap<SubjectRealizationKey, ?> map;
+		final SubjectRealizationKey key;
+		
+		DeviateEntry(ConcurrentHashMap<SubjectRealizationKey, ?> map, SubjectRealizationKey key) {
+			this.map = map;
+			this.key = key;
+		}
+	}
+	
+	/**
+	 * The deviates of a Monte Carlo realization and the time of its last access. The deviates 
+	 * can then be discarded without scanning the deviates of the other realizations. The time
+	 * of the last access is only updated if there is a maximum number of active realizations.
+	 */
+	private static final class RealizationDeviates implements Serializable {
+		final List<DeviateEntry> entries = new ArrayList<DeviateEntry>();
+		volatile long lastAccessNanos;
+		boolean ended;
+	}
+	
+	final ConcurrentHashMap<SubjectRealizationKey, Matrix> simulatedParameters;
 	private E parameterEstimates;
 	protected boolean isParametersVariabilityEnabled;
+	
+	private final ConcurrentHashMap<Integer, RealizationDeviates> activeRealizations;
+	private volatile int maxNumberOfActiveRealizations;
+	private volatile boolean isRealizationLifecycleEnabled;
+	private volatile boolean isRealizationIndexEnabled;
 
 	protected SensitivityAnalysisParameter(boolean isParametersVariabilityEnabled) {
 		this.isParametersVariabilityEnabled = isParametersVariabilityEnabled;
-		simulatedParameters = new HashMap<Integer, Matrix>();
+		simulatedParameters = new ConcurrentHashMap<SubjectRealizationKey, Matrix>();
+		activeRealizations = new ConcurrentHashMap<Integer, RealizationDeviates>();
+	}
+	
+	/**
+	 * Set the maximum number of Monte Carlo realizations whose deviates are kept in memory. When a
+	 * new realization exceeds this number, the deviates of the least recently accessed realization 
+	 * are discarded as if the endRealization method had been called. <br>
+	 * <br>
+	 * This maximum must not be smaller than the number of realizations that are simulated at the
+	 * same time. Otherwise, the deviates of a running realization could be discarded and generated again.
+	 * @param maxNumberOfActiveRealizations an integer (0 or less means no limit, which is the default)
+	 */
+	public void setMaximumNumberOfActiveRealizations(int maxNumberOfActiveRealizations) {
+		boolean wasBounded = this.maxNumberOfActiveRealizations > 0;
+		this.maxNumberOfActiveRealizations = maxNumberOfActiveRealizations;
+		updateRealizationIndex();
+		if (!wasBounded && maxNumberOfActiveRealizations > 0) {	// the realizations indexed so far have no access time
+			long now = System.nanoTime();
+			for (RealizationDeviates realization : activeRealizations.values()) {
+				realization.lastAccessNanos = now;
+			}
+		}
+		evictRealizationsIfNeeded(null);
+	}
+
+	/**
+	 * Return the maximum number of Monte Carlo realizations whose deviates are kept in memory.
+	 * @return an integer (0 or less means no limit)
+	 * @see SensitivityAnalysisParameter#setMaximumNumberOfActiveRealizations(int)
+	 */
+	public int getMaximumNumberOfActiveRealizations() {return maxNumberOfActiveRealizations;}
+
+	/**
+	 * Enable or disable the realization lifecycle. If enabled, the deviates are indexed by Monte Carlo
+	 * realization as they are generated, so that the endRealization method discards them without 
+	 * scanning the deviates of the other realizations. This should be enabled when the endRealization 
+	 * method is called after each realization. <br>
+	 * <br>
+	 * The index is also built whenever there is a maximum number of active realizations. 
+	 * @param isRealizationLifecycleEnabled a boolean (false by default)
+	 * @see SensitivityAnalysisParameter#setMaximumNumberOfActiveRealizations(int)
+	 */
+	public void setRealizationLifecycleEnabled(boolean isRealizationLifecycleEnabled) {
+		this.isRealizationLifecycleEnabled = isRealizationLifecycleEnabled;
+		updateRealizationIndex();
+	}
+
+	/**
+	 * Return true if the realization lifecycle is enabled.
+	 * @return a boolean
+	 * @see SensitivityAnalysisParameter#setRealizationLifecycleEnabled(boolean)
+	 */
+	public boolean isRealizationLifecycleEnabled() {return isRealizationLifecycleEnabled;}
+	
+	/**
+	 * Build the index of the deviates by realization if the lifecycle is enabled or if there is a maximum 
+	 * number of active realizations. The deviates generated before are indexed at once. Otherwise, the 
+	 * index is dropped.
+	 */
+	private void updateRealizationIndex() {
+		synchronized (activeRealizations) {
+			boolean enabled = isRealizationLifecycleEnabled || maxNumberOfActiveRealizations > 0;
+			if (enabled && !isRealizationIndexEnabled) {
+				isRealizationIndexEnabled = true;	// the deviates generated from now on are indexed by the registerDeviates method
+				for (ConcurrentHashMap<SubjectRealizationKey, ?> map : getDeviateMaps()) {
+					for (SubjectRealizationKey key : map.keySet()) {
+						registerDeviates(map, key);
+					}
+				}
+			} else if (!enabled && isRealizationIndexEnabled) {
+				isRealizationIndexEnabled = false;
+				activeRealizations.clear();
+			}
+		}
+	}
+
+	/**
+	 * Return the maps that contain deviates. Derived classes that store deviates in other 
+	 * maps should override this method.
+	 * @return a List of maps
+	 */
+	List<ConcurrentHashMap<SubjectRealizationKey, ?>> getDeviateMaps() {
+		List<ConcurrentHashMap<SubjectRealizationKey, ?>> maps = new ArrayList<ConcurrentHashMap<SubjectRealizationKey, ?>>();
+		maps.add(simulatedParameters);
+		return maps;
+	}
+	
+	/**
+	 * Discard all the deviates generated for a particular Monte Carlo realization. This method should be 
+	 * called once the realization is over. Otherwise, the deviates are kept in memory until the end of the 
+	 * simulation. The deviates of the other realizations, which might be running in other threads, are 
+	 * not affected. <br>
+	 * <br>
+	 * Unless the realization lifecycle is enabled or there is a maximum number of active realizations, 
+	 * this method scans all the deviates.
+	 * @param realizationId the Monte Carlo realization id
+	 * @see SensitivityAnalysisParameter#setRealizationLifecycleEnabled(boolean)
+	 */
+	public void endRealization(int realizationId) {
+		if (isRealizationIndexEnabled) {
+			RealizationDeviates realization = activeRealizations.remove(realizationId);
+			if (realization != null) {
+				List<DeviateEntry> entries;
+				synchronized (realization) {
+					realization.ended = true;
+					entries = realization.entries;
+				}
+				for (DeviateEntry entry : entries) {
+					entry.map.remove(entry.key);
+				}
+			}
+		} else {
+			for (ConcurrentHashMap<SubjectRealizationKey, ?> map : getDeviateMaps()) {
+				map.keySet().removeIf(k -> k.realizationId == realizationId);
+			}
+		}
+	}
+
+	/**
+	 * Return the deviates associated with this key or create them if they do not exist. The
+	 * realization is then recorded as recently used.
+	 */
+	final <V> V getOrCreateDeviates(ConcurrentHashMap<SubjectRealizationKey, V> map, SubjectRealizationKey key, Function<SubjectRealizationKey, V> creator) {
+		V value = map.get(key);
+		if (value == null) {
+			boolean[] created = new boolean[1];
+			value = map.computeIfAbsent(key, k -> {
+				created[0] = true;
+				return creator.apply(k);
+			});
+			if (created[0]) {
+				registerDeviates(map, key);
+				return value;
+			}
+		}
+		recordRealizationAccess(key.realizationId);
+		return value;
+	}
+
+	/**
+	 * Return the deviates associated with this key if any. The realization is then recorded as 
+	 * recently used.
+	 */
+	final <V> V getDeviates(ConcurrentHashMap<SubjectRealizationKey, V> map, SubjectRealizationKey key) {
+		V value = map.get(key);
+		if (value != null) {
+			recordRealizationAccess(key.realizationId);
+		}
+		return value;
+	}
+
+	/**
+	 * Store deviates that have been generated outside the getOrCreateDeviates method.
+	 */
+	final <V> void putDeviates(ConcurrentHashMap<SubjectRealizationKey, V> map, SubjectRealizationKey key, V value) {
+		map.put(key, value);
+		registerDeviates(map, key);
+	}
+
+	private void recordRealizationAccess(int realizationId) {
+		if (maxNumberOfActiveRealizations > 0) {
+			RealizationDeviates realization = activeRealizations.get(realizationId);
+			if (realization != null) {
+				realization.lastAccessNanos = System.nanoTime();
+			}
+		}
+	}
+	
+	/**
+	 * Record that deviates have just been generated for this key and discard the least 
+	 * recently used realizations if there are too many of them. Nothing is recorded unless
+	 * the index of the deviates by realization is enabled.
+	 */
+	private void registerDeviates(ConcurrentHashMap<SubjectRealizationKey, ?> map, SubjectRealizationKey key) {
+		if (!isRealizationIndexEnabled) {
+			return;
+		}
+		boolean isBounded = maxNumberOfActiveRealizations > 0;
+		DeviateEntry entry = new DeviateEntry(map, key);
+		while (true) {
+			RealizationDeviates realization = activeRealizations.computeIfAbsent(key.realizationId, k -> new RealizationDeviates());
+			synchronized (realization) {
+				if (!realization.ended) {
+					realization.entries.add(entry);
+					if (isBounded) {
+						realization.lastAccessNanos = System.nanoTime();
+					}
+					break;
+				}
+			}
+			activeRealizations.remove(key.realizationId, realization);	// ended in the meantime
+		}
+		if (isBounded && activeRealizations.size() > maxNumberOfActiveRealizations) {
+			evictRealizationsIfNeeded(key.realizationId);
+		}
+	}
+	
+	private void evictRealizationsIfNeeded(Integer realizationId) {
+		List<Integer> realizationsToEnd = new ArrayList<Integer>();
+		synchronized (activeRealizations) {
+			int maxNumber = maxNumberOfActiveRealizations;
+			if (maxNumber > 0) {
+				Map<Integer, Long> candidates = new HashMap<Integer, Long>();	// the access times are copied since they can change while the oldest ones are searched
+				for (Map.Entry<Integer, RealizationDeviates> entry : activeRealizations.entrySet()) {
+					if (!entry.getKey().equals(realizationId)) {
+						candidates.put(entry.getKey(), entry.getValue().lastAccessNanos);
+					}
+				}
+				int nbToEnd = activeRealizations.size() - maxNumber;
+				while (realizationsToEnd.size() < nbToEnd && !candidates.isEmpty()) {
+					Integer oldest = null;
+					for (Map.Entry<Integer, Long> entry : candidates.entrySet()) {
+						if (oldest == null || entry.getValue() - candidates.get(oldest) < 0) {
+							oldest = entry.getKey();
+						}
+					}
+					candidates.remove(oldest);
+					realizationsToEnd.add(oldest);
+				}
+			}
+		}
+		for (Integer id : realizationsToEnd) {
+			endRealization(id);
+		}
+	}
+	
+	/**
+	 * Return the number of realizations that are currently indexed. This number is 0 if
+	 * the index is not enabled.
+	 * @return an integer
+	 */
+	final int getNumberOfActiveRealizations() {
+		return activeRealizations.size();
 	}
 	
 	protected void setParameterEstimates(E estimate) {
@@ -56,19 +322,17 @@ public abstract class SensitivityAnalysisParameter<E extends Estimate> implement
 	 * This method calls the setSpecificParametersDeviateForThisRealization method if the parameter variability is enabled and returns 
 	 * a realization-specific simulated vector of model parameters. Otherwise it returns a default vector (beta). Note that the simulated
 	 * parameters are related to the Monte Carlo realization. For instance, all subject in a given Monte Carlo realization will have the
-	 * same simulation parameters. 
+	 * same simulation parameters. <br>
+	 * <br>
+	 * The method does not lock the instance. The deviates are stored in a concurrent map and generated
+	 * only once for each subject and realization.
 	 * @param subject a subject that implements the MonteCarloSimulationCompliantObject interface
 	 * @return a vector of parameters
 	 */
-	protected synchronized Matrix getParametersForThisRealization(MonteCarloSimulationCompliantObject subject) {
+	protected Matrix getParametersForThisRealization(MonteCarloSimulationCompliantObject subject) {
 		if (isParametersVariabilityEnabled) {
-			String subjectPlusMonteCarloId = REpiceaPredictor.getSubjectPlusMonteCarloSpecificId(subject.getSubjectId(), subject.getMonteCarloRealizationId());
-			int hashCodeSubjectId = subjectPlusMonteCarloId.hashCode();
-			if (!simulatedParameters.containsKey(hashCodeSubjectId)) {		// the simulated parameters remain constant within the same Monte Carlo iteration
-				Matrix randomDeviates = getParameterEstimates().getRandomDeviate();
-				simulatedParameters.put(hashCodeSubjectId, randomDeviates);
-			}
-			return simulatedParameters.get(hashCodeSubjectId);
+			SubjectRealizationKey key = new SubjectRealizationKey(null, subject.getSubjectId(), subject.getMonteCarloRealizationId());
+			return getOrCreateDeviates(simulatedParameters, key, k -> getParameterEstimates().getRandomDeviate());	// the simulated parameters remain constant within the same Monte Carlo iteration
 		} else {
 			return getParameterEstimates().getMean();
 		}
@@ -0,0 +1,81 @@
+/*
+ * This file is part of the repicea library.
+ *
+ * Copyright (C) 2009-2021 Mathieu Fortin for Rouge Epicea.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed with the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * Please see the license at http://www.gnu.org/copyleft/lesser.html.
+ */
+package repicea.simulation;
+
+import java.io.Serializable;
+
+/**
+ * An immutable key made of the hierarchical level, the subject id and the Monte Carlo
+ * realization id. It replaces the concatenation of the subject and realization ids in the
+ * maps of simulated deviates.
+ */
+@SuppressWarnings("serial")
+final class SubjectRealizationKey implements Serializable {
+
+	final String levelName;
+	final String subjectId;
+	final int realizationId;
+	private final int hashCode;
+
+	/**
+	 * Constructor.
+	 * @param levelName the name of the hierarchical level (can be null if the level does not matter)
+	 * @param subjectId the subject id
+	 * @param realizationId the Monte Carlo realization id
+	 */
+	SubjectRealizationKey(String levelName, String subjectId, int realizationId) {
+		this.levelName = levelName;
+		this.subjectId = subjectId;
+		this.realizationId = realizationId;
+		int h = levelName == null ? 0 : levelName.hashCode();
+		h = 31 * h + (subjectId == null ? 0 : subjectId.hashCode());
+		hashCode = 31 * h + realizationId;
+	}
+
+	/**
+	 * Constructor for a subject at its own hierarchical level.
+	 * @param subject a MonteCarloSimulationCompliantObject instance
+	 */
+	SubjectRealizationKey(MonteCarloSimulationCompliantObject subject) {
+		this(subject.getHierarchicalLevel().getName(), subject.getSubjectId(), subject.getMonteCarloRealizationId());
+	}
+
+	@Override
+	public int hashCode() {return hashCode;}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		} else if (obj instanceof SubjectRealizationKey) {
+			SubjectRealizationKey key = (SubjectRealizationKey) obj;
+			return hashCode == key.hashCode &&
+					realizationId == key.realizationId &&
+					(levelName == null ? key.levelName == null : levelName.equals(key.levelName)) &&
+					(subjectId == null ? key.subjectId == null : subjectId.equals(key.subjectId));
+		} else {
+			return false;
+		}
+	}
+
+	@Override
+	public String toString() {
+		return levelName + ":" + subjectId + "_" + realizationId;
+	}
+}
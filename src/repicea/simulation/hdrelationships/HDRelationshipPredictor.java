@@ -24,6 +24,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import repicea.math.CholeskyDecomposition;
 import repicea.math.Matrix;
 import repicea.simulation.HierarchicalLevel;
 import repicea.simulation.REpiceaPredictor;
@@ -213,14 +214,34 @@ public abstract class HDRelationshipPredictor<Stand extends HDRelationshipStand,
 					res_i.setValueAt(i, 0, residual);
 				}
 				Matrix matV_i = matZ_i.multiply(matGbck).multiply(matZ_i.transpose()).add(matR_i);
-				Matrix invV_i = matV_i.getInverseMatrix();
-				Matrix blups_i = matGbck.multiply(matZ_i.transpose()).multiply(invV_i).multiply(res_i);
+				Matrix invVRes_i;
+				Matrix invVZ_i = null;
+				Matrix invVX_i = null;
+				try {
+					CholeskyDecomposition cholV_i = new CholeskyDecomposition(matV_i);		// V_i is never inverted explicitly
+					invVRes_i = cholV_i.solve(res_i);
+					if (isRandomEffectsVariabilityEnabled) {
+						invVZ_i = cholV_i.solve(matZ_i);
+						invVX_i = cholV_i.solve(matX_i);
+					}
+				} catch (UnsupportedOperationException e) {	// V_i is not positive definite, we switch to its inverse
+					Matrix invV_i = matV_i.getInverseMatrix();
+					invVRes_i = invV_i.multiply(res_i);
+					if (isRandomEffectsVariabilityEnabled) {
+						invVZ_i = invV_i.multiply(matZ_i);
+						invVX_i = invV_i.multiply(matX_i);
+					}
+				}
+				Matrix blups_i = matGbck.multiply(matZ_i.transposeAndMultiply(invVRes_i));
 
 				Matrix newMatG_i = null;
 
 				if (isRandomEffectsVariabilityEnabled) {
-					Matrix matP = invV_i.subtract(invV_i.multiply(matX_i).multiply(omega).multiply(matX_i.transpose()).multiply(invV_i));  
-					newMatG_i = matGbck.subtract(matGbck.multiply(matZ_i.transpose()).multiply(matP).multiply(matZ_i).multiply(matGbck));
+					// Z' P Z = Z' V^-1 Z - Z' V^-1 X omega X' V^-1 Z
+					Matrix matZtInvVZ = matZ_i.transposeAndMultiply(invVZ_i);
+					Matrix matZtInvVX = matZ_i.transposeAndMultiply(invVX_i);
+					Matrix matZtPZ = matZtInvVZ.subtract(matZtInvVX.multiply(omega).multiply(matZtInvVX.transpose()));
+					newMatG_i = matGbck.subtract(matGbck.multiply(matZtPZ).multiply(matGbck));
 				}
 
 				setBlupsForThisSubject(stand, new GaussianEstimate(blups_i, newMatG_i));
@@ -90,7 +90,14 @@ abstract class AbstractDataBlockWrapper extends AbstractMathematicalFunction {
 	 */
 	abstract double getLogLikelihood();
 
-	abstract void updateCovMat(Matrix parameters);
+	/**
+	 * Return the log likelihood for particular parameters and random effect. This method 
+	 * does not rely on the state of the instance and can be called by many threads at a time.
+	 * @param parameters the parameters of the model
+	 * @param randomEffect the value of the random effect
+	 * @return a double
+	 */
+	abstract double getLogLikelihood(Matrix parameters, double randomEffect);
 
 	@Override
 	public final Matrix getGradient() {return null;}
@@ -49,8 +49,7 @@ abstract class AbstractMixedModelFullImplementation extends AbstractModelImpleme
 	@Override
 	protected double getLogLikelihoodForThisBlock(Matrix parameters, int i) {
 		AbstractDataBlockWrapper dbw = dataBlockWrappers.get(i);
-		dbw.setParameterValue(0, parameters.getValueAt(indexFirstRandomEffect + i, 0));
-		return dbw.getLogLikelihood();
+		return dbw.getLogLikelihood(parameters, parameters.getValueAt(indexFirstRandomEffect + i, 0));
 	}	
 	
 	protected double getVarianceDueToRandomEffect(double ageYr, double timeSinceBeginning) {		
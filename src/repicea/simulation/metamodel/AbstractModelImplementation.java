@@ -25,11 +25,13 @@ import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
 
 import repicea.math.Matrix;
+import repicea.serial.xml.PostXmlUnmarshalling;
 import repicea.simulation.metamodel.MetaModel.ModelImplEnum;
 import repicea.stats.StatisticalUtility;
-import repicea.stats.StatisticalUtility.TypeMatrixR;
 import repicea.stats.data.DataBlock;
 import repicea.stats.data.DataSet;
 import repicea.stats.data.GenericHierarchicalStatisticalDataStructure;
@@ -47,16 +49,20 @@ import repicea.stats.mcmc.MetropolisHastingsCompatibleModel;
 abstract class AbstractModelImplementation implements MetropolisHastingsCompatibleModel, Runnable {
 
 	/**
-	 * A nested class to handle blocks of repeated measurements.
+	 * A nested class to handle blocks of repeated measurements. <br>
+	 * <br>
+	 * The variance-covariance matrix of a block is V = D R D, where D is the diagonal matrix of the 
+	 * standard deviations and R is an AR1 correlation matrix. Both the quadratic form and the 
+	 * log-determinant of this matrix have closed forms, so that the log-likelihood is computed in 
+	 * O(n) operations without building any n x n matrix.
 	 * @author Mathieu Fortin - November 2021
 	 */
 	@SuppressWarnings("serial")
-	class DataBlockWrapper extends AbstractDataBlockWrapper {
+	class DataBlockWrapper extends AbstractDataBlockWrapper implements PostXmlUnmarshalling {
 
-		final Matrix varCovFullCorr;
-		final Matrix distances;
-		Matrix invVarCov;
-		double lnConstant;
+		private transient Matrix varCovFullCorr;	// former member kept for the deserialization of former meta-models
+		double[] stdDev;
+		double sumLogStdDev;
 
 		DataBlockWrapper(String blockId, 
 				List<Integer> indices, 
@@ -64,32 +70,43 @@ abstract class AbstractModelImplementation implements MetropolisHastingsCompatib
 				Matrix overallVarCov) {
 			super(blockId, indices, structure, overallVarCov);
 			Matrix varCovTmp = overallVarCov.getSubMatrix(indices, indices);
-			Matrix stdDiag = correctVarCov(varCovTmp).diagonalVector().elementWisePower(0.5);
-			this.varCovFullCorr = stdDiag.multiply(stdDiag.transpose());
-			distances = new Matrix(varCovFullCorr.m_iRows, 1, 1, 1);
+			setStandardDeviations(correctVarCov(varCovTmp).diagonalVector());
 		}
 
+		private void setStandardDeviations(Matrix variances) {
+			stdDev = new double[variances.m_iRows];
+			sumLogStdDev = 0d;
+			for (int i = 0; i < stdDev.length; i++) {
+				stdDev[i] = Math.sqrt(variances.getValueAt(i, 0));
+				sumLogStdDev += Math.log(stdDev[i]);
+			}
+		}
+		
 		@Override
-		void updateCovMat(Matrix parameters) {
-			double rhoParm = parameters.getValueAt(indexCorrelationParameter, 0);	
-//			Matrix corrMat = StatisticalUtility.constructRMatrix(distances, 1d, rhoParm, TypeMatrixR.POWER);
-			Matrix corrMat = StatisticalUtility.constructRMatrix(Arrays.asList(new Double[] {1d, rhoParm}), TypeMatrixR.POWER, distances);
-			Matrix varCov = varCovFullCorr.elementWiseMultiply(corrMat);
-
-			Matrix invCorr = StatisticalUtility.getInverseCorrelationAR1Matrix(distances.m_iRows, rhoParm);
-			Matrix invFull = varCovFullCorr.elementWisePower(-1d);
-			invVarCov = invFull.elementWiseMultiply(invCorr);
-			double determinant = varCov.getDeterminant();
-			int k = this.vecY.m_iRows;
-			this.lnConstant = -.5 * k * Math.log(2 * Math.PI) - Math.log(determinant) * .5;
+		public void postUnmarshallingAction() {
+			if (stdDev == null && varCovFullCorr != null) {		// the diagonal of the former member contains the variances
+				setStandardDeviations(varCovFullCorr.diagonalVector());
+				varCovFullCorr = null;
+			}
 		}
 
 		@Override
 		double getLogLikelihood() {
-			Matrix pred = generatePredictions(this, getParameterValue(0));
-			Matrix residuals = vecY.subtract(pred);
-			Matrix rVr = residuals.transpose().multiply(invVarCov).multiply(residuals);
-			double rVrValue = rVr.getSumOfElements();
+			return getLogLikelihood(getParameters(), getParameterValue(0));
+		}
+
+		@Override
+		double getLogLikelihood(Matrix parameters, double randomEffect) {
+			double rho = parameters.getValueAt(indexCorrelationParameter, 0);
+			int k = stdDev.length;
+			double logDeterminant = 2d * sumLogStdDev + StatisticalUtility.getLogDeterminantOfCorrelationAR1Matrix(k, rho);
+			double lnConstant = -.5 * k * Math.log(2 * Math.PI) - logDeterminant * .5;
+			double[] standardizedResiduals = new double[k];
+			for (int i = 0; i < k; i++) {
+				double pred = getPrediction(ageYr.getValueAt(i, 0), timeSinceBeginning.getValueAt(i, 0), randomEffect, parameters);
+				standardizedResiduals[i] = (vecY.getValueAt(i, 0) - pred) / stdDev[i];
+			}
+			double rVrValue = StatisticalUtility.getQuadraticFormWithInverseCorrelationAR1Matrix(standardizedResiduals, rho);
 			if (rVrValue < 0) {
 				throw new UnsupportedOperationException("The sum of squared errors is negative!");
 			} else {
@@ -100,6 +117,46 @@ abstract class AbstractModelImplementation implements MetropolisHastingsCompatib
 
 	}
 	
+	/**
+	 * A task that computes the log-likelihoods of a range of blocks. The range is split until it
+	 * contains no more blocks than the grain size. Each block is evaluated by a single thread.
+	 */
+	@SuppressWarnings("serial")
+	private class BlockLogLikelihoodTask extends RecursiveAction {
+
+		private final Matrix parameters;
+		private final double[] logLikelihoods;
+		private final int from;
+		private final int to;
+		private final int grainSize;
+		
+		BlockLogLikelihoodTask(Matrix parameters, double[] logLikelihoods, int from, int to, int grainSize) {
+			this.parameters = parameters;
+			this.logLikelihoods = logLikelihoods;
+			this.from = from;
+			this.to = to;
+			this.grainSize = grainSize;
+		}
+		
+		@Override
+		protected void compute() {
+			if (to - from <= grainSize) {
+				for (int i = from; i < to; i++) {
+					logLikelihoods[i] = getLogLikelihoodForThisBlock(parameters, i);
+				}
+			} else {
+				int middle = (from + to) >>> 1;
+				invokeAll(new BlockLogLikelihoodTask(parameters, logLikelihoods, from, middle, grainSize),
+						new BlockLogLikelihoodTask(parameters, logLikelihoods, middle, to, grainSize));
+			}
+		}
+	}
+	
+	/**
+	 * The default number of blocks below which the log-likelihood is computed in a single thread.
+	 */
+	static final int DefaultLikelihoodGrainSize = 8;
+	
 	private static final Map<Class<? extends AbstractModelImplementation>, ModelImplEnum> EnumMap = new HashMap<Class<? extends AbstractModelImplementation>, ModelImplEnum>();
 	static {
 		EnumMap.put(SimpleSlopeModelImplementation.class, ModelImplEnum.SimpleSlope);
@@ -119,6 +176,7 @@ abstract class AbstractModelImplementation implements MetropolisHastingsCompatib
 	protected List<Integer> fixedEffectsParameterIndices;
 	protected int indexCorrelationParameter;
 	private DataSet finalDataSet;
+	private int likelihoodGrainSize;
 
 	/**
 	 * Internal constructor.
@@ -162,6 +220,20 @@ abstract class AbstractModelImplementation implements MetropolisHastingsCompatib
 		finalDataSet = structure.getDataSet();
 		mh = new MetropolisHastingsAlgorithm(this, MetaModelManager.LoggerName, getLogMessagePrefix());
 		mh.setSimulationParameters(metaModel.mhSimParms);
+		setLikelihoodGrainSize(metaModel.getLikelihoodGrainSize());
+	}
+
+	/**
+	 * Set the grain size of the parallel computation of the log-likelihood, that is the number of blocks
+	 * below which a task is no longer split. 
+	 * @param likelihoodGrainSize an integer (0 or less means the default grain size)
+	 */
+	void setLikelihoodGrainSize(int likelihoodGrainSize) {
+		this.likelihoodGrainSize = likelihoodGrainSize;
+	}
+	
+	private int getLikelihoodGrainSize() {
+		return likelihoodGrainSize > 0 ? likelihoodGrainSize : DefaultLikelihoodGrainSize;	// 0 if the instance was saved before this member was introduced
 	}
 
 	protected AbstractDataBlockWrapper createWrapper(String k, List<Integer> indices, HierarchicalStatisticalDataStructure structure, Matrix varCov) {
@@ -191,13 +263,30 @@ abstract class AbstractModelImplementation implements MetropolisHastingsCompatib
 		return EnumMap.get(getClass());
 	}
 
+	/**
+	 * Compute the log-likelihood of the model. The blocks are independent once the parameters are set.
+	 * Their log-likelihoods are therefore computed in parallel if there are more blocks than the grain size. 
+	 * The block tasks are forked in the pool of the calling task if any, or in the common pool otherwise.
+	 * The sum is always taken in the same order so that the result does not depend on the number of threads.<br>
+	 * <br>
+	 * The parameters are passed down to the blocks instead of being set in the instance. Many chains 
+	 * can therefore evaluate the log-likelihood at the same time.
+	 */
 	@Override
 	public final double getLogLikelihood(Matrix parameters) {
-		setParameters(parameters);
+		int nbBlocks = dataBlockWrappers.size();
+		double[] logLikelihoods = new double[nbBlocks];
+		int grainSize = getLikelihoodGrainSize();
+		if (nbBlocks > grainSize) {
+			new BlockLogLikelihoodTask(parameters, logLikelihoods, 0, nbBlocks, grainSize).invoke();
+		} else {
+			for (int i = 0; i < nbBlocks; i++) {
+				logLikelihoods[i] = getLogLikelihoodForThisBlock(parameters, i);
+			}
+		}
 		double logLikelihood = 0d;
-		for (int i = 0; i < dataBlockWrappers.size(); i++) {
-			double logLikelihoodForThisBlock = getLogLikelihoodForThisBlock(parameters, i);
-			logLikelihood += logLikelihoodForThisBlock;
+		for (int i = 0; i < nbBlocks; i++) {
+			logLikelihood += logLikelihoods[i];
 		}
 		return logLikelihood;
 	}
@@ -205,7 +294,7 @@ abstract class AbstractModelImplementation implements MetropolisHastingsCompatib
 	
 	protected double getLogLikelihoodForThisBlock(Matrix parameters, int i) {
 		AbstractDataBlockWrapper dbw = dataBlockWrappers.get(i);
-		return dbw.getLogLikelihood();
+		return dbw.getLogLikelihood(parameters, 0d);
 	}
 	
 	/**
@@ -265,10 +354,6 @@ abstract class AbstractModelImplementation implements MetropolisHastingsCompatib
 	}
 
 
-	private Matrix generatePredictions(AbstractDataBlockWrapper dbw, double randomEffect) {
-		return generatePredictions(dbw, randomEffect, false);
-	}
-	
 	final double getPrediction(double ageYr, double timeSinceBeginning, double r1) {
 		return this.getPrediction(ageYr, timeSinceBeginning, r1, null);
 	}
@@ -289,10 +374,6 @@ abstract class AbstractModelImplementation implements MetropolisHastingsCompatib
 
 	protected void setParameters(Matrix parameters) {
 		this.parameters = parameters;
-		for (AbstractDataBlockWrapper dbw : dataBlockWrappers) {
-			dbw.updateCovMat(parameters);
-		}
-
 	}
 	
 	Matrix getParameters() {
@@ -336,26 +417,51 @@ abstract class AbstractModelImplementation implements MetropolisHastingsCompatib
 		return stratumGroup + " Implementation " + getModelImplementation().name();
 	}
 
+	/*
+	 * The search for the first set of parameters is run on the pool of the calling task, which is 
+	 * typically the scheduler of the MetaModelManager class, or on this scheduler otherwise.
+	 */
 	void fitModel() {
+		mh.setInitialSearchExecutor(ForkJoinTask.inForkJoinPool() ? ForkJoinTask.getPool() : MetaModelManager.getScheduler());
 		mh.fitModel();
 		if (mh.hasConverged()) {
-			setParameters(mh.getFinalParameterEstimates());
-			setParmsVarCov(mh.getParameterCovarianceMatrix());
-			
-			Matrix finalPred = getVectorOfPopulationAveragedPredictionsAndVariances();
-			Object[] finalPredArray = new Object[finalPred.m_iRows];
-			Object[] finalPredVarArray = new Object[finalPred.m_iRows];
-			Object[] implementationArray = new Object[finalPred.m_iRows];
-			for (int i = 0; i < finalPred.m_iRows; i++) {
-				finalPredArray[i] = finalPred.getValueAt(i, 0);
-				finalPredVarArray[i] = finalPred.getValueAt(i, 1);
-				implementationArray[i] = getModelImplementation().name();
-			}
+			completeFit();
+		}
+	}
 
-			finalDataSet.addField("modelImplementation", implementationArray);
-			finalDataSet.addField("pred", finalPredArray);
-			finalDataSet.addField("predVar", finalPredVarArray);
+	/**
+	 * Restore a fitted model from its estimates, typically after reading them from a file.
+	 * @param parameters the final parameter estimates
+	 * @param parmsVarCov the variance-covariance matrix of the parameter estimates
+	 * @param lpml the log pseudomarginal likelihood
+	 * @param finalSample the final sample of the Metropolis-Hastings algorithm (can be null)
+	 * @param gelmanRubinStatistics the convergence diagnostics R-hat (can be null)
+	 * @param effectiveSampleSize the effective sample sizes (can be null)
+	 * @see MetropolisHastingsAlgorithm#restoreFit(Matrix, Matrix, double, double[], Matrix, Matrix)
+	 */
+	void restoreFit(Matrix parameters, Matrix parmsVarCov, double lpml, double[] finalSample, Matrix gelmanRubinStatistics, Matrix effectiveSampleSize) {
+		getStartingParmEst(0.01);	// sets the indices of the parameters and the priors 
+		mh.restoreFit(parameters, parmsVarCov, lpml, finalSample, gelmanRubinStatistics, effectiveSampleSize);
+		completeFit();
+	}
+	
+	private void completeFit() {
+		setParameters(mh.getFinalParameterEstimates());
+		setParmsVarCov(mh.getParameterCovarianceMatrix());
+		
+		Matrix finalPred = getVectorOfPopulationAveragedPredictionsAndVariances();
+		Object[] finalPredArray = new Object[finalPred.m_iRows];
+		Object[] finalPredVarArray = new Object[finalPred.m_iRows];
+		Object[] implementationArray = new Object[finalPred.m_iRows];
+		for (int i = 0; i < finalPred.m_iRows; i++) {
+			finalPredArray[i] = finalPred.getValueAt(i, 0);
+			finalPredVarArray[i] = finalPred.getValueAt(i, 1);
+			implementationArray[i] = getModelImplementation().name();
 		}
+
+		finalDataSet.addField("modelImplementation", implementationArray);
+		finalDataSet.addField("pred", finalPredArray);
+		finalDataSet.addField("predVar", finalPredVarArray);
 	}
 	
 
@@ -385,6 +491,13 @@ abstract class AbstractModelImplementation implements MetropolisHastingsCompatib
 		return finalDataSet;
 	}
 	
+	/**
+	 * The log-likelihood and the likelihood of the subjects only depend on their arguments 
+	 * and on the data blocks, which are not modified during the fit.
+	 */
+	@Override
+	public final boolean isThreadSafe() {return true;}
+
 	@Override
 	public final int getNbSubjects() {
 		return dataBlockWrappers.size();
@@ -392,7 +505,6 @@ abstract class AbstractModelImplementation implements MetropolisHastingsCompatib
 	
 	@Override
 	public final double getLikelihoodOfThisSubject(Matrix m, int i) {
-		setParameters(m);
 		return Math.exp(getLogLikelihoodForThisBlock(m, i));
 	}
 	
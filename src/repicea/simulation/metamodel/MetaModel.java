@@ -31,8 +31,13 @@ import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
 import java.util.logging.Level;
+import java.util.stream.IntStream;
 
 import org.apache.commons.io.FilenameUtils;
 
@@ -42,6 +47,7 @@ import repicea.io.Saveable;
 import repicea.math.Matrix;
 import repicea.serial.xml.XmlDeserializer;
 import repicea.serial.xml.XmlSerializer;
+import repicea.simulation.metamodel.MetaModelFittingJob.TaskProgress;
 import repicea.stats.StatisticalUtility;
 import repicea.stats.data.DataSet;
 import repicea.stats.data.StatisticalDataException;
@@ -82,7 +88,7 @@ public class MetaModel implements Saveable {
 						if (firstElement) {
 							// fill in data that is constant 	
 							data.growth.nbRealizations = result.getNbRealizations();
-							data.growth.climateChangeOption = ((Enum)result.climateChangeScenario).name();
+							data.growth.climateChangeOption = result.climateChangeScenario != null ? ((Enum)result.climateChangeScenario).name() : null;
 							data.growth.growthModel = result.growthModel;							
 						}
 						
@@ -173,6 +179,10 @@ public class MetaModel implements Saveable {
 	protected final String geoDomain;
 	protected final String dataSource;
 	public Date lastFitTimeStamp;
+	private int likelihoodGrainSize;
+	private static final int MinimumNumberOfPredictionsForParallelComputing = 10000;
+	private static final long MinimumWeight = 64 * 1024;	// data blocks, script results and parameters
+
 	private transient GaussianEstimate parameterEstimateGenerator;
 	public static final String PREDICTIONS = "predictions";
 	public static final String PREDICTION_VARIANCE = "predictionVariance";
@@ -205,6 +215,25 @@ public class MetaModel implements Saveable {
 		mhSimParms = new MetropolisHastingsParameters();
 	}
 
+	/**
+	 * Set the grain size of the parallel computation of the log-likelihood during the fitting, that is 
+	 * the number of data blocks below which the computation is no longer split among threads. A grain size
+	 * larger than the number of blocks disables the parallel computation.
+	 * @param likelihoodGrainSize an integer (0 or less means the default grain size)
+	 */
+	public void setLikelihoodGrainSize(int likelihoodGrainSize) {
+		this.likelihoodGrainSize = likelihoodGrainSize;
+	}
+
+	/**
+	 * Return the grain size of the parallel computation of the log-likelihood. 
+	 * @return an integer (0 or less means the default grain size)
+	 * @see MetaModel#setLikelihoodGrainSize(int)
+	 */
+	public int getLikelihoodGrainSize() {
+		return likelihoodGrainSize;
+	}
+
 	/**
 	 * Provide the stratum group for this mate-model.
 	 * 
@@ -232,6 +261,25 @@ public class MetaModel implements Saveable {
 		return lastAccessed;
 	}
 
+	void setLastAccessed(LocalDateTime lastAccessed) {
+		this.lastAccessed = lastAccessed;
+	}
+
+	/**
+	 * Provide a rough estimate of the memory used by this meta-model. The estimate
+	 * is based on the size of the final sample of the Metropolis-Hastings algorithm, 
+	 * which is the largest object of a fitted meta-model. 
+	 * @return the estimated size in bytes
+	 */
+	long getEstimatedWeight() {
+		long weight = MinimumWeight;
+		if (model != null && model.getParameters() != null) {
+			long nbSamples = model.mh.getNumberOfFinalSamples();
+			weight += nbSamples * (model.getParameters().m_iRows + 1) * 8;	// the log-likelihood and the parameters of each sample
+		}
+		return weight;
+	}
+
 	void add(int initialAge, ScriptResult result) {
 		boolean canBeAdded;
 		if (scriptResults.isEmpty()) {
@@ -253,7 +301,7 @@ public class MetaModel implements Saveable {
 		}
 	}
 
-	private AbstractModelImplementation getInnerModel(String outputType, ModelImplEnum modelImplEnum)
+	AbstractModelImplementation getInnerModel(String outputType, ModelImplEnum modelImplEnum)
 			throws StatisticalDataException {
 		AbstractModelImplementation model;
 		switch (modelImplEnum) {
@@ -302,15 +350,25 @@ public class MetaModel implements Saveable {
 		return possibleOutputTypes;
 	}
 
-	static class InnerWorker extends Thread implements Comparable<InnerWorker> {
+	@SuppressWarnings("serial")
+	static class InnerWorker extends RecursiveAction implements Comparable<InnerWorker> {
 
 		final AbstractModelImplementation ami;
+		final TaskProgress progress;
 		double prob;
 
-		InnerWorker(AbstractModelImplementation ami) {
-			super(ami);
+		InnerWorker(AbstractModelImplementation ami, TaskProgress progress) {
 			this.ami = ami;
-			setName(ami.getModelImplementation().name());
+			this.progress = progress;
+		}
+
+		@Override
+		protected void compute() {
+			if (progress != null) {
+				progress.run(ami);
+			} else {
+				ami.run();
+			}
 		}
 
 		@Override
@@ -349,36 +407,71 @@ public class MetaModel implements Saveable {
 	}
 
 	/**
-	 * Fit the meta-model.
+	 * Provide the model implementations that are fitted by the fitModel method.
+	 * @param enableMixedModelImplementations true to include the implementations with random effects
+	 * @return a List of ModelImplEnum
+	 */
+	static List<ModelImplEnum> getImplementationsToBeFitted(boolean enableMixedModelImplementations) {
+		List<ModelImplEnum> myImplementations = new ArrayList<ModelImplEnum>();
+		myImplementations.add(ModelImplEnum.ChapmanRichards);
+		if (enableMixedModelImplementations) {
+			myImplementations.add(ModelImplEnum.ChapmanRichardsWithRandomEffect);
+		}
+		myImplementations.add(ModelImplEnum.ChapmanRichardsDerivative);
+		if (enableMixedModelImplementations) {
+			myImplementations.add(ModelImplEnum.ChapmanRichardsDerivativeWithRandomEffect);
+		}
+		return myImplementations;
+	}
+	
+	/**
+	 * Fit the meta-model. <br>
+	 * <br>
+	 * The model implementations are fitted as fork-join tasks. If this method is called 
+	 * from a fork-join pool, these tasks and the chains of the Metropolis-Hastings algorithm 
+	 * share the threads of this pool. Otherwise, the fit is submitted to the scheduler of the 
+	 * MetaModelManager class and this method waits for its completion.
 	 * 
 	 * @param outputType the output type the model will be fitted to (e.g.
 	 *                   volumeAlive_Coniferous)
-	 * @param e          a ModelImplEnum enum
+	 * @param enableMixedModelImplementations true to include the implementations with random effects
 	 * @return a boolean true if the model has converged or false otherwise
 	 */
 	public boolean fitModel(String outputType, boolean enableMixedModelImplementations) {
+		List<ModelImplEnum> implementations = getImplementationsToBeFitted(enableMixedModelImplementations);
+		if (ForkJoinTask.inForkJoinPool()) {
+			return fitModel(outputType, implementations, null);
+		} else {
+			return MetaModelManager.getScheduler().invoke(ForkJoinTask.adapt(new Callable<Boolean>() {
+				@Override
+				public Boolean call() {
+					return fitModel(outputType, implementations, null);
+				}
+			}));
+		}
+	}
+	
+	/**
+	 * Fit the meta-model within a job. The model implementation with the largest 
+	 * pseudomarginal likelihood is selected.
+	 * @param outputType the output type the model will be fitted to 
+	 * @param implementations the model implementations to be fitted
+	 * @param job a MetaModelFittingJob instance that monitors the tasks (can be null)
+	 * @return a boolean true if the model has converged or false otherwise
+	 */
+	boolean fitModel(String outputType, List<ModelImplEnum> implementations, MetaModelFittingJob job) {
 		model = null; // reset the convergence to false
 		REpiceaLogManager.logMessage(MetaModelManager.LoggerName, Level.INFO, "Meta-model " + stratumGroup,
 				"----------- Modeling output type: " + outputType + " ----------------");
 		try {
 			List<InnerWorker> modelList = new ArrayList<InnerWorker>();
-
-			List<ModelImplEnum> myImplementations = new ArrayList<ModelImplEnum>();
-			myImplementations.add(ModelImplEnum.ChapmanRichards);
-			if (enableMixedModelImplementations) {
-				myImplementations.add(ModelImplEnum.ChapmanRichardsWithRandomEffect);
+			for (ModelImplEnum e : implementations) { // use the basic models first, i.e. those without random effects
+				TaskProgress progress = job != null ? job.getTaskProgress(stratumGroup, e) : null;
+				modelList.add(new InnerWorker(getInnerModel(outputType, e), progress));
 			}
-			myImplementations.add(ModelImplEnum.ChapmanRichardsDerivative);
-			if (enableMixedModelImplementations) {
-				myImplementations.add(ModelImplEnum.ChapmanRichardsDerivativeWithRandomEffect);
-			}
-			for (ModelImplEnum e : myImplementations) { // use the basic models first, i.e. those without random effects
-				InnerWorker w = new InnerWorker(getInnerModel(outputType, e));
-				w.start();
-				modelList.add(w);
-			}
-			for (InnerWorker w : modelList) {
-				w.join();
+			ForkJoinTask.invokeAll(modelList);
+			if (job != null && job.isCancelled()) {
+				return false;
 			}
 			InnerWorker selectedWorker = performModelSelection(modelList);
 			REpiceaLogManager.logMessage(MetaModelManager.LoggerName, Level.INFO, "Meta-model " + stratumGroup,
@@ -433,7 +526,7 @@ public class MetaModel implements Saveable {
 	 */
 	public LinkedHashMap<String, LinkedHashMap<Integer, Double>> getPredictions(int[] ageYr, int timeSinceInitialDateYr, PredictionVarianceOutputType varianceOutputType) throws MetaModelException {
 		LinkedHashMap<String, LinkedHashMap<Integer, Double>> result = new LinkedHashMap<String, LinkedHashMap<Integer, Double>>();
-		result.put(PREDICTIONS, getMonteCarloPredictions(ageYr, timeSinceInitialDateYr, 0, 0).get(0).get(0));
+		result.put(PREDICTIONS, getMonteCarloPredictionArray(ageYr, timeSinceInitialDateYr, 0, 0).getMapForThisSubject(0, 0));
 		if (varianceOutputType != PredictionVarianceOutputType.NONE) {
 			LinkedHashMap<Integer, Double> variance = new LinkedHashMap<Integer, Double>(ageYr.length);
 			for (int k = 0; k < ageYr.length; k++) {
@@ -454,43 +547,64 @@ public class MetaModel implements Saveable {
 	 * @param nbSubjects The number of subjects to generate random parameters for  (use 0 to disable MC simulation) 
 	 * @param nbRealizations The number of realizations to generate random parameters for (use 0 to disable MC simulation)
 	 * 			 
-	 * @return the predictions two different maps : one for PREDICTIONS and one for PREDICTION_VARIANCE
-	 */	public LinkedHashMap<Integer, LinkedHashMap<Integer, LinkedHashMap<Integer, Double>>> getMonteCarloPredictions(int[] ageYr, int timeSinceInitialDateYr, int nbSubjects, int nbRealizations) throws MetaModelException {
+	 * @return nested maps whose keys are the realization, the subject and the age
+	 * @see MetaModel#getMonteCarloPredictionArray(int[], int, int, int)
+	 */
+	public LinkedHashMap<Integer, LinkedHashMap<Integer, LinkedHashMap<Integer, Double>>> getMonteCarloPredictions(int[] ageYr, int timeSinceInitialDateYr, int nbSubjects, int nbRealizations) throws MetaModelException {
+		return getMonteCarloPredictionArray(ageYr, timeSinceInitialDateYr, nbSubjects, nbRealizations).toMap();
+	}
+	
+	/**
+	 * Gets multiple predictions sets using Monte Carlo simulation on model parameters. The results are stored
+	 * in a primitive array. The parameter deviates are drawn all at once and the realizations are then 
+	 * computed in parallel. 
+	 * 
+	 * @param ageYr An array of all ageYrs for which the predictions are to be computed                   
+	 * @param timeSinceInitialDateYr The number of years since initial date year for the predictions
+	 * @param nbSubjects The number of subjects to generate random parameters for  (use 0 to disable MC simulation) 
+	 * @param nbRealizations The number of realizations to generate random parameters for (use 0 to disable MC simulation)
+	 * 			 
+	 * @return a MetaModelPredictionArray instance
+	 */
+	public MetaModelPredictionArray getMonteCarloPredictionArray(int[] ageYr, int timeSinceInitialDateYr, int nbSubjects, int nbRealizations) throws MetaModelException {
 		if (hasConverged()) {
 			boolean randomEffectVariabilityEnabled = nbSubjects > 0;
 			boolean parameterVariabilityEnabled = nbRealizations > 0;
+			int ns = randomEffectVariabilityEnabled ? nbSubjects : 1;
+			int nr = parameterVariabilityEnabled ? nbRealizations : 1;
 			
-			List<Matrix> parmDeviates = new ArrayList<Matrix>();
-			for (int i = 0; i < nbRealizations; i++) {
-				parmDeviates.add(getParameterEstimateGenerator().getRandomDeviate());
-			}
+			Random random = StatisticalUtility.getRandom();
+			Matrix parmDeviates = parameterVariabilityEnabled ? 
+					getParameterEstimateGenerator().getDistribution().getRandomRealizations(nr, random) : 
+					null;
 			
 			double varianceRandomEffect = model instanceof AbstractMixedModelFullImplementation ? 
 					model.getParameters().getValueAt(((AbstractMixedModelFullImplementation)model).indexRandomEffectVariance, 0) : 0.0;
-					
 			double stdRandomEffect = Math.sqrt(varianceRandomEffect);
-				
-			int ns = randomEffectVariabilityEnabled ? nbSubjects : 1;
-			int nr = parameterVariabilityEnabled ? nbRealizations : 1;
-			LinkedHashMap<Integer, LinkedHashMap<Integer, LinkedHashMap<Integer, Double>>> result = new LinkedHashMap<Integer, LinkedHashMap<Integer, LinkedHashMap<Integer, Double>>>();
-			for (int i = 0; i < nr; i++) {
-				result.put(i, new LinkedHashMap<Integer, LinkedHashMap<Integer, Double>>());
+			double[] randomEffects = new double[nr * ns];
+			if (randomEffectVariabilityEnabled) {
+				for (int i = 0; i < randomEffects.length; i++) {
+					randomEffects[i] = random.nextGaussian() * stdRandomEffect;
+				}
+			}
+			
+			MetaModelPredictionArray result = new MetaModelPredictionArray(nr, ns, ageYr);
+			IntStream realizations = IntStream.range(0, nr);
+			if (nr > 1 && result.values.length >= MinimumNumberOfPredictionsForParallelComputing) {
+				realizations = realizations.parallel();	// each realization writes in its own segment of the array
+			}
+			realizations.forEach(i -> {
+				Matrix parameters = parameterVariabilityEnabled ? parmDeviates.getSubMatrix(0, parmDeviates.m_iRows - 1, i, i) : getFinalParameterEstimates();
+				int index = result.getIndex(i, 0, 0);
 				for (int j = 0; j < ns; j++) {
-					result.get(i).put(j, new LinkedHashMap<Integer, Double>());
-					double rj = randomEffectVariabilityEnabled ? StatisticalUtility.getRandom().nextGaussian() * stdRandomEffect: 0.0;
-					for (int k = 0; k < ageYr.length; k++) {						
-						double pred = model.getPrediction(ageYr[k], 
-								timeSinceInitialDateYr, 
-								rj, 
-								parameterVariabilityEnabled ? parmDeviates.get(i) : getFinalParameterEstimates());
-								
-						result.get(i).get(j).put(ageYr[k], pred);
+					double rj = randomEffects[i * ns + j];
+					for (int k = 0; k < ageYr.length; k++) {
+						result.values[index++] = model.getPrediction(ageYr[k], timeSinceInitialDateYr, rj, parameters);
 					}
 				}
-			}
+			});
 			
 			lastAccessed = LocalDateTime.now();
-						
 			return result;
 		} else {
 			throw new MetaModelException("The meta-model has not converged or has not been fitted yet!");
@@ -584,13 +698,29 @@ public class MetaModel implements Saveable {
 	}
 
 	/**
-	 * Load a meta-model instance from file
+	 * Save the meta-model in the binary format. 
+	 * @param filename the name of the file
+	 * @param includeFinalSample true to store the final sample of the Metropolis-Hastings algorithm
+	 * @throws IOException if an I/O error occurs
+	 * @see MetaModelBinaryFormat
+	 */
+	public void saveBinary(String filename, boolean includeFinalSample) throws IOException {
+		MetaModelBinaryFormat.write(this, filename, includeFinalSample);
+	}
+
+	/**
+	 * Load a meta-model instance from file. The file can be either an XML file or
+	 * a binary file.
 	 * 
 	 * @param filename
 	 * @return a MetaModel instance
 	 * @throws IOException
+	 * @see MetaModelBinaryFormat
 	 */
 	public static MetaModel Load(String filename) throws IOException {
+		if (MetaModelBinaryFormat.isBinaryFile(filename)) {
+			return MetaModelBinaryFormat.read(filename);
+		}
 		XmlDeserializer deserializer = new XmlDeserializer(filename);
 		Object obj = deserializer.readObject();
 		MetaModel metaModel = (MetaModel) obj;
@@ -616,6 +746,10 @@ public class MetaModel implements Saveable {
 		}
 	}
 
+	void setModelComparison(DataSet modelComparison) {
+		this.modelComparison = modelComparison;
+	}
+
 	public DataSet getModelComparison() {
 		if (hasConverged()) {
 			return modelComparison;
@@ -0,0 +1,412 @@
+/*
+ * This file is part of the repicea library.
+ *
+ * Copyright (C) 2009-2021 Mathieu Fortin for Rouge Epicea.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed with the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * Please see the license at http://www.gnu.org/copyleft/lesser.html.
+ */
+package repicea.simulation.metamodel;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import repicea.math.Matrix;
+import repicea.simulation.climate.REpiceaClimateGenerator.ClimateChangeScenario;
+import repicea.simulation.metamodel.MetaModel.ModelImplEnum;
+import repicea.stats.data.DataSet;
+import repicea.stats.data.Observation;
+import repicea.stats.data.StatisticalDataException;
+
+/**
+ * A compact binary format for the MetaModel class. <br>
+ * <br>
+ * The file starts with a header made of a magic number and a version number. It then
+ * contains the settings of the meta-model, the script results and the estimates of the selected
+ * model implementation, that is the parameters, their variance-covariance matrix and optionally the
+ * final sample of the Metropolis-Hastings algorithm, and the convergence diagnostics. The numbers are 
+ * stored as big-endian primitive arrays. The data sets are stored column by column. A column holds 
+ * either Integer, Double or String values. A data set with null values or with a column that mixes
+ * these types cannot be stored in this format. <br>
+ * <br>
+ * The model implementation is rebuilt from the script results when the file is read. Consequently, the
+ * predictions of a meta-model read from a binary file are the same as those of the original meta-model.
+ */
+public final class MetaModelBinaryFormat {
+
+	static final int MagicNumber = 0x524D4D42;	// RMMB
+	static final int Version = 2;
+
+	private static final byte IntegerColumn = 'I';
+	private static final byte DoubleColumn = 'D';
+	private static final byte StringColumn = 'S';
+
+	private MetaModelBinaryFormat() {}
+
+	/**
+	 * Write a meta-model to a binary file.
+	 * @param metaModel a MetaModel instance
+	 * @param filename the name of the file
+	 * @param includeFinalSample true to store the final sample of the Metropolis-Hastings algorithm
+	 * @throws IOException if a data set contains a column that cannot be stored or if an I/O error occurs
+	 */
+	public static void write(MetaModel metaModel, String filename, boolean includeFinalSample) throws IOException {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(filename), 1 << 16));
+		try {
+			out.writeInt(MagicNumber);
+			out.writeInt(Version);
+			writeString(out, metaModel.getStratumGroup());
+			writeString(out, metaModel.geoDomain);
+			writeString(out, metaModel.dataSource);
+			out.writeInt(metaModel.getLikelihoodGrainSize());
+			out.writeLong(metaModel.lastFitTimeStamp != null ? metaModel.lastFitTimeStamp.getTime() : Long.MIN_VALUE);
+			out.writeInt(metaModel.mhSimParms.nbBurnIn);
+			out.writeInt(metaModel.mhSimParms.nbRealizations);
+			out.writeInt(metaModel.mhSimParms.nbInternalIter);
+			out.writeInt(metaModel.mhSimParms.oneEach);
+			out.writeInt(metaModel.mhSimParms.nbInitialGrid);
+			out.writeInt(metaModel.mhSimParms.nbChains);
+
+			out.writeInt(metaModel.scriptResults.size());
+			for (Map.Entry<Integer, ScriptResult> entry : metaModel.scriptResults.entrySet()) {
+				ScriptResult result = entry.getValue();
+				out.writeInt(entry.getKey());
+				out.writeInt(result.getNbRealizations());
+				out.writeInt(result.getNbPlots());
+				ClimateChangeScenario scenario = result.getClimateChangeScenario();
+				writeString(out, scenario != null ? ((Enum<?>) scenario).getDeclaringClass().getName() : null);
+				writeString(out, scenario != null ? ((Enum<?>) scenario).name() : null);
+				writeString(out, result.getGrowthModel());
+				writeDataSet(out, result.getDataSet());
+			}
+
+			out.writeBoolean(metaModel.hasConverged());
+			if (metaModel.hasConverged()) {
+				AbstractModelImplementation model = metaModel.model;
+				writeString(out, model.getModelImplementation().name());
+				writeString(out, model.getSelectedOutputType());
+				out.writeDouble(model.mh.getLogPseudomarginalLikelihood());
+				writeMatrix(out, model.mh.getFinalParameterEstimates());
+				writeMatrix(out, model.mh.getParameterCovarianceMatrix());
+				double[] finalSample = includeFinalSample ? model.mh.getFinalSample() : null;
+				if (finalSample != null) {
+					out.writeInt(finalSample.length);
+					writeDoubles(out, finalSample);
+				} else {
+					out.writeInt(-1);
+				}
+				writeNullableMatrix(out, model.mh.getGelmanRubinStatistics());
+				writeNullableMatrix(out, model.mh.getEffectiveSampleSize());
+				writeDataSet(out, metaModel.getModelComparison());
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Read a meta-model from a binary file. The file is read at once and then decoded.
+	 * @param filename the name of the file
+	 * @return a MetaModel instance
+	 * @throws IOException if the file is not a binary meta-model file or if an I/O error occurs
+	 */
+	public static MetaModel read(String filename) throws IOException {
+		ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(Paths.get(filename)));
+		if (buffer.remaining() < 8 || buffer.getInt() != MagicNumber) {
+			throw new IOException("This file is not a binary meta-model file: " + filename);
+		}
+		int version = buffer.getInt();
+		if (version != Version) {
+			throw new IOException("The version " + version + " of the binary meta-model file is not supported: " + filename);
+		}
+		String stratumGroup = readString(buffer);
+		String geoDomain = readString(buffer);
+		String dataSource = readString(buffer);
+		MetaModel metaModel = new MetaModel(stratumGroup, geoDomain, dataSource);
+		metaModel.setLikelihoodGrainSize(buffer.getInt());
+		long timeStamp = buffer.getLong();
+		metaModel.lastFitTimeStamp = timeStamp != Long.MIN_VALUE ? new Date(timeStamp) : null;
+		metaModel.mhSimParms.nbBurnIn = buffer.getInt();
+		metaModel.mhSimParms.nbRealizations = buffer.getInt();
+		metaModel.mhSimParms.nbInternalIter = buffer.getInt();
+		metaModel.mhSimParms.oneEach = buffer.getInt();
+		metaModel.mhSimParms.nbInitialGrid = buffer.getInt();
+		metaModel.mhSimParms.nbChains = buffer.getInt();
+
+		int nbScriptResults = buffer.getInt();
+		for (int i = 0; i < nbScriptResults; i++) {
+			int initialAgeYr = buffer.getInt();
+			int nbRealizations = buffer.getInt();
+			int nbPlots = buffer.getInt();
+			ClimateChangeScenario scenario = getClimateChangeScenario(readString(buffer), readString(buffer));
+			String growthModel = readString(buffer);
+			DataSet dataSet = readDataSet(buffer);
+			metaModel.scriptResults.put(initialAgeYr, new ScriptResult(nbRealizations, nbPlots, scenario, growthModel, dataSet));
+		}
+
+		if (buffer.get() != 0) {
+			ModelImplEnum modelImplEnum = ModelImplEnum.valueOf(readString(buffer));
+			String outputType = readString(buffer);
+			double lpml = buffer.getDouble();
+			Matrix parameters = readMatrix(buffer);
+			Matrix parmsVarCov = readMatrix(buffer);
+			int sampleLength = buffer.getInt();
+			double[] finalSample = sampleLength >= 0 ? readDoubles(buffer, sampleLength) : null;
+			Matrix gelmanRubinStatistics = readNullableMatrix(buffer);
+			Matrix effectiveSampleSize = readNullableMatrix(buffer);
+			try {
+				AbstractModelImplementation model = metaModel.getInnerModel(outputType, modelImplEnum);
+				model.restoreFit(parameters, parmsVarCov, lpml, finalSample, gelmanRubinStatistics, effectiveSampleSize);
+				metaModel.model = model;
+			} catch (StatisticalDataException e) {
+				throw new IOException("The model implementation cannot be restored: " + e.getMessage());
+			}
+			metaModel.setModelComparison(readDataSet(buffer));
+		}
+		return metaModel;
+	}
+
+	/**
+	 * Check whether a file is a binary meta-model file. Only the magic number is read.
+	 * @param filename the name of the file
+	 * @return a boolean
+	 * @throws IOException if an I/O error occurs
+	 */
+	public static boolean isBinaryFile(String filename) throws IOException {
+		DataInputStream in = new DataInputStream(new FileInputStream(filename));
+		try {
+			return in.available() >= 4 && in.readInt() == MagicNumber;
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Convert a meta-model saved in XML into a binary file.
+	 * @param xmlFilename the name of the XML file
+	 * @param binaryFilename the name of the binary file
+	 * @param includeFinalSample true to store the final sample of the Metropolis-Hastings algorithm
+	 * @throws IOException if an I/O error occurs
+	 */
+	public static void convertXmlToBinary(String xmlFilename, String binaryFilename, boolean includeFinalSample) throws IOException {
+		write(MetaModel.Load(xmlFilename), binaryFilename, includeFinalSample);
+	}
+
+	/**
+	 * Convert a binary meta-model file into XML.
+	 * @param binaryFilename the name of the binary file
+	 * @param xmlFilename the name of the XML file
+	 * @throws IOException if an I/O error occurs
+	 */
+	public static void convertBinaryToXml(String binaryFilename, String xmlFilename) throws IOException {
+		read(binaryFilename).save(xmlFilename);
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private static ClimateChangeScenario getClimateChangeScenario(String className, String name) throws IOException {
+		if (className == null) {
+			return null;
+		}
+		try {
+			Class clazz = Class.forName(className);
+			return (ClimateChangeScenario) Enum.valueOf(clazz, name);
+		} catch (ClassNotFoundException e) {
+			throw new IOException("The climate change scenario cannot be found: " + className);
+		}
+	}
+
+	private static void writeString(DataOutputStream out, String str) throws IOException {
+		if (str == null) {
+			out.writeInt(-1);
+		} else {
+			byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+			out.writeInt(bytes.length);
+			out.write(bytes);
+		}
+	}
+
+	private static String readString(ByteBuffer buffer) {
+		int length = buffer.getInt();
+		if (length < 0) {
+			return null;
+		} else {
+			byte[] bytes = new byte[length];
+			buffer.get(bytes);
+			return new String(bytes, StandardCharsets.UTF_8);
+		}
+	}
+
+	private static void writeDoubles(DataOutputStream out, double[] values) throws IOException {
+		for (double value : values) {
+			out.writeDouble(value);
+		}
+	}
+
+	private static double[] readDoubles(ByteBuffer buffer, int length) {
+		double[] values = new double[length];
+		buffer.asDoubleBuffer().get(values);
+		buffer.position(buffer.position() + length * 8);
+		return values;
+	}
+
+	private static void writeMatrix(DataOutputStream out, Matrix m) throws IOException {
+		out.writeInt(m.m_iRows);
+		out.writeInt(m.m_iCols);
+		for (int i = 0; i < m.m_iRows; i++) {
+			for (int j = 0; j < m.m_iCols; j++) {
+				out.writeDouble(m.getValueAt(i, j));
+			}
+		}
+	}
+
+	private static Matrix readMatrix(ByteBuffer buffer) {
+		int nbRows = buffer.getInt();
+		int nbCols = buffer.getInt();
+		double[] values = readDoubles(buffer, nbRows * nbCols);
+		Matrix m = new Matrix(nbRows, nbCols);
+		for (int i = 0; i < nbRows; i++) {
+			for (int j = 0; j < nbCols; j++) {
+				m.setValueAt(i, j, values[i * nbCols + j]);
+			}
+		}
+		return m;
+	}
+
+	private static void writeNullableMatrix(DataOutputStream out, Matrix m) throws IOException {
+		out.writeBoolean(m != null);
+		if (m != null) {
+			writeMatrix(out, m);
+		}
+	}
+
+	private static Matrix readNullableMatrix(ByteBuffer buffer) {
+		return buffer.get() != 0 ? readMatrix(buffer) : null;
+	}
+
+	/*
+	 * A DataSet instance parses its observations into Integer, Double and String values. The column 
+	 * of a data set is then stored with its type. Any other column, for instance a column with null values,
+	 * would not be restored and cannot be stored.
+	 */
+	private static byte getColumnType(String fieldName, Object[][] records, int j) throws IOException {
+		Class<?> clazz = null;
+		for (Object[] record : records) {
+			Object value = record[j];
+			if (value == null) {
+				throw new IOException("The field " + fieldName + " contains null values and cannot be stored in the binary format!");
+			} else if (clazz == null) {
+				clazz = value.getClass();
+			} else if (!clazz.equals(value.getClass())) {
+				throw new IOException("The field " + fieldName + " contains both " + clazz.getSimpleName() + " and "
+						+ value.getClass().getSimpleName() + " values and cannot be stored in the binary format!");
+			}
+		}
+		if (clazz == null || clazz.equals(String.class)) {
+			return StringColumn;
+		} else if (clazz.equals(Integer.class)) {
+			return IntegerColumn;
+		} else if (clazz.equals(Double.class)) {
+			return DoubleColumn;
+		} else {
+			throw new IOException("The field " + fieldName + " contains " + clazz.getSimpleName() + " values and cannot be stored in the binary format!");
+		}
+	}
+
+	static void writeDataSet(DataOutputStream out, DataSet dataSet) throws IOException {
+		if (dataSet == null) {
+			out.writeInt(-1);
+			return;
+		}
+		List<String> fieldNames = dataSet.getFieldNames();
+		List<Observation> observations = dataSet.getObservations();
+		Object[][] records = new Object[observations.size()][];
+		for (int i = 0; i < records.length; i++) {
+			records[i] = observations.get(i).toArray();
+		}
+		byte[] columnTypes = new byte[fieldNames.size()];
+		for (int j = 0; j < fieldNames.size(); j++) {		// checked before anything is written
+			columnTypes[j] = getColumnType(fieldNames.get(j), records, j);
+		}
+		out.writeInt(fieldNames.size());
+		for (String fieldName : fieldNames) {
+			writeString(out, fieldName);
+		}
+		out.writeInt(records.length);
+		for (int j = 0; j < fieldNames.size(); j++) {
+			out.writeByte(columnTypes[j]);
+			for (Object[] record : records) {
+				if (columnTypes[j] == IntegerColumn) {
+					out.writeInt((Integer) record[j]);
+				} else if (columnTypes[j] == DoubleColumn) {
+					out.writeDouble((Double) record[j]);
+				} else {
+					writeString(out, (String) record[j]);
+				}
+			}
+		}
+	}
+
+	static DataSet readDataSet(ByteBuffer buffer) throws IOException {
+		int nbFields = buffer.getInt();
+		if (nbFields < 0) {
+			return null;
+		}
+		List<String> fieldNames = new ArrayList<String>();
+		for (int j = 0; j < nbFields; j++) {
+			fieldNames.add(readString(buffer));
+		}
+		int nbObservations = buffer.getInt();
+		Object[][] records = new Object[nbObservations][nbFields];
+		for (int j = 0; j < nbFields; j++) {
+			byte columnType = buffer.get();
+			switch(columnType) {
+			case IntegerColumn:
+				for (int i = 0; i < nbObservations; i++) {
+					records[i][j] = buffer.getInt();
+				}
+				break;
+			case DoubleColumn:
+				double[] values = readDoubles(buffer, nbObservations);
+				for (int i = 0; i < nbObservations; i++) {
+					records[i][j] = values[i];
+				}
+				break;
+			case StringColumn:
+				for (int i = 0; i < nbObservations; i++) {
+					records[i][j] = readString(buffer);
+				}
+				break;
+			default:
+				throw new IOException("Unknown column type in binary meta-model file: " + columnType);
+			}
+		}
+		DataSet dataSet = new DataSet(fieldNames);
+		for (Object[] record : records) {
+			dataSet.addObservation(record);
+		}
+		dataSet.indexFieldType();
+		return dataSet;
+	}
+}
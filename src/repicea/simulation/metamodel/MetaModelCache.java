@@ -0,0 +1,330 @@
+/*
+ * This file is part of the repicea library.
+ *
+ * Copyright (C) 2009-2021 Mathieu Fortin for Rouge Epicea.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed with the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * Please see the license at http://www.gnu.org/copyleft/lesser.html.
+ */
+package repicea.simulation.metamodel;
+
+import java.io.File;
+import java.security.InvalidParameterException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * A bounded cache of meta-models that are loaded lazily from a directory. <br>
+ * <br>
+ * The meta-models are loaded on the first request for their stratum group. The capacity
+ * of the cache is expressed as a weight, which is estimated from the size of the final
+ * sample of the Metropolis-Hastings algorithm. When this capacity is exceeded, the least
+ * recently accessed meta-models are evicted. The meta-models whose last access is older than
+ * the time to live are evicted as well. A meta-model that has been evicted is reloaded
+ * on the next request. <br>
+ * <br>
+ * The cache is thread safe. A meta-model is loaded only once even if many threads request it
+ * at the same time.
+ */
+public class MetaModelCache {
+
+	/**
+	 * The default pattern of the filenames, i.e. the stratum group followed by the .zml extension.
+	 */
+	public static final String DefaultFilenamePattern = "%s.zml";
+
+	private static class CacheEntry {
+		final MetaModel metaModel;
+		final long weight;
+
+		CacheEntry(MetaModel metaModel) {
+			this.metaModel = metaModel;
+			this.weight = metaModel.getEstimatedWeight();
+		}
+	}
+
+	private final String directory;
+	private final String filenamePattern;
+	private final long maximumWeight;
+	private final Duration timeToLive;
+
+	private final LinkedHashMap<String, CacheEntry> entries;		// in access order
+	private final Map<String, FutureTask<MetaModel>> loadingTasks;
+	private long currentWeight;
+	private long hitCount;
+	private long missCount;
+	private long evictionCount;
+
+	/**
+	 * Constructor.
+	 * @param directory the directory of the saved meta-models
+	 * @param filenamePattern the pattern of the filenames, where %s stands for the stratum group (e.g. "QC_%s_NoChange_AliveVolume_AllSpecies.zml")
+	 * @param maximumWeight the capacity of the cache in bytes
+	 * @param timeToLive the maximum time between two accesses to a meta-model (null to disable this eviction)
+	 */
+	public MetaModelCache(String directory, String filenamePattern, long maximumWeight, Duration timeToLive) {
+		if (directory == null || !new File(directory).isDirectory()) {
+			throw new InvalidParameterException("The directory argument must be an existing directory!");
+		}
+		if (filenamePattern == null || !filenamePattern.contains("%s")) {
+			throw new InvalidParameterException("The filenamePattern argument must contain %s!");
+		}
+		if (maximumWeight <= 0) {
+			throw new InvalidParameterException("The maximumWeight argument must be positive!");
+		}
+		this.directory = directory;
+		this.filenamePattern = filenamePattern;
+		this.maximumWeight = maximumWeight;
+		this.timeToLive = timeToLive;
+		entries = new LinkedHashMap<String, CacheEntry>(16, 0.75f, true);
+		loadingTasks = new HashMap<String, FutureTask<MetaModel>>();
+	}
+
+	/**
+	 * Constructor with the default pattern of the filenames.
+	 * @param directory the directory of the saved meta-models
+	 * @param maximumWeight the capacity of the cache in bytes
+	 * @param timeToLive the maximum time between two accesses to a meta-model (null to disable this eviction)
+	 * @see MetaModelCache#DefaultFilenamePattern
+	 */
+	public MetaModelCache(String directory, long maximumWeight, Duration timeToLive) {
+		this(directory, DefaultFilenamePattern, maximumWeight, timeToLive);
+	}
+
+	/**
+	 * Provide the file of the meta-model of a particular stratum group.
+	 * @param stratumGroup a String that stands for the stratum group
+	 * @return a String
+	 */
+	public String getFilename(String stratumGroup) {
+		return directory + File.separator + String.format(filenamePattern, stratumGroup);
+	}
+
+	/**
+	 * Provide the meta-model of a particular stratum group. The meta-model is loaded if it is not in
+	 * the cache.
+	 * @param stratumGroup a String that stands for the stratum group
+	 * @return a MetaModel instance
+	 * @throws MetaModelException if the meta-model cannot be loaded
+	 */
+	public MetaModel getMetaModel(String stratumGroup) throws MetaModelException {
+		if (stratumGroup == null) {
+			throw new InvalidParameterException("The stratum group cannot be null!");
+		}
+		FutureTask<MetaModel> loadingTask;
+		boolean isLoadingThread = false;
+		synchronized (this) {
+			LocalDateTime now = LocalDateTime.now();
+			evictExpiredEntries(now);
+			CacheEntry entry = entries.get(stratumGroup);
+			if (entry != null) {
+				hitCount++;
+				entry.metaModel.setLastAccessed(now);
+				return entry.metaModel;
+			}
+			missCount++;
+			loadingTask = loadingTasks.get(stratumGroup);
+			if (loadingTask == null) {
+				final String filename = getFilename(stratumGroup);
+				loadingTask = new FutureTask<MetaModel>(new Callable<MetaModel>() {
+					@Override
+					public MetaModel call() throws Exception {
+						return MetaModel.Load(filename);
+					}
+				});
+				loadingTasks.put(stratumGroup, loadingTask);
+				isLoadingThread = true;
+			}
+		}
+		if (isLoadingThread) {
+			loadingTask.run();	// the other threads wait for this one
+		}
+		try {
+			MetaModel metaModel = loadingTask.get();
+			if (isLoadingThread) {
+				synchronized (this) {
+					loadingTasks.remove(stratumGroup);
+					metaModel.setLastAccessed(LocalDateTime.now());
+					add(stratumGroup, metaModel);
+				}
+			}
+			return metaModel;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new MetaModelException("The loading of the meta-model has been interrupted: " + stratumGroup);
+		} catch (ExecutionException e) {
+			if (isLoadingThread) {
+				synchronized (this) {
+					loadingTasks.remove(stratumGroup);
+				}
+			}
+			throw new MetaModelException("The meta-model of this stratum group cannot be loaded: " + stratumGroup + " - " + e.getCause().getMessage());
+		}
+	}
+
+	/**
+	 * Compute and return the prediction generated from the meta-model of a particular stratum group.
+	 * @param stratumGroup a String that stands for the stratum group
+	 * @param ageYr the age of the stratum (yr)
+	 * @param timeSinceInitialDateYr the time since the initial date (yr)
+	 * @return a double
+	 * @throws MetaModelException if the meta-model cannot be loaded or if it has not converged
+	 * @see MetaModel#getPrediction(int, int)
+	 */
+	public double getPrediction(String stratumGroup, int ageYr, int timeSinceInitialDateYr) throws MetaModelException {
+		return getMetaModel(stratumGroup).getPrediction(ageYr, timeSinceInitialDateYr);
+	}
+
+	/**
+	 * Add a meta-model to the cache. A meta-model already in the cache for this stratum group is replaced.
+	 * @param stratumGroup a String that stands for the stratum group
+	 * @param metaModel a MetaModel instance
+	 */
+	public synchronized void put(String stratumGroup, MetaModel metaModel) {
+		if (stratumGroup == null || metaModel == null) {
+			throw new InvalidParameterException("The stratumGroup and metaModel arguments cannot be null!");
+		}
+		if (metaModel.getLastAccessed() == null) {
+			metaModel.setLastAccessed(LocalDateTime.now());
+		}
+		add(stratumGroup, metaModel);
+	}
+
+	private void add(String stratumGroup, MetaModel metaModel) {
+		CacheEntry formerEntry = entries.put(stratumGroup, new CacheEntry(metaModel));
+		if (formerEntry != null) {
+			currentWeight -= formerEntry.weight;
+		}
+		currentWeight += entries.get(stratumGroup).weight;
+		evictEntriesBeyondCapacity(stratumGroup);
+	}
+
+	/**
+	 * Evict the least recently accessed meta-models until the weight is within the capacity. The
+	 * meta-model that has just been added is kept even if its own weight exceeds the capacity.
+	 */
+	private void evictEntriesBeyondCapacity(String stratumGroupToKeep) {
+		Iterator<Map.Entry<String, CacheEntry>> iter = entries.entrySet().iterator();
+		while (currentWeight > maximumWeight && iter.hasNext()) {
+			Map.Entry<String, CacheEntry> eldest = iter.next();
+			if (!eldest.getKey().equals(stratumGroupToKeep)) {
+				iter.remove();
+				currentWeight -= eldest.getValue().weight;
+				evictionCount++;
+			}
+		}
+	}
+
+	/**
+	 * Evict the meta-models whose last access is older than the time to live. The entries are in
+	 * access order, so that the loop stops at the first meta-model that has not expired.
+	 */
+	private void evictExpiredEntries(LocalDateTime now) {
+		if (timeToLive != null) {
+			LocalDateTime threshold = now.minus(timeToLive);
+			Iterator<CacheEntry> iter = entries.values().iterator();
+			while (iter.hasNext()) {
+				CacheEntry entry = iter.next();
+				LocalDateTime lastAccessed = entry.metaModel.getLastAccessed();
+				if (lastAccessed != null && lastAccessed.isBefore(threshold)) {
+					iter.remove();
+					currentWeight -= entry.weight;
+					evictionCount++;
+				} else {
+					break;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Evict the meta-models whose last access is older than the time to live. This is done
+	 * automatically on each request. This method makes it possible to release the memory
+	 * when there is no request.
+	 */
+	public synchronized void evictExpiredEntries() {
+		evictExpiredEntries(LocalDateTime.now());
+	}
+
+	/**
+	 * Remove the meta-model of a particular stratum group from the cache. This removal is
+	 * not counted as an eviction.
+	 * @param stratumGroup a String that stands for the stratum group
+	 */
+	public synchronized void invalidate(String stratumGroup) {
+		CacheEntry entry = entries.remove(stratumGroup);
+		if (entry != null) {
+			currentWeight -= entry.weight;
+		}
+	}
+
+	/**
+	 * Remove all the meta-models from the cache. The counters are not reset.
+	 */
+	public synchronized void clear() {
+		entries.clear();
+		currentWeight = 0;
+	}
+
+	/**
+	 * Check whether the meta-model of a particular stratum group is in the cache.
+	 * @param stratumGroup a String that stands for the stratum group
+	 * @return a boolean
+	 */
+	public synchronized boolean contains(String stratumGroup) {
+		return entries.containsKey(stratumGroup);
+	}
+
+	/**
+	 * Provide the number of meta-models in the cache.
+	 * @return an integer
+	 */
+	public synchronized int size() {return entries.size();}
+
+	/**
+	 * Provide the estimated weight of the meta-models in the cache.
+	 * @return the weight in bytes
+	 */
+	public synchronized long getWeight() {return currentWeight;}
+
+	/**
+	 * Provide the capacity of the cache.
+	 * @return the weight in bytes
+	 */
+	public long getMaximumWeight() {return maximumWeight;}
+
+	/**
+	 * Provide the number of requests that found the meta-model in the cache.
+	 * @return a long
+	 */
+	public synchronized long getHitCount() {return hitCount;}
+
+	/**
+	 * Provide the number of requests that did not find the meta-model in the cache.
+	 * @return a long
+	 */
+	public synchronized long getMissCount() {return missCount;}
+
+	/**
+	 * Provide the number of meta-models that were evicted because of the capacity or the time to live.
+	 * @return a long
+	 */
+	public synchronized long getEvictionCount() {return evictionCount;}
+}
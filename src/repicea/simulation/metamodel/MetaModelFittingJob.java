@@ -0,0 +1,306 @@
+/*
+ * This file is part of the repicea library.
+ *
+ * Copyright (C) 2009-2021 Mathieu Fortin for Rouge Epicea.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed with the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * Please see the license at http://www.gnu.org/copyleft/lesser.html.
+ */
+package repicea.simulation.metamodel;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinTask;
+import java.util.logging.Level;
+
+import repicea.simulation.metamodel.MetaModel.ModelImplEnum;
+import repicea.util.REpiceaLogManager;
+
+/**
+ * The MetaModelFittingJob class monitors the fit of many meta-models on the
+ * scheduler of the MetaModelManager class. <br>
+ * <br>
+ * Each task of the job is the fit of one model implementation for one stratum group.
+ * The job provides the status, the progress and the elapsed time of each task and it
+ * can be cancelled at any time.
+ */
+public final class MetaModelFittingJob {
+
+	/**
+	 * The status of a task.
+	 */
+	public static enum TaskStatus {
+		/**
+		 * The task has not started yet.
+		 */
+		Pending,
+		/**
+		 * The model implementation is being fitted.
+		 */
+		Running,
+		/**
+		 * The fit is over and the model implementation has converged.
+		 */
+		Converged,
+		/**
+		 * The fit is over but the model implementation has not converged.
+		 */
+		NotConverged,
+		/**
+		 * The task has been cancelled.
+		 */
+		Cancelled;
+	}
+
+	/**
+	 * The progress of the fit of a model implementation for a particular stratum group.
+	 */
+	public static final class TaskProgress {
+
+		private final String stratumGroup;
+		private final ModelImplEnum modelImplementation;
+		private volatile TaskStatus status;
+		private volatile long startTimeMillis;
+		private volatile long endTimeMillis;
+		private AbstractModelImplementation ami;
+
+		private TaskProgress(String stratumGroup, ModelImplEnum modelImplementation) {
+			this.stratumGroup = stratumGroup;
+			this.modelImplementation = modelImplementation;
+			status = TaskStatus.Pending;
+		}
+
+		/**
+		 * Provide the stratum group of this task.
+		 * @return a String
+		 */
+		public String getStratumGroup() {return stratumGroup;}
+
+		/**
+		 * Provide the model implementation of this task.
+		 * @return a ModelImplEnum enum
+		 */
+		public ModelImplEnum getModelImplementation() {return modelImplementation;}
+
+		/**
+		 * Provide the status of this task.
+		 * @return a TaskStatus enum
+		 */
+		public TaskStatus getStatus() {return status;}
+
+		/**
+		 * Provide the time elapsed since the start of this task or its
+		 * duration if it is over.
+		 * @return the time in milliseconds
+		 */
+		public long getElapsedTimeMillis() {
+			long start = startTimeMillis;
+			if (start == 0) {
+				return 0;
+			} else {
+				long end = endTimeMillis;
+				return end == 0 ? System.currentTimeMillis() - start : end - start;
+			}
+		}
+
+		/**
+		 * Provide the proportion of the iterations of the Metropolis-Hastings algorithm
+		 * that have been processed.
+		 * @return a double between 0 and 1
+		 */
+		public double getProgress() {
+			AbstractModelImplementation model;
+			synchronized (this) {
+				model = ami;
+			}
+			if (status == TaskStatus.Converged || status == TaskStatus.NotConverged) {
+				return 1d;
+			} else {
+				return model == null ? 0d : model.mh.getProgress();
+			}
+		}
+
+		/**
+		 * Fit the model implementation unless the task has been cancelled.
+		 * @param ami the AbstractModelImplementation instance to be fitted
+		 */
+		void run(AbstractModelImplementation ami) {
+			synchronized (this) {
+				if (status == TaskStatus.Cancelled) {
+					return;
+				}
+				this.ami = ami;
+				startTimeMillis = System.currentTimeMillis();
+				status = TaskStatus.Running;
+			}
+			try {
+				ami.run();
+			} finally {
+				endTimeMillis = System.currentTimeMillis();
+				if (ami.mh.isCancelled()) {
+					status = TaskStatus.Cancelled;
+				} else {
+					status = ami.hasConverged() ? TaskStatus.Converged : TaskStatus.NotConverged;
+				}
+			}
+		}
+
+		synchronized void cancel() {
+			if (status == TaskStatus.Pending) {
+				status = TaskStatus.Cancelled;
+			} else if (status == TaskStatus.Running) {
+				ami.mh.cancel();
+			}
+		}
+
+		@Override
+		public String toString() {
+			return stratumGroup + " - " + modelImplementation.name() + ": " + status.name();
+		}
+	}
+
+	private final Map<String, Map<ModelImplEnum, TaskProgress>> taskProgressMap;
+	private final List<TaskProgress> taskProgressList;
+	private final Map<String, ForkJoinTask<?>> stratumTasks;
+	private volatile boolean cancelled;
+
+	/**
+	 * Constructor.
+	 * @param stratumGroups the stratum groups whose meta-models are to be fitted
+	 * @param modelImplementations the model implementations to be fitted for each stratum group
+	 */
+	MetaModelFittingJob(Collection<String> stratumGroups, List<ModelImplEnum> modelImplementations) {
+		taskProgressMap = new LinkedHashMap<String, Map<ModelImplEnum, TaskProgress>>();
+		List<TaskProgress> tasks = new ArrayList<TaskProgress>();
+		for (String stratumGroup : stratumGroups) {
+			Map<ModelImplEnum, TaskProgress> innerMap = new LinkedHashMap<ModelImplEnum, TaskProgress>();
+			for (ModelImplEnum modelImplementation : modelImplementations) {
+				TaskProgress progress = new TaskProgress(stratumGroup, modelImplementation);
+				innerMap.put(modelImplementation, progress);
+				tasks.add(progress);
+			}
+			taskProgressMap.put(stratumGroup, innerMap);
+		}
+		taskProgressList = Collections.unmodifiableList(tasks);
+		stratumTasks = new LinkedHashMap<String, ForkJoinTask<?>>();
+	}
+
+	void addStratumTask(String stratumGroup, ForkJoinTask<?> task) {
+		synchronized (stratumTasks) {
+			stratumTasks.put(stratumGroup, task);
+		}
+	}
+
+	private Map<String, ForkJoinTask<?>> getStratumTasks() {
+		synchronized (stratumTasks) {
+			return new LinkedHashMap<String, ForkJoinTask<?>>(stratumTasks);
+		}
+	}
+
+	TaskProgress getTaskProgress(String stratumGroup, ModelImplEnum modelImplementation) {
+		Map<ModelImplEnum, TaskProgress> innerMap = taskProgressMap.get(stratumGroup);
+		return innerMap != null ? innerMap.get(modelImplementation) : null;
+	}
+
+	/**
+	 * Provide the tasks of this job. There is one task per stratum group and model implementation.
+	 * @return an unmodifiable List of TaskProgress instances
+	 */
+	public List<TaskProgress> getTasks() {
+		return taskProgressList;
+	}
+
+	/**
+	 * Provide the overall progress of this job.
+	 * @return a double between 0 and 1
+	 */
+	public double getProgress() {
+		if (taskProgressList.isEmpty()) {
+			return 1d;
+		}
+		double sum = 0d;
+		for (TaskProgress progress : taskProgressList) {
+			sum += progress.getProgress();
+		}
+		return sum / taskProgressList.size();
+	}
+
+	/**
+	 * Cancel this job. The tasks that have not started are skipped and the running
+	 * tasks stop at the next iteration of their Metropolis-Hastings algorithm. The
+	 * meta-models of this job are then considered as not converged.
+	 */
+	public void cancel() {
+		cancelled = true;
+		for (TaskProgress progress : taskProgressList) {
+			progress.cancel();
+		}
+	}
+
+	/**
+	 * Check whether this job has been cancelled.
+	 * @return a boolean
+	 */
+	public boolean isCancelled() {
+		return cancelled;
+	}
+
+	/**
+	 * Check whether all the tasks of this job are over.
+	 * @return a boolean
+	 */
+	public boolean isDone() {
+		for (ForkJoinTask<?> task : getStratumTasks().values()) {
+			if (!task.isDone()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Wait until all the tasks of this job are over. If the job has been cancelled, this
+	 * method returns once the running tasks have stopped. <br>
+	 * <br>
+	 * The failure of a stratum group does not stop the others. Once all the tasks are over, 
+	 * the failures are logged and the first one is thrown.
+	 * @throws InterruptedException if the calling thread is interrupted while waiting
+	 * @throws MetaModelException if the fit of a stratum group has thrown an exception 
+	 */
+	public void await() throws InterruptedException, MetaModelException {
+		String failedStratumGroup = null;
+		Throwable failure = null;
+		for (Map.Entry<String, ForkJoinTask<?>> entry : getStratumTasks().entrySet()) {
+			try {
+				entry.getValue().get();
+			} catch (ExecutionException e) {
+				REpiceaLogManager.logMessage(MetaModelManager.LoggerName, Level.SEVERE, "Meta-model " + entry.getKey(), 
+						"The fit has failed: " + e.getCause());
+				if (failure == null) {
+					failedStratumGroup = entry.getKey();
+					failure = e.getCause();
+				}
+			}
+		}
+		if (failure != null) {
+			MetaModelException exception = new MetaModelException("The fit of the meta-model for this stratum group has failed: " + failedStratumGroup);
+			exception.initCause(failure);
+			throw exception;
+		}
+	}
+}
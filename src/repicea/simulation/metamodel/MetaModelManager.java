@@ -24,8 +24,9 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ForkJoinPool;
 
 import repicea.app.JSONConfigurationGlobal;
 import repicea.app.REpiceaJSONConfiguration;
@@ -56,6 +57,25 @@ public class MetaModelManager extends ConcurrentHashMap<String, MetaModel> imple
 	
 	protected static String LoggerName = MetaModelManager.class.getName();
 
+	private static ForkJoinPool Scheduler;
+	
+	/**
+	 * Provide the work-stealing scheduler that fits the meta-models. Its number of threads is the 
+	 * processingMaxThreads entry of the global configuration, which is the core budget of all
+	 * the fits. The scheduler is replaced if this entry has changed since its creation. 
+	 * @return a ForkJoinPool instance
+	 */
+	static synchronized ForkJoinPool getScheduler() {
+		int nbThreads = (int) Math.max(1L, (long) JSONConfigurationGlobal.getInstance().get(REpiceaJSONConfiguration.processingMaxThreads, 2L));
+		if (Scheduler == null || Scheduler.getParallelism() != nbThreads) {
+			if (Scheduler != null) {
+				Scheduler.shutdown();	// the tasks already submitted are completed 
+			}
+			Scheduler = new ForkJoinPool(nbThreads);
+		}
+		return Scheduler;
+	}
+
 	/**
 	 * Constructor.
 	 */
@@ -93,9 +113,9 @@ public class MetaModelManager extends ConcurrentHashMap<String, MetaModel> imple
 	}
 	
 	/**
-	 * Fit all the meta-models.
+	 * Fit all the meta-models. All the model implementations are fitted.
 	 * @param outputType the output type to which the model is to be fitted
-	 * @param modImpl an implementation for the meta-model.
+	 * @param modImpl an implementation for the meta-model (not used).
 	 * @throws an ExtMetaModelException if one of the models has not converged.
 	 */
 	public void fitMetaModels(String outputType, ModelImplEnum modImpl) throws MetaModelException {
@@ -130,42 +150,85 @@ public class MetaModelManager extends ConcurrentHashMap<String, MetaModel> imple
 	}
 	
 	/**
-	 * Fit the meta-models identified in the stratumGroups argument.
+	 * Fit the meta-models identified in the stratumGroups argument. <br>
+	 * <br>
+	 * All the model implementations, including those with random effects, are fitted and the 
+	 * best one is selected. The modImpl argument is not used. To fit a single implementation, 
+	 * use the submitMetaModelFitting(Collection, String, ModelImplEnum) method.
 	 * @param stratumGroups a Collection of stratum group ids
 	 * @param outputType the output type to which the model is to be fitted
-	 * @param modImpl an implementation for the meta-model.
+	 * @param modImpl an implementation for the meta-model (not used).
 	 * @throws an ExtMetaModelException if one of the models has not converged.
+	 * @see MetaModelManager#submitMetaModelFitting(Collection, String, boolean)
+	 * @see MetaModelManager#submitMetaModelFitting(Collection, String, ModelImplEnum)
 	 */
 	public void fitMetaModels(Collection<String> stratumGroups, String outputType, ModelImplEnum modImpl) throws MetaModelException {
-		
-		int NbWorkers = (int)((long) JSONConfigurationGlobal.getInstance().get(REpiceaJSONConfiguration.processingMaxThreads, 2L));
-		
-		// there is no point in creating more worker threads than there are stratumGroups, so limit their number if needed
-		NbWorkers = NbWorkers > stratumGroups.size() ? stratumGroups.size() : NbWorkers; 
-		
+		MetaModelFittingJob job = submitMetaModelFitting(stratumGroups, outputType, true);  // true : enabled mixed model implementation
 		try {
-			LinkedBlockingQueue queue = new LinkedBlockingQueue();
-			List<MetaModelManagerWorker> workers = new ArrayList<MetaModelManagerWorker>();
-			for (int i = 0; i < NbWorkers; i++) {
-				workers.add(new MetaModelManagerWorker(i, queue, outputType, modImpl));
-			}
-			
-			for (String stratumGroup : stratumGroups) {
-				MetaModel metaModel = get(stratumGroup);
-				queue.add(metaModel);
-			}
-			
-			for (int i = 0; i < NbWorkers; i++) {
-				queue.add(MetaModelManagerWorker.FinishToken);
-			}
-			for (MetaModelManagerWorker t : workers) {
-				t.join();
-			}
+			job.await();
 		} catch (InterruptedException e) {
+			job.cancel();
 			throw new MetaModelException(e.getMessage());
 		}
 	}
 	
+	/**
+	 * Submit the fit of the meta-models identified in the stratumGroups argument and return 
+	 * without waiting. <br>
+	 * <br>
+	 * All the meta-models are fitted on a single work-stealing scheduler. The fit of a stratum group, 
+	 * those of its model implementations and the chains of their Metropolis-Hastings algorithm are 
+	 * all tasks of this scheduler, so that the idle threads take over the work of the busy ones 
+	 * whatever the stratum group. The number of threads is set by the processingMaxThreads entry 
+	 * of the global configuration.
+	 * @param stratumGroups a Collection of stratum group ids
+	 * @param outputType the output type to which the models are to be fitted
+	 * @param enableMixedModelImplementations true to include the implementations with random effects
+	 * @return a MetaModelFittingJob instance that monitors the fit and that can cancel it
+	 * @throws MetaModelException if a stratum group does not exist
+	 */
+	public MetaModelFittingJob submitMetaModelFitting(Collection<String> stratumGroups, String outputType, boolean enableMixedModelImplementations) throws MetaModelException {
+		return submitMetaModelFitting(stratumGroups, outputType, MetaModel.getImplementationsToBeFitted(enableMixedModelImplementations));
+	}
+
+	/**
+	 * Submit the fit of a single model implementation for the meta-models identified in the 
+	 * stratumGroups argument and return without waiting. 
+	 * @param stratumGroups a Collection of stratum group ids
+	 * @param outputType the output type to which the models are to be fitted
+	 * @param modImpl the model implementation to be fitted
+	 * @return a MetaModelFittingJob instance that monitors the fit and that can cancel it
+	 * @throws MetaModelException if a stratum group does not exist
+	 * @see MetaModelManager#submitMetaModelFitting(Collection, String, boolean)
+	 */
+	public MetaModelFittingJob submitMetaModelFitting(Collection<String> stratumGroups, String outputType, ModelImplEnum modImpl) throws MetaModelException {
+		if (modImpl == null) {
+			throw new InvalidParameterException("The modImpl argument cannot be null!");
+		}
+		return submitMetaModelFitting(stratumGroups, outputType, Collections.singletonList(modImpl));
+	}
+
+	private MetaModelFittingJob submitMetaModelFitting(Collection<String> stratumGroups, String outputType, List<ModelImplEnum> implementations) throws MetaModelException {
+		List<MetaModel> metaModels = new ArrayList<MetaModel>();
+		for (String stratumGroup : stratumGroups) {
+			if (!containsKey(stratumGroup)) {
+				throw new MetaModelException("The meta model for this stratum group does not exist: " + stratumGroup);
+			}
+			metaModels.add(get(stratumGroup));
+		}
+		MetaModelFittingJob job = new MetaModelFittingJob(stratumGroups, implementations);
+		ForkJoinPool scheduler = getScheduler();
+		for (MetaModel metaModel : metaModels) {
+			job.addStratumTask(metaModel.getStratumGroup(), scheduler.submit(new Callable<Boolean>() {
+				@Override
+				public Boolean call() {
+					return metaModel.fitModel(outputType, implementations, job);
+				}
+			}));
+		}
+		return job;
+	}
+	
 	/**
 	 * Compute and return the prediction generated from a particular meta-model.
 	 * @param stratumGroup a String that stands for the stratum group
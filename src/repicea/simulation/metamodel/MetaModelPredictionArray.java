@@ -0,0 +1,113 @@
+/*
+ * This file is part of the repicea library.
+ *
+ * Copyright (C) 2009-2021 Mathieu Fortin for Rouge Epicea.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed with the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * Please see the license at http://www.gnu.org/copyleft/lesser.html.
+ */
+package repicea.simulation.metamodel;
+
+import java.util.LinkedHashMap;
+
+/**
+ * The MetaModelPredictionArray class holds the Monte Carlo predictions of a meta-model
+ * in a flat primitive array. The predictions are ordered by realization, then by subject
+ * and finally by age.
+ */
+public final class MetaModelPredictionArray {
+
+	private final int nbRealizations;
+	private final int nbSubjects;
+	private final int[] ageYr;
+	final double[] values;
+
+	MetaModelPredictionArray(int nbRealizations, int nbSubjects, int[] ageYr) {
+		this.nbRealizations = nbRealizations;
+		this.nbSubjects = nbSubjects;
+		this.ageYr = ageYr.clone();
+		values = new double[nbRealizations * nbSubjects * ageYr.length];
+	}
+
+	/**
+	 * Return the number of realizations.
+	 * @return an integer
+	 */
+	public int getNumberOfRealizations() {return nbRealizations;}
+
+	/**
+	 * Return the number of subjects.
+	 * @return an integer
+	 */
+	public int getNumberOfSubjects() {return nbSubjects;}
+
+	/**
+	 * Return the ages for which the predictions were computed.
+	 * @return an array of integers
+	 */
+	public int[] getAgeYr() {return ageYr.clone();}
+
+	/**
+	 * Return the index of a prediction in the array returned by the getValues method.
+	 * @param realization the index of the realization
+	 * @param subject the index of the subject
+	 * @param age the index of the age in the array of ages
+	 * @return an integer
+	 */
+	public int getIndex(int realization, int subject, int age) {
+		return (realization * nbSubjects + subject) * ageYr.length + age;
+	}
+
+	/**
+	 * Return a particular prediction.
+	 * @param realization the index of the realization
+	 * @param subject the index of the subject
+	 * @param age the index of the age in the array of ages
+	 * @return a double
+	 */
+	public double getValueAt(int realization, int subject, int age) {
+		return values[getIndex(realization, subject, age)];
+	}
+
+	/**
+	 * Return the predictions. The array is not a copy and it should not be modified.
+	 * @return an array of doubles
+	 * @see MetaModelPredictionArray#getIndex(int, int, int)
+	 */
+	public double[] getValues() {return values;}
+
+	/**
+	 * Convert the predictions into nested maps whose keys are the realization, the subject and the age.
+	 * @return a LinkedHashMap instance
+	 */
+	public LinkedHashMap<Integer, LinkedHashMap<Integer, LinkedHashMap<Integer, Double>>> toMap() {
+		LinkedHashMap<Integer, LinkedHashMap<Integer, LinkedHashMap<Integer, Double>>> result = new LinkedHashMap<Integer, LinkedHashMap<Integer, LinkedHashMap<Integer, Double>>>();
+		for (int i = 0; i < nbRealizations; i++) {
+			LinkedHashMap<Integer, LinkedHashMap<Integer, Double>> realizationMap = new LinkedHashMap<Integer, LinkedHashMap<Integer, Double>>();
+			result.put(i, realizationMap);
+			for (int j = 0; j < nbSubjects; j++) {
+				realizationMap.put(j, getMapForThisSubject(i, j));
+			}
+		}
+		return result;
+	}
+
+	LinkedHashMap<Integer, Double> getMapForThisSubject(int realization, int subject) {
+		LinkedHashMap<Integer, Double> subjectMap = new LinkedHashMap<Integer, Double>();
+		int offset = getIndex(realization, subject, 0);
+		for (int k = 0; k < ageYr.length; k++) {
+			subjectMap.put(ageYr[k], values[offset + k]);
+		}
+		return subjectMap;
+	}
+}
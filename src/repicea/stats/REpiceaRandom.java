@@ -20,17 +20,121 @@ package repicea.stats;
 
 import java.security.InvalidParameterException;
 import java.util.Random;
+import java.util.SplittableRandom;
 
 import repicea.math.Matrix;
 import repicea.stats.distributions.utility.NegativeBinomialUtility;
 
+/**
+ * The REpiceaRandom class provides random deviates from many distributions. <br>
+ * <br>
+ * The deviates are drawn from a SplittableRandom generator instead of the atomic seed of the 
+ * Random class. An instance must therefore not be shared across threads. The StatisticalUtility.getRandom()
+ * method provides a generator for the current thread. Independent streams can be obtained through the 
+ * split() method.
+ */
 @SuppressWarnings("serial")
 public class REpiceaRandom extends Random {
 	
 	private static final double OneThird = 1d/3;
 	
+	private transient SplittableRandom generator;
+	private transient double nextNextGaussian;
+	private transient boolean haveNextNextGaussian;
+	
 	protected REpiceaRandom() {
-		super();
+		this(new SplittableRandom());
+	}
+
+	/**
+	 * Constructor with a seed. The sequence of deviates is reproducible from this seed. 
+	 * @param seed a long
+	 */
+	public REpiceaRandom(long seed) {
+		this(new SplittableRandom(seed));
+	}
+	
+	REpiceaRandom(SplittableRandom generator) {
+		super(0L);
+		this.generator = generator;
+	}
+
+	private SplittableRandom getGenerator() {
+		if (generator == null) {	// after a deserialization
+			generator = new SplittableRandom();
+		}
+		return generator;
+	}
+	
+	/**
+	 * Return a new generator whose stream is independent of this one. The new generator is
+	 * meant to be used in another thread or for another Monte Carlo realization.
+	 * @return a REpiceaRandom instance
+	 */
+	public REpiceaRandom split() {
+		return new REpiceaRandom(getGenerator().split());
+	}
+
+	@Override
+	public synchronized void setSeed(long seed) {
+		super.setSeed(seed);
+		if (generator != null) {		// the constructor of the Random class calls this method before the generator is set
+			generator = new SplittableRandom(seed);
+			haveNextNextGaussian = false;
+		}
+	}
+
+	@Override
+	protected int next(int bits) {
+		return (int) (getGenerator().nextLong() >>> (64 - bits));
+	}
+
+	@Override
+	public int nextInt() {
+		return getGenerator().nextInt();
+	}
+
+	@Override
+	public int nextInt(int bound) {
+		return getGenerator().nextInt(bound);
+	}
+
+	@Override
+	public long nextLong() {
+		return getGenerator().nextLong();
+	}
+
+	@Override
+	public boolean nextBoolean() {
+		return getGenerator().nextBoolean();
+	}
+
+	@Override
+	public double nextDouble() {
+		return getGenerator().nextDouble();
+	}
+
+	/**
+	 * Return a standard normal deviate. This implementation relies on the polar method as the 
+	 * Random class does, but without synchronization.
+	 */
+	@Override
+	public double nextGaussian() {
+		if (haveNextNextGaussian) {
+			haveNextNextGaussian = false;
+			return nextNextGaussian;
+		} else {
+			double v1, v2, s;
+			do {
+				v1 = 2 * nextDouble() - 1;
+				v2 = 2 * nextDouble() - 1;
+				s = v1 * v1 + v2 * v2;
+			} while (s >= 1 || s == 0);
+			double multiplier = StrictMath.sqrt(-2 * StrictMath.log(s) / s);
+			nextNextGaussian = v2 * multiplier;
+			haveNextNextGaussian = true;
+			return v1 * multiplier;
+		}
 	}
 	
 	private double getRandomGammaForShapeGreaterThanOrEqualToOne(double shape) {
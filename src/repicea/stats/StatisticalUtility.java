@@ -22,6 +22,7 @@ import java.security.InvalidParameterException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Random;
+import java.util.SplittableRandom;
 
 import repicea.math.MathUtility;
 import repicea.math.Matrix;
@@ -32,7 +33,24 @@ import repicea.math.Matrix;
  */
 public final class StatisticalUtility {
 
-	private static REpiceaRandom random;
+	private static final long GoldenGamma = 0x9e3779b97f4a7c15L;
+	
+	private static final Object MasterLock = new Object();
+	private static long MasterSeed = new SplittableRandom().nextLong();
+	private static SplittableRandom MasterGenerator = new SplittableRandom(MasterSeed);
+	private static volatile int MasterGeneration;
+	
+	private static class ThreadRandom {
+		private REpiceaRandom random;
+		private int generation = -1;
+	}
+	
+	private static final ThreadLocal<ThreadRandom> ThreadRandoms = new ThreadLocal<ThreadRandom>() {
+		@Override
+		protected ThreadRandom initialValue() {
+			return new ThreadRandom();
+		}
+	};
 	
 	public static enum TypeMatrixR {
 		LINEAR(2), 
@@ -82,6 +100,43 @@ public final class StatisticalUtility {
 		return mat;
 	}
 	
+	private static void checkAR1Parameters(int size, double rho) {
+		if (size < 1) {
+			throw new InvalidParameterException("The size parameter must be equal to or greater than 1!");
+		}
+		if (rho <= 0 || rho >= 1) {
+			throw new InvalidParameterException("The rho parameter must be greater than 0 and smaller than 1!");
+		}
+	}
+	
+	/**
+	 * This method computes the quadratic form x' inv(R) x, where R is an AR1 correlation matrix, 
+	 * without building the matrix. It requires O(n) operations.
+	 * @param x an array of doubles
+	 * @param rho the correlation between two successive observations
+	 * @return a double
+	 */
+	public static double getQuadraticFormWithInverseCorrelationAR1Matrix(double[] x, double rho) {
+		checkAR1Parameters(x.length, rho);
+		double sumOfSquaredInnovations = 0d;
+		for (int i = 1; i < x.length; i++) {
+			double innovation = x[i] - rho * x[i - 1];
+			sumOfSquaredInnovations += innovation * innovation;
+		}
+		return x[0] * x[0] + sumOfSquaredInnovations / (1d - rho * rho);
+	}
+	
+	/**
+	 * This method returns the logarithm of the determinant of an AR1 correlation matrix.
+	 * @param size the size of the matrix
+	 * @param rho the correlation between two successive observations
+	 * @return a double
+	 */
+	public static double getLogDeterminantOfCorrelationAR1Matrix(int size, double rho) {
+		checkAR1Parameters(size, rho);
+		return (size - 1) * Math.log(1d - rho * rho);
+	}
+	
 	/**
 	 * Construct a within-subject correlation matrix using a variance parameter, a correlation parameter and a column vector of coordinates. <br>
 	 * <br>
@@ -349,14 +404,52 @@ public final class StatisticalUtility {
 
 	
 	/**
-	 * Return a Random generator.
-	 * @return a Random instance
+	 * Return the random generator of the current thread. <br>
+	 * <br>
+	 * Each thread has its own generator, which is split from a master generator the first time
+	 * this method is called in this thread. The instance must not be shared with other threads.
+	 * @return a REpiceaRandom instance
+	 * @see StatisticalUtility#setMasterSeed(long)
 	 */
 	public static REpiceaRandom getRandom() {
-		if (random == null) {
-			random = new REpiceaRandom();
+		ThreadRandom threadRandom = ThreadRandoms.get();
+		int generation = MasterGeneration;
+		if (threadRandom.generation != generation) {
+			synchronized (MasterLock) {
+				threadRandom.random = new REpiceaRandom(MasterGenerator.split());
+				threadRandom.generation = MasterGeneration;
+			}
+		}
+		return threadRandom.random;
+	}
+
+	/**
+	 * Return a random generator for a particular stream, typically a Monte Carlo realization. <br>
+	 * <br>
+	 * The generator depends only on the master seed and the stream index. The results are 
+	 * therefore reproducible regardless of the thread in which the stream is used.
+	 * @param streamIndex the index of the stream
+	 * @return a REpiceaRandom instance
+	 */
+	public static REpiceaRandom getRandom(long streamIndex) {
+		long seed;
+		synchronized (MasterLock) {
+			seed = MasterSeed;
+		}
+		return new REpiceaRandom(new SplittableRandom(seed + streamIndex * GoldenGamma).nextLong());
+	}
+
+	/**
+	 * Reset the master seed. The generators of all the threads are renewed from this seed
+	 * the next time the getRandom() method is called.
+	 * @param seed a long
+	 */
+	public static void setMasterSeed(long seed) {
+		synchronized (MasterLock) {
+			MasterSeed = seed;
+			MasterGenerator = new SplittableRandom(seed);
+			MasterGeneration++;
 		}
-		return random;
 	}
 	
     /**
@@ -0,0 +1,548 @@
+/*
+ * This file is part of the repicea library.
+ *
+ * Copyright (C) 2009-2021 Mathieu Fortin for Rouge-Epicea
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed with the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * Please see the license at http://www.gnu.org/copyleft/lesser.html.
+ */
+package repicea.stats.data;
+
+import java.security.InvalidParameterException;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import repicea.math.Matrix;
+
+/**
+ * The ColumnarDataSet class stores the observations column by column in primitive arrays. <br>
+ * <br>
+ * Each field is stored as an array of integers, an array of doubles or an array of codes
+ * pointing to a dictionary of strings. The type of a field is inferred as the observations
+ * are added: a field starts as an integer field and it is promoted to a double field and then
+ * to a string field when a value that does not fit is found. The resulting types are the same
+ * as those of the DataSet class, except that the values of a string field are kept as they
+ * were read instead of being normalized through a number. <br>
+ * <br>
+ * The row API of the DataSet class is preserved. The Observation instances returned by the
+ * getObservations method are created on demand and changing them does not affect the data set.
+ */
+public class ColumnarDataSet extends DataSet {
+
+	private static final int InitialCapacity = 16;
+
+	/**
+	 * A field stored in primitive arrays.
+	 */
+	private static final class Column {
+
+		private Class<?> type;
+		private int[] intValues;
+		private double[] doubleValues;
+		private BitSet integersInDoubles;		// the integers are converted as such if the field is promoted to a string field
+		private int[] codes;
+		private List<String> dictionary;
+		private Map<String, Integer> dictionaryIndex;
+		private int size;
+
+		private Column(int capacity) {
+			type = Integer.class;
+			intValues = new int[Math.max(capacity, InitialCapacity)];
+		}
+
+		private int getCapacity() {
+			if (type == Integer.class) {
+				return intValues.length;
+			} else if (type == Double.class) {
+				return doubleValues.length;
+			} else {
+				return codes.length;
+			}
+		}
+
+		private void ensureCapacity(int minCapacity) {
+			int capacity = getCapacity();
+			if (minCapacity > capacity) {
+				int newCapacity = Math.max(minCapacity, capacity + (capacity >> 1));
+				if (type == Integer.class) {
+					intValues = Arrays.copyOf(intValues, newCapacity);
+				} else if (type == Double.class) {
+					doubleValues = Arrays.copyOf(doubleValues, newCapacity);
+				} else {
+					codes = Arrays.copyOf(codes, newCapacity);
+				}
+			}
+		}
+
+		private void promoteToDouble() {
+			doubleValues = new double[intValues.length];
+			for (int i = 0; i < size; i++) {
+				doubleValues[i] = intValues[i];
+			}
+			integersInDoubles = new BitSet();
+			integersInDoubles.set(0, size);
+			intValues = null;
+			type = Double.class;
+		}
+
+		private void promoteToString() {
+			int capacity = getCapacity();
+			codes = new int[capacity];
+			dictionary = new ArrayList<String>();
+			dictionaryIndex = new HashMap<String, Integer>();
+			for (int i = 0; i < size; i++) {
+				if (type == Double.class && integersInDoubles.get(i)) {
+					codes[i] = getCode(Integer.toString((int) doubleValues[i]));
+				} else {
+					codes[i] = getCode(get(i).toString());
+				}
+			}
+			intValues = null;
+			doubleValues = null;
+			integersInDoubles = null;
+			type = String.class;
+		}
+
+		private int getCode(String value) {
+			if (value == null) {
+				return -1;
+			}
+			Integer code = dictionaryIndex.get(value);
+			if (code == null) {
+				code = dictionary.size();
+				dictionary.add(value);
+				dictionaryIndex.put(value, code);
+			}
+			return code;
+		}
+
+		/**
+		 * Add a value at the end of the column. If parse is true, the values that are not
+		 * numbers are parsed as in the DataSet.addObservation method. Otherwise, they are
+		 * considered as strings.
+		 */
+		private void add(Object value, boolean parse) {
+			ensureCapacity(size + 1);
+			if (type != String.class) {
+				if (value instanceof Integer) {
+					addInteger((Integer) value);
+					return;
+				} else if (value instanceof Double) {
+					addDouble((Double) value);
+					return;
+				} else if (parse && value != null) {
+					String str = value.toString();
+					if (looksLikeAnInteger(str)) {
+						try {
+							addInteger(Integer.parseInt(str));
+							return;
+						} catch (NumberFormatException e) {}	// beyond the range of integers
+					}
+					try {
+						addDouble(Double.parseDouble(str));
+						return;
+					} catch (NumberFormatException e) {}
+				}
+				promoteToString();
+			}
+			codes[size++] = getCode(value == null ? null : value.toString());
+		}
+
+		/**
+		 * Check the characters before calling Integer.parseInt so that a column of doubles
+		 * does not throw an exception for each value.
+		 */
+		private static boolean looksLikeAnInteger(String str) {
+			int length = str.length();
+			int start = length > 1 && (str.charAt(0) == '-' || str.charAt(0) == '+') ? 1 : 0;
+			if (length == start) {
+				return false;
+			}
+			for (int k = start; k < length; k++) {
+				if (!Character.isDigit(str.charAt(k))) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		private void addInteger(int value) {
+			if (type == Integer.class) {
+				intValues[size++] = value;
+			} else {
+				integersInDoubles.set(size);
+				doubleValues[size++] = value;
+			}
+		}
+
+		private void addDouble(double value) {
+			if (type == Integer.class) {
+				promoteToDouble();
+			}
+			doubleValues[size++] = value;
+		}
+
+		private Object get(int i) {
+			if (type == Integer.class) {
+				return intValues[i];
+			} else if (type == Double.class) {
+				return doubleValues[i];
+			} else {
+				int code = codes[i];
+				return code < 0 ? null : dictionary.get(code);
+			}
+		}
+
+		/**
+		 * Provide the value as it was added. The integers of a double field are returned as Integer instances.
+		 */
+		private Object getOriginalValue(int i) {
+			if (type == Double.class && integersInDoubles.get(i)) {
+				return (int) doubleValues[i];
+			} else {
+				return get(i);
+			}
+		}
+
+		/**
+		 * Add the values of another column at the end of this column. The result is the same
+		 * as if the values had been added one by one.
+		 */
+		private void append(Column other) {
+			ensureCapacity(size + other.size);
+			if (type == Integer.class && other.type == Integer.class) {
+				System.arraycopy(other.intValues, 0, intValues, size, other.size);
+				size += other.size;
+			} else if (type == Double.class && other.type == Double.class) {
+				System.arraycopy(other.doubleValues, 0, doubleValues, size, other.size);
+				for (int k = other.integersInDoubles.nextSetBit(0); k >= 0 && k < other.size; k = other.integersInDoubles.nextSetBit(k + 1)) {
+					integersInDoubles.set(size + k);
+				}
+				size += other.size;
+			} else if (type == String.class && other.type == String.class) {
+				int[] newCodes = new int[other.dictionary.size()];
+				for (int code = 0; code < newCodes.length; code++) {
+					newCodes[code] = getCode(other.dictionary.get(code));
+				}
+				for (int i = 0; i < other.size; i++) {
+					int code = other.codes[i];
+					codes[size++] = code < 0 ? -1 : newCodes[code];
+				}
+			} else {
+				for (int i = 0; i < other.size; i++) {
+					add(other.getOriginalValue(i), false);
+				}
+			}
+		}
+
+		private void set(int i, Object value) {
+			if (type == Integer.class) {
+				intValues[i] = (Integer) value;
+			} else if (type == Double.class) {
+				doubleValues[i] = (Double) value;
+				integersInDoubles.clear(i);
+			} else {
+				codes[i] = getCode((String) value);
+			}
+		}
+
+		private int compare(int i1, int i2) {
+			if (type == Integer.class) {
+				return Integer.compare(intValues[i1], intValues[i2]);
+			} else if (type == Double.class) {
+				return Double.compare(doubleValues[i1], doubleValues[i2]);
+			} else {
+				return codes[i1] == codes[i2] ? 0 : ((String) get(i1)).compareTo((String) get(i2));
+			}
+		}
+
+		private void reorder(Integer[] permutation) {
+			if (type == Integer.class) {
+				int[] newValues = new int[intValues.length];
+				for (int i = 0; i < size; i++) {
+					newValues[i] = intValues[permutation[i]];
+				}
+				intValues = newValues;
+			} else if (type == Double.class) {
+				double[] newValues = new double[doubleValues.length];
+				BitSet newIntegersInDoubles = new BitSet();
+				for (int i = 0; i < size; i++) {
+					newValues[i] = doubleValues[permutation[i]];
+					newIntegersInDoubles.set(i, integersInDoubles.get(permutation[i]));
+				}
+				doubleValues = newValues;
+				integersInDoubles = newIntegersInDoubles;
+			} else {
+				int[] newCodes = new int[codes.length];
+				for (int i = 0; i < size; i++) {
+					newCodes[i] = codes[permutation[i]];
+				}
+				codes = newCodes;
+			}
+		}
+	}
+
+	private final List<Column> columns;
+	private int nbObservations;
+
+	/**
+	 * General constructor.
+	 * @param filename the name of the file to be read
+	 * @param autoLoad true if the file is to be read now
+	 * @see DataSet#DataSet(String, boolean)
+	 */
+	public ColumnarDataSet(String filename, boolean autoLoad) throws Exception {
+		super(filename);
+		columns = new ArrayList<Column>();
+		if (autoLoad) {
+			load();
+		}
+	}
+
+	/**
+	 * An empty dataset ready to be filled with observations.
+	 * @param fieldNames a List of String instances that represent the field names
+	 */
+	public ColumnarDataSet(List<String> fieldNames) {
+		super((String) null);
+		columns = new ArrayList<Column>();
+		for (String fieldName : fieldNames) {
+			addFieldName(fieldName);
+		}
+	}
+
+	/**
+	 * Constructor. Copy the field names and the observations of a DataSet instance.
+	 * @param dataSet a DataSet instance
+	 */
+	public ColumnarDataSet(DataSet dataSet) {
+		this(dataSet.getFieldNames());
+		for (int i = 0; i < dataSet.getNumberOfObservations(); i++) {
+			for (int j = 0; j < columns.size(); j++) {
+				columns.get(j).add(dataSet.getValueAt(i, j), false);
+			}
+			nbObservations++;
+		}
+		indexFieldType();
+	}
+
+	private Column getColumn(int j) {
+		while (columns.size() < fieldNames.size()) {	// the field names can be set directly when loading a file
+			columns.add(new Column(nbObservations));
+		}
+		return columns.get(j);
+	}
+
+	@Override
+	protected Object getValueAt(int i, int j) {
+		checkObservationIndex(i);
+		return getColumn(j).get(i);
+	}
+
+	@Override
+	protected void setValueAt(int i, int j, Object value) {
+		checkObservationIndex(i);
+		if (value.getClass().equals(fieldTypes.get(j)) && value.getClass().equals(getColumn(j).type)) {
+			getColumn(j).set(i, value);
+		}
+	}
+
+	private void checkObservationIndex(int i) {
+		if (i < 0 || i >= nbObservations) {
+			throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + nbObservations);
+		}
+	}
+
+	/**
+	 * {@inheritDoc} <br>
+	 * <br>
+	 * The types are inferred as the observations are added so that this method does not go through the values.
+	 */
+	@Override
+	public void indexFieldType() {
+		fieldTypes.clear();
+		for (int j = 0; j < fieldNames.size(); j++) {
+			setFieldType(j, getColumn(j).type);
+		}
+	}
+
+	@Override
+	public int getNumberOfObservations() {
+		return nbObservations;
+	}
+
+	@Override
+	public void addObservation(Object[] observationFrame) {
+		for (int j = 0; j < fieldNames.size(); j++) {
+			getColumn(j).add(observationFrame[j], true);
+		}
+		nbObservations++;
+	}
+
+	@Override
+	public void addField(String name, Object[] field) {
+		if (field.length != getNumberOfObservations()) {
+			throw new InvalidParameterException("The number of observations in the new field does not match the number of observations in the dataset!");
+		}
+		addFieldName(name);
+		Column column = getColumn(fieldNames.size() - 1);
+		for (int i = 0; i < field.length; i++) {
+			column.add(field[i], false);
+		}
+		setFieldType(fieldNames.size() - 1, column.type);
+	}
+
+	/**
+	 * Add the observations of another ColumnarDataSet instance at the end of this data set. The
+	 * types of the fields are the same as if the observations had been added one by one. The 
+	 * indexFieldType method should be called afterwards.
+	 * @param dataSet a ColumnarDataSet instance with the same number of fields
+	 */
+	public void append(ColumnarDataSet dataSet) {
+		if (dataSet.fieldNames.size() != fieldNames.size()) {
+			throw new InvalidParameterException("The number of fields of the data set to be appended does not match the number of fields of this data set!");
+		}
+		for (int j = 0; j < fieldNames.size(); j++) {
+			getColumn(j).append(dataSet.getColumn(j));
+		}
+		nbObservations += dataSet.nbObservations;
+	}
+
+	@Override
+	protected void clearObservations() {
+		columns.clear();
+		nbObservations = 0;
+	}
+
+	/**
+	 * {@inheritDoc} <br>
+	 * <br>
+	 * The sort is stable and it relies on the primitive values.
+	 */
+	@Override
+	public void sortObservations(final List<Integer> fieldIndices) {
+		Integer[] permutation = new Integer[nbObservations];
+		for (int i = 0; i < nbObservations; i++) {
+			permutation[i] = i;
+		}
+		Arrays.sort(permutation, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer i1, Integer i2) {
+				for (Integer j : fieldIndices) {
+					int comparisonResult = getColumn(j).compare(i1, i2);
+					if (comparisonResult != 0) {
+						return comparisonResult;
+					}
+				}
+				return 0;
+			}
+		});
+		for (int j = 0; j < fieldNames.size(); j++) {
+			getColumn(j).reorder(permutation);
+		}
+	}
+
+	/**
+	 * {@inheritDoc} <br>
+	 * <br>
+	 * For integer and double fields, the values are read directly from the array of the column
+	 * and the returned vector is a copy.
+	 */
+	@Override
+	protected Matrix getVectorOfThisField(int j) {
+		Column column = getColumn(j);
+		if (column.type == Double.class) {
+			Matrix output = new Matrix(nbObservations, 1);
+			for (int i = 0; i < nbObservations; i++) {
+				output.setValueAt(i, 0, column.doubleValues[i]);
+			}
+			return output;
+		} else if (column.type == Integer.class) {
+			Matrix output = new Matrix(nbObservations, 1);
+			for (int i = 0; i < nbObservations; i++) {
+				output.setValueAt(i, 0, column.intValues[i]);
+			}
+			return output;
+		} else {
+			return super.getVectorOfThisField(j);
+		}
+	}
+
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	@Override
+	protected List getPossibleValuesInThisField(int j) {
+		Column column = getColumn(j);
+		if (column.type == String.class) {
+			boolean[] isPresent = new boolean[column.dictionary.size()];
+			boolean isNullPresent = false;
+			for (int i = 0; i < nbObservations; i++) {
+				int code = column.codes[i];
+				if (code < 0) {
+					isNullPresent = true;
+				} else {
+					isPresent[code] = true;
+				}
+			}
+			List possibleValues = new ArrayList();
+			for (int code = 0; code < isPresent.length; code++) {
+				if (isPresent[code]) {
+					possibleValues.add(column.dictionary.get(code));
+				}
+			}
+			Collections.sort(possibleValues);
+			if (isNullPresent) {
+				possibleValues.add(null);
+			}
+			return possibleValues;
+		} else {
+			TreeSet possibleValues = new TreeSet();
+			for (int i = 0; i < nbObservations; i++) {
+				possibleValues.add(column.get(i));
+			}
+			return new ArrayList(possibleValues);
+		}
+	}
+
+	/**
+	 * {@inheritDoc} <br>
+	 * <br>
+	 * The Observation instances are created on demand.
+	 */
+	@Override
+	public List<Observation> getObservations() {
+		return new AbstractList<Observation>() {
+			@Override
+			public Observation get(int i) {
+				checkObservationIndex(i);
+				Object[] values = new Object[fieldNames.size()];
+				for (int j = 0; j < values.length; j++) {
+					values[j] = getColumn(j).get(i);
+				}
+				return new Observation(values);
+			}
+
+			@Override
+			public int size() {
+				return nbObservations;
+			}
+		};
+	}
+}
@@ -121,7 +121,7 @@ public class DataSet implements Saveable, REpiceaUIObject {
 		}
 	}
 
-	protected final void setValueAt(int i, int j, Object value) {
+	protected void setValueAt(int i, int j, Object value) {
 		if (value.getClass().equals(fieldTypes.get(j))) {
 			observations.get(i).values.remove(j);
 			observations.get(i).values.add(j, value);
@@ -155,7 +155,7 @@ public class DataSet implements Saveable, REpiceaUIObject {
 		}
 	}
 
-	private void setFieldType(int fieldIndex, Class clazz) {
+	protected void setFieldType(int fieldIndex, Class clazz) {
 		if (fieldIndex < fieldTypes.size()) {
 			fieldTypes.set(fieldIndex, clazz);	
 		} else if (fieldIndex == fieldTypes.size()) {
@@ -252,8 +252,8 @@ public class DataSet implements Saveable, REpiceaUIObject {
 
 
 	protected Matrix getVectorOfThisField(int j) {
-		Matrix output = new Matrix(observations.size(), 1);
-		for (int i = 0; i < observations.size(); i++) {
+		Matrix output = new Matrix(getNumberOfObservations(), 1);
+		for (int i = 0; i < getNumberOfObservations(); i++) {
 			output.setValueAt(i, 0, ((Number) getValueAt(i,j)).doubleValue());
 		}
 		return output;
@@ -270,7 +270,7 @@ public class DataSet implements Saveable, REpiceaUIObject {
 	@SuppressWarnings({ "rawtypes", "unchecked" })
 	protected List getPossibleValuesInThisField(int j) {
 		List possibleValues = new ArrayList();
-		for (int i = 0; i < observations.size(); i++) {
+		for (int i = 0; i < getNumberOfObservations(); i++) {
 			Object value = getValueAt(i,j);
 			if (!possibleValues.contains(value)) {
 				possibleValues.add(value);
@@ -296,7 +296,7 @@ public class DataSet implements Saveable, REpiceaUIObject {
 		observations.add(new Observation(observationFrame));
 	}
 	
-	private void addFieldName(String originalName) {
+	protected void addFieldName(String originalName) {
 		int index = 0;
 		String name = originalName;
 		while (fieldNames.contains(name)) {
@@ -307,7 +307,7 @@ public class DataSet implements Saveable, REpiceaUIObject {
 	}
 	
 	public void addField(String name, Object[] field) {
-		if (field.length != observations.size()) {
+		if (field.length != getNumberOfObservations()) {
 			throw new InvalidParameterException("The number of observations in the new field does not match the number of observations in the dataset!");
 		}
 		addFieldName(name);
@@ -331,7 +331,7 @@ public class DataSet implements Saveable, REpiceaUIObject {
 			GExportFieldDetails exportField;
 			List<FormatField> headerFields = new ArrayList<FormatField>();
 			Object[] record;
-			for (int i = 0; i < observations.size(); i++) {
+			for (int i = 0; i < getNumberOfObservations(); i++) {
 				record = new Object[fieldNames.size()];
 				for (int j = 0; j < fieldNames.size(); j++) {
 					record[j] = getValueAt(i,j);
@@ -352,9 +352,9 @@ public class DataSet implements Saveable, REpiceaUIObject {
 	}
 
 	
-	private void load() throws Exception {
+	protected void load() throws Exception {
 		fieldNames.clear();
-		observations.clear();
+		clearObservations();
 
 		try {
 			FormatReader<?> reader = FormatReader.createFormatReader(originalFilename);
@@ -364,19 +364,14 @@ public class DataSet implements Saveable, REpiceaUIObject {
 				fieldNames.add(field.getName());
 			}
 
-			int nbRecords = reader.getRecordCount();
-			int recordsRead = 0;
-			
 //			firePropertyChange(REpiceaProgressBarDialog.LABEL, 0d, MessageID.ReadingFileMessage.toString());
 			
 			Object[] lineRead = reader.nextRecord();
 			while (lineRead != null) {
 				addObservation(lineRead);
-				recordsRead++;
-				int progress = (int) ((recordsRead * 100d) / nbRecords);
-//				firePropertyChange(REpiceaProgressBarDialog.PROGRESS, recordsRead, progress);
 				lineRead = reader.nextRecord();
 			}
+			reader.close();
 			
 			indexFieldType();
 			
@@ -386,6 +381,13 @@ public class DataSet implements Saveable, REpiceaUIObject {
 		}
 	}
 
+	/**
+	 * Remove all the observations before the file is read.
+	 */
+	protected void clearObservations() {
+		observations.clear();
+	}
+
 	private void parseDifferentFields(Object[] lineRead) {
 		for (int i = 0; i < fieldNames.size(); i++) {
 			try {
@@ -457,7 +459,7 @@ public class DataSet implements Saveable, REpiceaUIObject {
 			maxLength = 100;
 		}
 		for (int i = 0; i < maxLength; i++) {
-			output += "\n" + Arrays.toString(getObservations().get(i).values.toArray());
+			output += "\n" + Arrays.toString(getObservations().get(i).toArray());
 		}
 		if (exceeds) {
 			output += "\n" + "Only " + maxLength + " out of " + getNumberOfObservations() + " observations printed!";
@@ -472,8 +474,8 @@ public class DataSet implements Saveable, REpiceaUIObject {
 	*/
 	public List<Object> getFieldValues(int i) {
 		List<Object> objs = new ArrayList<Object>();
-		for (Observation obs : observations) {
-			objs.add(obs.values.get(i));
+		for (int j = 0; j < getNumberOfObservations(); j++) {
+			objs.add(getValueAt(j, i));
 		}
 		return objs;
 	}
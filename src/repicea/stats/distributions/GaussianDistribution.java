@@ -18,8 +18,12 @@
  */
 package repicea.stats.distributions;
 
+import java.util.Random;
+
 import repicea.math.Matrix;
 import repicea.stats.CentralMomentsSettable;
+import repicea.stats.Distribution;
+import repicea.stats.StatisticalUtility;
 
 /**
  * This class implements the Gaussian probability density function.
@@ -62,4 +66,47 @@ public class GaussianDistribution extends StandardGaussianDistribution implement
 		super.setVariance(variance);
 	}
 
+	@Override
+	public void scaleVariance(double factor) {
+		super.scaleVariance(factor);
+	}
+
+	/**
+	 * Return a random realization drawn from a particular random generator.
+	 * @param random a Random instance
+	 * @return a Matrix instance
+	 */
+	public Matrix getRandomRealization(Random random) {
+		Matrix standardDeviation = getStandardDeviation();
+		Matrix normalStandardDeviates = StatisticalUtility.drawRandomVector(standardDeviation.m_iRows, Distribution.Type.GAUSSIAN, random);
+		return getMean().add(standardDeviation.multiply(normalStandardDeviates));
+	}
+
+	/**
+	 * Return many random realizations at once. The standard deviates are drawn in a single
+	 * matrix which is then multiplied by the lower triangle of the Cholesky decomposition.
+	 * @param nbRealizations the number of realizations
+	 * @param random a Random instance
+	 * @return a Matrix instance with one realization per column
+	 */
+	public Matrix getRandomRealizations(int nbRealizations, Random random) {
+		Matrix standardDeviation = getStandardDeviation();
+		int nbRows = standardDeviation.m_iRows;
+		Matrix normalStandardDeviates = new Matrix(nbRows, nbRealizations);
+		for (int j = 0; j < nbRealizations; j++) {
+			for (int i = 0; i < nbRows; i++) {
+				normalStandardDeviates.setValueAt(i, j, random.nextGaussian());
+			}
+		}
+		Matrix realizations = standardDeviation.multiply(normalStandardDeviates);
+		Matrix mean = getMean();
+		for (int i = 0; i < nbRows; i++) {
+			double mean_i = mean.getValueAt(i, 0);
+			for (int j = 0; j < nbRealizations; j++) {
+				realizations.setValueAt(i, j, realizations.getValueAt(i, j) + mean_i);
+			}
+		}
+		return realizations;
+	}
+
 }
@@ -21,6 +21,7 @@ package repicea.stats.distributions;
 import java.security.InvalidParameterException;
 
 import repicea.math.Matrix;
+import repicea.math.SymmetricPositiveDefiniteMatrix;
 import repicea.stats.Distribution;
 import repicea.stats.StatisticalUtility;
 import repicea.stats.distributions.utility.GaussianUtility;
@@ -33,6 +34,7 @@ public class StandardGaussianDistribution implements ContinuousDistribution {
 	private Matrix mu;
 	private Matrix sigma2;
 	private Matrix lowerCholTriangle;
+	private transient SymmetricPositiveDefiniteMatrix packedSigma2;
 		
 	/**
 	 * This constructor creates a Gaussian distribution with mean mu 0 and variance 1.
@@ -75,10 +77,22 @@ public class StandardGaussianDistribution implements ContinuousDistribution {
 	 */
 	public Matrix getStandardDeviation() {
 		if (lowerCholTriangle == null) {
-			lowerCholTriangle = getSigma2().getLowerCholTriangle();
+			lowerCholTriangle = getPackedSigma2().getLowerCholTriangle();
 		}
 		return lowerCholTriangle;
 	}
+
+	/**
+	 * This method returns the variance-covariance matrix in a packed format which caches 
+	 * its Cholesky decomposition.
+	 * @return a SymmetricPositiveDefiniteMatrix instance
+	 */
+	protected SymmetricPositiveDefiniteMatrix getPackedSigma2() {
+		if (packedSigma2 == null) {
+			packedSigma2 = new SymmetricPositiveDefiniteMatrix(getSigma2(), false);	// symmetry has already been checked in the setVariance method
+		}
+		return packedSigma2;
+	}
 	
 	@Override
 	public Matrix getMean() {return getMu();}
@@ -99,6 +113,18 @@ public class StandardGaussianDistribution implements ContinuousDistribution {
 		}
 		this.sigma2 = sigma2;
 		lowerCholTriangle = null;
+		packedSigma2 = null;
+	}
+
+	/**
+	 * This method multiplies the variance-covariance matrix by a scalar. Unlike the setVariance method, 
+	 * it does not require a new Cholesky decomposition since the cached one is simply rescaled.
+	 * @param factor a strictly positive double
+	 */
+	protected void scaleVariance(double factor) {
+		getPackedSigma2().scale(factor);
+		sigma2 = sigma2.scalarMultiply(factor);
+		lowerCholTriangle = null;
 	}
 
 	protected Matrix getMu() {return mu;}
@@ -128,8 +154,9 @@ public class StandardGaussianDistribution implements ContinuousDistribution {
 			} else {
 				int k = yValues.m_iRows;
 				Matrix residuals = yValues.subtract(getMu());
-				Matrix invSigma2 = getSigma2().getInverseMatrix();
-				return 1d / (Math.pow(2 * Math.PI, 0.5 * k) * Math.sqrt(getSigma2().getDeterminant())) * Math.exp(- 0.5 * residuals.transpose().multiply(invSigma2).multiply(residuals).getSumOfElements());
+				SymmetricPositiveDefiniteMatrix packedSigma2 = getPackedSigma2();
+				double squaredMahalanobisDistance = residuals.transposeAndMultiply(packedSigma2.solve(residuals)).getValueAt(0, 0);
+				return Math.exp(- 0.5 * (k * Math.log(2 * Math.PI) + packedSigma2.getLogDeterminant() + squaredMahalanobisDistance));
 			}
 		}
 	}
@@ -19,6 +19,7 @@
 package repicea.stats.distributions;
 
 import java.security.InvalidParameterException;
+import java.util.Random;
 
 import repicea.math.Matrix;
 import repicea.stats.StatisticalUtility;
@@ -87,8 +88,17 @@ public class UniformDistribution implements ContinuousDistribution, BoundedDistr
 
 	@Override
 	public Matrix getRandomRealization() {
+		return getRandomRealization(StatisticalUtility.getRandom());
+	}
+
+	/**
+	 * Return a random realization drawn from a particular random generator.
+	 * @param random a Random instance
+	 * @return a Matrix instance
+	 */
+	public Matrix getRandomRealization(Random random) {
 		Matrix diagonalDifference = upperBound.getBoundValue().subtract(lowerBound.getBoundValue()).matrixDiagonal();
-		Matrix deviates = StatisticalUtility.drawRandomVector(getMean().m_iRows, Type.UNIFORM);
+		Matrix deviates = StatisticalUtility.drawRandomVector(getMean().m_iRows, Type.UNIFORM, random);
 		return lowerBound.getBoundValue().add(diagonalDifference.multiply(deviates));
 	}
 
@@ -21,6 +21,8 @@ package repicea.stats.estimators;
 import java.util.ArrayList;
 import java.util.List;
 
+import repicea.math.CholeskyDecomposition;
+import repicea.math.LUDecomposition;
 import repicea.math.Matrix;
 import repicea.math.optimizer.AbstractOptimizer.OptimizationException;
 import repicea.stats.data.StatisticalDataStructure;
@@ -62,7 +64,13 @@ public class MaximumLikelihoodEstimator implements Estimator {
 			return false;
 		}
 		if (nro.isConvergenceAchieved()) {
-			Matrix varCov = nro.getHessianAtMaximum().getInverseMatrix().scalarMultiply(-1d);
+			Matrix negativeHessian = nro.getHessianAtMaximum().scalarMultiply(-1d);
+			Matrix varCov;
+			try {
+				varCov = new CholeskyDecomposition(negativeHessian).getInverse();
+			} catch (UnsupportedOperationException e) {		// the hessian is not negative definite
+				varCov = new LUDecomposition(negativeHessian).getInverse();
+			}
 			parameterEstimate = new GaussianEstimate(nro.getParametersAtMaximum(), varCov);
 			return true;
 		} else {
@@ -18,6 +18,7 @@
  */
 package repicea.stats.estimators;
 
+import repicea.math.CholeskyDecomposition;
 import repicea.math.Matrix;
 import repicea.stats.data.StatisticalDataStructure;
 import repicea.stats.estimates.Estimate;
@@ -43,14 +44,22 @@ public class OLSEstimator implements Estimator {
 		}
 		Matrix matrixX = model.getDataStructure().getMatrixX();
 		Matrix matrixY = model.getDataStructure().getVectorY();
-		Matrix matrixXT = matrixX.transpose();
 		betaVector = new GaussianEstimate();
-		Matrix inverseProduct = matrixXT.multiply(matrixX).getInverseMatrix();
-		((GaussianEstimate) betaVector).setMean(inverseProduct.multiply(matrixX.transpose()).multiply(matrixY));
+		Matrix matrixXtX = matrixX.transposeAndMultiply(matrixX);
+		Matrix matrixXtY = matrixX.transposeAndMultiply(matrixY);
+		Matrix inverseProduct;
+		try {
+			CholeskyDecomposition xtxDecomposition = new CholeskyDecomposition(matrixXtX);
+			((GaussianEstimate) betaVector).setMean(xtxDecomposition.solve(matrixXtY));
+			inverseProduct = xtxDecomposition.getInverse();
+		} catch (UnsupportedOperationException e) {	// X'X is not positive definite, we switch to the former inversion
+			inverseProduct = matrixXtX.getInverseMatrix();
+			((GaussianEstimate) betaVector).setMean(inverseProduct.multiply(matrixXtY));
+		}
 		model.setParameters(betaVector.getMean());
 		Matrix residual = model.getResiduals();
 		int degreesOfFreedom = model.getDataStructure().getNumberOfObservations() - betaVector.getMean().m_iRows;
-		double resVar = residual.transpose().multiply(residual).scalarMultiply(1d / degreesOfFreedom).getValueAt(0, 0);
+		double resVar = residual.transposeAndMultiply(residual).getValueAt(0, 0) / degreesOfFreedom;
 		residualVariance = new VarianceEstimate(degreesOfFreedom, resVar);
 		((GaussianEstimate) betaVector).setVariance(inverseProduct.scalarMultiply(resVar));
 		return true;
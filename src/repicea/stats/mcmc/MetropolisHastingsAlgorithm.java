@@ -18,19 +18,25 @@
  */
 package repicea.stats.mcmc;
 
-import java.io.File;
 import java.io.IOException;
+import java.security.InvalidParameterException;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 
-import repicea.io.FormatField;
-import repicea.io.javacsv.CSVField;
-import repicea.io.javacsv.CSVWriter;
 import repicea.math.Matrix;
+import repicea.serial.xml.PostXmlUnmarshalling;
+import repicea.stats.REpiceaRandom;
 import repicea.stats.StatisticalUtility;
 import repicea.stats.distributions.GaussianDistribution;
 import repicea.stats.estimates.MonteCarloEstimate;
@@ -40,7 +46,7 @@ import repicea.util.REpiceaLogManager;
  * An implementation of the MCMC Metropolis-Hastings algorithm.
  * @author Mathieu Fortin - September 2021
  */
-public class MetropolisHastingsAlgorithm {
+public class MetropolisHastingsAlgorithm implements PostXmlUnmarshalling {
 		
 	private String loggerName;
 	private String loggerPrefix;
@@ -52,9 +58,14 @@ public class MetropolisHastingsAlgorithm {
 	private Matrix parmsVarCov;
 	protected double lpml;
 	
-	protected List<MetropolisHastingsSample> finalMetropolisHastingsSampleSelection;
+	protected MetropolisHastingsSampleStore finalSampleStore;
+	private transient List<MetropolisHastingsSample> finalMetropolisHastingsSampleSelection;	// former implementation kept for deserialization
+	private MetropolisHastingsConvergenceDiagnostics diagnostics;
+	private transient ExecutorService initialSearchExecutor;
 	private boolean converged;
 	protected int indexCorrelationParameter;
+	private transient volatile boolean cancelled;
+	private transient AtomicLong nbProcessedIterations;
 
 	public MetropolisHastingsAlgorithm(MetropolisHastingsCompatibleModel model, String loggerName, String loggerPrefix) {
 		this(model);
@@ -69,26 +80,21 @@ public class MetropolisHastingsAlgorithm {
 	}
 
 	public void exportMetropolisHastingsSample(String filename) throws IOException {
-		if (hasConverged() && finalMetropolisHastingsSampleSelection != null) {
-			CSVWriter writer = null;
-			for (MetropolisHastingsSample sample : finalMetropolisHastingsSampleSelection) {
-				if (writer == null) {
-					writer = new CSVWriter(new File(filename), false);
-					List<FormatField> fieldNames = new ArrayList<FormatField>();
-					fieldNames.add(new CSVField("LLK"));
-					for (int j = 1; j <= sample.parms.m_iRows; j++) {
-						fieldNames.add(new CSVField("p" + j));
-					}
-					writer.setFields(fieldNames);
-				}
-				Object[] record = new Object[sample.parms.m_iRows + 1];
-				record[0] = sample.llk;
-				for (int j = 1; j <= sample.parms.m_iRows; j++) {
-					record[j] = sample.parms.getValueAt(j - 1, 0);
+		if (hasConverged() && finalSampleStore != null) {
+			finalSampleStore.exportToCSV(filename);
+		}
+	}
+
+	@Override
+	public void postUnmarshallingAction() {
+		if (finalMetropolisHastingsSampleSelection != null) {	// former implementation
+			if (!finalMetropolisHastingsSampleSelection.isEmpty()) {
+				finalSampleStore = new MetropolisHastingsSampleStore(finalMetropolisHastingsSampleSelection.get(0).parms.m_iRows, finalMetropolisHastingsSampleSelection.size());
+				for (MetropolisHastingsSample sample : finalMetropolisHastingsSampleSelection) {
+					finalSampleStore.offer(sample);
 				}
-				writer.addRecord(record);
 			}
-			writer.close();
+			finalMetropolisHastingsSampleSelection = null;
 		}
 	}
 	
@@ -105,22 +111,121 @@ public class MetropolisHastingsAlgorithm {
 		return loggerName;
 	}
 	
-	private MetropolisHastingsSample findFirstSetOfParameters(int desiredSize, boolean isForIntegral) {
-		long startTime = System.currentTimeMillis();
-		double llk = Double.NEGATIVE_INFINITY;
-		List<MetropolisHastingsSample> myFirstList = new ArrayList<MetropolisHastingsSample>();
-		while (myFirstList.size() < desiredSize) {
-			Matrix parms = priors.getRandomRealization();
-			llk = isForIntegral ? model.getLogLikelihood(parms) : model.getLogLikelihood(parms) + priors.getLogProbabilityDensityOfRandomEffects(parms) + priors.getLogProbabilityDensity(parms); // if isForIntegral then there is no need for the density of the parameters since the random realizations account for the distribution of the prior 
+	/**
+	 * Set the executor on which the search for the first set of parameters is run. <br>
+	 * <br>
+	 * If the executor is null, which is the default, the search is run in the calling thread. The
+	 * executor is also ignored if the model is not thread safe.
+	 * @param executor an ExecutorService instance (can be null)
+	 */
+	public void setInitialSearchExecutor(ExecutorService executor) {
+		this.initialSearchExecutor = executor;
+	}
+
+	/**
+	 * Cancel the fit. The chains stop at their next iteration and the model is 
+	 * considered as not converged. A cancelled instance cannot be fitted anymore.
+	 */
+	public void cancel() {
+		cancelled = true;
+	}
+
+	/**
+	 * Check whether the fit has been cancelled.
+	 * @return a boolean
+	 */
+	public boolean isCancelled() {
+		return cancelled;
+	}
+
+	/**
+	 * Provide the progress of the fit, that is the proportion of the iterations of the chains 
+	 * that have been processed. 
+	 * @return a double between 0 and 1
+	 */
+	public double getProgress() {
+		if (hasConverged()) {
+			return 1d;
+		} else if (nbProcessedIterations == null) {
+			return 0d;
+		} else {
+			long nbIterationsPerChain = Math.max(0, simParms.nbBurnIn - 1) + Math.max(0, simParms.nbRealizations - 1);
+			long total = Math.max(1, simParms.nbChains) * nbIterationsPerChain;
+			return total > 0 ? Math.min(1d, ((double) nbProcessedIterations.get()) / total) : 0d;
+		}
+	}
+
+	private boolean countIterationAndCheckCancellation() {
+		if (nbProcessedIterations != null) {
+			nbProcessedIterations.incrementAndGet();
+		}
+		return cancelled;
+	}
+	
+	/**
+	 * Draw a number of parameter sets from the priors and keep the one with the largest log-likelihood.
+	 * @param nbSets the number of valid sets to be drawn
+	 * @param isForIntegral true if the density of the priors is not to be considered
+	 * @param random the random generator of this search
+	 * @param counter the number of valid sets found so far by all the searches
+	 * @return a MetropolisHastingsSample instance
+	 */
+	private MetropolisHastingsSample findBestSetOfParameters(int nbSets, boolean isForIntegral, Random random, AtomicInteger counter) {
+		MetropolisHastingsSample bestSet = null;
+		int nbValidSets = 0;
+		while (nbValidSets < nbSets && !cancelled) {
+			Matrix parms = priors.getRandomRealization(random);
+			double llk = isForIntegral ? model.getLogLikelihood(parms) : model.getLogLikelihood(parms) + priors.getLogProbabilityDensityOfRandomEffects(parms) + priors.getLogProbabilityDensity(parms); // if isForIntegral then there is no need for the density of the parameters since the random realizations account for the distribution of the prior 
 			if (llk > Double.NEGATIVE_INFINITY) {
-				myFirstList.add(new MetropolisHastingsSample(parms, llk));
-				if (myFirstList.size()%1000 == 0) {
-					REpiceaLogManager.logMessage(getLoggerName(), Level.FINE, getLogMessagePrefix(), "Initial sample list has " + myFirstList.size() + " sets.");
+				nbValidSets++;
+				if (bestSet == null || llk >= bestSet.llk) {
+					bestSet = new MetropolisHastingsSample(parms, llk);
+				}
+				if (counter.incrementAndGet()%1000 == 0) {
+					REpiceaLogManager.logMessage(getLoggerName(), Level.FINE, getLogMessagePrefix(), "Initial sample list has " + counter.get() + " sets.");
+				}
+			}
+		}
+		return bestSet;
+	}
+
+	/**
+	 * Search for the first set of parameters of a chain. If the search is run on an executor, each 
+	 * task has its own generator, which is split from the generator of the chain.
+	 * @param desiredSize the number of valid sets to be drawn
+	 * @param isForIntegral true if the density of the priors is not to be considered
+	 * @param random the random generator of the chain
+	 * @return a MetropolisHastingsSample instance or null if the search has been cancelled
+	 */
+	private MetropolisHastingsSample findFirstSetOfParameters(int desiredSize, boolean isForIntegral, REpiceaRandom random) throws Exception {
+		long startTime = System.currentTimeMillis();
+		final AtomicInteger counter = new AtomicInteger();
+		MetropolisHastingsSample startingParms = null;
+		if (initialSearchExecutor == null || !model.isThreadSafe()) {
+			startingParms = findBestSetOfParameters(desiredSize, isForIntegral, random, counter);
+		} else {
+			int nbTasks = Math.max(1, Math.min(desiredSize, Runtime.getRuntime().availableProcessors()));
+			List<Future<MetropolisHastingsSample>> futures = new ArrayList<Future<MetropolisHastingsSample>>();
+			for (int i = 0; i < nbTasks; i++) {
+				final int nbSets = desiredSize / nbTasks + (i < desiredSize % nbTasks ? 1 : 0);
+				final Random taskRandom = random.split();
+				futures.add(initialSearchExecutor.submit(new Callable<MetropolisHastingsSample>() {
+					@Override
+					public MetropolisHastingsSample call() throws Exception {
+						return findBestSetOfParameters(nbSets, isForIntegral, taskRandom, counter);
+					}
+				}));
+			}
+			for (Future<MetropolisHastingsSample> future : futures) {
+				MetropolisHastingsSample bestSet = future.get();
+				if (bestSet != null && (startingParms == null || bestSet.llk > startingParms.llk)) {
+					startingParms = bestSet;
 				}
 			}
 		}
- 		Collections.sort(myFirstList);
-		MetropolisHastingsSample startingParms = myFirstList.get(myFirstList.size() - 1);
+		if (startingParms == null) {	// the search has been cancelled
+			return null;
+		}
 		REpiceaLogManager.logMessage(getLoggerName(), Level.FINE, getLogMessagePrefix(), "Time to find a first set of plausible parameters = " + (System.currentTimeMillis() - startTime) + " ms");
 		REpiceaLogManager.logMessage(getLoggerName(), Level.FINE, getLogMessagePrefix(), "LLK = " + startingParms.llk + " - Parameters = " + startingParms.parms);
 		return startingParms;
@@ -153,6 +258,68 @@ public class MetropolisHastingsAlgorithm {
 	public boolean hasConverged() {
 		return converged;
 	}
+
+	/**
+	 * Provide the number of samples that were retained after the burn-in period and the thinning.
+	 * @return an integer (0 if the model has not converged)
+	 */
+	public int getNumberOfFinalSamples() {
+		return finalSampleStore != null ? finalSampleStore.size() : 0;
+	}
+
+	/**
+	 * Provide the samples that were retained after the burn-in period and the thinning. 
+	 * @return an array of doubles in which each record is the log-likelihood followed by the 
+	 * parameters, or null if the model has not converged or if the samples are not available
+	 */
+	public double[] getFinalSample() {
+		return finalSampleStore != null ? finalSampleStore.toArray() : null;
+	}
+
+	/**
+	 * Restore the state of an algorithm that has converged, typically after reading 
+	 * its estimates from a file. 
+	 * @param parameters the final parameter estimates
+	 * @param parmsVarCov the variance-covariance matrix of the parameter estimates
+	 * @param lpml the log pseudomarginal likelihood
+	 * @param finalSample the samples as returned by the getFinalSample method (can be null)
+	 * @param gelmanRubinStatistics the statistics as returned by the getGelmanRubinStatistics method (can be null)
+	 * @param effectiveSampleSize the sizes as returned by the getEffectiveSampleSize method (can be null)
+	 */
+	public void restoreFit(Matrix parameters, Matrix parmsVarCov, double lpml, double[] finalSample, Matrix gelmanRubinStatistics, Matrix effectiveSampleSize) {
+		if (parameters == null || parmsVarCov == null) {
+			throw new InvalidParameterException("The parameters and parmsVarCov arguments cannot be null!");
+		}
+		reset();
+		this.parameters = parameters;
+		this.parmsVarCov = parmsVarCov;
+		this.lpml = lpml;
+		if (finalSample != null) {
+			finalSampleStore = new MetropolisHastingsSampleStore(parameters.m_iRows, finalSample);
+		}
+		if (gelmanRubinStatistics != null && effectiveSampleSize != null) {
+			diagnostics = new MetropolisHastingsConvergenceDiagnostics(gelmanRubinStatistics, effectiveSampleSize);
+		}
+		converged = true;
+	}
+
+	/**
+	 * Return the potential scale reduction factors (R-hat) of Gelman and Rubin. These are computed
+	 * on the final samples of the chains, which are split in two halves. Values close to 1 indicate 
+	 * that the chains have converged to the same distribution.
+	 * @return a column vector with one element per parameter or null if the model has not converged
+	 */
+	public Matrix getGelmanRubinStatistics() {
+		return diagnostics != null ? diagnostics.getGelmanRubinStatistics() : null;
+	}
+
+	/**
+	 * Return the effective sample size of the final samples of the chains.
+	 * @return a column vector with one element per parameter or null if the model has not converged
+	 */
+	public Matrix getEffectiveSampleSize() {
+		return diagnostics != null ? diagnostics.getEffectiveSampleSize() : null;
+	}
 	
 	public MetropolisHastingsPriorHandler getPriorHandler() {
 		return priors;
@@ -163,11 +330,13 @@ public class MetropolisHastingsAlgorithm {
 	 * @param nbRealizations number of samples in the chain before removing burn in and selected one sample every x samples
 	 * @param nbBurnIn number of samples to discard at the beginning of the chain
 	 * @param nbInternalIter maximum number of realizations to find the next acceptable sample of the chain
-	 * @param metropolisHastingsSample A list of MetaModelMetropolisHastingsSample instance that represents the chain
+	 * @param firstSample the first sample of the chain
+	 * @param store the store that retains the samples of the chain after the burn-in period and the thinning
 	 * @param gaussDist the sampling distribution
+	 * @param random the random generator of this chain
 	 * @return a boolean
 	 */
-	private boolean generateMetropolisSample(List<MetropolisHastingsSample> metropolisHastingsSample, GaussianDistribution gaussDist) {
+	private boolean generateMetropolisSample(MetropolisHastingsSample firstSample, MetropolisHastingsSampleStore store, GaussianDistribution gaussDist, Random random) {
 		long startTime = System.currentTimeMillis();
 		Matrix newParms = null;
 		double llk = 0d;
@@ -175,15 +344,21 @@ public class MetropolisHastingsAlgorithm {
 		int trials = 0;
 		int successes = 0;
 		double acceptanceRatio; 
+		Matrix currentParms = firstSample.parms;
+		double currentLlk = firstSample.llk;
 		for (int i = 0; i < simParms.nbRealizations - 1; i++) { // Metropolis-Hasting  -1 : the starting parameters are considered as the first realization
-			gaussDist.setMean(metropolisHastingsSample.get(metropolisHastingsSample.size() - 1).parms);
+			if (countIterationAndCheckCancellation()) {
+				completed = false;
+				break;
+			}
+			gaussDist.setMean(currentParms);
 			if (i > 0 && i < simParms.nbBurnIn && i%1000 == 0) {
 				acceptanceRatio = ((double) successes) / trials;
 				REpiceaLogManager.logMessage(getLoggerName(), Level.FINE, getLogMessagePrefix(), "After " + i + " realizations, the acceptance rate is " + acceptanceRatio);
 				if (acceptanceRatio > 0.40) {	// we aim at having an acceptance rate slightly larger than 0.3 because it will decrease as the chain reaches its steady state
-					gaussDist.setVariance(gaussDist.getVariance().scalarMultiply(1.2*1.2));
+					gaussDist.scaleVariance(1.2*1.2);
 				} else if (acceptanceRatio < 0.30) {
-					gaussDist.setVariance(gaussDist.getVariance().scalarMultiply(0.8*0.8));
+					gaussDist.scaleVariance(0.8*0.8);
 				}
 				successes = 0;
 				trials = 0;
@@ -196,14 +371,14 @@ public class MetropolisHastingsAlgorithm {
 			int innerIter = 0;
 			
 			while (!accepted && innerIter < simParms.nbInternalIter) {
-				newParms = gaussDist.getRandomRealization();
+				newParms = gaussDist.getRandomRealization(random);
 				double parmsPriorLogDensity = priors.getLogProbabilityDensity(newParms);
 				if (parmsPriorLogDensity > Double.NEGATIVE_INFINITY) {
 					llk = model.getLogLikelihood(newParms) + 
 							priors.getLogProbabilityDensityOfRandomEffects(newParms) + 
 							parmsPriorLogDensity;
-					double ratio = Math.exp(llk - metropolisHastingsSample.get(metropolisHastingsSample.size() - 1).llk);
-					accepted = StatisticalUtility.getRandom().nextDouble() < ratio;
+					double ratio = Math.exp(llk - currentLlk);
+					accepted = random.nextDouble() < ratio;
 					trials++;
 					if (accepted) {
 						successes++;
@@ -216,16 +391,18 @@ public class MetropolisHastingsAlgorithm {
 				completed = false;
 				break;
 			} else {
-				metropolisHastingsSample.add(new MetropolisHastingsSample(newParms, llk));  // new set of parameters is recorded
-				if (metropolisHastingsSample.size()%100 == 0) {
-					REpiceaLogManager.logMessage(getLoggerName(), Level.FINEST, getLogMessagePrefix(), metropolisHastingsSample.get(metropolisHastingsSample.size() - 1));
+				currentParms = newParms;
+				currentLlk = llk;
+				store.offer(currentLlk, currentParms);  // new set of parameters is recorded
+				if (store.getNumberOfOfferedSamples()%100 == 0) {
+					REpiceaLogManager.logMessage(getLoggerName(), Level.FINEST, getLogMessagePrefix(), "LLK=" + currentLlk + ", " + currentParms);
 				}
 			}
 		}
 		
 		if (completed) {
 			acceptanceRatio = ((double) successes) / trials;
-			REpiceaLogManager.logMessage(getLoggerName(), Level.INFO, getLogMessagePrefix(), "Time to obtain " + metropolisHastingsSample.size() + " samples = " + (System.currentTimeMillis() - startTime) + " ms");
+			REpiceaLogManager.logMessage(getLoggerName(), Level.INFO, getLogMessagePrefix(), "Time to obtain " + store.getNumberOfOfferedSamples() + " samples = " + (System.currentTimeMillis() - startTime) + " ms");
 			REpiceaLogManager.logMessage(getLoggerName(), Level.INFO, getLogMessagePrefix(), "Acceptance ratio = " + acceptanceRatio);
 		} 
 		return completed;
@@ -255,12 +432,13 @@ public class MetropolisHastingsAlgorithm {
 	 * Implement Gibbs sampling in a preliminary stage to balance the variance of the sampler.
 	 * @param firstSample the MetaModelMetropolisHastingsSample instance that was found through random sampling
 	 * @param sampler the sampling distribution
+	 * @param random the random generator of this chain
 	 * @return a boolean
 	 */
-	private boolean balanceVariance(MetropolisHastingsSample firstSample, GaussianDistribution sampler) {
+	private boolean balanceVariance(MetropolisHastingsSample firstSample, GaussianDistribution sampler, Random random) {
 		long startTime = System.currentTimeMillis();
-		List<MetropolisHastingsSample> initSample = new ArrayList<MetropolisHastingsSample>();
-		initSample.add(firstSample);
+		Matrix currentParms = firstSample.parms;
+		double currentLlk = firstSample.llk;
 		Matrix newParms = null;
 		double llk = 0d;
 		boolean completed = true;
@@ -270,7 +448,11 @@ public class MetropolisHastingsAlgorithm {
 		resetSuccessAndTrialMaps(sampler, trialMap, successMap);
 		double targetAcceptance = 0.5; // MF2021-11-01 This number does not matter much in absolute value. It just makes sure that the acceptance rate is balanced across the parameters.
 		for (int i = 0; i < simParms.nbBurnIn - 1; i++) { // Metropolis-Hasting  -1 : the starting parameters are considered as the first realization
-			Matrix originalParms = initSample.get(initSample.size() - 1).parms.getDeepClone();
+			if (countIterationAndCheckCancellation()) {
+				completed = false;
+				break;
+			}
+			Matrix originalParms = currentParms.getDeepClone();
 			sampler.setMean(originalParms);
 			if (i > 0 && i < simParms.nbBurnIn && i%1000 == 0) {
 				acceptanceRatios = this.computeSuccessRates(trialMap, successMap);
@@ -285,6 +467,7 @@ public class MetropolisHastingsAlgorithm {
 						variance.setValueAt(j, j, variance.getValueAt(j, j) * 0.8 * 0.8);
 					}
 				}
+				sampler.setVariance(sampler.getVariance());	// the variance has been modified in place: the cached decomposition must be reset
 				resetSuccessAndTrialMaps(sampler, trialMap, successMap);
 			}
 			boolean accepted = false;
@@ -293,15 +476,15 @@ public class MetropolisHastingsAlgorithm {
 			int j = 0;
 			while (j < originalParms.m_iRows && innerIter < simParms.nbInternalIter) {
 				double originalValue = originalParms.getValueAt(j, 0);
-				double newValue = getNewParms(sampler, j);
+				double newValue = getNewParms(sampler, j, random);
 				originalParms.setValueAt(j, 0, newValue);
 				double parmsPriorLogDensity = priors.getLogProbabilityDensity(originalParms);
 				if (parmsPriorLogDensity > Double.NEGATIVE_INFINITY) {
 					llk = model.getLogLikelihood(originalParms) + 
 							priors.getLogProbabilityDensityOfRandomEffects(originalParms) +
 							parmsPriorLogDensity;
-					double ratio = Math.exp(llk - initSample.get(initSample.size() - 1).llk);
-					accepted = StatisticalUtility.getRandom().nextDouble() < ratio;
+					double ratio = Math.exp(llk - currentLlk);
+					accepted = random.nextDouble() < ratio;
 					trialMap.put(j, trialMap.get(j) + 1);
 					if (accepted) {
 						successMap.put(j, successMap.get(j) + 1);
@@ -322,9 +505,10 @@ public class MetropolisHastingsAlgorithm {
 				completed = false;
 				break;
 			} else {
-				initSample.add(new MetropolisHastingsSample(newParms, llk));  // new set of parameters is recorded
-				if (initSample.size()%100 == 0) {
-					REpiceaLogManager.logMessage(getLoggerName(), Level.FINEST, getLogMessagePrefix(), initSample.get(initSample.size() - 1));
+				currentParms = newParms;  // new set of parameters is recorded
+				currentLlk = llk;
+				if (i%100 == 0) {
+					REpiceaLogManager.logMessage(getLoggerName(), Level.FINEST, getLogMessagePrefix(), "LLK=" + currentLlk + ", " + currentParms);
 				}
 			}
 		}
@@ -337,29 +521,105 @@ public class MetropolisHastingsAlgorithm {
 		return completed;
 	}
 
-	private double getNewParms(GaussianDistribution dist, int i) {
+	private double getNewParms(GaussianDistribution dist, int i, Random random) {
 		double variance = dist.getVariance().getValueAt(i, i);
 		double mean = dist.getMean().getValueAt(i, 0);
-		double newValue = mean + StatisticalUtility.getRandom().nextGaussian() * Math.sqrt(variance);
+		double newValue = mean + random.nextGaussian() * Math.sqrt(variance);
 		return newValue;
 	}
 	
-	private List<MetropolisHastingsSample> retrieveFinalSample(List<MetropolisHastingsSample> metropolisHastingsSample) {
-		List<MetropolisHastingsSample> finalMetropolisHastingsGibbsSample = new ArrayList<MetropolisHastingsSample>();
-		REpiceaLogManager.logMessage(getLoggerName(), Level.FINE, getLogMessagePrefix(), "Discarding " + simParms.nbBurnIn + " samples as burn in.");
-		for (int i = simParms.nbBurnIn; i < metropolisHastingsSample.size(); i+= simParms.oneEach) {
-			finalMetropolisHastingsGibbsSample.add(metropolisHastingsSample.get(i));
-		}
-		REpiceaLogManager.logMessage(getLoggerName(), Level.FINE, getLogMessagePrefix(), "Selecting one every " + simParms.oneEach + " samples as final selection.");
-		return finalMetropolisHastingsGibbsSample;
-	}
 
 	private void reset() {
 		parameters = null;
 		parmsVarCov = null;
 //		lnProbY = 0;
-		finalMetropolisHastingsSampleSelection = null;
+		finalSampleStore = null;
+		diagnostics = null;
 		converged = false;
+		nbProcessedIterations = new AtomicLong();
+	}
+
+	/**
+	 * Run a single chain, from the search for the starting parameters to the final samples 
+	 * after the burn-in period and the thinning.
+	 * @param samplingDist the sampling distribution of this chain
+	 * @param random the random generator of this chain
+	 * @return a MetropolisHastingsSampleStore instance or null if the chain could not be completed
+	 */
+	private MetropolisHastingsSampleStore runChain(GaussianDistribution samplingDist, REpiceaRandom random) throws Exception {
+		MetropolisHastingsSample firstSet = findFirstSetOfParameters(simParms.nbInitialGrid, false, random);	// false: not for integration
+		if (firstSet == null) {	// the fit has been cancelled
+			return null;
+		}
+		int capacity = MetropolisHastingsSampleStore.getNumberOfRetainedSamples(simParms.nbRealizations, simParms.nbBurnIn, simParms.oneEach);
+		MetropolisHastingsSampleStore store = new MetropolisHastingsSampleStore(firstSet.parms.m_iRows, simParms.nbBurnIn, simParms.oneEach, capacity);
+		store.offer(firstSet); // first valid sample
+		REpiceaLogManager.logMessage(getLoggerName(), Level.FINE, getLogMessagePrefix(), "Discarding " + simParms.nbBurnIn + " samples as burn in and selecting one every " + simParms.oneEach + " samples as final selection.");
+		boolean completed = balanceVariance(firstSet, samplingDist, random);
+		if (completed) {
+			completed = generateMetropolisSample(firstSet, store, samplingDist, random);
+			if (completed) {
+				return store;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Run the chains. If the simulation parameters specify more than one chain, each chain has its 
+	 * own random generator, which is split from the root generator in the calling thread, and its own 
+	 * copy of the sampling distribution. A chain therefore draws the same values whatever the thread that runs it. The chains share the model 
+	 * and the priors, which are not modified by the chains. If the model is thread safe, the chains are 
+	 * run in parallel on a fork-join pool. If this method is called from a fork-join task, the 
+	 * chains are forked in the pool of this task, so that they share its threads with the other tasks. 
+	 * Otherwise, a pool is created for the chains. If the model is not thread safe, the chains are
+	 * run one after the other in the calling thread.
+	 * @param samplingDist the sampling distribution
+	 * @param rootRandom the generator from which the generators of the chains are split
+	 * @return a List of chains
+	 * @throws Exception if a chain could not be run
+	 */
+	private List<MetropolisHastingsSampleStore> runChains(GaussianDistribution samplingDist, REpiceaRandom rootRandom) throws Exception {
+		List<MetropolisHastingsSampleStore> chains = new ArrayList<MetropolisHastingsSampleStore>();
+		if (simParms.nbChains <= 1) {
+			chains.add(runChain(samplingDist, rootRandom));
+		} else if (!model.isThreadSafe()) {
+			for (int i = 0; i < simParms.nbChains; i++) {
+				GaussianDistribution chainSamplingDist = new GaussianDistribution(samplingDist.getMean().getDeepClone(), samplingDist.getVariance().getDeepClone());
+				chains.add(runChain(chainSamplingDist, rootRandom.split()));
+			}
+		} else {
+			List<ForkJoinTask<MetropolisHastingsSampleStore>> tasks = new ArrayList<ForkJoinTask<MetropolisHastingsSampleStore>>();
+			for (int i = 0; i < simParms.nbChains; i++) {
+				final REpiceaRandom random = rootRandom.split();
+				final GaussianDistribution chainSamplingDist = new GaussianDistribution(samplingDist.getMean().getDeepClone(), samplingDist.getVariance().getDeepClone());
+				tasks.add(ForkJoinTask.adapt(new Callable<MetropolisHastingsSampleStore>() {
+					@Override
+					public MetropolisHastingsSampleStore call() throws Exception {
+						return runChain(chainSamplingDist, random);
+					}
+				}));
+			}
+			if (ForkJoinTask.inForkJoinPool()) {
+				ForkJoinTask.invokeAll(tasks);
+			} else {
+				ForkJoinPool pool = new ForkJoinPool(Math.min(simParms.nbChains, Runtime.getRuntime().availableProcessors()));
+				try {
+					for (ForkJoinTask<MetropolisHastingsSampleStore> task : tasks) {
+						pool.execute(task);
+					}
+					for (ForkJoinTask<MetropolisHastingsSampleStore> task : tasks) {
+						task.get();
+					}
+				} finally {
+					pool.shutdown();
+				}
+			}
+			for (ForkJoinTask<MetropolisHastingsSampleStore> task : tasks) {
+				chains.add(task.get());
+			}
+		}
+		return chains;
 	}
 	
 	public void fitModel() {
@@ -367,29 +627,30 @@ public class MetropolisHastingsAlgorithm {
 		double coefVar = 0.01;
 		try {
 			GaussianDistribution samplingDist = model.getStartingParmEst(coefVar);
-			List<MetropolisHastingsSample> mhSample = new ArrayList<MetropolisHastingsSample>();
-			MetropolisHastingsSample firstSet = findFirstSetOfParameters(simParms.nbInitialGrid, false);	// false: not for integration
-			mhSample.add(firstSet); // first valid sample
-			boolean completed = balanceVariance(firstSet, samplingDist);
+			List<MetropolisHastingsSampleStore> chains = runChains(samplingDist, StatisticalUtility.getRandom().split());	// a single draw from the generator of the thread
+			boolean completed = !chains.contains(null);
 			if (completed) {
-				completed = generateMetropolisSample(mhSample, samplingDist);
-				if (completed) {
-					finalMetropolisHastingsSampleSelection = retrieveFinalSample(mhSample);
-					MonteCarloEstimate mcmcEstimate = new MonteCarloEstimate();
-					for (MetropolisHastingsSample sample : finalMetropolisHastingsSampleSelection) {
-						mcmcEstimate.addRealization(sample.parms);
-					}
-
-					parameters = mcmcEstimate.getMean();
-					parmsVarCov = mcmcEstimate.getVariance();
-					List<MetropolisHastingsSample> tempSample = new ArrayList<MetropolisHastingsSample>();
-					tempSample.addAll(finalMetropolisHastingsSampleSelection);
-					Collections.sort(tempSample);
-//					lnProbY = getLnProbY(tempSample.get(tempSample.size() - 1).parms, finalMetropolisHastingsSampleSelection, samplingDist);
-					this.lpml = calculateLogPseudomarginalLikelihood();
-					REpiceaLogManager.logMessage(getLoggerName(), Level.FINE, getLogMessagePrefix(), "Final sample had " + finalMetropolisHastingsSampleSelection.size() + " sets of parameters.");
-					converged = true;
+				int capacity = 0;
+				for (MetropolisHastingsSampleStore chain : chains) {
+					capacity += chain.size();
 				}
+				finalSampleStore = new MetropolisHastingsSampleStore(chains.get(0).getNumberOfParameters(), capacity);
+				for (MetropolisHastingsSampleStore chain : chains) {
+					finalSampleStore.addAll(chain);
+				}
+				diagnostics = new MetropolisHastingsConvergenceDiagnostics(chains);
+				REpiceaLogManager.logMessage(getLoggerName(), Level.INFO, getLogMessagePrefix(), "Gelman-Rubin statistics (R-hat) = " + diagnostics.getGelmanRubinStatistics());
+				REpiceaLogManager.logMessage(getLoggerName(), Level.INFO, getLogMessagePrefix(), "Effective sample size = " + diagnostics.getEffectiveSampleSize());
+				MonteCarloEstimate mcmcEstimate = new MonteCarloEstimate();
+				for (int i = 0; i < finalSampleStore.size(); i++) {
+					mcmcEstimate.addRealization(finalSampleStore.getParameters(i));
+				}
+
+				parameters = mcmcEstimate.getMean();
+				parmsVarCov = mcmcEstimate.getVariance();
+				this.lpml = calculateLogPseudomarginalLikelihood();
+				REpiceaLogManager.logMessage(getLoggerName(), Level.FINE, getLogMessagePrefix(), "Final sample had " + finalSampleStore.size() + " sets of parameters.");
+				converged = true;
 			}
 		} catch (Exception e1) {
 			e1.printStackTrace();
@@ -400,15 +661,18 @@ public class MetropolisHastingsAlgorithm {
 
 	private double calculateLogPseudomarginalLikelihood() {
 		int nbSubjects = model.getNbSubjects();
+		double[] sums = new double[nbSubjects];
+		for (int s = 0; s < finalSampleStore.size(); s++) {
+			Matrix parms = finalSampleStore.getParameters(s);
+			for (int i = 0; i < nbSubjects; i++) {
+//				double lk_i = model.getLikelihoodOfThisSubject(parms, i) * priors.getProbabilityDensityOfThisRandomEffect(parms, i);
+				double lk_i = model.getLikelihoodOfThisSubject(parms, i);
+				sums[i] += 1d / lk_i;
+			}
+		}
 		double lpml = 0;
 		for (int i = 0; i < nbSubjects; i++) {
-			double sum = 0;
-			for (MetropolisHastingsSample s : finalMetropolisHastingsSampleSelection) {
-//				double lk_i = model.getLikelihoodOfThisSubject(s.parms, i) * priors.getProbabilityDensityOfThisRandomEffect(s.parms, i);
-				double lk_i = model.getLikelihoodOfThisSubject(s.parms, i);
-				sum += 1d / lk_i;
-			}
-			sum /= finalMetropolisHastingsSampleSelection.size();
+			double sum = sums[i] / finalSampleStore.size();
 			double cpo_i = 1d / sum;
 			lpml += Math.log(cpo_i);
 		}
@@ -52,5 +52,14 @@ public interface MetropolisHastingsCompatibleModel {
 	public double getLikelihoodOfThisSubject(Matrix parms, int subjectId);
 	
 	public GaussianDistribution getStartingParmEst(double coefVar);
+
+	/**
+	 * Indicate whether the getLogLikelihood method can be called concurrently. <br>
+	 * <br>
+	 * If not, the chains and the search for the initial parameters are run in a single thread. 
+	 * @return a boolean (false by default)
+	 */
+	default public boolean isThreadSafe() {return false;}
+	
 	
 }
@@ -0,0 +1,151 @@
+/*
+ * This file is part of the repicea library.
+ *
+ * Copyright (C) 2009-2021 Mathieu Fortin for Rouge Epicea.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed with the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * Please see the license at http://www.gnu.org/copyleft/lesser.html.
+ */
+package repicea.stats.mcmc;
+
+import java.util.List;
+
+import repicea.math.Matrix;
+
+/**
+ * Convergence diagnostics for one or many Markov chains. <br>
+ * <br>
+ * Each chain is split in two halves before computing the potential scale reduction factor (R-hat) of
+ * Gelman and Rubin and the effective sample size. The diagnostics are therefore also available for a
+ * single chain. The implementation follows Gelman et al. (2013, Bayesian Data Analysis, 3rd ed., p. 284-287).
+ */
+final class MetropolisHastingsConvergenceDiagnostics {
+
+	private final Matrix rHat;
+	private final Matrix effectiveSampleSize;
+
+	/**
+	 * Constructor.
+	 * @param chains a List of chains, each one being stored in a MetropolisHastingsSampleStore instance
+	 */
+	MetropolisHastingsConvergenceDiagnostics(List<MetropolisHastingsSampleStore> chains) {
+		int minSize = Integer.MAX_VALUE;
+		for (MetropolisHastingsSampleStore chain : chains) {
+			minSize = Math.min(minSize, chain.size());
+		}
+		int n = minSize / 2;	// length of the split chains
+		int m = chains.size() * 2;
+		int nbParms = chains.get(0).getNumberOfParameters();
+		rHat = new Matrix(nbParms, 1);
+		effectiveSampleSize = new Matrix(nbParms, 1);
+		for (int p = 0; p < nbParms; p++) {
+			if (n < 2) {
+				rHat.setValueAt(p, 0, Double.NaN);
+				effectiveSampleSize.setValueAt(p, 0, Double.NaN);
+			} else {
+				double[][] draws = new double[m][n];
+				for (int c = 0; c < chains.size(); c++) {
+					MetropolisHastingsSampleStore chain = chains.get(c);
+					int offset = chain.size() - 2 * n;	// the first samples are dropped if the chains have different lengths
+					for (int i = 0; i < n; i++) {
+						draws[2 * c][i] = chain.getParameter(offset + i, p);
+						draws[2 * c + 1][i] = chain.getParameter(offset + n + i, p);
+					}
+				}
+				computeDiagnostics(draws, p);
+			}
+		}
+	}
+
+	/**
+	 * Constructor for diagnostics that have already been computed.
+	 * @param rHat the potential scale reduction factors
+	 * @param effectiveSampleSize the effective sample sizes
+	 */
+	MetropolisHastingsConvergenceDiagnostics(Matrix rHat, Matrix effectiveSampleSize) {
+		this.rHat = rHat;
+		this.effectiveSampleSize = effectiveSampleSize;
+	}
+
+	private void computeDiagnostics(double[][] draws, int p) {
+		int m = draws.length;
+		int n = draws[0].length;
+		double[] means = new double[m];
+		double grandMean = 0d;
+		double w = 0d;
+		for (int j = 0; j < m; j++) {
+			double sum = 0d;
+			for (int i = 0; i < n; i++) {
+				sum += draws[j][i];
+			}
+			means[j] = sum / n;
+			grandMean += means[j];
+			double sse = 0d;
+			for (int i = 0; i < n; i++) {
+				double diff = draws[j][i] - means[j];
+				sse += diff * diff;
+			}
+			w += sse / (n - 1);
+		}
+		grandMean /= m;
+		w /= m;
+		double b = 0d;
+		for (int j = 0; j < m; j++) {
+			double diff = means[j] - grandMean;
+			b += diff * diff;
+		}
+		b *= (double) n / (m - 1);
+		double varPlus = (n - 1d) / n * w + b / n;
+		rHat.setValueAt(p, 0, Math.sqrt(varPlus / w));
+
+		double sumOfPairs = 0d;
+		double previousRho = 1d;	// autocorrelation at lag 0
+		for (int t = 1; t < n; t++) {
+			double variogram = 0d;
+			for (int j = 0; j < m; j++) {
+				for (int i = t; i < n; i++) {
+					double diff = draws[j][i] - draws[j][i - t];
+					variogram += diff * diff;
+				}
+			}
+			variogram /= m * (n - t);
+			double rho = 1d - variogram / (2 * varPlus);
+			if (t % 2 == 1) {	// Geyer's initial positive sequence: the sum stops when a pair of autocorrelations is negative
+				double pair = previousRho + rho;
+				if (pair < 0d) {
+					break;
+				}
+				sumOfPairs += pair;
+			}
+			previousRho = rho;
+		}
+		double tau = -1d + 2 * sumOfPairs;
+		effectiveSampleSize.setValueAt(p, 0, m * n / tau);
+	}
+
+	/**
+	 * Return the potential scale reduction factors (R-hat). Values close to 1 indicate convergence.
+	 * @return a column vector with one element per parameter
+	 */
+	Matrix getGelmanRubinStatistics() {
+		return rHat;
+	}
+
+	/**
+	 * Return the effective sample sizes.
+	 * @return a column vector with one element per parameter
+	 */
+	Matrix getEffectiveSampleSize() {
+		return effectiveSampleSize;
+	}
+}
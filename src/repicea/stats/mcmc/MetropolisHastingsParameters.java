@@ -25,6 +25,11 @@ public class MetropolisHastingsParameters {
 	public int nbInternalIter = 100000;
 	public int oneEach = 50;
 	public int nbInitialGrid = 10000;	
+	/**
+	 * The number of independent chains. If larger than 1, the chains are run in parallel
+	 * and their final samples are merged.
+	 */
+	public int nbChains = 1;
 
 	public MetropolisHastingsParameters() {}
 
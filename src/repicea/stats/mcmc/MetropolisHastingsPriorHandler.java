@@ -24,13 +24,22 @@ import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
 
 import repicea.math.Matrix;
+import repicea.stats.StatisticalUtility;
 import repicea.stats.distributions.ContinuousDistribution;
 import repicea.stats.distributions.GaussianDistribution;
+import repicea.stats.distributions.StandardGaussianDistribution;
+import repicea.stats.distributions.UniformDistribution;
+import repicea.stats.distributions.utility.GaussianUtility;
 
 /** 
- * A class to handle prior distributions.
+ * A class to handle prior distributions.<br>
+ * <br>
+ * The distributions are not modified once they have been added. In particular, the variance of the 
+ * random effects is read from the realized parameters instead of being set in the distribution. 
+ * An instance can therefore be shared by many chains without any lock.
  * @author Mathieu Fortin - November 2021
  */
 public class MetropolisHastingsPriorHandler {
@@ -51,10 +60,30 @@ public class MetropolisHastingsPriorHandler {
 	 * @return a Matrix instance
 	 */
 	Matrix getRandomRealization() {
+		return getRandomRealization(null);
+	}
+
+	/**
+	 * Provide a realization of the parameters (fixed and random) drawn from a particular random generator. <br>
+	 * <br>
+	 * The generator is used for the uniform and Gaussian distributions. The other distributions rely on 
+	 * the generator of the StatisticalUtility class.
+	 * @param random a Random instance (can be null)
+	 * @return a Matrix instance
+	 */
+	Matrix getRandomRealization(Random random) {
 		Matrix realizedParameters = new Matrix(nbElements, 1);
 		for (ContinuousDistribution d : distributions.keySet()) {
-			updateRandomEffectVariance(d, realizedParameters);
-			Matrix thisR = d.getRandomRealization();
+			Matrix thisR;
+			if (randomEffectDistributions.containsKey(d)) {
+				thisR = getRandomRealizationOfThisRandomEffect((GaussianDistribution) d, realizedParameters, random);
+			} else if (random != null && d instanceof UniformDistribution) {
+				thisR = ((UniformDistribution) d).getRandomRealization(random);
+			} else if (random != null && d instanceof GaussianDistribution) {
+				thisR = ((GaussianDistribution) d).getRandomRealization(random);
+			} else {
+				thisR = d.getRandomRealization();
+			}
 			List<Integer> indices = distributions.get(d);
 			realizedParameters.setElements(indices, thisR);
 		}
@@ -62,17 +91,34 @@ public class MetropolisHastingsPriorHandler {
 	}
 
 	/**
-	 * Update the variance of the random effects on the fly.
-	 * @param d the distribution
+	 * Provide the realized variance of a random effect.
+	 * @param d the distribution of the random effect
+	 * @param realizedParameters the realized parameters
+	 * @return a double
+	 */
+	private double getRealizedRandomEffectVariance(GaussianDistribution d, Matrix realizedParameters) {
+		ContinuousDistribution varianceDist = randomEffectDistributions.get(d);
+		int index = distributions.get(varianceDist).get(0);	// TODO FP MF2021-11-01 here we assume that there is only one index 
+		return realizedParameters.getValueAt(index, 0);
+	}
+
+	/**
+	 * Draw the random effects of a particular distribution given the realized variance. Each 
+	 * element is drawn independently.
+	 * @param d the distribution of the random effect
 	 * @param realizedParameters the realized parameters
+	 * @param random a Random instance (can be null)
+	 * @return a Matrix instance
 	 */
-	private void updateRandomEffectVariance(ContinuousDistribution d, Matrix realizedParameters) {
-		if (randomEffectDistributions.containsKey(d)) {	// it is a random effect. So we must update its variance
-			ContinuousDistribution varianceDist = randomEffectDistributions.get(d);
-			int index = distributions.get(varianceDist).get(0);	// TODO FP MF2021-11-01 here we assume that there is only one index 
-			Matrix realizedRandomEffectVariance = realizedParameters.getSubMatrix(index, index, 0, 0);
-			((GaussianDistribution) d).setVariance(realizedRandomEffectVariance);
+	private Matrix getRandomRealizationOfThisRandomEffect(GaussianDistribution d, Matrix realizedParameters, Random random) {
+		double standardDeviation = Math.sqrt(getRealizedRandomEffectVariance(d, realizedParameters));
+		Random generator = random != null ? random : StatisticalUtility.getRandom();
+		Matrix mean = d.getMean();
+		Matrix realization = new Matrix(mean.m_iRows, 1);
+		for (int j = 0; j < mean.m_iRows; j++) {
+			realization.setValueAt(j, 0, mean.getValueAt(j, 0) + standardDeviation * generator.nextGaussian());
 		}
+		return realization;
 	}
 
 	/**
@@ -129,9 +175,14 @@ public class MetropolisHastingsPriorHandler {
 			return 1d;		// no random effect then prob = 1
 		} else {
 			GaussianDistribution d = randomEffectList.get(i);
-			updateRandomEffectVariance(d, realizedParameters);
+			double variance = getRealizedRandomEffectVariance(d, realizedParameters);
 			List<Integer> indices = distributions.get(d);
-			return d.getProbabilityDensity(realizedParameters.getSubMatrix(indices, null));
+			Matrix mean = d.getMean();
+			double prob = 1d;
+			for (int j = 0; j < indices.size(); j++) {
+				prob *= GaussianUtility.getProbabilityDensity(realizedParameters.getValueAt(indices.get(j), 0), mean.getValueAt(j, 0), variance);
+			}
+			return prob;
 		}
 		
 	}
@@ -139,6 +190,9 @@ public class MetropolisHastingsPriorHandler {
 	
 
 	public void addFixedEffectDistribution(ContinuousDistribution dist, Integer... indices) {
+		if (dist instanceof StandardGaussianDistribution) {
+			((StandardGaussianDistribution) dist).getStandardDeviation();	// the lazy Cholesky factor is computed before the chains share the distribution
+		}
 		List<Integer> ind = Arrays.asList(indices);
 		distributions.put(dist, ind);
 		nbElements += ind.size();
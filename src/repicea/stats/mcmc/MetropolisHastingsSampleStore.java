@@ -0,0 +1,282 @@
+/*
+ * This file is part of the repicea library.
+ *
+ * Copyright (C) 2009-2021 Mathieu Fortin for Rouge Epicea.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed with the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * Please see the license at http://www.gnu.org/copyleft/lesser.html.
+ */
+package repicea.stats.mcmc;
+
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.security.InvalidParameterException;
+
+import repicea.math.Matrix;
+
+/**
+ * A store for the samples of a Markov chain. <br>
+ * <br>
+ * The samples are kept in a ring buffer of primitive doubles, each record being the log-likelihood followed
+ * by the parameters. The capacity of the buffer is set at construction and it is never enlarged: once the 
+ * buffer is full, a new sample overwrites the oldest one. The burn-in period and the thinning are applied 
+ * as the samples arrive, so that the discarded samples are never stored. The MetropolisHastingsSample 
+ * instances are only created on retrieval.
+ */
+final class MetropolisHastingsSampleStore {
+
+	private final int nbParms;
+	private final int recordLength;
+	private final int nbBurnIn;
+	private final int oneEach;
+	private final int capacity;
+	private final double[] data;
+	private int nbOfferedSamples;
+	private int start;
+	private int size;
+
+	/**
+	 * Constructor.
+	 * @param nbParms the number of parameters
+	 * @param nbBurnIn the number of samples to be discarded at the beginning of the chain
+	 * @param oneEach the interval between two retained samples
+	 * @param capacity the maximum number of samples kept in the store
+	 */
+	MetropolisHastingsSampleStore(int nbParms, int nbBurnIn, int oneEach, int capacity) {
+		if (capacity < 0) {
+			throw new InvalidParameterException("The capacity argument must be positive or null!");
+		}
+		this.nbParms = nbParms;
+		this.recordLength = nbParms + 1;
+		this.nbBurnIn = nbBurnIn;
+		this.oneEach = Math.max(1, oneEach);
+		this.capacity = capacity;
+		data = new double[capacity * recordLength];
+	}
+
+	/**
+	 * Constructor for a store that retains all the samples up to its capacity.
+	 * @param nbParms the number of parameters
+	 * @param capacity the maximum number of samples kept in the store
+	 */
+	MetropolisHastingsSampleStore(int nbParms, int capacity) {
+		this(nbParms, 0, 1, capacity);
+	}
+
+	/**
+	 * Constructor for a store that contains samples that were previously retained.
+	 * @param nbParms the number of parameters
+	 * @param data the records of the samples as returned by the toArray method
+	 */
+	MetropolisHastingsSampleStore(int nbParms, double[] data) {
+		this(nbParms, data.length / (nbParms + 1));
+		if (data.length % recordLength != 0) {
+			throw new InvalidParameterException("The length of the data array is inconsistent with the number of parameters!");
+		}
+		System.arraycopy(data, 0, this.data, 0, data.length);
+		size = capacity;
+		nbOfferedSamples = size;
+	}
+
+	/**
+	 * Return the number of samples retained out of a chain of a given length.
+	 * @param nbRealizations the number of samples offered to the store
+	 * @param nbBurnIn the number of samples to be discarded at the beginning of the chain
+	 * @param oneEach the interval between two retained samples
+	 * @return an integer
+	 */
+	static int getNumberOfRetainedSamples(int nbRealizations, int nbBurnIn, int oneEach) {
+		if (nbRealizations <= nbBurnIn) {
+			return 0;
+		} else {
+			return (nbRealizations - nbBurnIn - 1) / Math.max(1, oneEach) + 1;
+		}
+	}
+
+	/*
+	 * Return the offset of the next record and update the start and the size of the buffer.
+	 */
+	private int nextRecordOffset() {
+		int offset;
+		if (size < capacity) {
+			offset = ((start + size) % capacity) * recordLength;
+			size++;
+		} else {		// the oldest record is overwritten
+			offset = start * recordLength;
+			start = (start + 1) % capacity;
+		}
+		return offset;
+	}
+
+	private int getOffset(int i) {
+		if (i < 0 || i >= size) {
+			throw new IndexOutOfBoundsException("Index " + i + " is out of bounds for a store of size " + size);
+		}
+		return ((start + i) % capacity) * recordLength;
+	}
+
+	/**
+	 * Offer a new sample of the chain. The log-likelihood and the parameters are copied into 
+	 * the store only if the sample is beyond the burn-in period and if it is selected by the thinning.
+	 * @param llk the log-likelihood of the sample
+	 * @param parms the parameters of the sample
+	 */
+	void offer(double llk, Matrix parms) {
+		int index = nbOfferedSamples++;
+		if (capacity > 0 && index >= nbBurnIn && (index - nbBurnIn) % oneEach == 0) {
+			if (parms.m_iRows != nbParms) {
+				throw new UnsupportedOperationException("The number of parameters is inconsistent with that of the store!");
+			}
+			int offset = nextRecordOffset();
+			data[offset] = llk;
+			for (int j = 0; j < nbParms; j++) {
+				data[offset + 1 + j] = parms.getValueAt(j, 0);
+			}
+		}
+	}
+
+	/**
+	 * Offer a new sample of the chain. 
+	 * @param sample a MetropolisHastingsSample instance
+	 * @see MetropolisHastingsSampleStore#offer(double, Matrix)
+	 */
+	void offer(MetropolisHastingsSample sample) {
+		offer(sample.llk, sample.parms);
+	}
+
+	/**
+	 * Add all the samples of another store to this one.
+	 * @param store a MetropolisHastingsSampleStore instance
+	 */
+	void addAll(MetropolisHastingsSampleStore store) {
+		if (store.nbParms != nbParms) {
+			throw new UnsupportedOperationException("The number of parameters is inconsistent with that of the store!");
+		}
+		if (capacity > 0) {
+			for (int i = 0; i < store.size; i++) {
+				System.arraycopy(store.data, store.getOffset(i), data, nextRecordOffset(), recordLength);
+			}
+		}
+		nbOfferedSamples += store.nbOfferedSamples;
+	}
+
+	/**
+	 * Return a copy of the stored samples from the oldest to the newest. Each record is the 
+	 * log-likelihood followed by the parameters.
+	 * @return an array of doubles
+	 */
+	double[] toArray() {
+		double[] array = new double[size * recordLength];
+		for (int i = 0; i < size; i++) {
+			System.arraycopy(data, getOffset(i), array, i * recordLength, recordLength);
+		}
+		return array;
+	}
+
+	/**
+	 * Return the number of samples that were offered to this store.
+	 * @return an integer
+	 */
+	int getNumberOfOfferedSamples() {return nbOfferedSamples;}
+
+	/**
+	 * Return the number of stored samples.
+	 * @return an integer
+	 */
+	int size() {return size;}
+
+	/**
+	 * Return the maximum number of samples that can be kept in this store.
+	 * @return an integer
+	 */
+	int getCapacity() {return capacity;}
+	
+	/**
+	 * Return the number of parameters.
+	 * @return an integer
+	 */
+	int getNumberOfParameters() {return nbParms;}
+
+	/**
+	 * Return the log-likelihood of a stored sample.
+	 * @param i the index of the sample, 0 being the oldest
+	 * @return a double
+	 */
+	double getLogLikelihood(int i) {
+		return data[getOffset(i)];
+	}
+
+	/**
+	 * Return a particular parameter of a stored sample.
+	 * @param i the index of the sample, 0 being the oldest
+	 * @param j the index of the parameter
+	 * @return a double
+	 */
+	double getParameter(int i, int j) {
+		return data[getOffset(i) + 1 + j];
+	}
+
+	/**
+	 * Return the parameters of a stored sample.
+	 * @param i the index of the sample, 0 being the oldest
+	 * @return a column vector
+	 */
+	Matrix getParameters(int i) {
+		int offset = getOffset(i);
+		Matrix parms = new Matrix(nbParms, 1);
+		for (int j = 0; j < nbParms; j++) {
+			parms.setValueAt(j, 0, data[offset + 1 + j]);
+		}
+		return parms;
+	}
+
+	/**
+	 * Return a stored sample. The instance is created on each call.
+	 * @param i the index of the sample, 0 being the oldest
+	 * @return a MetropolisHastingsSample instance
+	 */
+	MetropolisHastingsSample getSample(int i) {
+		return new MetropolisHastingsSample(getParameters(i), getLogLikelihood(i));
+	}
+
+	/**
+	 * Write the stored samples to a CSV file. The records are streamed from the store.
+	 * @param filename the name of the file
+	 * @throws IOException if an I/O error occurs
+	 */
+	void exportToCSV(String filename) throws IOException {
+		BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(filename, false)));
+		try {
+			StringBuilder sb = new StringBuilder("LLK");
+			for (int j = 1; j <= nbParms; j++) {
+				sb.append(";p").append(j);
+			}
+			writer.write(sb.toString());
+			writer.newLine();
+			for (int i = 0; i < size; i++) {
+				sb.setLength(0);
+				int offset = getOffset(i);
+				sb.append(data[offset]);
+				for (int j = 1; j <= nbParms; j++) {
+					sb.append(';').append(data[offset + j]);
+				}
+				writer.write(sb.toString());
+				writer.newLine();
+			}
+		} finally {
+			writer.close();
+		}
+	}
+}
@@ -374,6 +374,9 @@ public final class ObjectUtility {
 	 * @return a List of String instances
 	 */
 	public static List<String> splitLine(String lineRead, String token) {
+		if (token.length() == 1) {
+			return splitLine(lineRead.toCharArray(), 0, lineRead.length(), token.charAt(0));
+		}
 		List<String> strings = new ArrayList<String>();
 		int i = -1;
 		int j = 0;
@@ -413,5 +416,58 @@ public final class ObjectUtility {
 		return strings;
 	}
 
+	/**
+	 * This method splits a line stored in an array of characters. It follows the same rules as 
+	 * the splitLine(String, String) method but it does not create any String instance except for
+	 * the fields.
+	 * @param chars the array that contains the line
+	 * @param offset the index of the first character of the line
+	 * @param length the number of characters in the line
+	 * @param token the field separator
+	 * @return a List of String instances
+	 */
+	public static List<String> splitLine(char[] chars, int offset, int length, char token) {
+		List<String> strings = new ArrayList<String>();
+		int i = -1;		// the indices are relative to the offset
+		int j = 0;
+		boolean stringOpened = false;
+		while (length > 0) {
+			if (i == length - 1) {	// means the last character is a separator
+				strings.add("");		
+				break;
+			} else if (j >= length) {
+				throw new InvalidParameterException("A string has been opened but there is no closing!");
+			}
+			char c = chars[offset + j];
+			if (j == 0 && c == '"') {
+				stringOpened = true;
+			} else if (!stringOpened && c == token) {	// separator with no string on
+				strings.add(new String(chars, offset + i + 1, j - i - 1));
+				i = j;
+			} else if (j == length - 1) {	// end of the line 
+				if (stringOpened) {
+					if (c == '"') {
+						strings.add(new String(chars, offset + i + 2, j - i - 2));
+						break;
+					} else {
+						throw new InvalidParameterException("A string has been opened but there is no closing!");
+					}
+				} else {
+					strings.add(new String(chars, offset + i + 1, length - i - 1));
+					break;
+				} 
+			} else if (!stringOpened && j >= 1 && chars[offset + j - 1] == token && c == '"') {
+				stringOpened = true;
+			} else if (stringOpened && c == '"' && chars[offset + j + 1] == token) {
+				strings.add(new String(chars, offset + i + 2, j - i - 2));
+				stringOpened = false;
+				i = j + 1;
+				j = i;
+			}
+			j++;
+		}
+		return strings;
+	}
+
 	
 }
\ No newline at end of file
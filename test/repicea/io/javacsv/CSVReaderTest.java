@@ -0,0 +1,247 @@
+/*
+ * This file is part of the repicea-iotools library.
+ *
+ * Copyright (C) 2009-2012 Mathieu Fortin for Rouge-Epicea
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed with the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * Please see the license at http://www.gnu.org/copyleft/lesser.html.
+ */
+package repicea.io.javacsv;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.security.InvalidParameterException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import repicea.stats.data.ColumnarDataSet;
+import repicea.stats.data.DataSet;
+import repicea.stats.model.glm.copula.FGMCopulaGLModelTest;
+import repicea.util.ObjectUtility;
+
+public class CSVReaderTest {
+
+	private static File createFile(String content) throws IOException {
+		File file = File.createTempFile("csvReaderTest", ".csv");
+		file.deleteOnExit();
+		FileWriter writer = new FileWriter(file);
+		writer.write(content);
+		writer.close();
+		return file;
+	}
+
+	@Test
+	public void testRecordsWithDifferentLineBreaks() throws IOException {
+		File file = createFile("a;b;c\r\n1;\"x;y\";3\n4;5;6\r7;8;\r\n");
+		CSVReader reader = new CSVReader(file.getAbsolutePath());
+		Assert.assertEquals("Testing the number of fields", 3, reader.getFieldCount());
+		List<List<Object>> records = new ArrayList<List<Object>>();
+		Object[] record;
+		while ((record = reader.nextRecord()) != null) {
+			List<Object> values = new ArrayList<Object>();
+			for (Object value : record) {
+				values.add(value);
+			}
+			records.add(values);
+		}
+		Assert.assertEquals("Testing the record count", 3, reader.getRecordCount());
+		reader.close();
+		Assert.assertEquals("Testing the number of records read", 3, records.size());
+		Assert.assertEquals("[1, x;y, 3]", records.get(0).toString());
+		Assert.assertEquals("[4, 5, 6]", records.get(1).toString());
+		Assert.assertEquals("[7, 8, ]", records.get(2).toString());
+	}
+
+	@Test
+	public void testSkippingLinesAndReset() throws IOException {
+		File file = createFile("a,b\n1,2\n3,4\n5,6");
+		CSVReader reader = new CSVReader(file.getAbsolutePath());
+		Assert.assertEquals("5", reader.nextRecord(2)[0]);
+		Assert.assertNull(reader.nextRecord());
+		reader.reset();
+		Assert.assertTrue(reader.isAtBeginning());
+		Assert.assertEquals("1", reader.nextRecord()[0]);
+		reader.close();
+	}
+
+	@Test
+	public void testParallelReaderGivesSameDataSetAsSequentialReader() throws Exception {
+		String filename = ObjectUtility.getPackagePath(FGMCopulaGLModelTest.class).concat("donneesR_min.csv");
+		DataSet expected = new DataSet(filename, true);
+		ColumnarDataSet actual = new CSVParallelReader(filename, null, 4096).read();
+		Assert.assertEquals("Testing the field names", expected.getFieldNames(), actual.getFieldNames());
+		Assert.assertEquals("Testing the field types", expected.getFieldTypes(), actual.getFieldTypes());
+		Assert.assertTrue("Testing that the file has been read", expected.getNumberOfObservations() > 0);
+		Assert.assertEquals("Testing the number of observations", expected.getNumberOfObservations(), actual.getNumberOfObservations());
+		for (int i = 0; i < expected.getNumberOfObservations(); i++) {
+			Assert.assertTrue("Testing observation " + i,
+					expected.getObservations().get(i).isEqualToThisObservation(actual.getObservations().get(i)));
+		}
+	}
+
+	@Test
+	public void testParallelReaderWithTypesPromotedInLaterChunks() throws Exception {
+		StringBuilder sb = new StringBuilder("id;value;label\r\n");
+		for (int i = 0; i < 2000; i++) {
+			String value = i < 1500 ? Integer.toString(i) : i + ".5";
+			String label = i == 1999 ? "last" : Integer.toString(i % 7);
+			sb.append(i).append(";").append(value).append(";").append(label).append("\r\n");
+		}
+		File file = createFile(sb.toString());
+		ColumnarDataSet actual = new CSVParallelReader(file.getAbsolutePath(), null, 1000).read();
+		DataSet expected = new DataSet(file.getAbsolutePath(), true);
+		Assert.assertEquals("Testing the field types", expected.getFieldTypes(), actual.getFieldTypes());
+		Assert.assertEquals(2000, actual.getNumberOfObservations());
+		Assert.assertEquals(Double.class, actual.getFieldTypes().get(1));
+		Assert.assertEquals(String.class, actual.getFieldTypes().get(2));
+		for (int i = 0; i < expected.getNumberOfObservations(); i++) {
+			Assert.assertTrue("Testing observation " + i,
+					expected.getObservations().get(i).isEqualToThisObservation(actual.getObservations().get(i)));
+		}
+	}
+
+	@Test(expected=IOException.class)
+	public void testParallelReaderWithTooManyFields() throws Exception {
+		File file = createFile("a;b\n1;2\n3;4;5\n");
+		new CSVParallelReader(file.getAbsolutePath(), null, 4).read();
+	}
+
+	/*
+	 * The former implementation of ObjectUtility.splitLine, kept for the benchmark.
+	 */
+	private static List<String> formerSplitLine(String lineRead, String token) {
+		List<String> strings = new ArrayList<String>();
+		int i = -1;
+		int j = 0;
+		boolean stringOpened = false;
+		while (!lineRead.isEmpty()) {
+			if (j == 0 && String.valueOf(lineRead.charAt(j)).equals("\"")) {
+				stringOpened = true;
+			} else if (i == lineRead.length() - 1) {
+				strings.add("");
+				break;
+			} else if (!stringOpened && String.valueOf(lineRead.charAt(j)).equals(token)) {
+				strings.add(lineRead.substring(i + 1, j));
+				i = j;
+			} else if (j == lineRead.length() - 1) {
+				if (stringOpened) {
+					if (String.valueOf(lineRead.charAt(j)).equals("\"")) {
+						strings.add(lineRead.substring(i + 2, j));
+						stringOpened = false;
+						break;
+					} else {
+						throw new InvalidParameterException("A string has been opened but there is no closing!");
+					}
+				} else {
+					strings.add(lineRead.substring(i + 1));
+					break;
+				}
+			} else if (!stringOpened && j >= 1 && lineRead.substring(j - 1, j + 1).equals(token + "\"")) {
+				stringOpened = true;
+			} else if (stringOpened && lineRead.substring(j, j + 2).equals("\"" + token)) {
+				strings.add(lineRead.substring(i + 2, j));
+				stringOpened = false;
+				i = j + 1;
+				j = i;
+			}
+			j++;
+		}
+		return strings;
+	}
+
+	/**
+	 * Benchmark of the former reader, the CSVReader class and the CSVParallelReader class. The
+	 * first argument is the size of the file in MB (1024 by default).
+	 */
+	public static void main(String[] args) throws Exception {
+		int sizeMB = args.length > 0 ? Integer.parseInt(args[0]) : 1024;
+		File file = File.createTempFile("csvBenchmark", ".csv");
+		file.deleteOnExit();
+		BufferedWriter writer = new BufferedWriter(new FileWriter(file));
+		writer.write("plot;species;dbh;height;status\n");
+		Random random = new Random(1234);
+		String[] species = new String[] {"SAB", "EPN", "BOP", "PET", "ERS"};
+		while (file.length() < sizeMB * 1024L * 1024L) {
+			for (int i = 0; i < 100000; i++) {
+				writer.write(random.nextInt(10000) + ";" + species[random.nextInt(species.length)] + ";" +
+						(9 + random.nextDouble() * 40) + ";" + (2 + random.nextDouble() * 25) + ";\"alive;standing\"\n");
+			}
+			writer.flush();
+		}
+		writer.close();
+		double fileSizeMB = file.length() / (1024d * 1024d);
+		System.out.println("File size: " + (int) fileSizeMB + " MB");
+
+		long start = System.currentTimeMillis();
+		BufferedReader bufferedReader = new BufferedReader(new InputStreamReader(new FileInputStream(file)));
+		int nbLines = 0;
+		while (bufferedReader.readLine() != null) {		// the former reader counted the lines before reading the records
+			nbLines++;
+		}
+		bufferedReader.close();
+		bufferedReader = new BufferedReader(new InputStreamReader(new FileInputStream(file)));
+		bufferedReader.readLine();
+		String line;
+		long nbFields = 0;
+		while ((line = bufferedReader.readLine()) != null) {
+			nbFields += formerSplitLine(line, ";").size();
+		}
+		bufferedReader.close();
+		reportThroughput("Former reader", fileSizeMB, start, nbLines - 1);
+
+		start = System.currentTimeMillis();
+		CSVReader reader = new CSVReader(file.getAbsolutePath());
+		int nbRecords = 0;
+		nbFields = 0;
+		Object[] record;
+		while ((record = reader.nextRecord()) != null) {
+			nbFields += record.length;
+			nbRecords++;
+		}
+		reader.close();
+		reportThroughput("CSVReader", fileSizeMB, start, nbRecords);
+
+		start = System.currentTimeMillis();
+		reader = new CSVReader(file.getAbsolutePath());
+		List<String> fieldNames = new ArrayList<String>();
+		for (int j = 0; j < reader.getFieldCount(); j++) {
+			fieldNames.add(reader.getHeader().getField(j).getName());
+		}
+		ColumnarDataSet sequentialDataSet = new ColumnarDataSet(fieldNames);
+		while ((record = reader.nextRecord()) != null) {
+			sequentialDataSet.addObservation(record);
+		}
+		reader.close();
+		reportThroughput("CSVReader into typed columns", fileSizeMB, start, sequentialDataSet.getNumberOfObservations());
+		sequentialDataSet = null;
+
+		start = System.currentTimeMillis();
+		ColumnarDataSet dataSet = new CSVParallelReader(file.getAbsolutePath()).read();
+		reportThroughput("CSVParallelReader into typed columns", fileSizeMB, start, dataSet.getNumberOfObservations());
+		file.delete();
+	}
+
+	private static void reportThroughput(String label, double fileSizeMB, long start, int nbRecords) {
+		double elapsedSec = (System.currentTimeMillis() - start) * 0.001;
+		System.out.println(label + ": " + nbRecords + " records in " + elapsedSec + " s (" + Math.round(fileSizeMB / elapsedSec) + " MB/s)");
+	}
+}
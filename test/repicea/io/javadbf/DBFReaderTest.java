@@ -0,0 +1,142 @@
+/*
+ * This file is part of the repicea-iotools library.
+ *
+ * Copyright (C) 2009-2012 Mathieu Fortin for Rouge-Epicea
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed with the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * Please see the license at http://www.gnu.org/copyleft/lesser.html.
+ */
+package repicea.io.javadbf;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import repicea.io.ImportTest;
+import repicea.util.ObjectUtility;
+
+public class DBFReaderTest {
+
+	private static String getFilename() {
+		return ObjectUtility.getPackagePath(ImportTest.class) + "TEST6152.DBF";
+	}
+
+	private static List<Object[]> readAllRecords(DBFReader reader) throws IOException {
+		List<Object[]> records = new ArrayList<Object[]>();
+		Object[] record;
+		while ((record = reader.nextRecord()) != null) {
+			records.add(record);
+		}
+		return records;
+	}
+
+	@Test
+	public void testRandomAccessAndSkippingGiveTheSameRecords() throws IOException {
+		DBFReader reader = new DBFReader(getFilename());
+		List<Object[]> records = readAllRecords(reader);
+		Assert.assertEquals("Testing the number of records", reader.getRecordCount(), records.size());
+		for (int i = records.size() - 1; i >= 0; i -= 7) {
+			Assert.assertTrue("Testing record " + i, Arrays.equals(records.get(i), reader.getRecord(i)));
+		}
+		Assert.assertNull(reader.getRecord(records.size()));
+
+		reader.reset();
+		Assert.assertTrue(reader.isAtBeginning());
+		int lineCounter = 0;
+		for (int lineNumber = 3; lineNumber < records.size(); lineNumber += 11) {
+			Object[] record = reader.nextRecord(lineNumber - lineCounter);
+			lineCounter = lineNumber + 1;
+			Assert.assertTrue("Testing record " + lineNumber, Arrays.equals(records.get(lineNumber), record));
+		}
+		reader.close();
+	}
+
+	@Test
+	public void testProjectionAndNumericField() throws IOException {
+		DBFReader reader = new DBFReader(getFilename());
+		List<Object[]> records = readAllRecords(reader);
+		int numericFieldIndex = -1;
+		for (int j = 0; j < reader.getFieldCount(); j++) {
+			if (reader.getField(j).getDataType() == DBFField.FIELD_TYPE_N) {
+				numericFieldIndex = j;
+				break;
+			}
+		}
+		Assert.assertTrue("Testing that the file has a numeric field", numericFieldIndex >= 0);
+		double[] values = reader.getNumericField(numericFieldIndex);
+		Assert.assertEquals(records.size(), values.length);
+		for (int i = 0; i < records.size(); i++) {
+			Object expected = records.get(i)[numericFieldIndex];
+			if (expected == null) {
+				Assert.assertTrue(Double.isNaN(values[i]));
+			} else {
+				Assert.assertEquals("Testing record " + i, ((Double) expected).doubleValue(), values[i], 0d);
+				Assert.assertEquals(values[i], reader.getNumericValue(i, numericFieldIndex), 0d);
+			}
+		}
+
+		reader.reset();
+		reader.setProjection(numericFieldIndex);
+		Object[] record = reader.nextRecord();
+		for (int j = 0; j < reader.getFieldCount(); j++) {
+			if (j == numericFieldIndex) {
+				Assert.assertEquals(records.get(0)[j], record[j]);
+			} else {
+				Assert.assertNull(record[j]);
+			}
+		}
+		reader.close();
+	}
+
+	@Test
+	public void testDeletedRecordsAreSkipped() throws IOException {
+		File file = File.createTempFile("dbfReaderTest", ".dbf");
+		file.deleteOnExit();
+		Files.copy(new File(getFilename()).toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		DBFReader reader = new DBFReader(file.getAbsolutePath());
+		List<Object[]> records = readAllRecords(reader);
+		int headerLength = reader.getHeader().headerLength;
+		int recordLength = reader.getHeader().recordLength;
+		reader.close();
+
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		for (int deletedRecord : new int[] {1, 4, 5}) {
+			raf.seek(headerLength + (long) deletedRecord * recordLength);
+			raf.write('*');
+		}
+		raf.close();
+		records.remove(5);
+		records.remove(4);
+		records.remove(1);
+
+		reader = new DBFReader(file.getAbsolutePath());
+		List<Object[]> actualRecords = readAllRecords(reader);
+		Assert.assertEquals(records.size(), actualRecords.size());
+		for (int i = 0; i < records.size(); i++) {
+			Assert.assertTrue("Testing record " + i, Arrays.equals(records.get(i), actualRecords.get(i)));
+		}
+		reader.reset();
+		Assert.assertTrue("Testing record 3 after skipping", Arrays.equals(records.get(3), reader.nextRecord(3)));
+		Assert.assertTrue("Testing record 4", Arrays.equals(records.get(4), reader.nextRecord()));
+		Assert.assertTrue("Testing record 10", Arrays.equals(records.get(10), reader.getRecord(10)));
+		reader.close();
+	}
+}
@@ -0,0 +1,206 @@
+/*
+ * This file is part of the repicea-iotools library.
+ *
+ * Copyright (C) 2009-2012 Mathieu Fortin for Rouge-Epicea
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed with the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * Please see the license at http://www.gnu.org/copyleft/lesser.html.
+ */
+package repicea.io.javasql;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import repicea.io.FormatField;
+import repicea.io.ImportTest;
+import repicea.util.ObjectUtility;
+
+public class SQLWriterTest {
+
+	private static File copyDatabase() throws IOException {
+		File file = File.createTempFile("sqlWriterTest", ".accdb");
+		file.deleteOnExit();
+		Files.copy(new File(ObjectUtility.getPackagePath(ImportTest.class) + "TEST6152.accdb").toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		return file;
+	}
+
+	private static List<FormatField> getFields() {
+		List<FormatField> fields = new ArrayList<FormatField>();
+		fields.add(new SQLField("name", "varchar", 30));
+		fields.add(new SQLField("value", "double", 10));
+		fields.add(new SQLField("counter", "integer", 10));
+		return fields;
+	}
+
+	private static Object[] createRecord(int i) {
+		return new Object[] {i % 10 == 0 ? "l'arbre " + i : "tree " + i, i % 13 == 0 ? null : i * 0.5, i};
+	}
+
+	@Test
+	public void testWritingAndReadingBackInBatches() throws IOException {
+		File file = copyDatabase();
+		SQLWriter writer = new SQLWriter(file, "BatchTest", false);
+		writer.setBatchSize(7);
+		writer.setTransactionSize(20);
+		writer.setFields(getFields());
+		int nbRecords = 103;
+		for (int i = 0; i < nbRecords; i++) {
+			writer.addRecord(createRecord(i));
+		}
+		writer.close();
+
+		SQLReader reader = new SQLReader(file.getAbsolutePath(), "BatchTest");
+		Assert.assertEquals("Testing the number of records", nbRecords, reader.getRecordCount());
+		reader.setFetchSize(10);
+		reader.reset();
+		Object[] record;
+		int i = 0;
+		while ((record = reader.nextRecord()) != null) {
+			Object[] expected = createRecord(i);
+			Assert.assertEquals("Testing the name of record " + i, expected[0], record[0]);
+			if (expected[1] == null) {
+				Assert.assertNull("Testing the null value of record " + i, record[1]);
+			} else {
+				Assert.assertEquals("Testing the value of record " + i, (Double) expected[1], ((Number) record[1]).doubleValue(), 0d);
+			}
+			Assert.assertEquals("Testing the counter of record " + i, i, ((Number) record[2]).intValue());
+			i++;
+		}
+		Assert.assertEquals("Testing the number of records read", nbRecords, i);
+
+		reader.setProjection(2);
+		reader.reset();
+		record = reader.nextRecord(4);
+		Assert.assertNull("Testing that the name is not read", record[0]);
+		Assert.assertNull("Testing that the value is not read", record[1]);
+		Assert.assertEquals("Testing the counter after skipping", 4, ((Number) record[2]).intValue());
+		reader.close();
+	}
+
+	@Test
+	public void testFailedFlushIsRolledBackAndConnectionIsRestored() throws IOException, SQLException {
+		File file = copyDatabase();
+		Object otherUser = new Object();
+		DatabaseConnectionManager.registerConnectionUser(otherUser, file.getAbsolutePath());	// keeps the connection open
+		try {
+			Connection connection = DatabaseConnectionManager.getUserConnection(otherUser);
+			connection.setAutoCommit(true);
+			boolean isReadOnly = connection.isReadOnly();
+
+			SQLWriter writer = new SQLWriter(file, "RollbackTest", false);
+			writer.setBatchSize(5);
+			writer.setFields(getFields());
+			for (int i = 0; i < 10; i++) {		// two batches sent to the database but not committed
+				writer.addRecord(createRecord(i));
+			}
+			writer.addRecord(new Object[] {"a name that is longer than thirty characters", 5d, 10});		// fails when the batch is executed
+			try {
+				writer.close();
+				Assert.fail("The flush should have failed");
+			} catch (IOException e) {}
+
+			Assert.assertTrue("Testing that the auto-commit mode is restored", connection.getAutoCommit());
+			Assert.assertEquals("Testing that the read-only mode is restored", isReadOnly, connection.isReadOnly());
+			Statement statement = connection.createStatement();
+			ResultSet resultSet = statement.executeQuery("SELECT COUNT(*) FROM RollbackTest");
+			resultSet.next();
+			Assert.assertEquals("Testing that the records have been rolled back", 0, resultSet.getInt(1));
+			resultSet.close();
+			statement.close();
+		} finally {
+			DatabaseConnectionManager.removeUser(otherUser);
+		}
+	}
+
+	/**
+	 * Benchmark of the former SQLWriter implementation, that is one INSERT statement per record
+	 * in autocommit mode, against the batched SQLWriter class. The first argument is the
+	 * number of records (20000 by default).
+	 */
+	public static void main(String[] args) throws Exception {
+		int nbRecords = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+		File file = copyDatabase();
+		SQLWriter writer = new SQLWriter(file, "FormerWriter", false);
+		writer.setFields(getFields());
+		writer.close();
+
+		long start = System.currentTimeMillis();
+		DatabaseConnectionManager.registerConnectionUser(file, file.getAbsolutePath());
+		Connection connection = DatabaseConnectionManager.getUserConnection(file);
+		connection.setAutoCommit(true);
+		Statement statement = connection.createStatement();
+		for (int i = 0; i < nbRecords; i++) {
+			Object[] record = createRecord(i);
+			record[0] = record[0].toString().replace("'", "''");
+			record[1] = record[1] == null ? 0d : record[1];
+			String sqlStatementStr = "INSERT INTO FormerWriter (name, value, counter) VALUES (";
+			for (int j = 0; j < record.length; j++) {
+				if (record[j] instanceof Number) {
+					sqlStatementStr += record[j].toString();
+				} else {
+					sqlStatementStr += "'" + record[j].toString() + "'";
+				}
+				sqlStatementStr += j == record.length - 1 ? ")" : ", ";
+			}
+			statement.execute(sqlStatementStr);
+		}
+		statement.close();
+		reportThroughput("One statement per record", start, nbRecords);
+
+		start = System.currentTimeMillis();
+		writer = new SQLWriter(file, "BatchedWriter", false);
+		writer.setFields(getFields());
+		for (int i = 0; i < nbRecords; i++) {
+			writer.addRecord(createRecord(i));
+		}
+		writer.close();
+		reportThroughput("SQLWriter with batches of " + SQLWriter.DefaultBatchSize, start, nbRecords);
+
+		start = System.currentTimeMillis();
+		SQLReader reader = new SQLReader(file.getAbsolutePath(), "BatchedWriter");
+		int nbRecordsRead = 0;
+		while (reader.nextRecord() != null) {
+			nbRecordsRead++;
+		}
+		reportThroughput("SQLReader", start, nbRecordsRead);
+
+		start = System.currentTimeMillis();
+		reader.setProjection(2);
+		reader.reset();
+		nbRecordsRead = 0;
+		while (reader.nextRecord() != null) {
+			nbRecordsRead++;
+		}
+		reportThroughput("SQLReader with a single field", start, nbRecordsRead);
+		reader.close();
+		try {
+			DatabaseConnectionManager.removeUser(file);
+		} catch (SQLException e) {}
+	}
+
+	private static void reportThroughput(String label, long start, int nbRecords) {
+		double elapsedSec = (System.currentTimeMillis() - start) * 0.001;
+		System.out.println(label + ": " + nbRecords + " records in " + elapsedSec + " s (" + Math.round(nbRecords / elapsedSec) + " records/s)");
+	}
+}
@@ -0,0 +1,204 @@
+/*
+ * This file is part of the repicea-iotools library.
+ *
+ * Copyright (C) 2009-2021 Mathieu Fortin for Rouge-Epicea
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed with the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * Please see the license at http://www.gnu.org/copyleft/lesser.html.
+ */
+package repicea.io.tools;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import repicea.io.ImportTest;
+import repicea.io.javacsv.CSVReader;
+import repicea.io.tools.GroupingIndex.Run;
+import repicea.util.ObjectUtility;
+
+public class GroupingIndexTest {
+
+	private static File copyTestFile() throws Exception {
+		File file = File.createTempFile("groupingIndexTest", ".csv");
+		file.deleteOnExit();
+		Files.copy(new File(ObjectUtility.getPackagePath(ImportTest.class) + "TEST6152.csv").toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		return file;
+	}
+
+	private static GroupingRegistryReader readGroups(File file) throws Exception {
+		String testIfe = ObjectUtility.getPackagePath(RecordReaderImpl.class) + "test.ife";
+		ImportFieldManager ifm = ImportFieldManager.createImportFieldManager(testIfe, file.getAbsolutePath());
+		ifm.setStratumFieldEnum(new RecordReaderImpl().defineGroupFieldEnum());
+		GroupingRegistryReader reader = new GroupingRegistryReader(ifm);
+		reader.run();
+		Assert.assertTrue("Testing that the groups have been read", reader.isCorrectlyTerminated());
+		return reader;
+	}
+
+	private static File createCacheDirectory() throws Exception {
+		File cacheDirectory = Files.createTempDirectory("groupingIndexTest").toFile();
+		cacheDirectory.deleteOnExit();
+		return cacheDirectory;
+	}
+	
+	private static void deleteCacheDirectory(File cacheDirectory) {
+		for (File file : cacheDirectory.listFiles()) {
+			file.delete();
+		}
+		cacheDirectory.delete();
+	}
+	
+	@Test
+	public void testIndexIsReloadedUntilTheFileChanges() throws Exception {
+		File file = copyTestFile();
+		File cacheDirectory = createCacheDirectory();
+		File formerCacheDirectory = GroupingIndex.getCacheDirectory();
+		REpiceaRecordReader.setGroupingIndexCacheDirectory(cacheDirectory);
+		try {
+			GroupingRegistryReader scanned = readGroups(file);
+			Assert.assertFalse("Testing that the file has been scanned", scanned.isIndexLoadedFromCache());
+			Assert.assertTrue("Testing that the file has many groups", scanned.getGroupList().size() > 1);
+			Assert.assertEquals("Testing that the index has been saved in the cache directory", 1, cacheDirectory.listFiles().length);
+
+			GroupingRegistryReader reloaded = readGroups(file);
+			Assert.assertTrue("Testing that the index has been reloaded", reloaded.isIndexLoadedFromCache());
+			Assert.assertEquals("Testing the group list", scanned.getGroupList(), reloaded.getGroupList());
+			Assert.assertEquals("Testing the group map", scanned.getGroupMap(), reloaded.getGroupMap());
+
+			file.setLastModified(file.lastModified() - 10000);
+			Assert.assertFalse("Testing that the file has been scanned again", readGroups(file).isIndexLoadedFromCache());
+			Assert.assertTrue("Testing that the index has been reloaded", readGroups(file).isIndexLoadedFromCache());
+
+			byte[] content = Files.readAllBytes(file.toPath());		// same size and same modification date
+			long lastModified = file.lastModified();
+			content[content.length - 2] = content[content.length - 2] == 'x' ? (byte) 'y' : (byte) 'x';
+			Files.write(file.toPath(), content);
+			file.setLastModified(lastModified);
+			Assert.assertFalse("Testing that the file has been scanned after a change of content", readGroups(file).isIndexLoadedFromCache());
+		} finally {
+			REpiceaRecordReader.setGroupingIndexCacheDirectory(formerCacheDirectory);
+			deleteCacheDirectory(cacheDirectory);
+		}
+	}
+
+	@Test
+	public void testIndexFileDependsOnTheCharset() throws Exception {
+		String[] fileSpec = new String[] {copyTestFile().getAbsolutePath()};
+		Assert.assertNotEquals("Testing that the charset is part of the key", 
+				GroupingIndex.getIndexFile(fileSpec, StandardCharsets.UTF_8.name()), 
+				GroupingIndex.getIndexFile(fileSpec, StandardCharsets.ISO_8859_1.name()));
+	}
+
+	@Test
+	public void testStaleIndexFilesAreDeleted() throws Exception {
+		File cacheDirectory = createCacheDirectory();
+		try {
+			long now = System.currentTimeMillis();
+			File oldFile = new File(cacheDirectory, "groupOld.idx");
+			oldFile.createNewFile();
+			oldFile.setLastModified(now - GroupingIndex.MaxAgeOfIndexFilesMillis - 60000);
+			File otherFile = new File(cacheDirectory, "other.txt");		// not an index file
+			otherFile.createNewFile();
+			otherFile.setLastModified(now - GroupingIndex.MaxAgeOfIndexFilesMillis - 60000);
+			for (int i = 0; i < GroupingIndex.MaxNumberOfIndexFiles; i++) {
+				File file = new File(cacheDirectory, "group" + i + ".idx");
+				file.createNewFile();
+				file.setLastModified(now - (GroupingIndex.MaxNumberOfIndexFiles - i) * 1000L);		// group0.idx is the oldest
+			}
+			GroupingIndex.deleteStaleIndexFiles(cacheDirectory);
+			Assert.assertFalse("Testing that the index file that has not been used for a while is deleted", oldFile.exists());
+			Assert.assertTrue("Testing that the other files are kept", otherFile.exists());
+			Assert.assertFalse("Testing that the oldest index file is deleted", new File(cacheDirectory, "group0.idx").exists());
+			Assert.assertEquals("Testing the number of files left", GroupingIndex.MaxNumberOfIndexFiles, cacheDirectory.listFiles().length);
+		} finally {
+			deleteCacheDirectory(cacheDirectory);
+		}
+	}
+
+	@Test
+	public void testReadingGroupsWithTheCachedIndex() throws Exception {
+		File file = copyTestFile();
+		String testIfe = ObjectUtility.getPackagePath(RecordReaderImpl.class) + "test.ife";
+		for (int i = 0; i < 2; i++) {
+			RecordReaderImpl recordReader = new RecordReaderImpl();
+			recordReader.initInScriptMode(ImportFieldManager.createImportFieldManager(testIfe, file.getAbsolutePath()));
+			int nbRecords = 0;
+			for (int groupId = recordReader.getGroupList().size() - 1; groupId >= 0; groupId -= 5) {
+				recordReader.readRecordsForThisGroupId(groupId);
+				nbRecords += recordReader.getObservationIndicesForThisGroup(groupId).size();
+				Assert.assertEquals("Testing the number of records read for group " + groupId, nbRecords, recordReader.nbRecordsRead);
+			}
+			recordReader.readAllRecords();
+			Assert.assertEquals("Testing the number of records read", nbRecords + 3647, recordReader.nbRecordsRead);
+		}
+	}
+
+	@Test
+	public void testRunsAndByteOffsetsWithInterleavedGroups() throws Exception {
+		File file = File.createTempFile("groupingIndexTest", ".csv");
+		file.deleteOnExit();
+		Writer writer = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8);
+		writer.write("group;value\r\n");
+		String[] groups = new String[] {"\u00E9rabli\u00E8re", "sapini\u00E8re", "\uD83C\uDF32"};
+		List<String> expectedGroups = new ArrayList<String>();
+		for (int i = 0; i < 300; i++) {
+			String group = groups[(i / 7 + i % 3) % groups.length];
+			expectedGroups.add(group);
+			writer.write(group + ";" + i + (i % 2 == 0 ? "\r\n" : "\n"));
+		}
+		writer.close();
+
+		CSVReader reader = new CSVReader(file.getAbsolutePath(), StandardCharsets.UTF_8);
+		GroupingIndex index = new GroupingIndex();
+		Object[] record;
+		int line = 0;
+		while ((record = reader.nextRecord()) != null) {
+			index.add(record[0].toString(), line++, reader.getOffsetOfLastRecord());
+		}
+		index.complete();
+		Assert.assertEquals(300, index.getNumberOfRecords());
+		List<String> groupNames = index.getGroupNames();
+		Assert.assertEquals(groups.length, groupNames.size());
+
+		int nbRecords = 0;
+		for (int groupId = 0; groupId < groupNames.size(); groupId++) {
+			List<Integer> recordIndices = index.getRecordIndices(groupId);
+			Assert.assertEquals(index.getNumberOfRecords(groupId), recordIndices.size());
+			for (Integer recordIndex : recordIndices) {
+				Assert.assertEquals(groupNames.get(groupId), expectedGroups.get(recordIndex));
+			}
+			for (Run run : index.getRuns(groupId)) {
+				Assert.assertTrue("Testing that the offset is known", run.byteOffset > 0);
+				reader.seek(run.byteOffset, run.firstRecord);
+				for (int i = run.firstRecord; i < run.firstRecord + run.nbRecords; i++) {
+					record = reader.nextRecord();
+					Assert.assertEquals("Testing the group of record " + i, groupNames.get(groupId), record[0]);
+					Assert.assertEquals("Testing the value of record " + i, Integer.toString(i), record[1]);
+					nbRecords++;
+				}
+			}
+		}
+		reader.close();
+		Assert.assertEquals("Testing the number of records read through the runs", 300, nbRecords);
+	}
+}
@@ -1,5 +1,10 @@
 package repicea.lang.codetranslator;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Base64;
+
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -17,4 +22,153 @@ public class REnvironmentTest {
 		Assert.assertTrue("Testing if the callback is formatted for an array", callback.toString().startsWith("JavaObject" + REnvironment.MainSplitter + "[[I"));
 	}
 	
+	private static String getHashCode(Object callback) {
+		String str = callback.toString();
+		return str.substring(str.indexOf("@") + 1);
+	}
+	
+	@Test
+	public void repeatedMethodCallsWithNearestMethodTest() throws Exception {
+		REnvironment r = new REnvironment();
+		Object callback = r.processCode("create" + REnvironment.MainSplitter + "java.util.ArrayList");
+		String list = "java.objecthashcode" + getHashCode(callback);
+		for (int i = 0; i < 5; i++) {
+			Object result = r.processCode("method" + REnvironment.MainSplitter + list + 
+					REnvironment.MainSplitter + "add" + 
+					REnvironment.MainSplitter + "integer" + i);		// add(Object) is retrieved through the nearest method
+			Assert.assertEquals("Testing the result of add", "logicaltrue", result.toString());
+		}
+		Object size = r.processCode("method" + REnvironment.MainSplitter + list + REnvironment.MainSplitter + "size");
+		Assert.assertEquals("Testing the size of the list", "integer5", size.toString());
+		Object max = r.processCode("method" + REnvironment.MainSplitter + "characterjava.lang.Math" + 
+				REnvironment.MainSplitter + "max" + 
+				REnvironment.MainSplitter + "numeric2.5" + 
+				REnvironment.MainSplitter + "numeric1.5");
+		Assert.assertEquals("Testing the result of a static method", "numeric2.5", max.toString());
+		Object matrix = r.processCode("create" + REnvironment.MainSplitter + "repicea.math.Matrix" + 
+				REnvironment.MainSplitter + "integer2" + 
+				REnvironment.MainSplitter + "integer3");
+		Assert.assertTrue("Testing the constructor", matrix.toString().startsWith("JavaObject" + REnvironment.MainSplitter + "repicea.math.Matrix@"));
+	}
+
+	@Test
+	public void vectorizedPrimitiveResultsTest() throws Exception {
+		REnvironment r = new REnvironment();
+		Object result = r.processCode("method" + REnvironment.MainSplitter + "characterjava.lang.Math" + 
+				REnvironment.MainSplitter + "sqrt" + 
+				REnvironment.MainSplitter + "numeric1" + REnvironment.SubSplitter + "4" + REnvironment.SubSplitter + "6.25");
+		Assert.assertEquals("Testing the list format", "JavaList" + REnvironment.MainSplitter + "numeric1.0" + REnvironment.SubSplitter + 
+				"numeric2.0" + REnvironment.SubSplitter + "numeric2.5" + REnvironment.SubSplitter, result.toString());
+		result = r.processCode("methodvector" + REnvironment.MainSplitter + "characterjava.lang.Math" + 
+				REnvironment.MainSplitter + "abs" + 
+				REnvironment.MainSplitter + "integer-1" + REnvironment.SubSplitter + "2");
+		Assert.assertEquals("Testing the text format", "integer1" + REnvironment.SubSplitter + "2", result.toString());
+	}
+
+	@Test
+	public void arraysAndMatricesSentAsVectorsTest() throws Exception {
+		REnvironment r = new REnvironment();
+		int initialSize = r.size();
+		String array = "java.objecthashcode" + getHashCode(r.processCode("createarray" + REnvironment.MainSplitter + "double" + 
+				REnvironment.MainSplitter + "integer3"));
+		r.processCode("method" + REnvironment.MainSplitter + "characterjava.lang.reflect.Array" + 
+				REnvironment.MainSplitter + "setDouble" + 
+				REnvironment.MainSplitter + array + 
+				REnvironment.MainSplitter + "integer1" + 
+				REnvironment.MainSplitter + "numeric2.5");
+		String copyRequest = REnvironment.MainSplitter + "characterjava.util.Arrays" + 
+				REnvironment.MainSplitter + "copyOf" + 
+				REnvironment.MainSplitter + array + 
+				REnvironment.MainSplitter + "integer3";
+		Object result = r.processCode("method" + copyRequest);
+		Assert.assertTrue("Testing that the array is sent as an object", result.toString().startsWith("JavaObject" + REnvironment.MainSplitter + "[D@"));
+		Assert.assertEquals("Testing that the array has been registered", initialSize + 2, r.size());
+		result = r.processCode("methodvector" + copyRequest);
+		Assert.assertEquals("Testing the array sent as a vector", "numeric0.0" + REnvironment.SubSplitter + "2.5" + REnvironment.SubSplitter + "0.0", result.toString());
+		Assert.assertEquals("Testing that the vector has not been registered", initialSize + 2, r.size());
+		result = r.processCode("methodbinaryvector" + copyRequest);
+		String str = result.toString();
+		Assert.assertTrue("Testing the binary prefix", str.startsWith("binarynumeric"));
+		ByteBuffer bb = ByteBuffer.wrap(Base64.getDecoder().decode(str.substring("binarynumeric".length()))).order(ByteOrder.LITTLE_ENDIAN);
+		Assert.assertEquals("Testing the number of bytes", 24, bb.remaining());
+		Assert.assertEquals(0d, bb.getDouble(), 0d);
+		Assert.assertEquals(2.5, bb.getDouble(), 0d);
+		Assert.assertEquals(0d, bb.getDouble(), 0d);
+
+		String matrix = "java.objecthashcode" + getHashCode(r.processCode("create" + REnvironment.MainSplitter + "repicea.math.Matrix" + 
+				REnvironment.MainSplitter + "integer2" + REnvironment.MainSplitter + "integer3"));
+		result = r.processCode("methodvector" + REnvironment.MainSplitter + matrix + 
+				REnvironment.MainSplitter + "scalarAdd" + 
+				REnvironment.MainSplitter + "numeric1.5");
+		Assert.assertEquals("Testing the matrix sent as a vector", "matrix2" + REnvironment.SubSplitter + "3" + REnvironment.MainSplitter + 
+				"numeric1.5" + REnvironment.SubSplitter + "1.5" + REnvironment.SubSplitter + "1.5" + REnvironment.SubSplitter + 
+				"1.5" + REnvironment.SubSplitter + "1.5" + REnvironment.SubSplitter + "1.5", result.toString());
+	}
+	
+	/**
+	 * Benchmark of the latency of the requests with and without the cache of methods and constructors
+	 * and benchmark of the replies to vectorized calls. The first argument is the number of requests 
+	 * of each type (100000 by default). The second argument is the number of values in the vectorized 
+	 * calls (20000 by default).
+	 */
+	public static void main(String[] args) throws Exception {
+		int nbRequests = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+		for (boolean isCacheEnabled : new boolean[] {false, true}) {
+			REnvironment r = new REnvironment();
+			r.setResolutionCacheEnabled(isCacheEnabled);
+			String list = "java.objecthashcode" + getHashCode(r.processCode("create" + REnvironment.MainSplitter + "java.util.ArrayList"));
+			String[] requests = new String[] {
+					"method" + REnvironment.MainSplitter + "characterjava.lang.Math" + REnvironment.MainSplitter + "max" + 
+							REnvironment.MainSplitter + "numeric2.5" + REnvironment.MainSplitter + "numeric1.5",
+					"method" + REnvironment.MainSplitter + list + REnvironment.MainSplitter + "contains" + 
+							REnvironment.MainSplitter + "integer1",
+					"create" + REnvironment.MainSplitter + "repicea.math.Matrix" + 
+							REnvironment.MainSplitter + "integer2" + REnvironment.MainSplitter + "integer3"
+			};
+			String[] labels = new String[] {"Static method", "Nearest method", "Constructor"};
+			for (int k = 0; k < requests.length; k++) {
+				long[] latencies = new long[nbRequests];
+				for (int i = 0; i < nbRequests; i++) {
+					long start = System.nanoTime();
+					r.processCode(requests[k]);
+					latencies[i] = System.nanoTime() - start;
+				}
+				Arrays.sort(latencies);
+				System.out.println((isCacheEnabled ? "With cache - " : "Without cache - ") + labels[k] + 
+						": p50 = " + getPercentileMicroSec(latencies, .5) + 
+						" us; p90 = " + getPercentileMicroSec(latencies, .9) + 
+						" us; p99 = " + getPercentileMicroSec(latencies, .99) + 
+						" us; p99.9 = " + getPercentileMicroSec(latencies, .999) + " us");
+			}
+		}
+
+		int nbValues = args.length > 1 ? Integer.parseInt(args[1]) : 20000;
+		StringBuilder values = new StringBuilder("numeric0");
+		for (int i = 1; i < nbValues; i++) {
+			values.append(REnvironment.SubSplitter).append(i);
+		}
+		long start = System.nanoTime();
+		String output = "JavaList" + REnvironment.MainSplitter;		// the former serialization of the JavaObjectList class
+		for (int i = 0; i < nbValues; i++) {
+			output = output + "numeric" + Math.sqrt(i) + REnvironment.SubSplitter;
+		}
+		reportReply("Former serialization of the list", start, output.length());
+		REnvironment r = new REnvironment();
+		for (String code : new String[] {"method", "methodvector", "methodbinaryvector"}) {
+			start = System.nanoTime();
+			Object result = r.processCode(code + REnvironment.MainSplitter + "characterjava.lang.Math" + 
+					REnvironment.MainSplitter + "sqrt" + 
+					REnvironment.MainSplitter + values);
+			reportReply("Request " + code + " with its reply", start, result.toString().length());
+		}
+	}
+
+	private static void reportReply(String label, long start, int nbChars) {
+		System.out.println(label + ": " + String.format("%.1f", (System.nanoTime() - start) * 1E-6) + " ms for " + nbChars + " characters");
+	}
+	
+	private static String getPercentileMicroSec(long[] sortedLatencies, double percentile) {
+		return String.format("%.1f", sortedLatencies[(int) Math.min(sortedLatencies.length - 1, sortedLatencies.length * percentile)] * .001);
+	}
+	
 }
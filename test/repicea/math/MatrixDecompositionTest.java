@@ -0,0 +1,153 @@
+/*
+ * This file is part of the repicea library.
+ *
+ * Copyright (C) 2009-2019 Mathieu Fortin for Rouge-Epicea
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed with the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * Please see the license at http://www.gnu.org/copyleft/lesser.html.
+ */
+package repicea.math;
+
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import repicea.stats.StatisticalUtility;
+import repicea.stats.StatisticalUtility.TypeMatrixR;
+
+/**
+ * This test class checks the LU, Cholesky and QR decompositions.
+ */
+public class MatrixDecompositionTest {
+
+	private static boolean isIdentity(Matrix mat, double tolerance) {
+		return !mat.subtract(Matrix.getIdentityMatrix(mat.m_iRows)).getAbsoluteValue().anyElementLargerThan(tolerance);
+	}
+
+	@Test
+	public void luDecompositionTest() {
+		Matrix a = MatrixTest.createRandomMatrix(50, 50);
+		LUDecomposition lu = new LUDecomposition(a);
+		Assert.assertTrue("Testing the matrix is not singular", !lu.isSingular());
+		Assert.assertTrue("Testing A x inv(A)", isIdentity(a.multiply(lu.getInverse()), 1E-8));
+
+		Matrix b = MatrixTest.createRandomMatrix(50, 3);
+		Matrix x = lu.solve(b);
+		Assert.assertTrue("Testing AX = B", !a.multiply(x).subtract(b).getAbsoluteValue().anyElementLargerThan(1E-8));
+
+		Matrix pa = new Matrix(50, 50);
+		int[] pivot = lu.getPivot();
+		for (int i = 0; i < 50; i++) {
+			pa.setSubMatrix(a.getSubMatrix(pivot[i], pivot[i], 0, 49), i, 0);
+		}
+		Matrix product = lu.getLowerTriangle().multiply(lu.getUpperTriangle());
+		Assert.assertTrue("Testing PA = LU", !pa.subtract(product).getAbsoluteValue().anyElementLargerThan(1E-10));
+	}
+
+	@Test
+	public void luDecompositionWithZeroPivotTest() {
+		Matrix a = new Matrix(new double[][] {{0, 1, 2}, {1, 0, 3}, {4, -3, 8}});
+		LUDecomposition lu = new LUDecomposition(a);
+		Assert.assertEquals("Testing the determinant", -2d, lu.getDeterminant(), 1E-12);
+		Assert.assertTrue("Testing A x inv(A)", isIdentity(a.multiply(lu.getInverse()), 1E-12));
+	}
+
+	@Test
+	public void luDecompositionSingularMatrixTest() {
+		Matrix a = new Matrix(new double[][] {{1, 2, 3}, {2, 4, 6}, {1, 0, 1}});
+		LUDecomposition lu = new LUDecomposition(a);
+		Assert.assertTrue("Testing the matrix is singular", lu.isSingular());
+		Assert.assertEquals("Testing the determinant", 0d, lu.getDeterminant(), 1E-12);
+		try {
+			lu.getInverse();
+			Assert.fail("The inverse of a singular matrix should throw an exception!");
+		} catch (UnsupportedOperationException e) {}
+	}
+
+	@Test
+	public void determinantTest() {
+		Matrix a = MatrixTest.createRandomMatrix(7, 7);
+		double expected = 0d;
+		for (int j = 0; j < 7; j++) {
+			expected += a.getValueAt(0, j) * a.getCofactor(0, j);
+		}
+		Assert.assertEquals("Testing the determinant", expected, a.getDeterminant(), Math.abs(expected) * 1E-10);
+	}
+
+	@Test
+	public void choleskyDecompositionTest() {
+		Matrix coordinates = new Matrix(30,1,0,1);
+		Matrix rMatrix = StatisticalUtility.constructRMatrix(Arrays.asList(new Double[] {2d, 0.2}), TypeMatrixR.LINEAR, coordinates);
+		CholeskyDecomposition chol = new CholeskyDecomposition(rMatrix);
+		Matrix lower = chol.getLowerTriangle();
+		Assert.assertTrue("Testing LL' = A", !lower.multiply(lower.transpose()).subtract(rMatrix).getAbsoluteValue().anyElementLargerThan(1E-10));
+		Assert.assertTrue("Testing A x inv(A)", isIdentity(rMatrix.multiply(chol.getInverse()), 1E-10));
+		Assert.assertEquals("Testing the determinant", new LUDecomposition(rMatrix).getDeterminant(), chol.getDeterminant(), chol.getDeterminant() * 1E-8);
+		Assert.assertEquals("Testing the log determinant", Math.log(chol.getDeterminant()), chol.getLogDeterminant(), 1E-8);
+		Matrix b = MatrixTest.createRandomMatrix(30, 2);
+		Assert.assertTrue("Testing AX = B", !rMatrix.multiply(chol.solve(b)).subtract(b).getAbsoluteValue().anyElementLargerThan(1E-8));
+	}
+
+	@Test
+	public void choleskyDecompositionNonPositiveDefiniteMatrixTest() {
+		Matrix a = new Matrix(new double[][] {{1, 2}, {2, 1}});
+		try {
+			new CholeskyDecomposition(a);
+			Assert.fail("The Cholesky decomposition of a non positive definite matrix should throw an exception!");
+		} catch (UnsupportedOperationException e) {}
+		Assert.assertTrue("Testing the inverse through the LU decomposition", isIdentity(a.multiply(a.getInverseMatrix()), 1E-12));
+	}
+
+	@Test
+	public void choleskyDecompositionSemiDefiniteMatrixTest() {
+		Matrix a = new Matrix(new double[][] {{1, 1}, {1, 1}});
+		try {
+			new CholeskyDecomposition(a);
+			Assert.fail("The Cholesky decomposition of a matrix with a null pivot should throw an exception!");
+		} catch (UnsupportedOperationException e) {}
+		Matrix lower = a.getLowerCholTriangle();	// the former implementation accepted a null pivot
+		Assert.assertEquals("Testing the null pivot", 0d, lower.getValueAt(1, 1), 0d);
+		Assert.assertTrue("Testing LL' = A", !lower.multiply(lower.transpose()).subtract(a).getAbsoluteValue().anyElementLargerThan(1E-12));
+	}
+
+	@Test
+	public void qrDecompositionTest() {
+		Matrix x = MatrixTest.createRandomMatrix(100, 5);
+		Matrix y = MatrixTest.createRandomMatrix(100, 1);
+		QRDecomposition qr = new QRDecomposition(x);
+		Assert.assertTrue("Testing full rank", qr.isFullRank());
+		Matrix beta = qr.solve(y);
+		Matrix expected = new CholeskyDecomposition(x.transposeAndMultiply(x)).solve(x.transposeAndMultiply(y));
+		Assert.assertTrue("Testing least squares solution", !beta.subtract(expected).getAbsoluteValue().anyElementLargerThan(1E-8));
+		Matrix r = qr.getR();
+		Assert.assertTrue("Testing R'R = X'X", !r.transposeAndMultiply(r).subtract(x.transposeAndMultiply(x)).getAbsoluteValue().anyElementLargerThan(1E-8));
+	}
+
+	/**
+	 * This test checks that a 1000 x 1000 variance-covariance matrix can be inverted in a few seconds.
+	 */
+	@Test
+	public void largeMatrixInversionTest() {
+		int size = 1000;
+		Matrix coordinates = new Matrix(size,1,0,1);
+		Matrix rMatrix = StatisticalUtility.constructRMatrix(Arrays.asList(new Double[] {2d, 0.9}), TypeMatrixR.POWER, coordinates);
+		long startingTime = System.currentTimeMillis();
+		Matrix invMat = rMatrix.getInverseMatrix();
+		double elapsedTime = (System.currentTimeMillis() - startingTime) * .001;
+		System.out.println("Time to invert a " + size + " x " + size + " matrix = " + elapsedTime + " s");
+		Assert.assertTrue("Testing A x inv(A)", isIdentity(rMatrix.multiply(invMat), 1E-8));
+		Assert.assertTrue("Testing elapsed time", elapsedTime < 10d);
+	}
+
+}
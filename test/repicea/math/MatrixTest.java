@@ -18,8 +18,13 @@
  */
 package repicea.math;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -31,6 +36,9 @@ import repicea.io.FormatField;
 import repicea.io.javacsv.CSVField;
 import repicea.io.javacsv.CSVWriter;
 import repicea.lang.REpiceaSystem;
+import repicea.serial.xml.XmlDeserializer;
+import repicea.serial.xml.XmlMarshallException;
+import repicea.serial.xml.XmlSerializer;
 import repicea.stats.StatisticalUtility;
 import repicea.stats.StatisticalUtility.TypeMatrixR;
 import repicea.util.ObjectUtility;
@@ -150,21 +158,169 @@ public class MatrixTest {
 		Assert.assertEquals(true, equalToIdentity);
 	}
 
+	/*
+	 * The elements are now stored in a single array whatever the constructor. The Matrix(int,int,false) constructor, which 
+	 * used to store column vectors in a double[700][1] array, is therefore expected to be as compact as the default one.
+	 */
 	@Test
 	public void testMemoryManagement() {
-		List<Matrix> myArrayList = new ArrayList<Matrix>();
+		List<Object> myArrayList = new ArrayList<Object>();
 		for (int i = 0; i < 10000; i++) {
-			myArrayList.add(new Matrix(700,1, false)); // old implementation
+			myArrayList.add(new double[700][1]); // layout of the old implementation
 		}
 		double currentMemoryLoad = REpiceaSystem.getCurrentMemoryLoadMb();
-		System.out.println("Current memory load with old implementation = " + currentMemoryLoad + " Mb");
+		System.out.println("Current memory load with old layout = " + currentMemoryLoad + " Mb");
+		myArrayList.clear();
+		for (int i = 0; i < 10000; i++) {
+			myArrayList.add(new Matrix(700,1, false)); // old implementation
+		}
+		double oldImplementationMemoryLoad = REpiceaSystem.getCurrentMemoryLoadMb();
+		System.out.println("Current memory load with old implementation = " + oldImplementationMemoryLoad + " Mb");
 		myArrayList.clear();
 		for (int i = 0; i < 10000; i++) {
 			myArrayList.add(new Matrix(700,1)); // new implementation
 		}
 		double newMemoryLoad = REpiceaSystem.getCurrentMemoryLoadMb();
 		System.out.println("Current memory load with new implementation = " + newMemoryLoad + " Mb");
-		Assert.assertTrue("Testing that former implementation takes at least twice the memory space", currentMemoryLoad > newMemoryLoad * 2);
+		Assert.assertTrue("Testing that the old layout takes at least twice the memory space of the old implementation", currentMemoryLoad > oldImplementationMemoryLoad * 2);
+		Assert.assertTrue("Testing that the old layout takes at least twice the memory space of the new implementation", currentMemoryLoad > newMemoryLoad * 2);
+	}
+	
+	/**
+	 * This test checks that a null element of this matrix times an infinite element does not yield NaN in 
+	 * both the multiply and the transposeAndMultiply methods.
+	 */
+	@Test
+	public void multiplicationWithInfiniteElementTest() {
+		Matrix a = new Matrix(1, 2);
+		a.setValueAt(0, 1, 1d);
+		Matrix b = new Matrix(2, 1);
+		b.setValueAt(0, 0, Double.POSITIVE_INFINITY);
+		b.setValueAt(1, 0, 2d);
+		Assert.assertEquals("Testing the product", 2d, a.multiply(b).getValueAt(0, 0), 1E-12);
+		Assert.assertEquals("Testing the product with the transpose", 2d, a.transpose().transposeAndMultiply(b).getValueAt(0, 0), 1E-12);
+	}
+
+	/**
+	 * This test checks the Java serialization of the Matrix class.
+	 */
+	@Test
+	public void javaSerializationTest() throws IOException, ClassNotFoundException {
+		Matrix mat = createRandomMatrix(5, 3);
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		ObjectOutputStream oos = new ObjectOutputStream(bos);
+		oos.writeObject(mat);
+		oos.close();
+		ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bos.toByteArray()));
+		Matrix deserializedMat = (Matrix) ois.readObject();
+		ois.close();
+		Assert.assertEquals("Testing nb rows", 5, deserializedMat.m_iRows);
+		Assert.assertEquals("Testing nb cols", 3, deserializedMat.m_iCols);
+		Assert.assertTrue("Testing the elements", !deserializedMat.subtract(mat).getAbsoluteValue().anyElementLargerThan(1E-15));
+	}
+
+	/**
+	 * This test checks that the XML serialization of a matrix and a column vector still relies on the 
+	 * two-dimension array of the former implementation.
+	 */
+	@Test
+	public void xmlSerializationTest() throws XmlMarshallException, IOException {
+		for (Matrix mat : new Matrix[] {createRandomMatrix(5, 3), createRandomMatrix(4, 1)}) {
+			String filename = ObjectUtility.getPackagePath(getClass()) + "serializedMatrix.xml";
+			new XmlSerializer(filename, false).writeObject(mat);		// without compression
+			String xml = new String(Files.readAllBytes(new File(filename).toPath()));
+			Assert.assertTrue("Testing the former array in the serialized form", xml.contains("m_afData"));
+			Assert.assertTrue("Testing that the single array is not serialized", !xml.contains("m_afFlatData"));
+			Matrix deserializedMat = (Matrix) new XmlDeserializer(filename).readObject();
+			Assert.assertEquals("Testing nb rows", mat.m_iRows, deserializedMat.m_iRows);
+			Assert.assertEquals("Testing nb cols", mat.m_iCols, deserializedMat.m_iCols);
+			Assert.assertTrue("Testing the elements", !deserializedMat.subtract(mat).getAbsoluteValue().anyElementLargerThan(1E-15));
+		}
+	}
+
+	static Matrix createRandomMatrix(int nRows, int nCols) {
+		Matrix mat = new Matrix(nRows, nCols);
+		for (int i = 0; i < nRows; i++) {
+			for (int j = 0; j < nCols; j++) {
+				mat.setValueAt(i, j, StatisticalUtility.getRandom().nextGaussian());
+			}
+		}
+		return mat;
+	}
+	
+	/*
+	 * Former implementation of the matrix product, used as a reference. 
+	 */
+	private static double[][] multiplyWithFormerImplementation(double[][] a, double[][] b) {
+		double[][] c = new double[a.length][b[0].length];
+		for (int i = 0; i < a.length; i++) {
+			for (int j = 0; j < b[0].length; j++) {
+				for (int k = 0; k < b.length; k++) {
+					if (a[i][k] != 0d && b[k][j] != 0d) {
+						c[i][j] += a[i][k] * b[k][j];
+					}
+				}
+			}
+		}
+		return c;
+	}
+	
+	/**
+	 * This test compares the blocked matrix product with the former implementation.
+	 */
+	@Test
+	public void blockedMultiplicationTest() {
+		Matrix a = createRandomMatrix(150, 70);
+		Matrix b = createRandomMatrix(70, 130);
+		Matrix expected = new Matrix(multiplyWithFormerImplementation(a.toArray(), b.toArray()));
+		Matrix actual = a.multiply(b);
+		Assert.assertEquals("Testing number of rows", 150, actual.m_iRows);
+		Assert.assertEquals("Testing number of columns", 130, actual.m_iCols);
+		Assert.assertTrue("Testing the product", !actual.subtract(expected).getAbsoluteValue().anyElementLargerThan(1E-10));
+	}
+
+	/**
+	 * This test compares the transpose-multiply products with the products obtained through the transposed matrix.
+	 */
+	@Test
+	public void transposeAndMultiplyTest() {
+		Matrix x = createRandomMatrix(200, 80);
+		Matrix y = createRandomMatrix(200, 3);
+		Matrix w = createRandomMatrix(200, 1).getAbsoluteValue();
+		
+		Matrix expected = x.transpose().multiply(x);
+		Matrix actual = x.transposeAndMultiply(x);
+		Assert.assertTrue("Testing XtX", !actual.subtract(expected).getAbsoluteValue().anyElementLargerThan(1E-10));
+		Assert.assertTrue("Testing XtX is symmetric", actual.isSymmetric());
+		
+		expected = x.transpose().multiply(y);
+		actual = x.transposeAndMultiply(y);
+		Assert.assertTrue("Testing XtY", !actual.subtract(expected).getAbsoluteValue().anyElementLargerThan(1E-10));
+
+		expected = x.transpose().multiply(w.matrixDiagonal()).multiply(x);
+		actual = x.transposeAndMultiply(w, x);
+		Assert.assertTrue("Testing XtWX with a vector of weights", !actual.subtract(expected).getAbsoluteValue().anyElementLargerThan(1E-10));
+		actual = x.transposeAndMultiply(w.matrixDiagonal(), x);
+		Assert.assertTrue("Testing XtWX with a weight matrix", !actual.subtract(expected).getAbsoluteValue().anyElementLargerThan(1E-10));
+	}
+	
+	/**
+	 * This test checks that the add and subtract methods throw an exception if the dimensions are different.
+	 */
+	@Test
+	public void addAndSubtractWithIncompatibleDimensionsTest() {
+		Matrix a = new Matrix(3, 2, 1, 1);
+		Matrix b = new Matrix(2, 3, 1, 1);
+		try {
+			a.add(b);
+			Assert.fail("The add method should have thrown an exception!");
+		} catch (UnsupportedOperationException e) {}
+		try {
+			a.subtract(b);
+			Assert.fail("The subtract method should have thrown an exception!");
+		} catch (UnsupportedOperationException e) {}
+		Assert.assertEquals("Testing the sum", 2d * a.getSumOfElements(), a.add(a).getSumOfElements(), 1E-12);
+		Assert.assertEquals("Testing the difference", 0d, a.subtract(a).getSumOfElements(), 1E-12);
 	}
 	
 	
@@ -202,6 +358,55 @@ public class MatrixTest {
 		System.out.println("Elapsed time = " + ((System.currentTimeMillis() - startingTime) * .001));
 	}
 	
+	/**
+	 * Compare the elapsed times of the matrix product with those of the former implementation and the elapsed 
+	 * times of the XtX product with those of the transpose followed by the product, for sizes ranging from 2x2 
+	 * to 2000x2000. The results are written in a csv file.
+	 */
+	public void speedTestMatrixMultiplicationAgainstFormerImplementation() throws IOException {
+		String filename = ObjectUtility.getPackagePath(getClass()) + "multiplicationTimes.csv";
+		CSVWriter writer = new CSVWriter(new File(filename), false);
+		List<FormatField> fields = new ArrayList<FormatField>();
+		fields.add(new CSVField("dimension"));
+		fields.add(new CSVField("formerProduct"));
+		fields.add(new CSVField("product"));
+		fields.add(new CSVField("transposeThenProduct"));
+		fields.add(new CSVField("XtX"));
+		writer.setFields(fields);
+		
+		int[] sizes = new int[] {2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000};
+		Object[] record = new Object[5];
+		for (int size : sizes) {
+			int nbReps = Math.max(1, 2000000 / (size * size * size));
+			Matrix a = createRandomMatrix(size, size);
+			double[][] arr = a.toArray();
+			record[0] = size;
+			long startingTime = System.nanoTime();
+			for (int rep = 0; rep < nbReps; rep++) {
+				multiplyWithFormerImplementation(arr, arr);
+			}
+			record[1] = (System.nanoTime() - startingTime) * 1E-9 / nbReps;
+			startingTime = System.nanoTime();
+			for (int rep = 0; rep < nbReps; rep++) {
+				a.multiply(a);
+			}
+			record[2] = (System.nanoTime() - startingTime) * 1E-9 / nbReps;
+			startingTime = System.nanoTime();
+			for (int rep = 0; rep < nbReps; rep++) {
+				a.transpose().multiply(a);
+			}
+			record[3] = (System.nanoTime() - startingTime) * 1E-9 / nbReps;
+			startingTime = System.nanoTime();
+			for (int rep = 0; rep < nbReps; rep++) {
+				a.transposeAndMultiply(a);
+			}
+			record[4] = (System.nanoTime() - startingTime) * 1E-9 / nbReps;
+			System.out.println("Size " + size + " : former product = " + record[1] + " s; product = " + record[2] + " s; transpose then product = " + record[3] + " s; XtX = " + record[4] + " s");
+			writer.addRecord(record);
+		}
+		writer.close();
+	}
+	
 //	public static void main(String[] args) throws IOException {
 //		MatrixTests test = new MatrixTests();
 ////		test.speedTestInversionMatrix(100);
@@ -0,0 +1,103 @@
+/*
+ * This file is part of the repicea library.
+ *
+ * Copyright (C) 2009-2019 Mathieu Fortin for Rouge-Epicea
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed with the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * Please see the license at http://www.gnu.org/copyleft/lesser.html.
+ */
+package repicea.math;
+
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import repicea.stats.StatisticalUtility;
+import repicea.stats.StatisticalUtility.TypeMatrixR;
+
+public class SymmetricPositiveDefiniteMatrixTest {
+
+	private static Matrix createVarianceMatrix(int size) {
+		Matrix coordinates = new Matrix(size,1,0,1);
+		return StatisticalUtility.constructRMatrix(Arrays.asList(new Double[] {2d, 0.3}), TypeMatrixR.POWER, coordinates);
+	}
+
+	private static Matrix createRandomVector(int size) {
+		Matrix vector = new Matrix(size, 1);
+		for (int i = 0; i < size; i++) {
+			vector.setValueAt(i, 0, StatisticalUtility.getRandom().nextGaussian());
+		}
+		return vector;
+	}
+
+	private static boolean areEqual(Matrix m1, Matrix m2, double tolerance) {
+		return !m1.subtract(m2).getAbsoluteValue().anyElementLargerThan(tolerance);
+	}
+
+	@Test
+	public void packingAndFactorizationTest() {
+		Matrix variance = createVarianceMatrix(20);
+		SymmetricPositiveDefiniteMatrix spd = new SymmetricPositiveDefiniteMatrix(variance);
+		Assert.assertTrue("Testing the unpacked matrix", areEqual(variance, spd.getMatrix(), 0d));
+		Assert.assertTrue("Testing the lower triangle", areEqual(variance.getLowerCholTriangle(), spd.getLowerCholTriangle(), 1E-12));
+		Assert.assertEquals("Testing the log determinant", new CholeskyDecomposition(variance).getLogDeterminant(), spd.getLogDeterminant(), 1E-10);
+		Matrix b = createRandomVector(20);
+		Assert.assertTrue("Testing AX = B", areEqual(variance.multiply(spd.solve(b)), b, 1E-10));
+	}
+
+	@Test
+	public void nonSymmetricMatrixTest() {
+		Matrix m = new Matrix(new double[][] {{2, 1}, {0, 2}});
+		try {
+			new SymmetricPositiveDefiniteMatrix(m);
+			Assert.fail("A non symmetric matrix should throw an exception!");
+		} catch (UnsupportedOperationException e) {}
+		try {
+			new SymmetricPositiveDefiniteMatrix(new Matrix(new double[][] {{1, 2}, {2, 1}})).getLowerCholTriangle();
+			Assert.fail("A non positive definite matrix should throw an exception!");
+		} catch (UnsupportedOperationException e) {}
+	}
+
+	@Test
+	public void scaleTest() {
+		Matrix variance = createVarianceMatrix(20);
+		SymmetricPositiveDefiniteMatrix spd = new SymmetricPositiveDefiniteMatrix(variance);
+		spd.getLowerCholTriangle();
+		spd.scale(1.44);
+		Assert.assertTrue("Testing the scaled matrix", areEqual(variance.scalarMultiply(1.44), spd.getMatrix(), 1E-12));
+		Assert.assertTrue("Testing the scaled lower triangle", areEqual(variance.scalarMultiply(1.44).getLowerCholTriangle(), spd.getLowerCholTriangle(), 1E-12));
+	}
+
+	@Test
+	public void rank1UpdateAndDowndateTest() {
+		Matrix variance = createVarianceMatrix(20);
+		Matrix x = createRandomVector(20);
+		Matrix updatedVariance = variance.add(x.multiply(x.transpose()));
+		SymmetricPositiveDefiniteMatrix spd = new SymmetricPositiveDefiniteMatrix(variance);
+		spd.getLowerCholTriangle();
+		spd.rank1Update(x);
+		Assert.assertTrue("Testing the updated matrix", areEqual(updatedVariance, spd.getMatrix(), 1E-12));
+		Assert.assertTrue("Testing the updated lower triangle", areEqual(updatedVariance.getLowerCholTriangle(), spd.getLowerCholTriangle(), 1E-10));
+		spd.rank1Downdate(x);
+		Assert.assertTrue("Testing the downdated matrix", areEqual(variance, spd.getMatrix(), 1E-12));
+		Assert.assertTrue("Testing the downdated lower triangle", areEqual(variance.getLowerCholTriangle(), spd.getLowerCholTriangle(), 1E-10));
+		Matrix largeX = x.scalarMultiply(100d);
+		try {
+			spd.rank1Downdate(largeX);
+			Assert.fail("A downdate that yields a non positive definite matrix should throw an exception!");
+		} catch (UnsupportedOperationException e) {}
+		Assert.assertTrue("Testing the matrix is unchanged after a failed downdate", areEqual(variance, spd.getMatrix(), 1E-12));
+	}
+
+}
@@ -0,0 +1,163 @@
+/*
+ * This file is part of the repicea library.
+ *
+ * Copyright (C) 2009-2022 Mathieu Fortin for Rouge Epicea.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed with the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * Please see the license at http://www.gnu.org/copyleft/lesser.html.
+ */
+package repicea.net;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class FramedMessageChannelTest {
+
+	private static String createMessage(int length) {
+		StringBuilder sb = new StringBuilder();
+		int i = 0;
+		while (sb.length() < length) {
+			sb.append("numeric").append(i * 0.5).append("/,");
+			if (i % 10 == 0) {
+				sb.append("\u00E9rabli\u00E8re\uD83C\uDF32/,");
+			}
+			i++;
+		}
+		return sb.toString();
+	}
+
+	@Test
+	public void testChunkedMessagesWithCharactersAcrossChunks() throws IOException {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		FramedMessageChannel writingChannel = new FramedMessageChannel(null, Channels.newChannel(baos), 17);
+		final String longMessage = createMessage(5000);
+		writingChannel.writeMessage(longMessage);
+		writingChannel.writeMessage("");
+		writingChannel.writeMessage(new StreamableMessage() {
+			@Override
+			public void writeTo(Writer writer) throws IOException {
+				for (int i = 0; i < longMessage.length(); i++) {
+					writer.write(longMessage.charAt(i));
+				}
+			}
+		});
+		byte[] bytes = baos.toByteArray();
+		Assert.assertTrue("Testing that the message is framed", FramedMessageChannel.isFramed(bytes[0]));
+
+		InputStream is = new ByteArrayInputStream(bytes, 3, bytes.length - 3);
+		FramedMessageChannel readingChannel = new FramedMessageChannel(Channels.newChannel(is), null);
+		Assert.assertEquals("Testing the first message", longMessage, readingChannel.readMessage(bytes, 0, 3));
+		Assert.assertEquals("Testing the empty message", "", readingChannel.readMessage());
+		Assert.assertEquals("Testing the streamed message", longMessage, readingChannel.readMessage());
+	}
+
+	@Test
+	public void testMessagesExceedingTheMaximumLengthAreRejected() throws IOException {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		FramedMessageChannel writingChannel = new FramedMessageChannel(null, Channels.newChannel(baos), 64);
+		String message = createMessage(500);
+		writingChannel.writeMessage(message);
+		byte[] bytes = baos.toByteArray();
+		int messageLength = message.getBytes("UTF-8").length;
+
+		FramedMessageChannel readingChannel = new FramedMessageChannel(Channels.newChannel(new ByteArrayInputStream(bytes)), null);
+		readingChannel.setMaximumMessageLength(messageLength);
+		Assert.assertEquals("Testing a message of the maximum length", message, readingChannel.readMessage());
+
+		readingChannel = new FramedMessageChannel(Channels.newChannel(new ByteArrayInputStream(bytes)), null);
+		readingChannel.setMaximumMessageLength(messageLength - 1);
+		try {
+			readingChannel.readMessage();
+			Assert.fail("The message should have been rejected!");
+		} catch (IOException e) {
+			Assert.assertTrue("Testing the exception message", e.getMessage().contains("maximum length"));
+		}
+
+		FramedMessageChannel decodingChannel = new FramedMessageChannel(null, null);
+		decodingChannel.setMaximumMessageLength(100);
+		ByteBuffer header = ByteBuffer.allocate(FramedMessageChannel.HeaderLength);
+		header.putInt(FramedMessageChannel.FrameMarker | 1000);		// the chunk itself is never sent
+		header.flip();
+		try {
+			decodingChannel.getRequiredLength(header);
+			Assert.fail("The required length should have been rejected!");
+		} catch (IOException e) {}
+		try {
+			decodingChannel.decodeMessage(header);
+			Assert.fail("The chunk should have been rejected!");
+		} catch (IOException e) {}
+	}
+
+	private static class EchoThread extends Thread {
+
+		private final ServerSocket serverSocket;
+		private TCPSocketWrapper wrapper;
+		private Exception exception;
+
+		private EchoThread(ServerSocket serverSocket) {
+			this.serverSocket = serverSocket;
+			start();
+		}
+
+		@Override
+		public void run() {
+			try {
+				wrapper = new TCPSocketWrapper(serverSocket.accept(), false);
+				while (true) {
+					Object message = wrapper.readObject();
+					wrapper.writeObject(message);
+				}
+			} catch (IOException e) {		// the client closed the connection
+			} catch (Exception e) {
+				exception = e;
+			}
+		}
+	}
+
+	private static void testEcho(boolean isFramingEnabled, String... messages) throws Exception {
+		ServerSocket serverSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+		EchoThread echoThread = new EchoThread(serverSocket);
+		TCPSocketWrapper client = new TCPSocketWrapper(new Socket(InetAddress.getLoopbackAddress(), serverSocket.getLocalPort()), false, isFramingEnabled);
+		for (String message : messages) {
+			client.writeObject(message);
+			Assert.assertEquals("Testing the echo", message, client.readObject(10));
+		}
+		client.close();
+		echoThread.join(10000);
+		serverSocket.close();
+		Assert.assertNull(echoThread.exception);
+		Assert.assertEquals("Testing if the server replied with framed messages", isFramingEnabled, echoThread.wrapper.isFramingEnabled());
+	}
+
+	@Test
+	public void testFramedMessagesOverLoopback() throws Exception {
+		testEcho(true, "method/;java.objecthashcode12345/;toString", createMessage(3000000), "sync");
+	}
+
+	@Test
+	public void testRawMessagesOverLoopback() throws Exception {
+		testEcho(false, "method/;java.objecthashcode12345/;toString", "sync");
+	}
+
+}
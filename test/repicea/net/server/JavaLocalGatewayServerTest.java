@@ -0,0 +1,373 @@
+/*
+ * This file is part of the repicea library.
+ *
+ * Copyright (C) 2009-2018 Mathieu Fortin for Rouge Epicea.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed with the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * Please see the license at http://www.gnu.org/copyleft/lesser.html.
+ */
+package repicea.net.server;
+
+import java.net.InetAddress;
+import java.net.Socket;
+import java.security.InvalidParameterException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import repicea.lang.codetranslator.REnvironment;
+import repicea.lang.codetranslator.REpiceaCodeTranslator;
+import repicea.net.TCPSocketWrapper;
+import repicea.net.server.AbstractServer.ServerReply;
+import repicea.net.server.ServerConfiguration.Protocol;
+
+public class JavaLocalGatewayServerTest {
+
+	/**
+	 * A translator that records the beginning and the end of each request. The "slow" requests 
+	 * take a while and the "barrier" requests are sequential.
+	 */
+	private static class RecordingTranslator implements REpiceaCodeTranslator {
+
+		private final List<String> events = Collections.synchronizedList(new ArrayList<String>());
+		
+		@Override
+		public Object processCode(String request) throws Exception {
+			events.add("start" + request);
+			if (request.startsWith("slow")) {
+				Thread.sleep(50);
+			}
+			events.add("end" + request);
+			return request;
+		}
+		
+		@Override
+		public boolean isSequentialRequest(String request) {
+			return request.equals("barrier");
+		}
+	}
+	
+	private static JavaLocalGatewayServer startServer(int port, int numberOfPipelineWorkers) throws Exception {
+		return startServer(port, numberOfPipelineWorkers, new REnvironment());
+	}
+
+	private static JavaLocalGatewayServer startServer(int port, int numberOfPipelineWorkers, REpiceaCodeTranslator translator) throws Exception {
+		JavaLocalGatewayServer server = new JavaLocalGatewayServer(new ServerConfiguration(port, Protocol.TCP, numberOfPipelineWorkers), translator, false);
+		server.bypassShutdownForTesting = true;
+		server.startApplication();
+		return server;
+	}
+
+	private static JavaLocalGatewayServer startSelectorServer(int port, int maxNumberOfConnections, int numberOfWorkers, boolean shutdownOnClosedConnection) throws Exception {
+		return startSelectorServer(port, maxNumberOfConnections, numberOfWorkers, shutdownOnClosedConnection, new REnvironment());
+	}
+
+	private static JavaLocalGatewayServer startSelectorServer(int port, int maxNumberOfConnections, int numberOfWorkers, boolean shutdownOnClosedConnection, REpiceaCodeTranslator translator) throws Exception {
+		JavaLocalGatewayServer server = new JavaLocalGatewayServer(new ServerConfiguration(port, maxNumberOfConnections, numberOfWorkers), translator, shutdownOnClosedConnection);
+		server.bypassShutdownForTesting = true;
+		server.startApplication();
+		return server;
+	}
+
+	private static TCPSocketWrapper connect(int port) throws Exception {
+		return connect(port, true);
+	}
+
+	private static TCPSocketWrapper connect(int port, boolean isFramingEnabled) throws Exception {
+		TCPSocketWrapper client = new TCPSocketWrapper(new Socket(InetAddress.getLoopbackAddress(), port), false, isFramingEnabled);
+		Assert.assertEquals("Testing if the call is accepted", ServerReply.CallAccepted.name(), client.readObject(10));
+		return client;
+	}
+
+	private static Map<String, String> readTaggedReplies(TCPSocketWrapper client, int nbReplies) throws Exception {
+		Map<String, String> replies = new HashMap<String, String>();
+		for (int i = 0; i < nbReplies; i++) {
+			String reply = client.readObject(10).toString();
+			int index = reply.indexOf(JavaLocalGatewayServer.TagSplitter);
+			replies.put(reply.substring(0, index), reply.substring(index + JavaLocalGatewayServer.TagSplitter.length()));
+		}
+		return replies;
+	}
+
+	private static String getMaxRequest(int i) {
+		return "method" + REnvironment.MainSplitter + "characterjava.lang.Math" +
+				REnvironment.MainSplitter + "max" +
+				REnvironment.MainSplitter + "numeric" + i +
+				REnvironment.MainSplitter + "numeric0";
+	}
+
+	private static String getSquareRootRequest(int i) {
+		return JavaLocalGatewayServer.TaggedRequestPrefix + i + JavaLocalGatewayServer.TagSplitter +
+				"method" + REnvironment.MainSplitter + "characterjava.lang.Math" +
+				REnvironment.MainSplitter + "sqrt" +
+				REnvironment.MainSplitter + "numeric" + (i * i);
+	}
+
+	@Test
+	public void pipelinedRequestsTest() throws Exception {
+		int port = 18765;
+		JavaLocalGatewayServer server = startServer(port, 4);
+		TCPSocketWrapper client = connect(port);
+		int nbRequests = 200;
+		for (int i = 0; i < nbRequests; i++) {
+			client.writeObject(getSquareRootRequest(i));
+		}
+		Map<String, String> replies = readTaggedReplies(client, nbRequests);
+		for (int i = 0; i < nbRequests; i++) {
+			Assert.assertEquals("Testing the reply to request " + i, "numeric" + (double) i, replies.get(JavaLocalGatewayServer.TaggedRequestPrefix + i));
+		}
+
+		client.writeObject(JavaLocalGatewayServer.TaggedRequestPrefix + "Error" + JavaLocalGatewayServer.TagSplitter +
+				"method" + REnvironment.MainSplitter + "characterjava.lang.Math" +
+				REnvironment.MainSplitter + "thisMethodDoesNotExist");
+		client.writeObject("method" + REnvironment.MainSplitter + "characterjava.lang.Math" +
+				REnvironment.MainSplitter + "max" +
+				REnvironment.MainSplitter + "numeric1" +
+				REnvironment.MainSplitter + "numeric2");
+		String reply = client.readObject(10).toString();
+		Assert.assertTrue("Testing the tagged exception", reply.startsWith(JavaLocalGatewayServer.TaggedRequestPrefix + "Error" + JavaLocalGatewayServer.TagSplitter));
+		Assert.assertTrue("Testing the tagged exception", reply.contains("JavaGatewayException"));
+		Assert.assertEquals("Testing that the request without tag is processed after the pipelined ones", "numeric2.0", client.readObject(10));
+
+		client.writeObject(BasicClient.ClientRequest.closeConnection.name());
+		Assert.assertEquals("Testing the closing of the connection", ServerReply.ClosingConnection.name(), client.readObject(10));
+		client.close();
+		server.backdoorThread.join(10000);	// closing the connection shuts the server down
+		Assert.assertFalse("Testing if the server has been shut down", server.backdoorThread.isAlive());
+	}
+
+	private static String tag(String tag, String request) {
+		return JavaLocalGatewayServer.TaggedRequestPrefix + tag + JavaLocalGatewayServer.TagSplitter + request;
+	}
+	
+	/*
+	 * Send slow requests, a barrier and slow requests again. The barrier must start once the former 
+	 * requests are done and the requests that follow must start once the barrier is done.
+	 */
+	private static void checkBarrier(TCPSocketWrapper client, RecordingTranslator translator) throws Exception {
+		for (int i = 0; i < 4; i++) {
+			client.writeObject(tag("" + i, "slow" + i));
+		}
+		client.writeObject(tag("B", "barrier"));
+		for (int i = 4; i < 8; i++) {
+			client.writeObject(tag("" + i, "slow" + i));
+		}
+		Map<String, String> replies = readTaggedReplies(client, 9);
+		Assert.assertEquals("Testing the reply to the barrier", "barrier", replies.get(JavaLocalGatewayServer.TaggedRequestPrefix + "B"));
+		int startBarrier = translator.events.indexOf("startbarrier");
+		int endBarrier = translator.events.indexOf("endbarrier");
+		for (int i = 0; i < 8; i++) {
+			Assert.assertEquals("Testing the reply to request " + i, "slow" + i, replies.get(JavaLocalGatewayServer.TaggedRequestPrefix + i));
+			if (i < 4) {
+				Assert.assertTrue("Testing that request " + i + " ends before the barrier", translator.events.indexOf("endslow" + i) < startBarrier);
+			} else {
+				Assert.assertTrue("Testing that request " + i + " starts after the barrier", translator.events.indexOf("startslow" + i) > endBarrier);
+			}
+		}
+	}
+	
+	@Test
+	public void synchronizationIsSequentialTest() {
+		REnvironment env = new REnvironment();
+		Assert.assertTrue("Testing the synchronization", env.isSequentialRequest("sync" + REnvironment.MainSplitter + "java.lang.Object@1"));
+		Assert.assertTrue("Testing the synchronization without object", env.isSequentialRequest("sync"));
+		Assert.assertFalse("Testing a method call", env.isSequentialRequest(getMaxRequest(1)));
+	}
+	
+	@Test
+	public void taggedBarrierWaitsForPipelinedRequestsTest() throws Exception {
+		int port = 18768;
+		RecordingTranslator translator = new RecordingTranslator();
+		JavaLocalGatewayServer server = startServer(port, 4, translator);
+		TCPSocketWrapper client = connect(port);
+		checkBarrier(client, translator);
+		client.writeObject(BasicClient.ClientRequest.closeConnection.name());
+		Assert.assertEquals("Testing the closing of the connection", ServerReply.ClosingConnection.name(), client.readObject(10));
+		client.close();
+		server.backdoorThread.join(10000);
+		Assert.assertFalse("Testing if the server has been shut down", server.backdoorThread.isAlive());
+	}
+
+	@Test
+	public void taggedBarrierWaitsForConcurrentRequestsWithSelectorTest() throws Exception {
+		int port = 18769;
+		RecordingTranslator translator = new RecordingTranslator();
+		JavaLocalGatewayServer server = startSelectorServer(port, 1, 4, true, translator);
+		TCPSocketWrapper client = connect(port);
+		checkBarrier(client, translator);
+		client.close();
+		server.backdoorThread.join(10000);
+		Assert.assertFalse("Testing if the server has been shut down", server.backdoorThread.isAlive());
+	}
+
+	/**
+	 * A server that does not override the processRequest method.
+	 */
+	private static class ServerWithoutSelectorSupport extends AbstractServer {
+
+		ServerWithoutSelectorSupport(ServerConfiguration configuration, boolean isCallerAJavaApplication) throws Exception {
+			super(configuration, isCallerAJavaApplication);
+		}
+
+		@Override
+		protected ClientThread createClientThread(AbstractServer server, int id) {return null;}
+
+		@Override
+		protected void firstTasksToDo() {}
+	}
+
+	@Test
+	public void selectorRejectedForIncompatibleServersTest() throws Exception {
+		try {
+			new ServerWithoutSelectorSupport(new ServerConfiguration(18771, 1, 1), false);
+			Assert.fail("The server should not enable the selector without overriding the processRequest method!");
+		} catch (InvalidParameterException e) {}
+		try {
+			new ServerWithoutSelectorSupport(new ServerConfiguration(18771, 1, 1), true) {
+				@SuppressWarnings("deprecation")
+				@Override
+				protected void processRequest(repicea.net.SocketWrapper socketWrapper, Object request) {}
+			};
+			Assert.fail("The server should not enable the selector for a Java application!");
+		} catch (InvalidParameterException e) {}
+	}
+
+	@Test
+	public void requestRejectedAfterShutdownOfPipelineTest() throws Exception {
+		int port = 18770;
+		JavaLocalGatewayServer server = startServer(port, 2);
+		TCPSocketWrapper client = connect(port);
+		server.pipelineExecutor.shutdown();
+		client.writeObject(getSquareRootRequest(3));
+		String reply = client.readObject(10).toString();
+		Assert.assertTrue("Testing the tag of the rejection", reply.startsWith(JavaLocalGatewayServer.TaggedRequestPrefix + 3 + JavaLocalGatewayServer.TagSplitter));
+		Assert.assertTrue("Testing the rejection", reply.contains("RejectedExecutionException"));
+		client.writeObject(getMaxRequest(2));		// would wait forever if the rejected request were still pending
+		Assert.assertEquals("Testing the request without tag", "numeric2.0", client.readObject(10));
+		client.writeObject(BasicClient.ClientRequest.closeConnection.name());
+		Assert.assertEquals("Testing the closing of the connection", ServerReply.ClosingConnection.name(), client.readObject(10));
+		client.close();
+		server.backdoorThread.join(10000);
+		Assert.assertFalse("Testing if the server has been shut down", server.backdoorThread.isAlive());
+	}
+
+	@Test
+	public void selectorWithManyClientsTest() throws Exception {
+		int port = 18767;
+		JavaLocalGatewayServer server = startSelectorServer(port, 3, 2, true);	// true: the server shuts down once the last client is gone
+		TCPSocketWrapper framedClient = connect(port);
+		TCPSocketWrapper rawClient = connect(port, false);
+		TCPSocketWrapper idleClient = connect(port);
+		TCPSocketWrapper rejectedClient = new TCPSocketWrapper(new Socket(InetAddress.getLoopbackAddress(), port), false);
+		Assert.assertEquals("Testing if the call is rejected", ServerReply.IAmBusyCallBackLater.name(), rejectedClient.readObject(10));
+		rejectedClient.close();
+
+		int nbRequests = 200;
+		for (int i = 0; i < nbRequests; i++) {
+			framedClient.writeObject(getSquareRootRequest(i));
+		}
+		framedClient.writeObject(getMaxRequest(nbRequests));
+		for (int i = 0; i < 20; i++) {		// the raw client is served while the framed client is waiting for its replies
+			rawClient.writeObject(getMaxRequest(i));
+			Assert.assertEquals("Testing the reply to the raw client", "numeric" + (double) i, rawClient.readObject(10));
+		}
+		Map<String, String> replies = readTaggedReplies(framedClient, nbRequests);
+		for (int i = 0; i < nbRequests; i++) {
+			Assert.assertEquals("Testing the reply to request " + i, "numeric" + (double) i, replies.get(JavaLocalGatewayServer.TaggedRequestPrefix + i));
+		}
+		Assert.assertEquals("Testing that the request without tag is processed after the pipelined ones", "numeric" + (double) nbRequests, framedClient.readObject(10));
+
+		long start = System.currentTimeMillis();
+		while (server.getMetrics().getNumberOfActiveTasks() > 0 && System.currentTimeMillis() - start < 10000) {	// the last reply is sent before the task ends
+			Thread.sleep(10);
+		}
+		ServerMetrics metrics = server.getMetrics();
+		Assert.assertEquals("Testing the number of connections", 3, metrics.getNumberOfConnections());
+		Assert.assertEquals("Testing the number of rejected calls", 1, metrics.getNumberOfRejectedCalls());
+		Assert.assertEquals("Testing the number of processed requests", nbRequests + 21, metrics.getNumberOfProcessedRequests());
+		Assert.assertEquals("Testing the length of the task queue", 0, metrics.getTaskQueueLength());
+
+		framedClient.writeObject(BasicClient.ClientRequest.closeConnection.name());
+		Assert.assertEquals("Testing the closing of the connection", ServerReply.ClosingConnection.name(), framedClient.readObject(10));
+		framedClient.close();
+		rawClient.close();
+		start = System.currentTimeMillis();
+		while (server.getMetrics().getNumberOfConnections() > 1 && System.currentTimeMillis() - start < 10000) {
+			Thread.sleep(10);
+		}
+		Assert.assertEquals("Testing the number of connections after closing", 1, server.getMetrics().getNumberOfConnections());
+
+		TCPSocketWrapper newClient = connect(port);		// there is room again
+		newClient.writeObject(getMaxRequest(5));
+		Assert.assertEquals("Testing the reply to the new client", "numeric5.0", newClient.readObject(10));
+		newClient.close();
+		idleClient.close();
+		server.backdoorThread.join(10000);
+		Assert.assertFalse("Testing if the server has been shut down", server.backdoorThread.isAlive());
+		Assert.assertEquals("Testing the number of connections after the shutdown", 0, server.getMetrics().getNumberOfConnections());
+	}
+
+	/**
+	 * Benchmark of the throughput of the server with 1, 4 and 16 requests in flight. The first
+	 * argument is the number of requests (10000 by default). The second argument is the number of
+	 * pipeline workers (4 by default). If the third argument is a number of idle connections, the
+	 * connections are monitored by a selector and the idle connections are open during the benchmark.
+	 */
+	public static void main(String[] args) throws Exception {
+		int nbRequests = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+		int numberOfPipelineWorkers = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+		int nbIdleConnections = args.length > 2 ? Integer.parseInt(args[2]) : -1;
+		int port = 18766;
+		List<TCPSocketWrapper> idleClients = new ArrayList<TCPSocketWrapper>();
+		JavaLocalGatewayServer server;
+		if (nbIdleConnections >= 0) {
+			server = startSelectorServer(port, nbIdleConnections + 1, numberOfPipelineWorkers, false);
+			for (int i = 0; i < nbIdleConnections; i++) {
+				idleClients.add(connect(port));
+			}
+		} else {
+			server = startServer(port, numberOfPipelineWorkers);
+		}
+		TCPSocketWrapper client = connect(port);
+		System.out.println("Number of live threads with " + (idleClients.size() + 1) + " connection(s): " + Thread.activeCount());
+		for (int nbRequestsInFlight : new int[] {1, 4, 16}) {
+			for (int k = 0; k < 2; k++) {		// the first round is the warm-up
+				long start = System.nanoTime();
+				int nbRequestsSent = 0;
+				int nbRepliesReceived = 0;
+				while (nbRepliesReceived < nbRequests) {
+					while (nbRequestsSent < nbRequests && nbRequestsSent - nbRepliesReceived < nbRequestsInFlight) {
+						client.writeObject(getSquareRootRequest(nbRequestsSent++));
+					}
+					client.readObject(10);
+					nbRepliesReceived++;
+				}
+				if (k == 1) {
+					double elapsedSec = (System.nanoTime() - start) * 1E-9;
+					System.out.println(nbRequestsInFlight + " request(s) in flight: " + nbRequests + " requests in " +
+							String.format("%.2f", elapsedSec) + " s (" + Math.round(nbRequests / elapsedSec) + " requests/s)");
+				}
+			}
+		}
+		System.out.println(server.getMetrics());
+		client.writeObject(BasicClient.ClientRequest.closeConnection.name());
+		client.readObject(10);
+		client.close();
+		System.exit(0);
+	}
+}
@@ -0,0 +1,305 @@
+/*
+ * This file is part of the repicea library.
+ *
+ * Copyright (C) 2009-2021 Mathieu Fortin for Rouge Epicea.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed with the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * Please see the license at http://www.gnu.org/copyleft/lesser.html.
+ */
+package repicea.simulation;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import repicea.math.Matrix;
+import repicea.simulation.REpiceaPredictorEvent.ModelBasedSimulatorEventProperty;
+import repicea.stats.estimates.GaussianErrorTermEstimate;
+import repicea.stats.estimates.GaussianEstimate;
+
+public class REpiceaPredictorTest {
+
+	@SuppressWarnings("serial")
+	static class FakePredictor extends REpiceaPredictor {
+
+		FakePredictor() {
+			super(true, true, true);
+			init();
+		}
+
+		@Override
+		protected void init() {
+			setParameterEstimates(new ModelParameterEstimates(new Matrix(2,1,1,1), Matrix.getIdentityMatrix(2)));
+			setDefaultRandomEffects(HierarchicalLevel.PLOT, new GaussianEstimate(new Matrix(1,1), Matrix.getIdentityMatrix(1)));
+			setDefaultResidualError(ErrorTermGroup.Default, new GaussianErrorTermEstimate(Matrix.getIdentityMatrix(1)));
+		}
+
+		Matrix getDeviates(MonteCarloSimulationCompliantObject subject) {
+			return getParametersForThisRealization(subject).matrixStack(getRandomEffectsForThisSubject(subject), true);
+		}
+	}
+
+	/**
+	 * A predictor that locks the instance on each call, as the former implementation did.
+	 */
+	@SuppressWarnings("serial")
+	static class LockedFakePredictor extends FakePredictor {
+		@Override
+		synchronized Matrix getDeviates(MonteCarloSimulationCompliantObject subject) {
+			return super.getDeviates(subject);
+		}
+	}
+
+	static class FakePlot implements MonteCarloSimulationCompliantObject {
+
+		final String subjectId;
+		final int realizationId;
+
+		FakePlot(int id, int realizationId) {
+			this.subjectId = "" + id;
+			this.realizationId = realizationId;
+		}
+
+		@Override
+		public String getSubjectId() {return subjectId;}
+
+		@Override
+		public HierarchicalLevel getHierarchicalLevel() {return HierarchicalLevel.PLOT;}
+
+		@Override
+		public int getMonteCarloRealizationId() {return realizationId;}
+	}
+
+	@Test
+	public void deviatesAreConstantForSubjectAndRealizationTest() {
+		FakePredictor predictor = new FakePredictor();
+		Matrix deviates = predictor.getDeviates(new FakePlot(1, 0));
+		Assert.assertTrue("Testing same subject and realization", deviates.equals(predictor.getDeviates(new FakePlot(1, 0))));
+		Matrix otherPlot = predictor.getDeviates(new FakePlot(2, 0));
+		Assert.assertTrue("Testing same parameters within the realization", deviates.getSubMatrix(0, 1, 0, 0).equals(otherPlot.getSubMatrix(0, 1, 0, 0)));
+		Assert.assertTrue("Testing different random effects for another plot", deviates.getValueAt(2, 0) != otherPlot.getValueAt(2, 0));
+		Matrix otherRealization = predictor.getDeviates(new FakePlot(1, 1));
+		Assert.assertTrue("Testing different parameters for another realization", deviates.getValueAt(0, 0) != otherRealization.getValueAt(0, 0));
+		Assert.assertTrue("Testing the error terms of the same subject",
+				predictor.getGaussianErrorTerms(new FakePlot(1, 0)) == predictor.getGaussianErrorTerms(new FakePlot(1, 0)));
+		Assert.assertTrue("Testing the cruise lines",
+				predictor.getCruiseLineForThisSubject("A", new FakePlot(1, 0)) == predictor.getCruiseLineForThisSubject("A", new FakePlot(2, 0)));
+		Assert.assertTrue("Testing the cruise lines of another realization",
+				predictor.getCruiseLineForThisSubject("A", new FakePlot(1, 0)) != predictor.getCruiseLineForThisSubject("A", new FakePlot(1, 1)));
+	}
+
+	@Test
+	public void listenersAreNotifiedOutsideTheDeviateLockTest() {
+		FakePredictor predictor = new FakePredictor();
+		AtomicInteger nbEvents = new AtomicInteger();
+		AtomicInteger nbEventsUnderLock = new AtomicInteger();
+		predictor.addModelBasedSimulatorListener(new REpiceaPredictorListener() {
+			@Override
+			public void modelBasedSimulatorDidThis(REpiceaPredictorEvent event) {
+				if (event.getPropertyName().equals(ModelBasedSimulatorEventProperty.RANDOM_EFFECT_DEVIATE_JUST_GENERATED.getPropertyName())) {
+					nbEvents.incrementAndGet();
+					MonteCarloSimulationCompliantObject subject = (MonteCarloSimulationCompliantObject) ((Object[]) event.getNewValue())[0];
+					if (Thread.holdsLock(predictor.getDeviateLock(new SubjectRealizationKey(subject)))) {
+						nbEventsUnderLock.incrementAndGet();
+					}
+				}
+			}
+		});
+		for (int s = 0; s < 10; s++) {
+			predictor.getDeviates(new FakePlot(s, 0));
+			predictor.getDeviates(new FakePlot(s, 0));
+		}
+		Assert.assertEquals("Testing the number of events", 10, nbEvents.get());
+		Assert.assertEquals("Testing the events fired while holding the lock", 0, nbEventsUnderLock.get());
+		Assert.assertTrue("Testing that the locks belong to the instance", 
+				predictor.getDeviateLock(new SubjectRealizationKey(new FakePlot(0, 0))) != new FakePredictor().getDeviateLock(new SubjectRealizationKey(new FakePlot(0, 0))));
+	}
+
+	@Test
+	public void deviateLocksAfterJavaDeserializationTest() throws Exception {
+		FakePredictor predictor = new FakePredictor();
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		ObjectOutputStream oos = new ObjectOutputStream(bos);
+		oos.writeObject(predictor);
+		oos.close();
+		ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bos.toByteArray()));
+		FakePredictor deserializedPredictor = (FakePredictor) ois.readObject();
+		ois.close();
+		Assert.assertEquals("Testing the deviates of the deserialized predictor", 3, deserializedPredictor.getDeviates(new FakePlot(1, 0)).m_iRows);
+	}
+
+	private static int getNumberOfStoredDeviates(REpiceaPredictor predictor) {
+		return predictor.simulatedParameters.size() + 
+				predictor.simulatedRandomEffects.size() + 
+				predictor.simulatedResidualError.size() +
+				predictor.cruiseLineMap.size() + 
+				predictor.intervalLists.size();
+	}
+	
+	private static void simulateRealization(FakePredictor predictor, int realizationId, int nbSubjects) {
+		for (int s = 0; s < nbSubjects; s++) {
+			FakePlot plot = new FakePlot(s, realizationId);
+			predictor.getDeviates(plot);
+			predictor.getGaussianErrorTerms(plot);
+			predictor.getCruiseLineForThisSubject("A", plot);
+			predictor.getIntervalNestedInPlotDefinition(plot, 2000);
+		}
+	}
+	
+	@Test
+	public void endRealizationTest() {
+		FakePredictor predictor = new FakePredictor();
+		simulateRealization(predictor, 0, 10);
+		simulateRealization(predictor, 1, 10);
+		Matrix deviates = predictor.getDeviates(new FakePlot(0, 1));
+		int nbDeviatesPerRealization = getNumberOfStoredDeviates(predictor) / 2;
+		predictor.endRealization(0);
+		Assert.assertEquals("Testing the number of deviates after the end of the first realization", nbDeviatesPerRealization, getNumberOfStoredDeviates(predictor));
+		Assert.assertTrue("Testing that the deviates of the other realization are kept", deviates.equals(predictor.getDeviates(new FakePlot(0, 1))));
+		predictor.endRealization(1);
+		Assert.assertEquals("Testing that all the deviates are discarded", 0, getNumberOfStoredDeviates(predictor));
+	}
+
+	@Test
+	public void leastRecentlyAccessedRealizationIsEvictedTest() {
+		FakePredictor predictor = new FakePredictor();
+		predictor.setMaximumNumberOfActiveRealizations(2);
+		Matrix deviates0 = predictor.getDeviates(new FakePlot(0, 0));
+		predictor.getDeviates(new FakePlot(0, 1));
+		Assert.assertTrue("Testing the lookup of the first realization", deviates0.equals(predictor.getDeviates(new FakePlot(0, 0))));	// realization 0 is now more recent than realization 1
+		predictor.getDeviates(new FakePlot(0, 2));
+		Assert.assertEquals("Testing the number of active realizations", 2, predictor.getNumberOfActiveRealizations());
+		Assert.assertTrue("Testing that the deviates of the running realization are kept", predictor.doRandomDeviatesExistForThisSubject(new FakePlot(0, 0)));
+		Assert.assertTrue("Testing that the least recently accessed realization is evicted", !predictor.doRandomDeviatesExistForThisSubject(new FakePlot(0, 1)));
+		Assert.assertTrue("Testing the deviates of the running realization", deviates0.equals(predictor.getDeviates(new FakePlot(0, 0))));
+	}
+
+	/**
+	 * This test runs 10000 realizations and checks that the number of stored deviates remains bounded, either
+	 * with explicit calls to the endRealization method or with a maximum number of active realizations.
+	 */
+	@Test
+	public void boundedMemoryOverManyRealizationsTest() {
+		int nbSubjects = 20;
+		int nbRealizations = 10000;
+
+		FakePredictor predictor = new FakePredictor();
+		predictor.setRealizationLifecycleEnabled(true);
+		for (int r = 0; r < nbRealizations; r++) {
+			simulateRealization(predictor, r, nbSubjects);
+			Assert.assertTrue("Testing the number of deviates", getNumberOfStoredDeviates(predictor) <= nbSubjects * 4 + 1);
+			Assert.assertEquals("Testing the number of active realizations", 1, predictor.getNumberOfActiveRealizations());
+			predictor.endRealization(r);
+		}
+		Assert.assertEquals("Testing that all the deviates are discarded", 0, getNumberOfStoredDeviates(predictor));
+		Assert.assertEquals("Testing that no realization is active", 0, predictor.getNumberOfActiveRealizations());
+		
+		int maxNbActiveRealizations = 5;
+		predictor = new FakePredictor();
+		predictor.setMaximumNumberOfActiveRealizations(maxNbActiveRealizations);
+		for (int r = 0; r < nbRealizations; r++) {
+			simulateRealization(predictor, r, nbSubjects);
+			Assert.assertTrue("Testing the number of deviates", getNumberOfStoredDeviates(predictor) <= maxNbActiveRealizations * (nbSubjects * 4 + 1));
+		}
+		Assert.assertEquals("Testing the number of active realizations", maxNbActiveRealizations, predictor.getNumberOfActiveRealizations());
+	}
+
+	@Test
+	public void deviatesAreNotIndexedByDefaultTest() {
+		FakePredictor predictor = new FakePredictor();
+		simulateRealization(predictor, 0, 10);
+		simulateRealization(predictor, 1, 10);
+		int nbDeviates = getNumberOfStoredDeviates(predictor);
+		Assert.assertEquals("Testing that the realizations are not indexed", 0, predictor.getNumberOfActiveRealizations());
+		predictor.endRealization(0);
+		Assert.assertEquals("Testing the number of deviates after the end of the first realization", nbDeviates / 2, getNumberOfStoredDeviates(predictor));
+		predictor.setRealizationLifecycleEnabled(true);
+		Assert.assertEquals("Testing that the existing deviates are indexed", 1, predictor.getNumberOfActiveRealizations());
+		predictor.endRealization(1);
+		Assert.assertEquals("Testing that all the deviates are discarded", 0, getNumberOfStoredDeviates(predictor));
+		predictor.setRealizationLifecycleEnabled(false);
+		simulateRealization(predictor, 2, 10);
+		Assert.assertEquals("Testing that the index is dropped", 0, predictor.getNumberOfActiveRealizations());
+	}
+	
+	private static double runThreads(FakePredictor predictor, int nbThreads, int nbSubjects, int nbRealizations, int nbPasses) throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(nbThreads);
+		try {
+			List<Callable<Matrix[]>> tasks = new ArrayList<Callable<Matrix[]>>();
+			for (int t = 0; t < nbThreads; t++) {
+				tasks.add(new Callable<Matrix[]>() {
+					@Override
+					public Matrix[] call() {
+						Matrix[] deviates = new Matrix[nbSubjects * nbRealizations];
+						for (int pass = 0; pass < nbPasses; pass++) {
+							for (int r = 0; r < nbRealizations; r++) {
+								for (int s = 0; s < nbSubjects; s++) {
+									deviates[r * nbSubjects + s] = predictor.getDeviates(new FakePlot(s, r));
+								}
+							}
+						}
+						return deviates;
+					}
+				});
+			}
+			long start = System.nanoTime();
+			List<Future<Matrix[]>> futures = executor.invokeAll(tasks);
+			double elapsed = (System.nanoTime() - start) * 1E-9;
+			Matrix[] reference = futures.get(0).get();
+			for (Future<Matrix[]> future : futures) {
+				Matrix[] deviates = future.get();
+				for (int i = 0; i < deviates.length; i++) {
+					Assert.assertTrue("Testing that all threads got the same deviates", reference[i] == deviates[i] || reference[i].equals(deviates[i]));
+				}
+			}
+			return nbThreads * nbPasses * nbSubjects * nbRealizations / elapsed;
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * This test checks that threads sharing the same predictor and the same subjects get the same deviates.
+	 */
+	@Test
+	public void concurrentAccessReturnsSameDeviatesTest() throws Exception {
+		runThreads(new FakePredictor(), 8, 50, 5, 2);
+	}
+
+	/**
+	 * Compare the throughput of the predictor with that of a predictor which locks the instance
+	 * on each call. The threads share the same predictor and the same subjects.
+	 */
+	public static void main(String[] args) throws Exception {
+		int nbSubjects = 200;
+		int nbRealizations = 10;
+		int nbPasses = 20;
+		runThreads(new FakePredictor(), 2, nbSubjects, nbRealizations, nbPasses);	// warm up
+		for (int nbThreads : new int[] {1, 8, 32}) {
+			double lockedThroughput = runThreads(new LockedFakePredictor(), nbThreads, nbSubjects, nbRealizations, nbPasses);
+			double throughput = runThreads(new FakePredictor(), nbThreads, nbSubjects, nbRealizations, nbPasses);
+			System.out.println("Deviate lookups with " + nbThreads + " thread(s): locked = " + Math.round(lockedThroughput) + " ops/s; concurrent = " + Math.round(throughput) + " ops/s");
+		}
+	}
+}
@@ -19,10 +19,19 @@
 
 package repicea.simulation.metamodel;
 
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.logging.FileHandler;
 import java.util.logging.Level;
 import java.util.logging.SimpleFormatter;
@@ -32,7 +41,14 @@ import org.junit.Assert;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
+import repicea.math.Matrix;
+import repicea.simulation.metamodel.MetaModel.ModelImplEnum;
+import repicea.simulation.metamodel.MetaModelFittingJob.TaskProgress;
+import repicea.simulation.metamodel.MetaModelFittingJob.TaskStatus;
 import repicea.serial.xml.XmlSerializerChangeMonitor;
+import repicea.stats.StatisticalUtility;
+import repicea.stats.StatisticalUtility.TypeMatrixR;
+import repicea.stats.data.DataSet;
 import repicea.util.ObjectUtility;
 import repicea.util.REpiceaLogManager;
 
@@ -91,6 +107,325 @@ public class MetaModelTest {
 		Assert.assertEquals("Testing prediction at 90 yrs of age", 104.26481827545614, pred, 1E-8);
 	}
 
+	/**
+	 * This test compares the log-likelihood of the blocks with that computed with the 
+	 * complete variance-covariance matrix.
+	 */
+	@Test
+	public void testingAR1LogLikelihoodAgainstFullVarianceCovarianceMatrix() throws Exception {
+		AbstractModelImplementation model = MetaModelInstance.model;
+		Matrix parameters = model.getParameters().getDeepClone();
+		model.setParameters(parameters);
+		double rho = parameters.getValueAt(model.indexCorrelationParameter, 0);
+		for (int i = 0; i < model.getNbSubjects(); i++) {
+			AbstractModelImplementation.DataBlockWrapper dbw = (AbstractModelImplementation.DataBlockWrapper) model.dataBlockWrappers.get(i);
+			if (model instanceof AbstractMixedModelFullImplementation) {
+				dbw.setParameterValue(0, parameters.getValueAt(((AbstractMixedModelFullImplementation) model).indexFirstRandomEffect + i, 0));
+			}
+			int n = dbw.vecY.m_iRows;
+			Matrix std = new Matrix(n, 1);
+			Matrix residuals = new Matrix(n, 1);
+			for (int j = 0; j < n; j++) {
+				std.setValueAt(j, 0, dbw.stdDev[j]);
+				residuals.setValueAt(j, 0, dbw.vecY.getValueAt(j, 0) - 
+						model.getPrediction(dbw.ageYr.getValueAt(j, 0), dbw.timeSinceBeginning.getValueAt(j, 0), dbw.getParameterValue(0)));
+			}
+			Matrix corrMat = StatisticalUtility.constructRMatrix(Arrays.asList(new Double[] {1d, rho}), TypeMatrixR.POWER, new Matrix(n, 1, 1, 1));
+			Matrix varCov = std.multiply(std.transpose()).elementWiseMultiply(corrMat);
+			double expected = -.5 * n * Math.log(2 * Math.PI) - .5 * Math.log(varCov.getDeterminant()) 
+					- .5 * residuals.transpose().multiply(varCov.getInverseMatrix()).multiply(residuals).getValueAt(0, 0);
+			Assert.assertEquals("Testing the log-likelihood of block " + i, expected, dbw.getLogLikelihood(), Math.abs(expected) * 1E-8);
+		}
+	}
+
+	@Test
+	public void testingParallelLogLikelihood() throws Exception {
+		AbstractModelImplementation model = MetaModelInstance.model;
+		Matrix parameters = model.getParameters().getDeepClone();
+		int nbBlocks = model.getNbSubjects();
+		try {
+			model.setLikelihoodGrainSize(nbBlocks);
+			double expected = model.getLogLikelihood(parameters);
+			int nbEvaluations = 2000;
+			long start = System.nanoTime();
+			for (int i = 0; i < nbEvaluations; i++) {
+				model.getLogLikelihood(parameters);
+			}
+			double sequentialTime = (System.nanoTime() - start) * 1E-6 / nbEvaluations;
+			model.setLikelihoodGrainSize(1);
+			double actual = model.getLogLikelihood(parameters);
+			start = System.nanoTime();
+			for (int i = 0; i < nbEvaluations; i++) {
+				Assert.assertEquals("Testing the parallel log-likelihood", expected, model.getLogLikelihood(parameters), 0d);
+			}
+			double parallelTime = (System.nanoTime() - start) * 1E-6 / nbEvaluations;
+			System.out.println("Log-likelihood over " + nbBlocks + " blocks: sequential = " + sequentialTime + " ms; parallel = " + parallelTime + " ms");
+			Assert.assertEquals("Testing the parallel log-likelihood", expected, actual, 0d);
+		} finally {
+			model.setLikelihoodGrainSize(0);
+		}
+	}
+
+	@Test
+	public void testingMonteCarloPredictionArray() throws Exception {
+		int[] ageYr = new int[50];
+		for (int k = 0; k < ageYr.length; k++) {
+			ageYr[k] = 10 + k * 2;
+		}
+		MetaModelPredictionArray deterministic = MetaModelInstance.getMonteCarloPredictionArray(ageYr, 0, 0, 0);
+		Assert.assertEquals("Testing the number of values", ageYr.length, deterministic.getValues().length);
+		Assert.assertEquals("Testing prediction at 90 yrs of age", MetaModelInstance.getPrediction(90, 0), deterministic.getValueAt(0, 0, 40), 1E-8);
+
+		int nbRealizations = 1000;
+		int nbSubjects = 100;
+		long start = System.currentTimeMillis();
+		MetaModelPredictionArray mc = MetaModelInstance.getMonteCarloPredictionArray(ageYr, 0, nbSubjects, nbRealizations);
+		System.out.println("Time to compute " + mc.getValues().length + " Monte Carlo predictions = " + (System.currentTimeMillis() - start) + " ms");
+		Assert.assertEquals("Testing the number of values", nbRealizations * nbSubjects * ageYr.length, mc.getValues().length);
+		double mean = 0d;
+		for (int i = 0; i < nbRealizations; i++) {
+			for (int j = 0; j < nbSubjects; j++) {
+				mean += mc.getValueAt(i, j, 40);
+			}
+		}
+		mean /= nbRealizations * nbSubjects;
+		Assert.assertEquals("Testing the Monte Carlo mean at 90 yrs of age", deterministic.getValueAt(0, 0, 40), mean, deterministic.getValueAt(0, 0, 40) * 0.05);
+		
+		LinkedHashMap<Integer, LinkedHashMap<Integer, LinkedHashMap<Integer, Double>>> map = mc.toMap();
+		Assert.assertEquals("Testing the number of realizations in the map", nbRealizations, map.size());
+		Assert.assertEquals("Testing the value in the map", mc.getValueAt(999, 99, 40), map.get(999).get(99).get(90), 0d);
+	}
+
+	private static MetaModelManager createManagerForFitting(int nbBurnIn, int nbRealizations) throws IOException {
+		String path = ObjectUtility.getPackagePath(MetaModelTest.class);
+		MetaModelManager manager = new MetaModelManager();
+		for (String vegPot : new String[] {"RE2", "RS2"}) {
+			MetaModel m = MetaModel.Load(path + "QC_FMU02664_" + vegPot + "_NoChange_root.zml");
+			m.mhSimParms.nbInitialGrid = 500;
+			m.mhSimParms.nbBurnIn = nbBurnIn;
+			m.mhSimParms.nbRealizations = nbRealizations + nbBurnIn;
+			m.mhSimParms.oneEach = 5;
+			m.mhSimParms.nbChains = 2;
+			manager.put(vegPot, m);
+		}
+		return manager;
+	}
+	
+	@Test
+	public void testingSharedSchedulerForFitting() throws Exception {
+		MetaModelManager manager = createManagerForFitting(1000, 2000);
+		long start = System.currentTimeMillis();
+		MetaModelFittingJob job = manager.submitMetaModelFitting(manager.keySet(), "AliveVolume_AllSpecies", true);
+		Assert.assertEquals("Testing the number of tasks", 2 * 4, job.getTasks().size());
+		job.await();
+		System.out.println("Time to fit " + manager.size() + " meta-models on the shared scheduler = " + (System.currentTimeMillis() - start) + " ms");
+		Assert.assertTrue("Testing the job is done", job.isDone());
+		Assert.assertEquals("Testing the progress of the job", 1d, job.getProgress(), 0d);
+		for (TaskProgress task : job.getTasks()) {
+			Assert.assertTrue("Testing the task is over: " + task, task.getStatus() == TaskStatus.Converged || task.getStatus() == TaskStatus.NotConverged);
+			Assert.assertTrue("Testing the elapsed time of the task: " + task, task.getElapsedTimeMillis() > 0);
+		}
+		for (MetaModel m : manager.values()) {
+			Assert.assertTrue("Testing the meta-model has converged", m.hasConverged());
+		}
+	}
+
+	@Test
+	public void testingFittingOfSingleImplementation() throws Exception {
+		MetaModelManager manager = createManagerForFitting(1000, 2000);
+		MetaModelFittingJob job = manager.submitMetaModelFitting(manager.keySet(), "AliveVolume_AllSpecies", ModelImplEnum.ChapmanRichards);
+		Assert.assertEquals("Testing the number of tasks", 2, job.getTasks().size());
+		job.await();
+		for (TaskProgress task : job.getTasks()) {
+			Assert.assertEquals("Testing the implementation of the task", ModelImplEnum.ChapmanRichards, task.getModelImplementation());
+		}
+		for (MetaModel m : manager.values()) {
+			Assert.assertTrue("Testing the meta-model has converged", m.hasConverged());
+			Assert.assertEquals("Testing the selected implementation", ModelImplEnum.ChapmanRichards, m.model.getModelImplementation());
+		}
+	}
+
+	@Test
+	public void testingCancellationOfFitting() throws Exception {
+		MetaModelManager manager = createManagerForFitting(10000, 10000000);
+		MetaModelFittingJob job = manager.submitMetaModelFitting(manager.keySet(), "AliveVolume_AllSpecies", true);
+		long timeOut = System.currentTimeMillis() + 60000;
+		while (job.getProgress() == 0d && System.currentTimeMillis() < timeOut) {
+			Thread.sleep(20);
+		}
+		long start = System.currentTimeMillis();
+		job.cancel();
+		job.await();
+		System.out.println("Time to cancel the fit of the meta-models = " + (System.currentTimeMillis() - start) + " ms");
+		Assert.assertTrue("Testing the job is cancelled", job.isCancelled() && job.isDone());
+		for (TaskProgress task : job.getTasks()) {
+			Assert.assertEquals("Testing the task is cancelled: " + task, TaskStatus.Cancelled, task.getStatus());
+		}
+		for (MetaModel m : manager.values()) {
+			Assert.assertTrue("Testing the meta-model has not converged", !m.hasConverged());
+		}
+	}
+
+	private static final String CacheFilenamePattern = "QC_FMU02664_%s_NoChange_AliveVolume_AllSpecies.zml";
+	
+	@Test
+	public void testingMetaModelCacheCapacity() throws Exception {
+		String path = ObjectUtility.getPackagePath(MetaModelTest.class);
+		MetaModelCache unboundedCache = new MetaModelCache(path, CacheFilenamePattern, Long.MAX_VALUE, null);
+		long totalWeight = 0;
+		for (String vegPot : new String[] {"RE1", "RE2", "RS2"}) {
+			totalWeight += unboundedCache.getMetaModel(vegPot).getEstimatedWeight();
+		}
+		Assert.assertEquals("Testing the weight of the cache", totalWeight, unboundedCache.getWeight());
+		
+		MetaModelCache cache = new MetaModelCache(path, CacheFilenamePattern, totalWeight - 1, null);
+		Assert.assertEquals("Testing the prediction of a lazily loaded meta-model", 
+				MetaModelInstance.getPrediction(90, 0), 
+				cache.getPrediction("RE2", 90, 0), 1E-8);
+		cache.getMetaModel("RE1");
+		cache.getMetaModel("RS2");		// RE2 is the least recently used and it must be evicted
+		Assert.assertEquals("Testing the number of evictions", 1, cache.getEvictionCount());
+		Assert.assertTrue("Testing RE2 was evicted", !cache.contains("RE2"));
+		cache.getMetaModel("RE1");		// a hit: RS2 is now the least recently used
+		cache.getMetaModel("RE2");
+		Assert.assertTrue("Testing RS2 was evicted", !cache.contains("RS2") && cache.contains("RE1") && cache.contains("RE2"));
+		Assert.assertEquals("Testing the number of hits", 1, cache.getHitCount());
+		Assert.assertEquals("Testing the number of misses", 4, cache.getMissCount());
+		Assert.assertEquals("Testing the number of evictions", 2, cache.getEvictionCount());
+		Assert.assertTrue("Testing the weight is within the capacity", cache.getWeight() <= cache.getMaximumWeight());
+		try {
+			cache.getMetaModel("XX9");
+			Assert.fail("A MetaModelException should have been thrown!");
+		} catch (MetaModelException e) {}
+	}
+
+	@Test
+	public void testingMetaModelCacheTimeToLive() throws Exception {
+		String path = ObjectUtility.getPackagePath(MetaModelTest.class);
+		MetaModelCache cache = new MetaModelCache(path, CacheFilenamePattern, Long.MAX_VALUE, Duration.ofMillis(200));
+		cache.getMetaModel("RE2");
+		Assert.assertTrue("Testing the meta-model is in the cache", cache.contains("RE2"));
+		Thread.sleep(400);
+		cache.evictExpiredEntries();
+		Assert.assertEquals("Testing the expired meta-model was evicted", 0, cache.size());
+		Assert.assertEquals("Testing the number of evictions", 1, cache.getEvictionCount());
+		Assert.assertEquals("Testing the weight of an empty cache", 0, cache.getWeight());
+	}
+
+	@Test
+	public void testingMetaModelCacheConcurrentLoading() throws Exception {
+		String path = ObjectUtility.getPackagePath(MetaModelTest.class);
+		MetaModelCache cache = new MetaModelCache(path, CacheFilenamePattern, Long.MAX_VALUE, null);
+		int nbThreads = 8;
+		ExecutorService executor = Executors.newFixedThreadPool(nbThreads);
+		try {
+			List<Future<MetaModel>> futures = new ArrayList<Future<MetaModel>>();
+			for (int i = 0; i < nbThreads; i++) {
+				futures.add(executor.submit(() -> cache.getMetaModel("RE2")));
+			}
+			MetaModel reference = futures.get(0).get();
+			for (Future<MetaModel> future : futures) {
+				Assert.assertTrue("Testing the meta-model was loaded only once", reference == future.get());
+			}
+		} finally {
+			executor.shutdown();
+		}
+		Assert.assertEquals("Testing the number of requests", nbThreads, cache.getHitCount() + cache.getMissCount());
+	}
+
+	@Test
+	public void testingBinaryFormatRoundTrip() throws Exception {
+		String xmlFilename = ObjectUtility.getPackagePath(MetaModelTest.class) + "QC_FMU02664_RE2_NoChange_AliveVolume_AllSpecies.zml";
+		File binaryFile = File.createTempFile("metaModel", ".rmm");
+		File xmlFile = File.createTempFile("metaModel", ".zml");
+		binaryFile.deleteOnExit();
+		xmlFile.deleteOnExit();
+		MetaModelBinaryFormat.convertXmlToBinary(xmlFilename, binaryFile.getAbsolutePath(), true);
+		Assert.assertTrue("Testing the binary file is recognized", MetaModelBinaryFormat.isBinaryFile(binaryFile.getAbsolutePath()));
+		Assert.assertTrue("Testing the XML file is not recognized", !MetaModelBinaryFormat.isBinaryFile(xmlFilename));
+
+		long start = System.currentTimeMillis();
+		MetaModel.Load(xmlFilename);
+		long xmlTime = System.currentTimeMillis() - start;
+		start = System.currentTimeMillis();
+		MetaModel binaryMetaModel = MetaModel.Load(binaryFile.getAbsolutePath());
+		long binaryTime = System.currentTimeMillis() - start;
+		System.out.println("Time to load the meta-model: XML = " + xmlTime + " ms (" + new File(xmlFilename).length() / 1024 + " KB); binary = " 
+				+ binaryTime + " ms (" + binaryFile.length() / 1024 + " KB)");
+		
+		Assert.assertTrue("Testing the binary meta-model has converged", binaryMetaModel.hasConverged());
+		Assert.assertEquals("Testing the stratum group", MetaModelInstance.getStratumGroup(), binaryMetaModel.getStratumGroup());
+		Assert.assertEquals("Testing the output type", MetaModelInstance.getSelectedOutputType(), binaryMetaModel.getSelectedOutputType());
+		Assert.assertTrue("Testing the parameters", MetaModelInstance.model.getParameters().equals(binaryMetaModel.model.getParameters()));
+		Assert.assertEquals("Testing the number of samples", 
+				MetaModelInstance.model.mh.getNumberOfFinalSamples(), 
+				binaryMetaModel.model.mh.getNumberOfFinalSamples());
+		for (int ageYr = 10; ageYr <= 150; ageYr += 20) {
+			Assert.assertEquals("Testing the prediction at " + ageYr + " yrs", MetaModelInstance.getPrediction(ageYr, 0), binaryMetaModel.getPrediction(ageYr, 0), 0d);
+			Assert.assertEquals("Testing the prediction variance at " + ageYr + " yrs", 
+					MetaModelInstance.getPredictionVariance(ageYr, 0, true), 
+					binaryMetaModel.getPredictionVariance(ageYr, 0, true), 0d);
+		}
+		Assert.assertEquals("Testing the final data set", 
+				MetaModelInstance.getFinalDataSet().getNumberOfObservations(), 
+				binaryMetaModel.getFinalDataSet().getNumberOfObservations());
+		
+		Matrix expectedRHat = MetaModelInstance.model.mh.getGelmanRubinStatistics();
+		if (expectedRHat == null) {
+			Assert.assertNull("Testing the Gelman-Rubin statistics", binaryMetaModel.model.mh.getGelmanRubinStatistics());
+		} else {
+			Assert.assertTrue("Testing the Gelman-Rubin statistics", expectedRHat.equals(binaryMetaModel.model.mh.getGelmanRubinStatistics()));
+			Assert.assertTrue("Testing the effective sample size", MetaModelInstance.model.mh.getEffectiveSampleSize().equals(binaryMetaModel.model.mh.getEffectiveSampleSize()));
+		}
+		
+		MetaModelBinaryFormat.convertBinaryToXml(binaryFile.getAbsolutePath(), xmlFile.getAbsolutePath());
+		MetaModel xmlMetaModel = MetaModel.Load(xmlFile.getAbsolutePath());
+		Assert.assertEquals("Testing the prediction after the conversion back to XML", MetaModelInstance.getPrediction(90, 0), xmlMetaModel.getPrediction(90, 0), 0d);
+		new File(xmlFile.getAbsolutePath().replace(".zml", ".json")).delete();
+	}
+
+	@Test
+	public void testingBinaryFormatOfDataSet() throws Exception {
+		DataSet dataSet = new DataSet(Arrays.asList(new String[] {"int", "double", "string"}));
+		dataSet.addObservation(new Object[] {1, 2.5, "a"});
+		dataSet.addObservation(new Object[] {3, 4.5, "b"});
+		dataSet.indexFieldType();
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bos);
+		MetaModelBinaryFormat.writeDataSet(out, dataSet);
+		out.close();
+		DataSet dataSetRead = MetaModelBinaryFormat.readDataSet(ByteBuffer.wrap(bos.toByteArray()));
+		Assert.assertEquals("Testing the field names", dataSet.getFieldNames(), dataSetRead.getFieldNames());
+		Assert.assertEquals("Testing the field types", dataSet.getFieldTypes(), dataSetRead.getFieldTypes());
+		Assert.assertEquals("Testing the number of observations", dataSet.getNumberOfObservations(), dataSetRead.getNumberOfObservations());
+		for (int i = 0; i < dataSet.getNumberOfObservations(); i++) {
+			Assert.assertEquals("Testing observation " + i, 
+					Arrays.asList(dataSet.getObservations().get(i).toArray()), 
+					Arrays.asList(dataSetRead.getObservations().get(i).toArray()));
+		}
+	}
+
+	@Test
+	public void testingBinaryFormatRejectsUnsupportedColumns() throws Exception {
+		LinkedHashMap<String, Object[]> unsupportedFields = new LinkedHashMap<String, Object[]>();
+		unsupportedFields.put("nullField", new Object[] {null, "a"});
+		unsupportedFields.put("booleanField", new Object[] {true, false});
+		unsupportedFields.put("mixedField", new Object[] {true, "a"});
+		for (String fieldName : unsupportedFields.keySet()) {
+			DataSet dataSet = new DataSet(Arrays.asList(new String[] {"int"}));
+			dataSet.addObservation(new Object[] {1});
+			dataSet.addObservation(new Object[] {2});
+			dataSet.indexFieldType();
+			dataSet.addField(fieldName, unsupportedFields.get(fieldName));
+			try {
+				MetaModelBinaryFormat.writeDataSet(new DataOutputStream(new ByteArrayOutputStream()), dataSet);
+				Assert.fail("The field " + fieldName + " should not be stored");
+			} catch (IOException e) {
+				Assert.assertTrue("Testing the message", e.getMessage().contains(fieldName));
+			}
+		}
+	}
+
 	public static void main(String[] args) throws IOException {
         System.setProperty("java.util.logging.SimpleFormatter.format", "%1$tY-%1$tm-%1$td %1$tH:%1$tM:%1$tS %4$-6s %5$s%6$s%n");
 		REpiceaLogManager.getLogger(MetaModelManager.LoggerName).setLevel(Level.FINE);
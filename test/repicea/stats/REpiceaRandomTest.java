@@ -131,5 +131,25 @@ public class REpiceaRandomTest {
 		Assert.assertEquals("Testing mean for gamma random values", expectedVariance, actualVariance, 1E-3);
 	}
 
+	@Test
+	public void testSeedAndSplit() {
+		REpiceaRandom random1 = new REpiceaRandom(2022L);
+		REpiceaRandom random2 = new REpiceaRandom(2022L);
+		for (int i = 0; i < 100; i++) {
+			Assert.assertEquals("Testing reproducibility", random1.nextGaussian(), random2.nextGaussian(), 0d);
+		}
+		REpiceaRandom split = random1.split();
+		MonteCarloEstimate estimate = new MonteCarloEstimate();
+		for (int i = 0; i < 100000; i++) {
+			Matrix realization = new Matrix(2,1);
+			realization.setValueAt(0, 0, random1.nextGaussian());
+			realization.setValueAt(1, 0, split.nextGaussian());
+			estimate.addRealization(realization);
+		}
+		Matrix variance = estimate.getVariance();
+		double correlation = variance.getValueAt(0, 1) / Math.sqrt(variance.getValueAt(0, 0) * variance.getValueAt(1, 1));
+		Assert.assertEquals("Testing the variance", 1d, variance.getValueAt(0, 0), 0.02);
+		Assert.assertEquals("Testing the independence of the split stream", 0d, correlation, 0.02);
+	}
 
 }
@@ -48,6 +48,26 @@ public class StatisticalUtilityTest {
 		Assert.assertTrue("Testing if the two methods for computing the inverse are equavalent", !isDifferent);
 	}
 
+	@Test
+	public void testAR1QuadraticFormAndLogDeterminant() {
+		int size = 25;
+		double rho = 0.92;
+		Matrix ar1Matrix = StatisticalUtility.constructRMatrix(Arrays.asList(new Double[]{1d, rho}), TypeMatrixR.POWER, new Matrix(size,1,1,1));
+		double[] xArray = new double[size];
+		Matrix x = new Matrix(size, 1);
+		for (int i = 0; i < size; i++) {
+			xArray[i] = StatisticalUtility.getRandom().nextGaussian();
+			x.setValueAt(i, 0, xArray[i]);
+		}
+		double expected = x.transpose().multiply(ar1Matrix.getInverseMatrix()).multiply(x).getValueAt(0, 0);
+		double actual = StatisticalUtility.getQuadraticFormWithInverseCorrelationAR1Matrix(xArray, rho);
+		Assert.assertEquals("Testing the quadratic form", expected, actual, Math.abs(expected) * 1E-8);
+		Assert.assertEquals("Testing the log determinant", Math.log(ar1Matrix.getDeterminant()), 
+				StatisticalUtility.getLogDeterminantOfCorrelationAR1Matrix(size, rho), 1E-8);
+		Assert.assertEquals("Testing the quadratic form with a single observation", 4d, 
+				StatisticalUtility.getQuadraticFormWithInverseCorrelationAR1Matrix(new double[] {2d}, rho), 1E-12);
+	}
+
 	@Test
 	public void testInversionCovarianceMatrixBasedOnAR1MatrixInversion() {
 		Matrix diag = new Matrix(10,1,0.5,0.25).matrixDiagonal();
@@ -137,5 +157,28 @@ public class StatisticalUtilityTest {
 		boolean areEqual = !matRPower.subtract(matRExp).getAbsoluteValue().anyElementLargerThan(1E-8);
 		Assert.assertTrue("Testing if the two matrices are equal", areEqual);
 	}
-	
-}
\ No newline at end of file
+
+	@Test
+	public void randomGeneratorsReproducibleFromMasterSeedTest() throws InterruptedException {
+		StatisticalUtility.setMasterSeed(12345L);
+		double first = StatisticalUtility.getRandom().nextGaussian();
+		StatisticalUtility.setMasterSeed(12345L);
+		Assert.assertEquals("Testing reproducibility", first, StatisticalUtility.getRandom().nextGaussian(), 0d);
+
+		final REpiceaRandom[] otherThreadRandom = new REpiceaRandom[1];
+		Thread t = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				otherThreadRandom[0] = StatisticalUtility.getRandom();
+			}
+		});
+		t.start();
+		t.join();
+		Assert.assertTrue("Testing that each thread has its own generator", otherThreadRandom[0] != StatisticalUtility.getRandom());
+
+		double streamValue = StatisticalUtility.getRandom(10L).nextDouble();
+		Assert.assertEquals("Testing stream reproducibility", streamValue, StatisticalUtility.getRandom(10L).nextDouble(), 0d);
+		Assert.assertTrue("Testing that streams differ", streamValue != StatisticalUtility.getRandom(11L).nextDouble());
+	}
+
+}
@@ -0,0 +1,122 @@
+/*
+ * This file is part of the repicea library.
+ *
+ * Copyright (C) 2009-2021 Mathieu Fortin for Rouge Epicea.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed with the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * Please see the license at http://www.gnu.org/copyleft/lesser.html.
+ */
+package repicea.stats.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import repicea.math.Matrix;
+import repicea.stats.model.glm.GeneralizedLinearModel;
+import repicea.stats.model.glm.LinkFunction.Type;
+import repicea.stats.model.glm.copula.FGMCopulaGLModelTest;
+import repicea.util.ObjectUtility;
+
+public class ColumnarDataSetTest {
+
+	private static String getFilename() {
+		return ObjectUtility.getPackagePath(FGMCopulaGLModelTest.class).concat("donneesR_min.csv");
+	}
+
+	@Test
+	public void testSameObservationsAsDataSet() throws Exception {
+		DataSet dataSet = new DataSet(getFilename(), true);
+		ColumnarDataSet columnarDataSet = new ColumnarDataSet(getFilename(), true);
+		Assert.assertEquals("Testing the field names", dataSet.getFieldNames(), columnarDataSet.getFieldNames());
+		Assert.assertEquals("Testing the field types", dataSet.getFieldTypes(), columnarDataSet.getFieldTypes());
+		Assert.assertTrue("Testing that the file has been read", dataSet.getNumberOfObservations() > 0);
+		Assert.assertEquals("Testing the number of observations", dataSet.getNumberOfObservations(), columnarDataSet.getNumberOfObservations());
+		for (int i = 0; i < dataSet.getNumberOfObservations(); i++) {
+			Assert.assertTrue("Testing observation " + i,
+					dataSet.getObservations().get(i).isEqualToThisObservation(columnarDataSet.getObservations().get(i)));
+		}
+		for (int j = 0; j < dataSet.getFieldNames().size(); j++) {
+			Assert.assertEquals("Testing the possible values of field " + j,
+					dataSet.getPossibleValuesInThisField(j),
+					columnarDataSet.getPossibleValuesInThisField(j));
+		}
+	}
+
+	@Test
+	public void testTypeInference() {
+		ColumnarDataSet dataSet = new ColumnarDataSet(Arrays.asList(new String[] {"int", "double", "string", "mixed"}));
+		dataSet.addObservation(new Object[] {"1", "2", "a", 1});
+		dataSet.addObservation(new Object[] {2, "2.5", "b", 2.5});
+		dataSet.addObservation(new Object[] {"-3", 4, "a", "c"});
+		dataSet.indexFieldType();
+		List<Class<?>> expectedTypes = new ArrayList<Class<?>>();
+		expectedTypes.add(Integer.class);
+		expectedTypes.add(Double.class);
+		expectedTypes.add(String.class);
+		expectedTypes.add(String.class);
+		Assert.assertEquals("Testing the field types", expectedTypes, dataSet.getFieldTypes());
+		Assert.assertEquals(-3, dataSet.getValueAt(2, "int"));
+		Assert.assertEquals(2d, dataSet.getValueAt(0, "double"));
+		Assert.assertEquals("a", dataSet.getValueAt(2, "string"));
+		Assert.assertEquals("1", dataSet.getValueAt(0, "mixed"));
+		Assert.assertEquals("2.5", dataSet.getValueAt(1, "mixed"));
+
+		dataSet.addField("new", new Object[] {1d, 2d, 3d});
+		Assert.assertEquals(Double.class, dataSet.getFieldTypes().get(4));
+		dataSet.setValueAt(1, 4, 5d);
+		Assert.assertEquals(5d, dataSet.getValueAt(1, "new"));
+		dataSet.setValueAt(1, 4, "wrong type");
+		Assert.assertEquals(5d, dataSet.getValueAt(1, "new"));
+	}
+
+	@Test
+	public void testSortObservations() {
+		ColumnarDataSet dataSet = new ColumnarDataSet(Arrays.asList(new String[] {"group", "value", "id"}));
+		dataSet.addObservation(new Object[] {"b", 2, 0});
+		dataSet.addObservation(new Object[] {"a", 3, 1});
+		dataSet.addObservation(new Object[] {"b", 1, 2});
+		dataSet.addObservation(new Object[] {"a", 3, 3});
+		dataSet.indexFieldType();
+		dataSet.sortObservations(Arrays.asList(new Integer[] {0, 1}));
+		Assert.assertEquals("Testing the order", Arrays.asList(new Object[] {1, 3, 2, 0}), dataSet.getFieldValues(2));
+	}
+
+	@Test
+	public void testVectorIsACopy() {
+		ColumnarDataSet dataSet = new ColumnarDataSet(Arrays.asList(new String[] {"x"}));
+		for (int i = 0; i < 100; i++) {
+			dataSet.addObservation(new Object[] {i * 0.5});
+		}
+		dataSet.indexFieldType();
+		Matrix vector1 = dataSet.getVectorOfThisField(0);
+		Assert.assertEquals(100, vector1.m_iRows);
+		Assert.assertEquals(49.5, vector1.getValueAt(99, 0), 1E-12);
+		dataSet.setValueAt(99, 0, 1d);
+		Assert.assertEquals("Testing that the matrix does not change with the data set", 49.5, vector1.getValueAt(99, 0), 1E-12);
+		vector1.setValueAt(0, 0, 2d);
+		Assert.assertEquals("Testing that the data set does not change with the matrix", 0d, dataSet.getVectorOfThisField(0).getValueAt(0, 0), 1E-12);
+	}
+
+	@Test
+	public void testGLModelWithColumnarDataSet() throws Exception {
+		String filename = ObjectUtility.getPackagePath(FGMCopulaGLModelTest.class).concat("donneesR_min.csv");
+		ColumnarDataSet dataSet = new ColumnarDataSet(filename, true);
+		GeneralizedLinearModel glm = new GeneralizedLinearModel(dataSet, Type.Logit, "coupe ~ diffdhp + marchand:diffdhp + marchand:diffdhp2 +  essence");
+		glm.doEstimation();
+		Assert.assertEquals(-1091.9193286646055, glm.getCompleteLogLikelihood().getValue(), 1E-5);
+	}
+}
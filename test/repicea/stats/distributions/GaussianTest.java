@@ -3,6 +3,7 @@ package repicea.stats.distributions;
 import static org.junit.Assert.assertEquals;
 
 import java.security.InvalidParameterException;
+import java.util.Random;
 
 import org.junit.Assert;
 import org.junit.Test;
@@ -59,4 +60,45 @@ public class GaussianTest {
 		
 	}
 
+	@Test
+	public void multivariateProbabilityDensityTest() {
+		Matrix mu = new Matrix(new double[][] {{1}, {2}});
+		Matrix sigma2 = new Matrix(new double[][] {{2, 0.5}, {0.5, 1}});
+		GaussianDistribution dist = new GaussianDistribution(mu, sigma2);
+		Matrix y = new Matrix(new double[][] {{0.5}, {2.5}});
+		Matrix res = y.subtract(mu);
+		double expected = 1d / (2 * Math.PI * Math.sqrt(sigma2.getDeterminant())) * Math.exp(-0.5 * res.transpose().multiply(sigma2.getInverseMatrix()).multiply(res).getValueAt(0, 0));
+		assertEquals("Comparing probability density", expected, dist.getProbabilityDensity(y), 1E-12);
+	}
+
+	@Test
+	public void scaleVarianceTest() {
+		Matrix sigma2 = new Matrix(new double[][] {{2, 0.5, 0.1}, {0.5, 1, 0.2}, {0.1, 0.2, 3}});
+		GaussianDistribution dist = new GaussianDistribution(new Matrix(3,1), sigma2);
+		dist.getStandardDeviation();
+		dist.scaleVariance(0.64);
+		Assert.assertTrue("Testing the scaled variance", !dist.getVariance().subtract(sigma2.scalarMultiply(0.64)).getAbsoluteValue().anyElementLargerThan(1E-12));
+		Matrix expected = sigma2.scalarMultiply(0.64).getLowerCholTriangle();
+		Assert.assertTrue("Testing the scaled standard deviation", !dist.getStandardDeviation().subtract(expected).getAbsoluteValue().anyElementLargerThan(1E-12));
+	}
+
+	@Test
+	public void manyRandomRealizationsTest() {
+		Matrix mu = new Matrix(new double[][] {{1}, {2}});
+		Matrix sigma2 = new Matrix(new double[][] {{2, 0.5}, {0.5, 1}});
+		GaussianDistribution dist = new GaussianDistribution(mu, sigma2);
+		int nbRealizations = 100000;
+		Matrix realizations = dist.getRandomRealizations(nbRealizations, new Random(1234));
+		Assert.assertEquals("Testing the number of realizations", nbRealizations, realizations.m_iCols);
+		Matrix sum = new Matrix(2,1);
+		Matrix sumSquares = new Matrix(2,2);
+		for (int j = 0; j < nbRealizations; j++) {
+			Matrix dev = realizations.getSubMatrix(0, 1, j, j).subtract(mu);
+			sum = sum.add(dev);
+			sumSquares = sumSquares.add(dev.multiply(dev.transpose()));
+		}
+		Assert.assertTrue("Testing the mean", !sum.scalarMultiply(1d / nbRealizations).getAbsoluteValue().anyElementLargerThan(0.02));
+		Assert.assertTrue("Testing the variance", !sumSquares.scalarMultiply(1d / nbRealizations).subtract(sigma2).getAbsoluteValue().anyElementLargerThan(0.03));
+	}
+
 }
@@ -0,0 +1,357 @@
+/*
+ * This file is part of the repicea library.
+ *
+ * Copyright (C) 2009-2021 Mathieu Fortin for Rouge Epicea.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed with the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * Please see the license at http://www.gnu.org/copyleft/lesser.html.
+ */
+package repicea.stats.mcmc;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import repicea.math.Matrix;
+import repicea.stats.StatisticalUtility;
+import repicea.stats.distributions.GaussianDistribution;
+import repicea.stats.distributions.UniformDistribution;
+import repicea.stats.distributions.utility.GaussianUtility;
+import repicea.util.ObjectUtility;
+
+public class MetropolisHastingsAlgorithmTest {
+
+	/**
+	 * A simple model with a Gaussian likelihood, a known variance of 1 and an unknown mean.
+	 */
+	private static class GaussianMeanModel implements MetropolisHastingsCompatibleModel {
+
+		private final double[] y;
+		private final MetropolisHastingsAlgorithm mh;
+		private final boolean threadSafe;
+		private final long pauseNanos;
+		private final AtomicInteger nbActiveCalls = new AtomicInteger();
+		private final AtomicInteger maxActiveCalls = new AtomicInteger();
+
+		private GaussianMeanModel(int nbObservations, double trueMean) {
+			this(nbObservations, trueMean, true, 0L);
+		}
+
+		/**
+		 * Constructor.
+		 * @param nbObservations the number of observations
+		 * @param trueMean the mean of the observations
+		 * @param threadSafe the value returned by the isThreadSafe method
+		 * @param pauseNanos a pause in each call to the getLogLikelihood method to mimic an expensive model
+		 */
+		private GaussianMeanModel(int nbObservations, double trueMean, boolean threadSafe, long pauseNanos) {
+			this.threadSafe = threadSafe;
+			this.pauseNanos = pauseNanos;
+			y = new double[nbObservations];
+			for (int i = 0; i < nbObservations; i++) {
+				y[i] = trueMean + StatisticalUtility.getRandom().nextGaussian();
+			}
+			mh = new MetropolisHastingsAlgorithm(this);
+		}
+
+		private double getSampleMean() {
+			double sum = 0d;
+			for (double value : y) {
+				sum += value;
+			}
+			return sum / y.length;
+		}
+
+		@Override
+		public double getLogLikelihood(Matrix parms) {
+			int nbActive = nbActiveCalls.incrementAndGet();
+			maxActiveCalls.accumulateAndGet(nbActive, Math::max);
+			if (pauseNanos > 0) {
+				LockSupport.parkNanos(pauseNanos);
+			}
+			double llk = 0d;
+			for (int i = 0; i < y.length; i++) {
+				llk += Math.log(getLikelihoodOfThisSubject(parms, i));
+			}
+			nbActiveCalls.decrementAndGet();
+			return llk;
+		}
+
+		@Override
+		public int getNbSubjects() {return y.length;}
+
+		@Override
+		public double getLikelihoodOfThisSubject(Matrix parms, int subjectId) {
+			return GaussianUtility.getProbabilityDensity(y[subjectId], parms.getValueAt(0, 0), 1d);
+		}
+
+		@Override
+		public GaussianDistribution getStartingParmEst(double coefVar) {
+			mh.getPriorHandler().addFixedEffectDistribution(new UniformDistribution(-10, 10), 0);
+			return new GaussianDistribution(0d, 0.1);
+		}
+
+		@Override
+		public boolean isThreadSafe() {return threadSafe;}
+
+		/**
+		 * Fit the model in a fork-join pool so that the chains are run by the threads of this pool.
+		 * @param nbThreads the number of threads of the pool
+		 * @return the time of the fit in milliseconds
+		 */
+		private long fitModelInPool(int nbThreads) throws Exception {
+			ForkJoinPool pool = new ForkJoinPool(nbThreads);
+			try {
+				long startTime = System.currentTimeMillis();
+				pool.submit(new Callable<Void>() {
+					@Override
+					public Void call() {
+						mh.fitModel();
+						return null;
+					}
+				}).get();
+				return System.currentTimeMillis() - startTime;
+			} finally {
+				pool.shutdown();
+			}
+		}
+	}
+
+	private static MetropolisHastingsParameters createParameters(int nbChains) {
+		MetropolisHastingsParameters parms = new MetropolisHastingsParameters();
+		parms.nbBurnIn = 1000;
+		parms.nbRealizations = 10000 + parms.nbBurnIn;
+		parms.oneEach = 10;
+		parms.nbInitialGrid = 200;
+		parms.nbChains = nbChains;
+		return parms;
+	}
+
+	@Test
+	public void singleChainTest() {
+		GaussianMeanModel model = new GaussianMeanModel(50, 2d);
+		model.mh.setSimulationParameters(createParameters(1));
+		model.mh.fitModel();
+		Assert.assertTrue("Testing convergence", model.mh.hasConverged());
+		Assert.assertEquals("Testing the number of final samples", 1000, model.mh.finalSampleStore.size());
+		Assert.assertEquals("Testing the posterior mean", model.getSampleMean(), model.mh.getFinalParameterEstimates().getValueAt(0, 0), 0.05);
+		Assert.assertEquals("Testing R-hat", 1d, model.mh.getGelmanRubinStatistics().getValueAt(0, 0), 0.1);
+	}
+
+	@Test
+	public void multipleChainsTest() {
+		GaussianMeanModel model = new GaussianMeanModel(50, 2d);
+		model.mh.setSimulationParameters(createParameters(4));
+		model.mh.fitModel();
+		Assert.assertTrue("Testing convergence", model.mh.hasConverged());
+		Assert.assertEquals("Testing the number of final samples", 4000, model.mh.finalSampleStore.size());
+		Assert.assertEquals("Testing the posterior mean", model.getSampleMean(), model.mh.getFinalParameterEstimates().getValueAt(0, 0), 0.05);
+		Assert.assertEquals("Testing the posterior variance", 1d / 50, model.mh.getParameterCovarianceMatrix().getValueAt(0, 0), 0.005);
+		Assert.assertEquals("Testing R-hat", 1d, model.mh.getGelmanRubinStatistics().getValueAt(0, 0), 0.05);
+		double ess = model.mh.getEffectiveSampleSize().getValueAt(0, 0);
+		Assert.assertTrue("Testing the effective sample size", ess > 100 && ess < 10000);
+	}
+
+	@Test
+	public void parallelInitialSearchTest() {
+		GaussianMeanModel model = new GaussianMeanModel(50, 2d);
+		model.mh.setSimulationParameters(createParameters(2));
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			model.mh.setInitialSearchExecutor(executor);
+			model.mh.fitModel();
+		} finally {
+			executor.shutdown();
+		}
+		Assert.assertTrue("Testing convergence", model.mh.hasConverged());
+		Assert.assertEquals("Testing the posterior mean", model.getSampleMean(), model.mh.getFinalParameterEstimates().getValueAt(0, 0), 0.05);
+	}
+
+	/**
+	 * The chains and their initial searches draw from generators that are split from a single root generator. 
+	 * The fit is therefore reproducible even though the chains and the searches run in different threads.
+	 */
+	@Test
+	public void chainsAreReproducibleTest() throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		double[] firstSample = null;
+		try {
+			for (int fit = 0; fit < 2; fit++) {
+				StatisticalUtility.setMasterSeed(20211018L);
+				GaussianMeanModel model = new GaussianMeanModel(50, 2d);
+				model.mh.setSimulationParameters(createParameters(2));
+				model.mh.setInitialSearchExecutor(executor);
+				model.fitModelInPool(2);
+				Assert.assertTrue("Testing convergence", model.mh.hasConverged());
+				double[] sample = new double[model.mh.finalSampleStore.size()];
+				for (int i = 0; i < sample.length; i++) {
+					sample[i] = model.mh.finalSampleStore.getParameter(i, 0);
+				}
+				if (firstSample == null) {
+					firstSample = sample;
+				} else {
+					Assert.assertArrayEquals("Testing that the chains are reproduced", firstSample, sample, 0d);
+				}
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void threadSafeModelIsEvaluatedByManyChainsAtATimeTest() throws Exception {
+		GaussianMeanModel model = new GaussianMeanModel(50, 2d, true, 20000L);
+		model.mh.setSimulationParameters(createParameters(2));
+		model.fitModelInPool(2);
+		Assert.assertTrue("Testing convergence", model.mh.hasConverged());
+		Assert.assertEquals("Testing the concurrent calls", 2, model.maxActiveCalls.get());
+	}
+
+	@Test
+	public void nonThreadSafeModelIsEvaluatedByOneChainAtATimeTest() throws Exception {
+		GaussianMeanModel model = new GaussianMeanModel(50, 2d, false, 0L);
+		model.mh.setSimulationParameters(createParameters(2));
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			model.mh.setInitialSearchExecutor(executor);
+			model.fitModelInPool(2);
+		} finally {
+			executor.shutdown();
+		}
+		Assert.assertTrue("Testing convergence", model.mh.hasConverged());
+		Assert.assertEquals("Testing the number of final samples", 2000, model.mh.finalSampleStore.size());
+		Assert.assertEquals("Testing the concurrent calls", 1, model.maxActiveCalls.get());
+	}
+
+	@Test
+	public void randomEffectPriorsAreNotModifiedTest() {
+		MetropolisHastingsPriorHandler priors = new MetropolisHastingsPriorHandler();
+		UniformDistribution variancePrior = new UniformDistribution(1, 4);
+		priors.addFixedEffectDistribution(variancePrior, 0);
+		GaussianDistribution randomEffect = new GaussianDistribution(0, 1);
+		priors.addRandomEffectVariance(randomEffect, variancePrior, 1);
+		Matrix parms = new Matrix(2,1);
+		parms.setValueAt(0, 0, 3d);
+		parms.setValueAt(1, 0, 0.5);
+		Assert.assertEquals("Testing the log density of the random effects", 
+				Math.log(GaussianUtility.getProbabilityDensity(0.5, 0d, 3d)), 
+				priors.getLogProbabilityDensityOfRandomEffects(parms), 1E-12);
+		double sumOfSquares = 0d;
+		int nbRealizations = 20000;
+		for (int i = 0; i < nbRealizations; i++) {
+			Matrix realization = priors.getRandomRealization(StatisticalUtility.getRandom());
+			double variance = realization.getValueAt(0, 0);
+			Assert.assertTrue("Testing the variance", variance >= 1d && variance <= 4d);
+			sumOfSquares += realization.getValueAt(1, 0) * realization.getValueAt(1, 0) / variance;
+		}
+		Assert.assertEquals("Testing the standardized random effects", 1d, sumOfSquares / nbRealizations, 0.05);
+		Assert.assertEquals("Testing that the distribution has not been modified", 1d, randomEffect.getVariance().getValueAt(0, 0), 0d);
+	}
+
+	@Test
+	public void sampleStoreBurnInAndThinningTest() {
+		int capacity = MetropolisHastingsSampleStore.getNumberOfRetainedSamples(3000, 10, 5);
+		Assert.assertEquals("Testing the capacity", 598, capacity);
+		MetropolisHastingsSampleStore store = new MetropolisHastingsSampleStore(2, 10, 5, capacity);
+		Matrix parms = new Matrix(2,1);
+		for (int i = 0; i < 3000; i++) {
+			parms.setValueAt(0, 0, i);
+			parms.setValueAt(1, 0, -i);
+			store.offer(i * .5, parms);
+		}
+		Assert.assertEquals("Testing the number of offered samples", 3000, store.getNumberOfOfferedSamples());
+		Assert.assertEquals("Testing the number of stored samples", 598, store.size());
+		Assert.assertEquals("Testing the first stored sample", 10d, store.getParameter(0, 0), 0d);
+		Assert.assertEquals("Testing the last stored sample", -2995d, store.getParameters(597).getValueAt(1, 0), 0d);
+		Assert.assertEquals("Testing the log-likelihood", 2995 * .5, store.getLogLikelihood(597), 0d);
+		MetropolisHastingsSample sample = store.getSample(597);
+		Assert.assertEquals("Testing the log-likelihood of the retrieved sample", 2995 * .5, sample.llk, 0d);
+		Assert.assertEquals("Testing the parameter of the retrieved sample", 2995d, sample.parms.getValueAt(0, 0), 0d);
+	}
+
+	@Test
+	public void sampleStoreIsBoundedTest() {
+		MetropolisHastingsSampleStore store = new MetropolisHastingsSampleStore(1, 5);
+		Matrix parms = new Matrix(1,1);
+		for (int i = 0; i < 12; i++) {
+			parms.setValueAt(0, 0, i);
+			store.offer(-i, parms);
+		}
+		Assert.assertEquals("Testing the number of offered samples", 12, store.getNumberOfOfferedSamples());
+		Assert.assertEquals("Testing the number of stored samples", 5, store.size());
+		Assert.assertEquals("Testing the capacity", 5, store.getCapacity());
+		for (int i = 0; i < 5; i++) {
+			Assert.assertEquals("Testing the oldest samples have been overwritten", 7d + i, store.getParameter(i, 0), 0d);
+		}
+		Assert.assertArrayEquals("Testing the records are returned from the oldest to the newest", 
+				new double[] {-7, 7, -8, 8, -9, 9, -10, 10, -11, 11}, store.toArray(), 0d);
+		MetropolisHastingsSampleStore copy = new MetropolisHastingsSampleStore(1, store.toArray());
+		Assert.assertEquals("Testing the restored store", 11d, copy.getParameter(4, 0), 0d);
+	}
+
+	@Test
+	public void exportSampleTest() throws IOException {
+		GaussianMeanModel model = new GaussianMeanModel(50, 2d);
+		model.mh.setSimulationParameters(createParameters(1));
+		model.mh.fitModel();
+		String filename = ObjectUtility.getPackagePath(getClass()) + "mhSampleExportTest.csv";
+		model.mh.exportMetropolisHastingsSample(filename);
+		BufferedReader reader = new BufferedReader(new FileReader(filename));
+		Assert.assertEquals("Testing the header", "LLK;p1", reader.readLine());
+		int nbRecords = 0;
+		String line;
+		while ((line = reader.readLine()) != null) {
+			String[] fields = line.split(";");
+			Assert.assertEquals("Testing the log-likelihood", model.mh.finalSampleStore.getLogLikelihood(nbRecords), Double.parseDouble(fields[0]), 0d);
+			Assert.assertEquals("Testing the parameter", model.mh.finalSampleStore.getParameter(nbRecords, 0), Double.parseDouble(fields[1]), 0d);
+			nbRecords++;
+		}
+		reader.close();
+		new File(filename).delete();
+		Assert.assertEquals("Testing the number of records", 1000, nbRecords);
+	}
+
+	/**
+	 * Compare the time to fit four chains when the model is evaluated by one chain at a time 
+	 * and by all the chains at a time. The first comparison relies on a CPU-bound likelihood
+	 * and the second on a likelihood with a fixed latency. On a single processor, only the
+	 * second comparison can show a speedup.
+	 */
+	public static void main(String[] args) throws Exception {
+		int nbThreads = Runtime.getRuntime().availableProcessors();
+		System.out.println("Available processors: " + nbThreads);
+		int[] nbObservations = new int[] {500, 50};
+		long[] pauseNanos = new long[] {0L, 100000L};
+		for (int k = 0; k < nbObservations.length; k++) {
+			long[] times = new long[2];
+			for (int j = 0; j < 2; j++) {
+				boolean threadSafe = j == 1;
+				GaussianMeanModel model = new GaussianMeanModel(nbObservations[k], 2d, threadSafe, pauseNanos[k]);
+				model.mh.setSimulationParameters(createParameters(4));
+				times[j] = model.fitModelInPool(4);
+				System.out.println(nbObservations[k] + " observations, pause of " + pauseNanos[k] + " ns, thread safe = " + threadSafe + ": " + times[j] + " ms");
+			}
+			System.out.println("Speedup = " + (double) times[0] / times[1]);
+		}
+	}
+}
@@ -96,5 +96,27 @@ public class StringSplitterTest {
 		Assert.assertTrue(referenceStrings.equals(splitStrings));
 	}
 
+	@Test
+	public void simpleTestWithTokenAsString6() {
+		String lineRead = "\"a;\";";
+		List<String> referenceStrings = new ArrayList<String>();
+		referenceStrings.add("a;");
+		referenceStrings.add("");
+		List<String> splitStrings = ObjectUtility.splitLine(lineRead, ";");
+		Assert.assertTrue(referenceStrings.equals(splitStrings));
+	}
+
+	@Test
+	public void testWithArrayOfCharacters() {
+		String lineRead = "xx,,,\"a,\",b\nyy";
+		List<String> referenceStrings = new ArrayList<String>();
+		referenceStrings.add("");
+		referenceStrings.add("");
+		referenceStrings.add("a,");
+		referenceStrings.add("b");
+		List<String> splitStrings = ObjectUtility.splitLine(lineRead.toCharArray(), 3, 8, ',');
+		Assert.assertTrue(referenceStrings.equals(splitStrings));
+	}
+
 	
 }